@@ -0,0 +1,109 @@
+package no.uio.ifi.lt.indexing;
+
+/**
+ * Implements {@link ICollectionStatistics} with arrays, computed from the
+ * posting lists when an index is built or opened.
+ */
+final class CollectionStatistics implements ICollectionStatistics {
+	/** The number of documents. */
+	private final int documentCount;
+
+	/** The per-term statistics, by lexicon identifier. */
+	private final int[] documentFrequencies;
+	private final long[] collectionFrequencies;
+	private final double[] inverseDocumentFrequencies;
+
+	/** The document lengths, by document identifier. */
+	private final int[] documentLengths;
+
+	/** The sum of the document lengths. */
+	private final long totalDocumentLength;
+
+	/**
+	 * Constructor. Computes the statistics from the posting lists, which
+	 * means decoding their occurrence counts, but not their positions.
+	 * @param postingLists the posting lists, by lexicon identifier
+	 * @param documentIdCount the number of document identifiers, i.e., one more than the largest one
+	 * @param documentCount the number of documents, not counting any that have been purged
+	 */
+	CollectionStatistics(PostingList[] postingLists, int documentIdCount, int documentCount) {
+		this.documentCount = documentCount;
+		this.documentFrequencies = new int[postingLists.length];
+		this.collectionFrequencies = new long[postingLists.length];
+		this.inverseDocumentFrequencies = new double[postingLists.length];
+		this.documentLengths = new int[documentIdCount];
+		long totalDocumentLength = 0;
+		for (int lexiconId = 0; lexiconId < postingLists.length; ++lexiconId) {
+			long collectionFrequency = 0;
+			for (PostingCursor cursor = new PostingCursor(postingLists[lexiconId]); !cursor.isExhausted(); cursor.next()) {
+				collectionFrequency += cursor.getOccurrenceCount();
+				this.documentLengths[cursor.getDocumentId()] += cursor.getOccurrenceCount();
+			}
+			this.documentFrequencies[lexiconId] = postingLists[lexiconId].size();
+			this.collectionFrequencies[lexiconId] = collectionFrequency;
+			this.inverseDocumentFrequencies[lexiconId] = getInverseDocumentFrequency(documentCount, postingLists[lexiconId].size());
+			totalDocumentLength += collectionFrequency;
+		}
+		this.totalDocumentLength = totalDocumentLength;
+	}
+
+	/**
+	 * Computes an inverse document frequency.
+	 * @param documentCount the number of documents
+	 * @param documentFrequency the number of documents that the term occurs in
+	 * @return the inverse document frequency
+	 */
+	static double getInverseDocumentFrequency(int documentCount, int documentFrequency) {
+		return Math.log((double) documentCount / documentFrequency);
+	}
+
+	/**
+	 * Returns the sum of the document lengths.
+	 * @return the total document length
+	 */
+	long getTotalDocumentLength() {
+		return this.totalDocumentLength;
+	}
+
+	/**
+	 * Implements the {@link ICollectionStatistics} interface.
+	 */
+	public int getDocumentCount() {
+		return this.documentCount;
+	}
+
+	/**
+	 * Implements the {@link ICollectionStatistics} interface.
+	 */
+	public int getDocumentFrequency(int lexiconId) {
+		return this.documentFrequencies[lexiconId];
+	}
+
+	/**
+	 * Implements the {@link ICollectionStatistics} interface.
+	 */
+	public long getCollectionFrequency(int lexiconId) {
+		return this.collectionFrequencies[lexiconId];
+	}
+
+	/**
+	 * Implements the {@link ICollectionStatistics} interface.
+	 */
+	public double getInverseDocumentFrequency(int lexiconId) {
+		return this.inverseDocumentFrequencies[lexiconId];
+	}
+
+	/**
+	 * Implements the {@link ICollectionStatistics} interface.
+	 */
+	public int getDocumentLength(int documentId) {
+		return this.documentLengths[documentId];
+	}
+
+	/**
+	 * Implements the {@link ICollectionStatistics} interface.
+	 */
+	public double getAverageDocumentLength() {
+		return (this.documentCount == 0) ? 0.0 : (double) this.totalDocumentLength / this.documentCount;
+	}
+}
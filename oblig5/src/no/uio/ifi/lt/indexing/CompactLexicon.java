@@ -0,0 +1,231 @@
+package no.uio.ifi.lt.indexing;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact in-memory implementation of {@link ILexicon}, suitable for large
+ * vocabularies, e.g., of shingles. All token values are stored back to back
+ * in a single character arena, and an open addressing hash table with linear
+ * probing maps token values to their lexicon identifiers. There are no
+ * per-value objects, and lookups can be done from any {@link CharSequence}
+ * without creating a {@link String}.
+ * <p>
+ * Safe for concurrent lookups, as long as no values are added at the same time.
+ */
+public class CompactLexicon implements ILexicon {
+	/**
+	 * All token values, back to back, ordered by their lexicon identifiers.
+	 */
+	private char[] arena;
+
+	/**
+	 * The number of characters used in {@link #arena}.
+	 */
+	private int arenaSize;
+
+	/**
+	 * For each lexicon identifier, where in {@link #arena} its value starts.
+	 * The value ends where the next one starts, so there is one extra entry.
+	 */
+	private int[] offsets;
+
+	/**
+	 * For each lexicon identifier, the hash code of its value. Saves us from
+	 * rehashing the values when the table grows, and from comparing most of
+	 * the values that collide.
+	 */
+	private int[] hashCodes;
+
+	/**
+	 * The hash table. Each slot holds a lexicon identifier plus one, so that
+	 * zero marks an empty slot. The size is always a power of two.
+	 */
+	private int[] table;
+
+	/**
+	 * The number of unique token values in the lexicon.
+	 */
+	private int size;
+
+	/**
+	 * Constructor.
+	 */
+	public CompactLexicon() {
+		this(16);
+	}
+
+	/**
+	 * Constructor.
+	 * @param capacity the expected number of unique token values
+	 */
+	public CompactLexicon(int capacity) {
+		capacity = Math.max(capacity, 4);
+		this.arena = new char[4 * capacity];
+		this.offsets = new int[capacity + 1];
+		this.hashCodes = new int[capacity];
+		this.table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+	}
+
+	/**
+	 * Implements the {@link ILexicon} interface.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Implements the {@link ILexicon} interface.
+	 */
+	public int lookup(String value) {
+		return this.lookup(value, 0, value.length());
+	}
+
+	/**
+	 * Implements the {@link ILexicon} interface.
+	 */
+	public int lookup(CharSequence value, int start, int end) {
+		int slot = this.findSlot(value, start, end, hashCode(value, start, end));
+		return this.table[slot] - 1;
+	}
+
+	/**
+	 * Implements the {@link ILexicon} interface.
+	 */
+	public int addValue(String value) {
+		int end = value.length();
+		int hashCode = hashCode(value, 0, end);
+		int slot = this.findSlot(value, 0, end, hashCode);
+		if (this.table[slot] != 0) {
+			return this.table[slot] - 1;
+		}
+		// New value. Append it to the arena.
+		int lexiconId = this.size++;
+		if (this.size == this.hashCodes.length) {
+			this.offsets = Arrays.copyOf(this.offsets, 2 * this.size + 1);
+			this.hashCodes = Arrays.copyOf(this.hashCodes, 2 * this.size);
+		}
+		if (this.arenaSize + end > this.arena.length) {
+			this.arena = Arrays.copyOf(this.arena, Math.max(2 * this.arena.length, this.arenaSize + end));
+		}
+		value.getChars(0, end, this.arena, this.arenaSize);
+		this.arenaSize += end;
+		this.offsets[lexiconId + 1] = this.arenaSize;
+		this.hashCodes[lexiconId] = hashCode;
+		this.table[slot] = lexiconId + 1;
+
+		// Keep the load factor below 1/2, so that probe sequences stay short.
+		if (2 * this.size > this.table.length) {
+			this.rehash(2 * this.table.length);
+		}
+		return lexiconId;
+	}
+
+	/**
+	 * Returns the token value that a given lexicon identifier maps to.
+	 * @param lexiconId the lexicon identifier
+	 * @return the token value
+	 */
+	public String getValue(int lexiconId) {
+		if (lexiconId < 0 || lexiconId >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		int offset = this.offsets[lexiconId];
+		return new String(this.arena, offset, this.offsets[lexiconId + 1] - offset);
+	}
+
+	/**
+	 * Returns the number of bytes used by the lexicon's arrays, for comparison
+	 * with other implementations.
+	 * @return the approximate memory footprint in bytes
+	 */
+	public long getMemoryUsage() {
+		return 2L * this.arena.length + 4L * (this.offsets.length + this.hashCodes.length + this.table.length);
+	}
+
+	/**
+	 * Implements the {@link Iterable<String>} interface. The token values
+	 * are ordered by their lexicon identifiers.
+	 */
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int lexiconId = 0;
+
+			public boolean hasNext() {
+				return this.lexiconId < CompactLexicon.this.size;
+			}
+
+			public String next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return getValue(this.lexiconId++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Returns the slot in the hash table where the given value is, or the
+	 * empty slot where it would go.
+	 */
+	private int findSlot(CharSequence value, int start, int end, int hashCode) {
+		int mask = this.table.length - 1;
+		int slot = hashCode & mask;
+		while (true) {
+			int entry = this.table[slot];
+			if (entry == 0 || (this.hashCodes[entry - 1] == hashCode && this.equals(entry - 1, value, start, end))) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns true if the value for the given lexicon identifier equals the given value.
+	 */
+	private boolean equals(int lexiconId, CharSequence value, int start, int end) {
+		int offset = this.offsets[lexiconId];
+		if (this.offsets[lexiconId + 1] - offset != end - start) {
+			return false;
+		}
+		for (int i = start; i < end; ++i) {
+			if (this.arena[offset++] != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Rebuilds the hash table with the given number of slots.
+	 */
+	private void rehash(int slots) {
+		int[] table = new int[slots];
+		int mask = slots - 1;
+		for (int lexiconId = 0; lexiconId < this.size; ++lexiconId) {
+			int slot = this.hashCodes[lexiconId] & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = lexiconId + 1;
+		}
+		this.table = table;
+	}
+
+	/**
+	 * Hashes the given characters. Same as {@link String#hashCode()}, but with
+	 * the bits mixed, since we only use the lowest bits to pick a slot.
+	 */
+	private static int hashCode(CharSequence value, int start, int end) {
+		int hashCode = 0;
+		for (int i = start; i < end; ++i) {
+			hashCode = 31 * hashCode + value.charAt(i);
+		}
+		hashCode *= 0x9E3779B9;
+		return hashCode ^ (hashCode >>> 16);
+	}
+}
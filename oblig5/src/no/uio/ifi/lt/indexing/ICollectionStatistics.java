@@ -0,0 +1,52 @@
+package no.uio.ifi.lt.indexing;
+
+/**
+ * Defines the statistics about a document collection that rankers need,
+ * e.g., for computing inverse document frequencies or normalizing by
+ * document length. The statistics are precomputed, so that looking them
+ * up is cheap enough to do for every posting visited.
+ * @see IInvertedIndex#getStatistics()
+ */
+public interface ICollectionStatistics {
+	/**
+	 * Returns the number of documents in the collection, i.e., N.
+	 * @return the number of documents
+	 */
+	int getDocumentCount();
+
+	/**
+	 * Returns the number of documents that the given term occurs in.
+	 * @param lexiconId identifies the term
+	 * @return the term's document frequency
+	 */
+	int getDocumentFrequency(int lexiconId);
+
+	/**
+	 * Returns the number of times the given term occurs in the collection.
+	 * @param lexiconId identifies the term
+	 * @return the term's collection frequency
+	 */
+	long getCollectionFrequency(int lexiconId);
+
+	/**
+	 * Returns the inverse document frequency of the given term, i.e.,
+	 * log(N / df), where N is {@link #getDocumentCount()} and df is
+	 * {@link #getDocumentFrequency(int)}.
+	 * @param lexiconId identifies the term
+	 * @return the term's inverse document frequency
+	 */
+	double getInverseDocumentFrequency(int lexiconId);
+
+	/**
+	 * Returns the length of the given document, as the number of terms indexed.
+	 * @param documentId identifies the document
+	 * @return the document's length
+	 */
+	int getDocumentLength(int documentId);
+
+	/**
+	 * Returns the average length of the documents, as given by {@link #getDocumentLength(int)}.
+	 * @return the average document length
+	 */
+	double getAverageDocumentLength();
+}
@@ -1,5 +1,7 @@
 package no.uio.ifi.lt.indexing;
+import java.util.BitSet;
 import no.uio.ifi.lt.preprocessing.INormalizer;
+import no.uio.ifi.lt.storage.IDocument;
 import no.uio.ifi.lt.storage.IDocumentStore;
 import no.uio.ifi.lt.tokenization.ITokenizer;
 
@@ -46,4 +48,49 @@ public interface IInvertedIndex {
 	 * @return the {@link PostingList} for the given lexicon identifier
 	 */
 	PostingList getPostingList(int lexiconId);
-}
\ No newline at end of file
+
+	/**
+	 * Returns the generation of the index, i.e., a number that changes
+	 * whenever the contents of the index change. Lets clients detect that
+	 * anything they have derived from the index is stale, e.g., cached
+	 * query results.
+	 * @return the current generation of the index
+	 */
+	long getGeneration();
+
+	/**
+	 * Returns the identifiers of documents that have been deleted, but whose
+	 * postings may still be in the index. Query evaluation must skip these.
+	 * The returned set must not be modified.
+	 * @return the deleted document identifiers, or null if there are none
+	 */
+	BitSet getDeletedDocuments();
+
+	/**
+	 * Returns an upper bound on the static ranks of the given document and
+	 * all documents with larger identifiers. The bound is tight if the
+	 * documents were numbered in order of descending static rank, which lets
+	 * query evaluation stop early.
+	 * @param documentId the document identifier to bound the static ranks from
+	 * @return the bound, or negative infinity if there are no such documents
+	 * @see IDocument#getStaticRank()
+	 */
+	double getStaticRankBound(int documentId);
+
+	/**
+	 * Returns the statistics about the documents and terms in the index,
+	 * e.g., for ranking. The statistics are consistent with the posting lists,
+	 * so a snapshot's statistics must be used with the snapshot's posting lists.
+	 * @return the collection statistics
+	 */
+	ICollectionStatistics getStatistics();
+
+	/**
+	 * Returns a view of the index that doesn't change, e.g., for evaluating
+	 * a single query. Lexicon identifiers from one view are only valid for
+	 * posting lists from the same view. An index that never changes after
+	 * it has been created can return itself.
+	 * @return a read-only view of the index as it is now
+	 */
+	IInvertedIndex getSnapshot();
+}
@@ -29,6 +29,16 @@ public interface ILexicon extends Iterable<String> {
 	 * @return the integer lexicon identifier that the token value maps to, or {@link #INVALID}
 	 */
 	int lookup(String value);
+
+	/**
+	 * Looks up a slice of a character sequence in the lexicon, as if by
+	 * {@link #lookup(String)}, e.g., a token in some larger buffer.
+	 * @param value the character sequence containing the token value
+	 * @param start the start of the token value, inclusive
+	 * @param end the end of the token value, exclusive
+	 * @return the integer lexicon identifier that the token value maps to, or {@link #INVALID}
+	 */
+	int lookup(CharSequence value, int start, int end);
 		
 	/**
 	 * Adds a value to the lexicon, and returns the integer lexicon identifier associated
@@ -0,0 +1,198 @@
+package no.uio.ifi.lt.indexing;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import no.uio.ifi.lt.utils.VariableByte;
+
+/**
+ * The document identifiers of a posting list in impact order, for
+ * score-at-a-time query evaluation. Each posting's impact is its
+ * contribution to a document's relevance score, precomputed when the
+ * index is built and quantized to an integer between 0 and {@link #MAX_IMPACT}.
+ * The postings are grouped into segments of equal impact, highest impact
+ * first, and the document identifiers in a segment are in ascending order,
+ * gap encoded and {@link VariableByte} encoded. Query evaluation can thus
+ * process the postings that matter most first, and score documents by just
+ * adding up integers.
+ * @see InvertedIndexSettings#impactRanker
+ */
+public class ImpactList {
+	/**
+	 * The largest impact, i.e., what the largest contribution in the index
+	 * is quantized to.
+	 */
+	public static final int MAX_IMPACT = 255;
+
+	/** For each segment, its impact. In descending order. */
+	private final int[] impacts;
+
+	/** For each segment, the number of postings in it. */
+	private final int[] sizes;
+
+	/** For each segment, where in {@link #data} its document identifiers start. */
+	private final int[] offsets;
+
+	/**
+	 * The encoded document identifiers. Only accessed through absolute gets,
+	 * so it can be shared by threads.
+	 */
+	private final ByteBuffer data;
+
+	/**
+	 * Constructor. Groups the given postings by impact.
+	 * @param documentIds the document identifiers, in ascending order
+	 * @param impacts the impact of each posting, between 0 and {@link #MAX_IMPACT}
+	 * @param count the number of postings
+	 */
+	ImpactList(int[] documentIds, int[] impacts, int count) {
+		int[] counts = new int[MAX_IMPACT + 1];
+		int segmentCount = 0;
+		for (int i = 0; i < count; ++i) {
+			if (counts[impacts[i]]++ == 0) {
+				++segmentCount;
+			}
+		}
+		this.impacts = new int[segmentCount];
+		this.sizes = new int[segmentCount];
+		this.offsets = new int[segmentCount];
+
+		// Counting sort by descending impact, which keeps each segment in document order.
+		int[] starts = new int[MAX_IMPACT + 1];
+		for (int impact = MAX_IMPACT - 1; impact >= 0; --impact) {
+			starts[impact] = starts[impact + 1] + counts[impact + 1];
+		}
+		int[] sorted = new int[count];
+		for (int i = 0; i < count; ++i) {
+			sorted[starts[impacts[i]]++] = documentIds[i];
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(2 * count);
+		for (int impact = MAX_IMPACT, segment = 0, i = 0; impact >= 0; --impact) {
+			if (counts[impact] == 0) {
+				continue;
+			}
+			this.impacts[segment] = impact;
+			this.sizes[segment] = counts[impact];
+			this.offsets[segment] = out.size();
+			int previousDocumentId = 0;
+			for (int end = i + counts[impact]; i < end; ++i) {
+				VariableByte.write(out, sorted[i] - previousDocumentId);
+				previousDocumentId = sorted[i];
+			}
+			++segment;
+		}
+		this.data = ByteBuffer.wrap(out.toByteArray());
+	}
+
+	/**
+	 * Constructor. Reads an impact list as written by {@link #writeTo(DataOutput)},
+	 * starting at the given offset. The segment table is copied, but the
+	 * document identifiers are not.
+	 * @param buffer the buffer to read from, e.g., a memory-mapped file
+	 * @param offset where in the buffer the impact list starts
+	 */
+	ImpactList(ByteBuffer buffer, int offset) {
+		int segmentCount = buffer.getInt(offset);
+		int dataLength = buffer.getInt(offset + 4);
+		offset += 8;
+		this.impacts = new int[segmentCount];
+		this.sizes = new int[segmentCount];
+		this.offsets = new int[segmentCount];
+		for (int i = 0; i < segmentCount; ++i, offset += 12) {
+			this.impacts[i] = buffer.getInt(offset);
+			this.sizes[i] = buffer.getInt(offset + 4);
+			this.offsets[i] = buffer.getInt(offset + 8);
+		}
+		ByteBuffer data = buffer.duplicate();
+		data.position(offset);
+		data.limit(offset + dataLength);
+		this.data = data.slice();
+	}
+
+	/**
+	 * Returns the number of segments, i.e., of distinct impacts.
+	 * @return the number of segments
+	 */
+	public int getSegmentCount() {
+		return this.impacts.length;
+	}
+
+	/**
+	 * Returns the impact of the postings in the given segment.
+	 * @param segment the index of the segment
+	 * @return the impact
+	 */
+	public int getImpact(int segment) {
+		return this.impacts[segment];
+	}
+
+	/**
+	 * Returns the largest impact of any posting, i.e., an upper bound on
+	 * the term's contribution to any document's score.
+	 * @return the largest impact, or 0 if there are no postings
+	 */
+	public int getMaxImpact() {
+		return (this.impacts.length == 0) ? 0 : this.impacts[0];
+	}
+
+	/**
+	 * Returns the number of postings in the given segment.
+	 * @param segment the index of the segment
+	 * @return the number of postings
+	 */
+	public int getSegmentSize(int segment) {
+		return this.sizes[segment];
+	}
+
+	/**
+	 * Decodes the document identifiers in the given segment.
+	 * @param segment the index of the segment
+	 * @param documentIds where to put the document identifiers, with room for at least {@link #getSegmentSize(int)}
+	 * @return the number of document identifiers decoded
+	 */
+	public int getDocumentIds(int segment, int[] documentIds) {
+		ByteBuffer data = this.data;
+		int offset = this.offsets[segment];
+		int documentId = 0;
+		for (int i = 0; i < this.sizes[segment]; ++i) {
+			int gap = 0;
+			byte b;
+			do {
+				b = data.get(offset++);
+				gap = (gap << 7) | VariableByte.payload(b);
+			} while (!VariableByte.isLast(b));
+			documentId += gap;
+			documentIds[i] = documentId;
+		}
+		return this.sizes[segment];
+	}
+
+	/**
+	 * Returns the number of bytes written by {@link #writeTo(DataOutput)}.
+	 * @return the serialized size of the impact list in bytes
+	 */
+	int getSerializedSize() {
+		return 8 + 12 * this.impacts.length + this.data.capacity();
+	}
+
+	/**
+	 * Writes the impact list, so that it can be read back by
+	 * {@link #ImpactList(ByteBuffer, int)}.
+	 * @param out where to write the impact list
+	 * @throws IOException
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		out.writeInt(this.impacts.length);
+		out.writeInt(this.data.capacity());
+		for (int i = 0; i < this.impacts.length; ++i) {
+			out.writeInt(this.impacts[i]);
+			out.writeInt(this.sizes[i]);
+			out.writeInt(this.offsets[i]);
+		}
+		byte[] bytes = new byte[this.data.capacity()];
+		ByteBuffer data = this.data.duplicate();
+		data.position(0);
+		data.get(bytes);
+		out.write(bytes);
+	}
+}
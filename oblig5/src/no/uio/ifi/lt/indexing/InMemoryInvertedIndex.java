@@ -1,14 +1,20 @@
 package no.uio.ifi.lt.indexing;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import no.uio.ifi.lt.preprocessing.INormalizer;
+import no.uio.ifi.lt.ranking.IImpactRanker;
 import no.uio.ifi.lt.storage.IDocument;
 import no.uio.ifi.lt.storage.IDocumentStore;
 import no.uio.ifi.lt.tokenization.IToken;
 import no.uio.ifi.lt.tokenization.ITokenizer;
 import no.uio.ifi.lt.utils.HeapItem;
 import no.uio.ifi.lt.utils.Sieve;
+import no.uio.ifi.lt.utils.ThreadPools;
 
 /**
  * A simple in-memory implementation of {@link IInvertedIndex}, suitable for 
@@ -29,12 +35,27 @@ public class InMemoryInvertedIndex implements IInvertedIndex {
 	
 	/** The actual inverted index. */
 	private ArrayList<PostingList> invertedIndex;
+
+	/** Whether the postings record positions, or just occurrence counts. */
+	private boolean positional;
+
+	/** Bounds the static ranks of the documents, tier by tier. */
+	private StaticRankTiers staticRankTiers;
+
+	/** The statistics that rankers need, e.g., document frequencies. */
+	private CollectionStatistics statistics;
+
+	/** Bumped whenever the contents of the index change. */
+	private volatile long generation;
 	
 	/** For emitting log messages, if any. */
 	private Logger logger;
 
+	/** Set to stop indexing the remaining ranges of documents, once one has failed. */
+	private volatile boolean cancelled;
+
 	/**
-	 * Constructor.
+	 * Constructor. Uses default settings.
 	 * @param documentStore the set of document we want to index
 	 * @param normalizer defines how the documents should be normalized
 	 * @param tokenizer defines how the documents should be tokenized
@@ -42,11 +63,24 @@ public class InMemoryInvertedIndex implements IInvertedIndex {
 	 */
 	public InMemoryInvertedIndex(IDocumentStore documentStore, INormalizer normalizer,
 		                         ITokenizer tokenizer, Logger logger) {
+		this(documentStore, normalizer, tokenizer, new InvertedIndexSettings(), logger);
+	}
+
+	/**
+	 * Constructor.
+	 * @param documentStore the set of document we want to index
+	 * @param normalizer defines how the documents should be normalized
+	 * @param tokenizer defines how the documents should be tokenized
+	 * @param settings defines how the index is built
+	 * @param logger defines where to emit log messages
+	 */
+	public InMemoryInvertedIndex(IDocumentStore documentStore, INormalizer normalizer,
+		                         ITokenizer tokenizer, InvertedIndexSettings settings, Logger logger) {
 		// Emit messages here. Optional.
 		this.logger = logger;
 		
 		// Crank up the actual indexing process.
-		this.BuildIndex(documentStore, normalizer, tokenizer);		
+		this.BuildIndex(documentStore, normalizer, tokenizer, settings);
 	}
 	
 	/**
@@ -54,28 +88,37 @@ public class InMemoryInvertedIndex implements IInvertedIndex {
 	 * @param documentStore the set of document we want to index
 	 * @param normalizer defines how the documents should be normalized
 	 * @param tokenizer defines how the documents should be tokenized
+	 * @param settings defines how the index is built
 	 */
 	private void BuildIndex(IDocumentStore documentStore, INormalizer normalizer,
-	                        ITokenizer tokenizer) {
+	                        ITokenizer tokenizer, InvertedIndexSettings settings) {
 
 		// Keep references to the stuff that defines the what and the how.
 		// We're going to need it later when doing lookups.
 		this.documentStore = documentStore;
 		this.normalizer = normalizer;
 		this.tokenizer = tokenizer;
+		this.positional = settings.positional;
 		
-		// Reset.
-		this.lexicon = new InMemoryLexicon();
-		this.invertedIndex = new ArrayList<PostingList>();
-		
+		// How many ranges of documents to index in parallel?
+		int size = this.documentStore.size();
+		int partitions = Math.max(1, Math.min(settings.threads, size / Math.max(1, settings.minDocumentsPerThread)));
+
 		if (this.logger != null) {
-			this.logger.info(String.format("Indexing %d documents...", this.documentStore.size()));
+			this.logger.info(String.format("Indexing %d documents using %d threads...", size, partitions));
 		}
 
 		// Index all documents.
-		for (int documentId = 0; documentId < this.documentStore.size(); ++documentId) {
-			this.addDocument(this.documentStore.getDocument(documentId), documentId);
+		if (partitions == 1) {
+			PartialIndex partialIndex = new PartialIndex(0, size);
+			partialIndex.run();
+			this.lexicon = partialIndex.lexicon;
+			this.invertedIndex = partialIndex.postingLists;
+		}
+		else {
+			this.merge(this.buildPartialIndexes(partitions));
 		}
+		++this.generation;
 
 		// Emit some basic index statistics.
 		if (this.logger != null) {
@@ -85,14 +128,195 @@ public class InMemoryInvertedIndex implements IInvertedIndex {
 		// Detect and deal with stopwords, i.e., terms that occur "very often".        
 		this.detectStopwords();
 
-		// Be stingy on memory, although without actually compressing the index.        
-		this.trim();
+		// Be stingy on memory.
+		this.compress();
+
+		// Let query evaluation bound the static ranks of the documents it hasn't seen yet.
+		double[] staticRanks = new double[size];
+		for (int documentId = 0; documentId < size; ++documentId) {
+			staticRanks[documentId] = this.documentStore.getDocument(documentId).getStaticRank();
+		}
+		this.staticRankTiers = new StaticRankTiers(staticRanks);
+
+		// Precompute what rankers need to know about the collection.
+		this.statistics = new CollectionStatistics(this.invertedIndex.toArray(new PostingList[this.invertedIndex.size()]), size, size);
+
+		// Score the postings up front, if asked to.
+		if (settings.impactRanker != null) {
+			this.computeImpacts(settings.impactRanker);
+		}
 
 		// Debugging/development.
 		// TODO: Remove this:
 		// this.debugPrint();
 	}
 
+	/**
+	 * Splits the documents into ranges of consecutive document identifiers,
+	 * and indexes them in parallel, on the default pool and the calling thread.
+	 * If indexing a range fails, or the calling thread is interrupted, the other
+	 * ranges are abandoned, and waited for, before the failure is rethrown.
+	 * @param partitions the number of ranges
+	 * @return the partial indexes, ordered by their document identifiers
+	 * @throws IllegalStateException if indexing failed, or was interrupted
+	 */
+	private PartialIndex[] buildPartialIndexes(int partitions) {
+		int size = this.documentStore.size();
+		PartialIndex[] partialIndexes = new PartialIndex[partitions];
+		for (int i = 0; i < partitions; ++i) {
+			partialIndexes[i] = new PartialIndex((int) ((long) size * i / partitions), (int) ((long) size * (i + 1) / partitions));
+		}
+		ExecutorService pool = ThreadPools.getDefaultPool();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>(partitions - 1);
+		for (int i = 1; i < partitions; ++i) {
+			futures.add(pool.submit(partialIndexes[i]));
+		}
+		Throwable failure = null;
+		try {
+			partialIndexes[0].run();
+		}
+		catch (Throwable e) {
+			failure = e;
+		}
+		boolean interrupted = false;
+		for (Future<?> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+					this.cancelled = true;
+				}
+				catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					}
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		if (failure != null) {
+			throw new IllegalStateException(failure);
+		}
+		if (interrupted) {
+			throw new IllegalStateException("Interrupted while indexing.");
+		}
+		return partialIndexes;
+	}
+
+	/**
+	 * Merges partial indexes into this one. Since the partial indexes cover
+	 * consecutive ranges of document identifiers, their posting lists can just
+	 * be concatenated. Terms are assigned lexicon identifiers in the order they
+	 * first occur, so the result is the same as if we had indexed sequentially.
+	 * @param partialIndexes the partial indexes, ordered by their document identifiers
+	 */
+	private void merge(PartialIndex[] partialIndexes) {
+		CompactLexicon lexicon = new CompactLexicon(partialIndexes[0].lexicon.size());
+		this.lexicon = lexicon;
+		this.invertedIndex = new ArrayList<PostingList>();
+		for (PartialIndex partialIndex : partialIndexes) {
+			for (int i = 0; i < partialIndex.lexicon.size(); ++i) {
+				int size = lexicon.size();
+				int lexiconId = lexicon.addValue(partialIndex.lexicon.getValue(i));
+				if (lexiconId == size) {
+					this.invertedIndex.add(partialIndex.postingLists.get(i));
+				}
+				else {
+					this.invertedIndex.get(lexiconId).appendPostingList(partialIndex.postingLists.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Indexes a range of documents, independently of the other ranges.
+	 */
+	private class PartialIndex implements Runnable {
+		/** The first document identifier in the range. */
+		private final int from;
+
+		/** One past the last document identifier in the range. */
+		private final int to;
+
+		/** The lexicon for the documents in the range. */
+		final CompactLexicon lexicon = new CompactLexicon();
+
+		/** The posting lists for the documents in the range. */
+		final ArrayList<PostingList> postingLists = new ArrayList<PostingList>();
+
+		/**
+		 * Constructor.
+		 * @param from the first document identifier in the range
+		 * @param to one past the last document identifier in the range
+		 */
+		PartialIndex(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * Indexes all documents in the range, or stops early if indexing
+		 * has been cancelled, see {@link InMemoryInvertedIndex#cancelled}.
+		 * Cancels the other ranges if this one fails.
+		 */
+		public void run() {
+			try {
+				for (int documentId = this.from; documentId < this.to && !cancelled; ++documentId) {
+					this.addDocument(documentStore.getDocument(documentId), documentId);
+				}
+			}
+			catch (Throwable e) {
+				cancelled = true;
+				throw e;
+			}
+		}
+
+		/**
+		 * Adds the given document to the partial index.
+		 * @param document the {@link IDocument} to index
+		 * @param documenId the document's identifier
+		 */
+		private void addDocument(IDocument document, int documentId) {
+			// Index a normalized version of the document's data.
+			String normalized = normalizer.normalize(document.getOriginalData());
+			if (normalized.length() != document.getNormalizedLength()) {
+				throw new IllegalStateException();
+			}
+			// Process all document tokens.
+			Iterator<IToken> tokenIterator = tokenizer.iterator(normalized);
+
+			while (tokenIterator.hasNext()) {
+				IToken token = tokenIterator.next();
+				// One probe, whether or not the term is new.
+				int size = this.lexicon.size();
+				int lexiconID = this.lexicon.addValue(token.getValue());
+				PostingList pl;
+				if(lexiconID == size){
+					pl = new PostingList();
+					this.postingLists.add(lexiconID, pl);
+				} else {
+					pl = this.postingLists.get(lexiconID);
+				}
+				if (pl.size() == 0 || pl.getLastPosting().getDocumentId() != documentId) {
+					pl.appendPosting(positional ? new Posting(documentId, token.getPosition()) : new Posting(documentId));
+				} else if (positional) {
+					pl.getLastPosting().appendPosition(token.getPosition());
+				} else {
+					pl.getLastPosting().appendOccurrence();
+				}
+			}
+		}
+	}
+
 	/**
 	 * For debugging. Identifies "stopwords", i.e., words that occur in very many documents
 	 * and thus have very long posting lists.
@@ -116,16 +340,96 @@ public class InMemoryInvertedIndex implements IInvertedIndex {
 	}
 	
 	/**
-	 * Trims the size of the inverted index so that it doesn't allocate
-	 * more memory than needed. This is different from index compression.
+	 * Compresses all posting lists, and emits the resulting compression ratio.
 	 */
-	private void trim() {
+	private void compress() {
+		// Dense posting lists, e.g., for stopwords, may end up as bitmaps.
+		int bitmapCount = 0;
 		for (PostingList postings : this.invertedIndex) {
-			postings.trim();
+			postings.compress();
+			if (postings.getDocumentIdBitmap() != null) {
+				++bitmapCount;
+			}
 		}
 		this.invertedIndex.trimToSize();
+		if (this.logger != null) {
+			this.logger.info(String.format("Compressed postings from %d to %d bytes (ratio %.2f), with %d posting lists as bitmaps.",
+					this.getUncompressedSize(), this.getCompressedSize(), this.getCompressionRatio(), bitmapCount));
+		}
 	}
-	
+
+	/**
+	 * Computes each posting's contribution to the relevance score, quantizes
+	 * the contributions linearly so that the largest one in the index becomes
+	 * {@link ImpactList#MAX_IMPACT}, and attaches them to the posting lists.
+	 * The contributions are computed twice rather than kept around, to find
+	 * the largest one first.
+	 * @param ranker the ranker to compute the contributions with
+	 */
+	private void computeImpacts(IImpactRanker ranker) {
+		double maxImpact = 0.0;
+		for (int lexiconId = 0; lexiconId < this.invertedIndex.size(); ++lexiconId) {
+			for (PostingCursor cursor = new PostingCursor(this.invertedIndex.get(lexiconId)); !cursor.isExhausted(); cursor.next()) {
+				maxImpact = Math.max(maxImpact, ranker.getImpact(this.statistics, lexiconId, cursor.getDocumentId(), cursor.getOccurrenceCount()));
+			}
+		}
+		double scale = (maxImpact > 0.0) ? ImpactList.MAX_IMPACT / maxImpact : 0.0;
+		int[] documentIds = new int[0];
+		int[] impacts = new int[0];
+		for (int lexiconId = 0; lexiconId < this.invertedIndex.size(); ++lexiconId) {
+			PostingList postingList = this.invertedIndex.get(lexiconId);
+			if (documentIds.length < postingList.size()) {
+				documentIds = new int[postingList.size()];
+				impacts = new int[postingList.size()];
+			}
+			int count = 0;
+			for (PostingCursor cursor = new PostingCursor(postingList); !cursor.isExhausted(); cursor.next(), ++count) {
+				double impact = ranker.getImpact(this.statistics, lexiconId, cursor.getDocumentId(), cursor.getOccurrenceCount());
+				documentIds[count] = cursor.getDocumentId();
+				impacts[count] = (int) Math.max(0, Math.min(ImpactList.MAX_IMPACT, Math.round(impact * scale)));
+			}
+			postingList.setImpacts(new ImpactList(documentIds, impacts, count));
+		}
+		if (this.logger != null) {
+			this.logger.info(String.format("Quantized impacts with a largest contribution of %f.", maxImpact));
+		}
+	}
+
+	/**
+	 * Returns the number of bytes used by the compressed posting lists.
+	 * @return the size of the compressed posting lists in bytes
+	 */
+	public long getCompressedSize() {
+		long size = 0;
+		for (PostingList postings : this.invertedIndex) {
+			size += postings.getCompressedSize();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes the posting lists would occupy if stored
+	 * as plain <code>int</code> values.
+	 * @return the size of the uncompressed posting lists in bytes
+	 */
+	public long getUncompressedSize() {
+		long size = 0;
+		for (PostingList postings : this.invertedIndex) {
+			size += postings.getUncompressedSize();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the compression ratio for the posting lists in the index, i.e.,
+	 * the uncompressed size divided by the compressed size.
+	 * @return the compression ratio for the index
+	 */
+	public double getCompressionRatio() {
+		long compressedSize = this.getCompressedSize();
+		return (compressedSize == 0) ? 1.0 : (double) this.getUncompressedSize() / compressedSize;
+	}
+
 	/**
 	 * Prints the inverted index to standard out for debugging and manual inspection.
 	 */
@@ -138,41 +442,6 @@ public class InMemoryInvertedIndex implements IInvertedIndex {
 		}
 	}
 	
-	/**
-	 * Adds the given document to the inverted index.
-	 * @param document the {@link IDocument} to index
-	 * @param documenId the document's identifier
-	 */
-	private void addDocument(IDocument document, int documentId) {
-		// Index a normalized version of the document's data.
-		String normalized = this.normalizer.normalize(document.getOriginalData());		
-		if (normalized.length() != document.getNormalizedLength()) {
-			throw new IllegalStateException();
-		}	    		
-		// Process all document tokens.
-		Iterator<IToken> tokenIterator = this.tokenizer.iterator(normalized);
-		
-		while (tokenIterator.hasNext()) {
-			IToken token = tokenIterator.next();
-			int lexiconID = lexicon.lookup(token.getValue());
-			PostingList pl;
-			if(lexiconID == ILexicon.INVALID){
-				lexiconID = lexicon.addValue(token.getValue());
-				pl = new PostingList();
-				pl.appendPosting(new Posting(documentId, token.getPosition()));
-				invertedIndex.add(lexiconID, pl);
-			} else {
-				pl = getPostingList(lexiconID);
-			}
-			if (pl.getLastPosting().getDocumentId() != documentId) {
-				pl.appendPosting(new Posting(documentId, token.getPosition()));
-			} else {
-				Posting p = pl.getLastPosting();
-				p.appendPosition(token.getPosition());
-			}
-		}
-	}
-
 	/**
 	 * Implements the {@link IInvertedIndex} interface.
 	 */
@@ -207,4 +476,41 @@ public class InMemoryInvertedIndex implements IInvertedIndex {
 	public IDocumentStore getDocumentStore() {
 		return this.documentStore;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface.
+	 */
+	public long getGeneration() {
+		return this.generation;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface. Documents
+	 * can't be deleted.
+	 */
+	public BitSet getDeletedDocuments() {
+		return null;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface.
+	 */
+	public double getStaticRankBound(int documentId) {
+		return this.staticRankTiers.getBound(documentId);
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface.
+	 */
+	public ICollectionStatistics getStatistics() {
+		return this.statistics;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface. The index doesn't
+	 * change once it has been built.
+	 */
+	public IInvertedIndex getSnapshot() {
+		return this;
+	}
+}
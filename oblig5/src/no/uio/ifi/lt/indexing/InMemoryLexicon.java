@@ -19,24 +19,34 @@ public class InMemoryLexicon implements ILexicon {
 	 */	
 	public int lookup(String value) {		
 		// Known token value?
-		if (this.vocabulary.containsKey(value)) {
-        	return this.vocabulary.get(value);
+		Integer lexiconId = this.vocabulary.get(value);
+		if (lexiconId != null) {
+			return lexiconId;
 		}
 		return INVALID;
 	}	
+
+	/**
+	 * Implements the {@link ILexicon} interface.
+	 * @see no.uio.ifi.lt.indexing.ILexicon#lookup(java.lang.CharSequence, int, int)
+	 */
+	public int lookup(CharSequence value, int start, int end) {
+		return this.lookup(value.subSequence(start, end).toString());
+	}
 	
 	/**
 	 * Implements the {@link Ilexicon} interface
 	 * @see no.uio.ifi.lt.indexing.ILexicon#addValue(java.lang.String)
 	 */
 	public int addValue(String value) {		
-		if (!vocabulary.containsKey(value)) {
+		Integer lexiconId = this.vocabulary.get(value);
+		if (lexiconId == null) {
 			int index = this.size();
 			this.vocabulary.put(value, index);
 			return index;
 		}
 		else {
-			return vocabulary.get(value);
+			return lexiconId;
 		}
 	}
 
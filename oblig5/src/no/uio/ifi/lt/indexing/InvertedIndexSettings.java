@@ -0,0 +1,59 @@
+package no.uio.ifi.lt.indexing;
+import no.uio.ifi.lt.ranking.IImpactRanker;
+
+/**
+ * Encapsulates the construction parameters for an {@link InMemoryInvertedIndex} or
+ * {@link SpimiIndexWriter} or {@link SegmentedInvertedIndex} object.
+ */
+public class InvertedIndexSettings {
+	/**
+	 * How many threads to index with. The documents are split into ranges
+	 * of consecutive document identifiers, indexed separately and then merged.
+	 * A value of 1 indexes all documents sequentially.
+	 */
+	public int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The smallest number of documents worth indexing in a separate thread.
+	 * Smaller document collections are split across fewer threads.
+	 */
+	public int minDocumentsPerThread = 256;
+
+	/**
+	 * For {@link InMemoryInvertedIndex} and {@link SegmentedInvertedIndex},
+	 * whether to record where terms occur in the documents. If not, only
+	 * the occurrence counts are recorded, which takes less memory and is
+	 * enough for ranking by term frequencies.
+	 */
+	public boolean positional = true;
+
+	/**
+	 * For {@link InMemoryInvertedIndex}, the ranker to precompute each posting's
+	 * contribution to the relevance score with, if any. The contributions are
+	 * quantized to 8 bits and stored in the posting lists as an {@link ImpactList}.
+	 * Impacts depend on the whole collection, so {@link SpimiIndexWriter} doesn't
+	 * store them, and {@link SegmentedInvertedIndex} doesn't support them.
+	 */
+	public IImpactRanker impactRanker = null;
+
+	/**
+	 * For {@link SpimiIndexWriter}, how many bytes of postings to accumulate
+	 * in memory before spilling them to disk. The estimate covers the
+	 * postings and the lexicon, not the documents being read.
+	 */
+	public long memoryBudget = 64L << 20;
+
+	/**
+	 * For {@link SegmentedInvertedIndex}, how many similarly sized segments
+	 * to merge at a time. Segments are similarly sized if the largest has at
+	 * most this many times as many documents as the smallest.
+	 */
+	public int mergeFactor = 4;
+
+	/**
+	 * For {@link SegmentedInvertedIndex}, the fraction of a segment's
+	 * remaining documents that have to be deleted before the segment is
+	 * rewritten on its own, to purge their postings.
+	 */
+	public double maxDeletedFraction = 0.5;
+}
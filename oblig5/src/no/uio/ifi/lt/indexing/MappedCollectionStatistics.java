@@ -0,0 +1,199 @@
+package no.uio.ifi.lt.indexing;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+import no.uio.ifi.lt.utils.MappedFiles;
+
+/**
+ * Implements {@link ICollectionStatistics} on a memory-mapped file, written
+ * along with the posting lists by {@link Writer}, so that opening an index
+ * doesn't mean decoding all its posting lists. The file holds a header with
+ * a magic number, the number of terms, the number of document identifiers,
+ * the number of documents and the total document length, followed by the
+ * inverse document frequencies, the collection frequencies and the document
+ * frequencies by lexicon identifier, and the document lengths by document
+ * identifier. The widest values come first, so that all are aligned.
+ */
+final class MappedCollectionStatistics implements ICollectionStatistics {
+	/** Identifies the file format. */
+	private static final int MAGIC = 0x53544131;
+
+	/** The size of the header, in bytes. */
+	private static final int HEADER_SIZE = 24;
+
+	/** The statistics, mapped from disk. */
+	private final MappedByteBuffer buffer;
+
+	/** The number of documents. */
+	private final int documentCount;
+
+	/** The sum of the document lengths. */
+	private final long totalDocumentLength;
+
+	/** Where the collection frequencies start. */
+	private final int collectionFrequenciesOffset;
+
+	/** Where the document frequencies start. */
+	private final int documentFrequenciesOffset;
+
+	/** Where the document lengths start. */
+	private final int documentLengthsOffset;
+
+	/**
+	 * Constructor. Maps the given file.
+	 * @param file the file written by a {@link Writer}
+	 * @param termCount the number of terms that the index has
+	 * @throws IOException if the file can't be mapped, or doesn't match the index
+	 */
+	MappedCollectionStatistics(File file, int termCount) throws IOException {
+		this.buffer = MappedFiles.map(file);
+		MappedFiles.checkMagic(this.buffer, MAGIC, file);
+		if (this.buffer.getInt(4) != termCount) {
+			throw new IOException(String.format("Statistics in '%s' don't match the index.", file));
+		}
+		int documentIdCount = this.buffer.getInt(8);
+		this.documentCount = this.buffer.getInt(12);
+		this.totalDocumentLength = this.buffer.getLong(16);
+		this.collectionFrequenciesOffset = HEADER_SIZE + 8 * termCount;
+		this.documentFrequenciesOffset = this.collectionFrequenciesOffset + 8 * termCount;
+		this.documentLengthsOffset = this.documentFrequenciesOffset + 4 * termCount;
+		if (this.buffer.capacity() != this.documentLengthsOffset + 4 * documentIdCount) {
+			throw new IOException(String.format("Statistics in '%s' are truncated.", file));
+		}
+	}
+
+	/**
+	 * Implements the {@link ICollectionStatistics} interface.
+	 */
+	public int getDocumentCount() {
+		return this.documentCount;
+	}
+
+	/**
+	 * Implements the {@link ICollectionStatistics} interface.
+	 */
+	public int getDocumentFrequency(int lexiconId) {
+		return this.buffer.getInt(this.documentFrequenciesOffset + 4 * lexiconId);
+	}
+
+	/**
+	 * Implements the {@link ICollectionStatistics} interface.
+	 */
+	public long getCollectionFrequency(int lexiconId) {
+		return this.buffer.getLong(this.collectionFrequenciesOffset + 8 * lexiconId);
+	}
+
+	/**
+	 * Implements the {@link ICollectionStatistics} interface.
+	 */
+	public double getInverseDocumentFrequency(int lexiconId) {
+		return this.buffer.getDouble(HEADER_SIZE + 8 * lexiconId);
+	}
+
+	/**
+	 * Implements the {@link ICollectionStatistics} interface.
+	 */
+	public int getDocumentLength(int documentId) {
+		return this.buffer.getInt(this.documentLengthsOffset + 4 * documentId);
+	}
+
+	/**
+	 * Implements the {@link ICollectionStatistics} interface.
+	 */
+	public double getAverageDocumentLength() {
+		return (this.documentCount == 0) ? 0.0 : (double) this.totalDocumentLength / this.documentCount;
+	}
+
+	/**
+	 * Collects the statistics from the posting lists as they are written,
+	 * in lexicon order, and writes the statistics file when closed. Only the
+	 * statistics are kept in memory, not the posting lists.
+	 */
+	static class Writer {
+		/** The file to write. */
+		private final File file;
+
+		/** The number of documents. */
+		private final int documentCount;
+
+		/** The per-term statistics so far, by lexicon identifier. */
+		private int[] documentFrequencies = new int[1024];
+		private long[] collectionFrequencies = new long[1024];
+
+		/** The number of terms so far. */
+		private int termCount;
+
+		/** The document lengths so far, by document identifier. */
+		private final int[] documentLengths;
+
+		/** The sum of the document lengths so far. */
+		private long totalDocumentLength;
+
+		/**
+		 * Constructor.
+		 * @param file the file to write
+		 * @param documentIdCount the number of document identifiers, i.e., one more than the largest one
+		 * @param documentCount the number of documents
+		 */
+		Writer(File file, int documentIdCount, int documentCount) {
+			this.file = file;
+			this.documentCount = documentCount;
+			this.documentLengths = new int[documentIdCount];
+		}
+
+		/**
+		 * Accounts for the posting list of the next term, in lexicon order.
+		 * Decodes the occurrence counts, but not the positions.
+		 * @param postingList the posting list
+		 */
+		void addPostingList(PostingList postingList) {
+			if (this.termCount == this.documentFrequencies.length) {
+				this.documentFrequencies = Arrays.copyOf(this.documentFrequencies, 2 * this.termCount);
+				this.collectionFrequencies = Arrays.copyOf(this.collectionFrequencies, 2 * this.termCount);
+			}
+			long collectionFrequency = 0;
+			for (PostingCursor cursor = new PostingCursor(postingList); !cursor.isExhausted(); cursor.next()) {
+				collectionFrequency += cursor.getOccurrenceCount();
+				this.documentLengths[cursor.getDocumentId()] += cursor.getOccurrenceCount();
+			}
+			this.documentFrequencies[this.termCount] = postingList.size();
+			this.collectionFrequencies[this.termCount] = collectionFrequency;
+			this.totalDocumentLength += collectionFrequency;
+			++this.termCount;
+		}
+
+		/**
+		 * Writes the statistics file.
+		 * @throws IOException
+		 */
+		void close() throws IOException {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(this.termCount);
+				out.writeInt(this.documentLengths.length);
+				out.writeInt(this.documentCount);
+				out.writeLong(this.totalDocumentLength);
+				for (int i = 0; i < this.termCount; ++i) {
+					out.writeDouble(CollectionStatistics.getInverseDocumentFrequency(this.documentCount, this.documentFrequencies[i]));
+				}
+				for (int i = 0; i < this.termCount; ++i) {
+					out.writeLong(this.collectionFrequencies[i]);
+				}
+				for (int i = 0; i < this.termCount; ++i) {
+					out.writeInt(this.documentFrequencies[i]);
+				}
+				for (int documentLength : this.documentLengths) {
+					out.writeInt(documentLength);
+				}
+			}
+			finally {
+				out.close();
+			}
+		}
+	}
+}
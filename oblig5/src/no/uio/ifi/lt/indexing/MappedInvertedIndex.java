@@ -0,0 +1,285 @@
+package no.uio.ifi.lt.indexing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.logging.Logger;
+import no.uio.ifi.lt.preprocessing.INormalizer;
+import no.uio.ifi.lt.storage.IDocumentStore;
+import no.uio.ifi.lt.storage.MappedDocumentStore;
+import no.uio.ifi.lt.tokenization.ITokenizer;
+import no.uio.ifi.lt.utils.MappedFiles;
+import no.uio.ifi.lt.utils.RecordFileWriter;
+
+/**
+ * A read-only implementation of {@link IInvertedIndex}, backed by memory-mapped
+ * files in a directory. The index is written once by {@link #write(IInvertedIndex, File)},
+ * e.g., from an {@link InMemoryInvertedIndex}, and can then be opened instantly
+ * by any number of processes. The directory holds four files:
+ * <ul>
+ * <li>{@link #LEXICON_FILE}: The token values, see {@link MappedLexicon}.</li>
+ * <li>{@link #POSTINGS_FILE}: The compressed posting lists in lexicon order,
+ * see {@link PostingList}.</li>
+ * <li>{@link #DOCUMENTS_FILE}: The documents, see {@link MappedDocumentStore}.</li>
+ * <li>{@link #STATISTICS_FILE}: The statistics that rankers need, see {@link ICollectionStatistics}.</li>
+ * </ul>
+ * All but the statistics file are a table of offsets followed by the records it points to, see
+ * {@link RecordFileWriter}. The normalizer and tokenizer are not stored, so the index must be opened
+ * with the same ones it was built with.
+ * <p>
+ * Safe for concurrent use.
+ */
+public class MappedInvertedIndex implements IInvertedIndex {
+	/** The name of the lexicon file. */
+	public static final String LEXICON_FILE = "lexicon";
+
+	/** The name of the postings file. */
+	public static final String POSTINGS_FILE = "postings";
+
+	/** The name of the documents file. */
+	public static final String DOCUMENTS_FILE = "documents";
+
+	/** The name of the statistics file. */
+	public static final String STATISTICS_FILE = "statistics";
+
+	/** Identifies the postings file format. */
+	private static final int MAGIC = 0x504F5335;
+
+	/** The tokenizer used when creating the inverted index. */
+	private ITokenizer tokenizer;
+
+	/** The normalizer used when creating the inverted index. */
+	private INormalizer normalizer;
+
+	/** The lexicon, mapped from disk. */
+	private MappedLexicon lexicon;
+
+	/** The documents, mapped from disk. */
+	private MappedDocumentStore documentStore;
+
+	/** The posting lists, mapped from disk. */
+	private MappedByteBuffer postings;
+
+	/** Where the posting lists start, after the offset table. */
+	private int postingsOffset;
+
+	/** Bounds the static ranks of the documents, tier by tier. */
+	private StaticRankTiers staticRankTiers;
+
+	/** The statistics that rankers need, mapped from disk, or computed when first asked for. */
+	private volatile ICollectionStatistics statistics;
+
+	/**
+	 * Constructor. Maps the index files in the given directory.
+	 * @param directory where the index files are
+	 * @param normalizer the normalizer that the index was created with
+	 * @param tokenizer the tokenizer that the index was created with
+	 * @param logger defines where to emit log messages, if at all
+	 * @throws IOException
+	 */
+	public MappedInvertedIndex(File directory, INormalizer normalizer, ITokenizer tokenizer, Logger logger) throws IOException {
+		long before = System.nanoTime();
+		this.normalizer = normalizer;
+		this.tokenizer = tokenizer;
+		this.lexicon = new MappedLexicon(new File(directory, LEXICON_FILE));
+		this.documentStore = new MappedDocumentStore(new File(directory, DOCUMENTS_FILE));
+		File postingsFile = new File(directory, POSTINGS_FILE);
+		this.postings = MappedFiles.map(postingsFile);
+		MappedFiles.checkMagic(this.postings, MAGIC, postingsFile);
+		if (this.postings.getInt(4) != this.lexicon.size()) {
+			throw new IOException(String.format("Index in '%s' is inconsistent.", directory));
+		}
+		this.postingsOffset = RecordFileWriter.getDataOffset(this.lexicon.size());
+		File statisticsFile = new File(directory, STATISTICS_FILE);
+		if (statisticsFile.exists()) {
+			this.statistics = new MappedCollectionStatistics(statisticsFile, this.lexicon.size());
+		}
+		double[] staticRanks = new double[this.documentStore.size()];
+		for (int documentId = 0; documentId < staticRanks.length; ++documentId) {
+			staticRanks[documentId] = this.documentStore.getStaticRank(documentId);
+		}
+		this.staticRankTiers = new StaticRankTiers(staticRanks);
+		long after = System.nanoTime();
+		if (logger != null) {
+			logger.info(String.format("Opened index with %d unique terms and %d documents in %.1f ms.",
+					this.lexicon.size(), this.documentStore.size(), (after - before) / 1000000.0));
+		}
+	}
+
+	/**
+	 * Writes the given index to the given directory, in the format expected
+	 * by {@link #MappedInvertedIndex(File, INormalizer, ITokenizer, Logger)}.
+	 * The lexicon identifiers are reassigned, since the mapped lexicon keeps
+	 * the token values sorted.
+	 * @param invertedIndex the index to write
+	 * @param directory where to write the index files
+	 * @throws IOException
+	 */
+	public static void write(IInvertedIndex invertedIndex, File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException(String.format("Can't create directory '%s'.", directory));
+		}
+		MappedDocumentStore.write(invertedIndex.getDocumentStore(), new File(directory, DOCUMENTS_FILE));
+
+		// Sort the token values, and remember where each one came from.
+		final ILexicon lexicon = invertedIndex.getLexicon();
+		final byte[][] values = new byte[lexicon.size()][];
+		Integer[] order = new Integer[lexicon.size()];
+		for (String value : lexicon) {
+			int lexiconId = lexicon.lookup(value);
+			values[lexiconId] = value.getBytes(MappedLexicon.UTF8);
+			order[lexiconId] = lexiconId;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer x, Integer y) {
+				return MappedLexicon.BYTEWISE.compare(values[x], values[y]);
+			}
+		});
+		byte[][] sortedValues = new byte[values.length][];
+		for (int i = 0; i < order.length; ++i) {
+			sortedValues[i] = values[order[i]];
+		}
+		MappedLexicon.write(sortedValues, new File(directory, LEXICON_FILE));
+		writePostings(invertedIndex, order, directory);
+	}
+
+	/**
+	 * Writes the postings file, and the statistics file along with it.
+	 * @param invertedIndex the index to write
+	 * @param order the old lexicon identifiers, in the new order
+	 * @param directory where to write the files
+	 * @throws IOException
+	 */
+	private static void writePostings(IInvertedIndex invertedIndex, Integer[] order, File directory) throws IOException {
+		RecordFileWriter writer = createPostingsWriter(new File(directory, POSTINGS_FILE));
+		int documentCount = invertedIndex.getDocumentStore().size();
+		MappedCollectionStatistics.Writer statisticsWriter = createStatisticsWriter(directory, documentCount);
+		for (int lexiconId : order) {
+			PostingList postingList = invertedIndex.getPostingList(lexiconId);
+			postingList.writeTo(writer.getOutput());
+			writer.endRecord();
+			statisticsWriter.addPostingList(postingList);
+		}
+		writer.close();
+		statisticsWriter.close();
+	}
+
+	/**
+	 * Returns a writer for a postings file. Each record is a posting list,
+	 * as written by {@link PostingList#writeTo(java.io.DataOutput)}, and the
+	 * records must be in lexicon order.
+	 * @param file the file to write
+	 * @return the writer
+	 * @throws IOException
+	 */
+	static RecordFileWriter createPostingsWriter(File file) throws IOException {
+		return new RecordFileWriter(file, MAGIC);
+	}
+
+	/**
+	 * Returns a writer for the statistics file. It must be given the posting
+	 * lists in lexicon order, as they are written to the postings file.
+	 * @param directory where to write the file
+	 * @param documentCount the number of documents
+	 * @return the writer
+	 */
+	static MappedCollectionStatistics.Writer createStatisticsWriter(File directory, int documentCount) {
+		return new MappedCollectionStatistics.Writer(new File(directory, STATISTICS_FILE), documentCount, documentCount);
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface.
+	 */
+	public ITokenizer getTokenizer() {
+		return this.tokenizer;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface.
+	 */
+	public INormalizer getNormalizer() {
+		return this.normalizer;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface.
+	 */
+	public IDocumentStore getDocumentStore() {
+		return this.documentStore;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface.
+	 */
+	public ILexicon getLexicon() {
+		return this.lexicon;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface. The posting list
+	 * reads its postings straight from the mapped file.
+	 */
+	public PostingList getPostingList(int lexiconId) {
+		if (lexiconId < 0 || lexiconId >= this.lexicon.size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		return new PostingList(this.postings, this.postingsOffset + this.postings.getInt(8 + 4 * lexiconId));
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface. The index is
+	 * read-only.
+	 */
+	public BitSet getDeletedDocuments() {
+		return null;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface.
+	 */
+	public double getStaticRankBound(int documentId) {
+		return this.staticRankTiers.getBound(documentId);
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface. The statistics are
+	 * mapped from disk along with the rest of the index. Indexes written
+	 * before there was a statistics file get them computed the first time
+	 * they are asked for, which means decoding all posting lists.
+	 */
+	public ICollectionStatistics getStatistics() {
+		ICollectionStatistics statistics = this.statistics;
+		if (statistics == null) {
+			synchronized (this) {
+				statistics = this.statistics;
+				if (statistics == null) {
+					PostingList[] postingLists = new PostingList[this.lexicon.size()];
+					for (int lexiconId = 0; lexiconId < postingLists.length; ++lexiconId) {
+						postingLists[lexiconId] = this.getPostingList(lexiconId);
+					}
+					statistics = new CollectionStatistics(postingLists, this.documentStore.size(), this.documentStore.size());
+					this.statistics = statistics;
+				}
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface. The index is read-only,
+	 * so the generation never changes.
+	 */
+	public long getGeneration() {
+		return 0;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface. The index is read-only,
+	 * so it is its own snapshot.
+	 */
+	public IInvertedIndex getSnapshot() {
+		return this;
+	}
+}
@@ -0,0 +1,197 @@
+package no.uio.ifi.lt.indexing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import no.uio.ifi.lt.utils.MappedFiles;
+import no.uio.ifi.lt.utils.RecordFileWriter;
+
+/**
+ * A read-only implementation of {@link ILexicon}, backed by a memory-mapped
+ * file. The token values are stored UTF-8 encoded and sorted bytewise, and
+ * a value's lexicon identifier is its rank in that order. Lookups are
+ * binary searches directly in the mapped file, so opening the lexicon is
+ * instant and the values stay off the heap.
+ * <p>
+ * Safe for concurrent use.
+ */
+public class MappedLexicon implements ILexicon {
+	/** Identifies the file format. */
+	private static final int MAGIC = 0x4C455831;
+
+	/** How token values are encoded in the file. */
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Orders encoded token values the way they are stored in the file.
+	 */
+	static final Comparator<byte[]> BYTEWISE = new Comparator<byte[]>() {
+		public int compare(byte[] x, byte[] y) {
+			int length = Math.min(x.length, y.length);
+			for (int i = 0; i < length; ++i) {
+				int difference = (x[i] & 0xFF) - (y[i] & 0xFF);
+				if (difference != 0) {
+					return difference;
+				}
+			}
+			return x.length - y.length;
+		}
+	};
+
+	/** The mapped file contents. */
+	private MappedByteBuffer buffer;
+
+	/** The number of token values in the lexicon. */
+	private int size;
+
+	/** Where the token values start, after the offset table. */
+	private int dataOffset;
+
+	/**
+	 * Constructor. Maps the given file, as written by {@link #write(byte[][], File)}.
+	 * @param file the file to map
+	 * @throws IOException
+	 */
+	public MappedLexicon(File file) throws IOException {
+		this.buffer = MappedFiles.map(file);
+		MappedFiles.checkMagic(this.buffer, MAGIC, file);
+		this.size = this.buffer.getInt(4);
+		this.dataOffset = RecordFileWriter.getDataOffset(this.size);
+	}
+
+	/**
+	 * Writes a lexicon file, in the format expected by {@link #MappedLexicon(File)}.
+	 * @param values the UTF-8 encoded token values, sorted by {@link #BYTEWISE}
+	 * @param file the file to write
+	 * @throws IOException
+	 */
+	static void write(byte[][] values, File file) throws IOException {
+		RecordFileWriter writer = createWriter(file);
+		for (byte[] value : values) {
+			writer.getOutput().write(value);
+			writer.endRecord();
+		}
+		writer.close();
+	}
+
+	/**
+	 * Returns a writer for a lexicon file, in the format expected by
+	 * {@link #MappedLexicon(File)}. Each record is a UTF-8 encoded token value,
+	 * and the records must be sorted by {@link #BYTEWISE}.
+	 * @param file the file to write
+	 * @return the writer
+	 * @throws IOException
+	 */
+	static RecordFileWriter createWriter(File file) throws IOException {
+		return new RecordFileWriter(file, MAGIC);
+	}
+
+	/**
+	 * Implements the {@link ILexicon} interface.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Implements the {@link ILexicon} interface.
+	 */
+	public int lookup(String value) {
+		byte[] key = value.getBytes(UTF8);
+		int low = 0;
+		int high = this.size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = this.compare(middle, key);
+			if (comparison < 0) {
+				low = middle + 1;
+			}
+			else if (comparison > 0) {
+				high = middle - 1;
+			}
+			else {
+				return middle;
+			}
+		}
+		return INVALID;
+	}
+
+	/**
+	 * Implements the {@link ILexicon} interface.
+	 */
+	public int lookup(CharSequence value, int start, int end) {
+		return this.lookup(value.subSequence(start, end).toString());
+	}
+
+	/**
+	 * Implements the {@link ILexicon} interface. The lexicon is read-only.
+	 * @throws UnsupportedOperationException
+	 */
+	public int addValue(String value) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Returns the token value that a given lexicon identifier maps to.
+	 * @param lexiconId the lexicon identifier
+	 * @return the token value
+	 */
+	public String getValue(int lexiconId) {
+		if (lexiconId < 0 || lexiconId >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		int start = this.buffer.getInt(8 + 4 * lexiconId);
+		byte[] bytes = new byte[this.buffer.getInt(12 + 4 * lexiconId) - start];
+		ByteBuffer data = this.buffer.duplicate();
+		data.position(this.dataOffset + start);
+		data.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Implements the {@link Iterable<String>} interface. The token values
+	 * are ordered by their lexicon identifiers.
+	 */
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int lexiconId = 0;
+
+			public boolean hasNext() {
+				return this.lexiconId < MappedLexicon.this.size;
+			}
+
+			public String next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return getValue(this.lexiconId++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Compares the value for the given lexicon identifier to the given key,
+	 * as by {@link #BYTEWISE}.
+	 */
+	private int compare(int lexiconId, byte[] key) {
+		int start = this.buffer.getInt(8 + 4 * lexiconId);
+		int length = this.buffer.getInt(12 + 4 * lexiconId) - start;
+		int offset = this.dataOffset + start;
+		int common = Math.min(length, key.length);
+		for (int i = 0; i < common; ++i) {
+			int difference = (this.buffer.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return length - key.length;
+	}
+}
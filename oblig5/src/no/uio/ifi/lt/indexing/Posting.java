@@ -15,9 +15,17 @@ public class Posting {
 	/**
 	 * Keeps track of where in the document the term occurs.
 	 * Sorted in ascending order. Using {@link ArrayList<Integer>}
-	 * turned out to be a memory hog.
+	 * turned out to be a memory hog. Grows geometrically while the
+	 * posting is built up, so only the first {@link #occurrenceCount}
+	 * entries are valid until the posting is trimmed. Null if only the
+	 * number of occurrences is recorded.
 	 */
 	private int[] positions;
+
+	/**
+	 * The number of valid entries in {@link #positions}.
+	 */
+	private int occurrenceCount;
     
 	/**
 	 * Constructor.
@@ -27,6 +35,40 @@ public class Posting {
 	public Posting(int documentId, int position) {
 		this.documentId = documentId;
 		this.positions = new int[] { position };
+		this.occurrenceCount = 1;
+	}
+
+	/**
+	 * Constructor.
+	 * @param documentId identifies the document for which this posting is valid
+	 * @param positions the positions where the term occurs, sorted in ascending order
+	 */
+	public Posting(int documentId, int[] positions) {
+		this.documentId = documentId;
+		this.positions = positions;
+		this.occurrenceCount = positions.length;
+	}
+
+	/**
+	 * Constructor. Records only how many times the term occurs, not where,
+	 * e.g., for an index that is only used for term frequencies.
+	 * @param documentId identifies the document for which this posting is valid
+	 * @see #appendOccurrence()
+	 */
+	public Posting(int documentId) {
+		this(documentId, 1, null);
+	}
+
+	/**
+	 * Constructor. For decoding postings.
+	 * @param documentId identifies the document for which this posting is valid
+	 * @param occurrenceCount the number of times the term occurs
+	 * @param positions the positions where the term occurs, or null if they aren't recorded
+	 */
+	Posting(int documentId, int occurrenceCount, int[] positions) {
+		this.documentId = documentId;
+		this.positions = positions;
+		this.occurrenceCount = occurrenceCount;
 	}
 
 	/**
@@ -38,12 +80,32 @@ public class Posting {
 	}
 
 	/**
-	 * Returns the position occurrence data for the term.
-	 * @return the set of positions in the document where the term occurs
+	 * Returns the position occurrence data for the term. Once the posting
+	 * is finished, see {@link #trim()}, the length of the returned array is
+	 * the number of occurrences. Until then, only the first
+	 * {@link #getOccurrenceCount()} entries are valid.
+	 * @return the set of positions in the document where the term occurs, or null if they aren't recorded
 	 */
 	public int[] getPositions() {
 		return this.positions;
 	}
+
+	/**
+	 * Returns a given position occurrence for the term. Unlike
+	 * {@link #getPositions()}, this never copies anything.
+	 * @param i the index of the position, in the range {0, ..., getOccurrenceCount() - 1}
+	 * @return the identified position in the document where the term occurs
+	 * @throws IllegalStateException if positions aren't recorded
+	 */
+	public int getPosition(int i) {
+		if (this.positions == null) {
+			throw new IllegalStateException();
+		}
+		if (i >= this.occurrenceCount) {
+			throw new IndexOutOfBoundsException();
+		}
+		return this.positions[i];
+	}
     
 	/**
 	 * Returns the number of times the term occurs in the document, i.e., the 
@@ -51,15 +113,24 @@ public class Posting {
 	 * @return the number of times the term occurs in the document
 	 */
 	public int getOccurrenceCount() {
-		return this.positions.length;
+		return this.occurrenceCount;
 	}
     
+	/**
+	 * Returns true if the posting records where the term occurs, and not
+	 * only how many times.
+	 * @return true if and only if positions are recorded
+	 */
+	public boolean hasPositions() {
+		return (this.positions != null);
+	}
+
 	/**
 	 * Returns the last position occurrence for the term. 
 	 * @return the last position occurrence for the term
 	 */
 	private int lastPosition() {
-		return this.positions[this.positions.length - 1];
+		return this.positions[this.occurrenceCount - 1];
 	}
 
 	/**
@@ -71,23 +142,41 @@ public class Posting {
 	 */
 	public void appendPosition(int position) {
 		// Barf if the list isn't kept sorted. Puts the onus on the indexer.
-		if (this.lastPosition() > position) {
+		if (this.positions == null || this.lastPosition() > position) {
 			throw new IllegalStateException();
 		}
-		// For now, only allocate one extra element to avoid the overhead of
-		// having to differentiate between the array's logical size and its capacity.
-		// TODO: Revisit this, when we deal with "real" documents.
-		this.positions = Arrays.copyOf(this.positions, 1 + this.positions.length);
-		
+		// Grow geometrically, so that appending n positions copies O(n) entries
+		// in total. Most terms occur once or twice, so start small.
+		if (this.occurrenceCount == this.positions.length) {
+			this.positions = Arrays.copyOf(this.positions, Math.max(2, 2 * this.occurrenceCount));
+		}
+
 		// Append.
-		this.positions[this.positions.length - 1] = position;
+		this.positions[this.occurrenceCount++] = position;
+	}
+
+	/**
+	 * Counts another occurrence of the term, for a posting that doesn't
+	 * record positions.
+	 * @throws IllegalStateException if positions are recorded
+	 */
+	public void appendOccurrence() {
+		if (this.positions != null) {
+			throw new IllegalStateException();
+		}
+		++this.occurrenceCount;
 	}
 
 	/**
 	 * Trims the size of the posting entry so that it doesn't allocate
 	 * more memory than needed. This is different from index compression.
+	 * Done by {@link PostingList} when the posting is finished, i.e., when
+	 * the next posting is appended, so not safe to call concurrently with
+	 * readers.
 	 */
 	public void trim() {
-		
+		if (this.positions != null && this.positions.length != this.occurrenceCount) {
+			this.positions = Arrays.copyOf(this.positions, this.occurrenceCount);
+		}
 	}
 }
\ No newline at end of file
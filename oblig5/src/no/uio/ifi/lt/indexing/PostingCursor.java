@@ -0,0 +1,313 @@
+package no.uio.ifi.lt.indexing;
+import java.nio.ByteBuffer;
+import no.uio.ifi.lt.utils.VariableByte;
+
+/**
+ * Traverses a {@link PostingList} from front to back, one {@link Posting}
+ * at a time. If the posting list is compressed, the postings are decoded
+ * on the fly: The document identifiers and occurrence counts of a whole
+ * block at a time into arrays, and position data only if the current
+ * {@link Posting} is actually asked for. If the document identifiers are
+ * in a bitmap, they are read from there instead.
+ */
+public class PostingCursor {
+	/** The posting list we are traversing. */
+	private PostingList postingList;
+
+	/** The index of the current posting. */
+	private int index;
+
+	/** The document identifier of the current posting. */
+	private int documentId;
+
+	/** The occurrence count of the current posting. */
+	private int occurrenceCount;
+
+	/** For compressed lists, where the next unread byte is. */
+	private int offset;
+
+	/** For compressed lists, the index of the first posting in the decoded block. */
+	private int blockStart;
+
+	/** For compressed lists, the number of postings in the decoded block. */
+	private int blockSize;
+
+	/** For compressed lists, the document identifiers in the decoded block. */
+	private int[] documentIds;
+
+	/** For compressed lists, the occurrence counts in the decoded block. */
+	private int[] occurrenceCounts;
+
+	/** For compressed lists, where the positions of posting {@link #positionsIndex} start. */
+	private int positionsOffset;
+
+	/** For compressed lists, the posting in the decoded block whose positions are next. */
+	private int positionsIndex;
+
+	/** The current posting, if it has been decoded. */
+	private Posting posting;
+
+	/** For compressed lists, the block located by {@link #shallowAdvance(int)}. */
+	private int shallowBlock;
+
+	/**
+	 * Constructor. The cursor starts out positioned at the first posting.
+	 * @param postingList the posting list to traverse
+	 */
+	public PostingCursor(PostingList postingList) {
+		this.postingList = postingList;
+		this.index = -1;
+		this.next();
+	}
+
+	/**
+	 * Returns the index of the current posting in the posting list.
+	 * @return the index of the current posting
+	 */
+	public int getIndex() {
+		return this.index;
+	}
+
+	/**
+	 * Returns true if the cursor has moved past the last posting.
+	 * @return true if and only if there are no more postings to traverse
+	 */
+	public boolean isExhausted() {
+		return (this.index >= this.postingList.size());
+	}
+
+	/**
+	 * Returns the document identifier of the current posting.
+	 * @return the document identifier of the current posting
+	 */
+	public int getDocumentId() {
+		return this.documentId;
+	}
+
+	/**
+	 * Returns the occurrence count of the current posting. Cheaper than
+	 * going through {@link #getPosting()}, since no positions get decoded.
+	 * @return the number of times the term occurs in the current document
+	 */
+	public int getOccurrenceCount() {
+		return this.occurrenceCount;
+	}
+
+	/**
+	 * Returns the current posting, decoding it if needed.
+	 * @return the current {@link Posting}
+	 */
+	public Posting getPosting() {
+		if (this.posting == null && !this.postingList.positional) {
+			this.posting = new Posting(this.documentId, this.occurrenceCount, null);
+		}
+		if (this.posting == null) {
+			// Skip the positions of the postings in the block that we didn't decode.
+			ByteBuffer data = this.postingList.data;
+			int current = this.index - this.blockStart;
+			this.offset = this.positionsOffset;
+			for (; this.positionsIndex < current; ++this.positionsIndex) {
+				for (int i = 0; i < this.occurrenceCounts[this.positionsIndex]; ++i) {
+					while (!VariableByte.isLast(data.get(this.offset++))) {
+						// Nothing to do.
+					}
+				}
+			}
+			// Positions are gap encoded.
+			int[] positions = new int[this.occurrenceCount];
+			int position = 0;
+			for (int i = 0; i < positions.length; ++i) {
+				position += this.readNumber(data);
+				positions[i] = position;
+			}
+			this.positionsOffset = this.offset;
+			++this.positionsIndex;
+			this.posting = new Posting(this.documentId, positions);
+		}
+		return this.posting;
+	}
+
+	/**
+	 * Moves the cursor to the next posting.
+	 */
+	public void next() {
+		++this.index;
+		this.posting = null;
+		if (this.isExhausted()) {
+			return;
+		}
+		// Uncompressed lists are easy.
+		if (this.postingList.data == null) {
+			this.posting = this.postingList.getPosting(this.index);
+			this.documentId = this.posting.getDocumentId();
+			this.occurrenceCount = this.posting.getOccurrenceCount();
+			return;
+		}
+		// Past the decoded block? Decode the next one.
+		if (this.index >= this.blockStart + this.blockSize) {
+			this.decodeBlock(this.index / PostingList.BLOCK_SIZE);
+		}
+		this.documentId = this.documentIds[this.index - this.blockStart];
+		this.occurrenceCount = this.occurrenceCounts[this.index - this.blockStart];
+	}
+
+	/**
+	 * Moves the cursor forward to the first posting whose document identifier
+	 * is at least the given target. The cursor never moves backwards. For
+	 * compressed lists, the block table serves as skip data: We gallop
+	 * over whole blocks, and only decode the postings of the block that
+	 * the target falls within.
+	 * @param target the document identifier to advance to
+	 */
+	public void advance(int target) {
+		if (this.isExhausted() || this.documentId >= target) {
+			return;
+		}
+		if (this.postingList.data == null) {
+			this.advanceUncompressed(target);
+			return;
+		}
+		int current = this.index / PostingList.BLOCK_SIZE;
+		int block = this.postingList.findBlock(target, current);
+
+		// Jump, unless the target is in the current block.
+		if (block > current) {
+			this.decodeBlock(block);
+		}
+		// Scan the decoded document identifiers, and leave the rest to next().
+		int i = Math.max(this.index - this.blockStart, 0);
+		while (i < this.blockSize && this.documentIds[i] < target) {
+			++i;
+		}
+		this.index = this.blockStart + i - 1;
+		this.next();
+	}
+
+	/**
+	 * Locates the block that the given document identifier falls within, without
+	 * moving the cursor or decoding anything. Lets clients check the block's
+	 * {@link #getShallowMaxOccurrenceCount()} and {@link #getShallowLastDocumentId()}
+	 * before deciding whether to {@link #advance(int)}. An uncompressed list
+	 * is treated as a single block.
+	 * @param target the document identifier to look for
+	 */
+	public void shallowAdvance(int target) {
+		if (this.postingList.data != null && !this.isExhausted()) {
+			int current = Math.max(this.shallowBlock, this.index / PostingList.BLOCK_SIZE);
+			this.shallowBlock = this.postingList.findBlock(target, current);
+		}
+	}
+
+	/**
+	 * Returns the largest occurrence count in the block located by the last
+	 * call to {@link #shallowAdvance(int)}.
+	 * @return the largest occurrence count in the located block
+	 */
+	public int getShallowMaxOccurrenceCount() {
+		if (this.postingList.data == null) {
+			return this.postingList.getMaxOccurrenceCount();
+		}
+		return this.postingList.blockMaxOccurrenceCounts[this.shallowBlock];
+	}
+
+	/**
+	 * Returns the last document identifier in the block located by the
+	 * last call to {@link #shallowAdvance(int)}.
+	 * @return the last document identifier in the located block
+	 */
+	public int getShallowLastDocumentId() {
+		if (this.postingList.data == null) {
+			return this.postingList.getLastPosting().getDocumentId();
+		}
+		return this.postingList.getBlockLastDocumentId(this.shallowBlock);
+	}
+
+	/**
+	 * Implements {@link #advance(int)} for uncompressed lists, by galloping
+	 * followed by a binary search.
+	 * @param target the document identifier to advance to
+	 */
+	private void advanceUncompressed(int target) {
+		int size = this.postingList.size();
+		int low = this.index;
+		int step = 1;
+		while (low + step < size && this.postingList.getPosting(low + step).getDocumentId() < target) {
+			low += step;
+			step <<= 1;
+		}
+		// The answer is in (low, high].
+		int high = Math.min(low + step, size);
+		while (high - low > 1) {
+			int middle = (low + high) >>> 1;
+			if (this.postingList.getPosting(middle).getDocumentId() < target) {
+				low = middle;
+			}
+			else {
+				high = middle;
+			}
+		}
+		this.index = high - 1;
+		this.next();
+	}
+
+	/**
+	 * Positions the cursor at the given posting of a compressed list, at or
+	 * after the current one. Only decodes the block that the posting is in.
+	 * @param i the index of the posting to move to
+	 */
+	void seek(int i) {
+		int block = i / PostingList.BLOCK_SIZE;
+		if (block > this.index / PostingList.BLOCK_SIZE) {
+			this.decodeBlock(block);
+		}
+		this.index = i - 1;
+		this.next();
+	}
+
+	/**
+	 * Decodes the document identifiers and occurrence counts in the given
+	 * block of a compressed list, and notes where its positions start.
+	 * @param block the block to decode
+	 */
+	private void decodeBlock(int block) {
+		ByteBuffer data = this.postingList.data;
+		this.blockStart = block * PostingList.BLOCK_SIZE;
+		this.blockSize = Math.min(PostingList.BLOCK_SIZE, this.postingList.size() - this.blockStart);
+		if (this.documentIds == null) {
+			int capacity = Math.min(PostingList.BLOCK_SIZE, this.postingList.size());
+			this.documentIds = new int[capacity];
+			this.occurrenceCounts = new int[capacity];
+		}
+		this.offset = this.postingList.blockOffsets[block];
+		int documentId = this.postingList.blockBaseDocumentIds[block];
+		if (this.postingList.bitmap != null) {
+			// The first block may start with document 0, and the others after their base.
+			this.postingList.bitmap.nextSetBits((block == 0) ? 0 : documentId + 1, this.documentIds, this.blockSize);
+		}
+		else {
+			for (int i = 0; i < this.blockSize; ++i) {
+				documentId += this.readNumber(data);
+				this.documentIds[i] = documentId;
+			}
+		}
+		for (int i = 0; i < this.blockSize; ++i) {
+			this.occurrenceCounts[i] = this.readNumber(data);
+		}
+		this.positionsOffset = this.offset;
+		this.positionsIndex = 0;
+	}
+
+	/**
+	 * Decodes the next variable byte encoded number.
+	 * @param data the compressed postings
+	 * @return the decoded number
+	 */
+	private int readNumber(ByteBuffer data) {
+		int value = 0;
+		byte b;
+		while (!VariableByte.isLast(b = data.get(this.offset++))) {
+			value = (value << 7) | VariableByte.payload(b);
+		}
+		return (value << 7) | VariableByte.payload(b);
+	}
+}
@@ -1,18 +1,177 @@
 package no.uio.ifi.lt.indexing;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import no.uio.ifi.lt.utils.RoaringBitmap;
+import no.uio.ifi.lt.utils.VariableByte;
 
 /**
  * Defines information about in which documents a term is
  * found plus associated meta data with that, e.g., where
  * in the documents that the term is found.
+ * <p>
+ * A posting list is built up uncompressed by appending {@link Posting}
+ * objects, and can then be compressed once it is complete. A compressed
+ * posting list stores the postings in blocks of {@link #BLOCK_SIZE}
+ * entries. Each block is laid out in columns: first the document identifiers
+ * of all postings in the block, then their occurrence counts, and then their
+ * positions. Document identifiers and positions are gap encoded, and all
+ * numbers are {@link VariableByte} encoded. Scoring by occurrence counts thus
+ * never has to step over the positions. A list of postings that don't record
+ * positions, see {@link Posting#hasPositions()}, stores just the first two
+ * columns. The document identifiers of a dense posting list, e.g., for a
+ * stopword, are instead kept in a {@link RoaringBitmap} if that is smaller,
+ * and the blocks then leave out the first column. Compressed postings are
+ * decoded on the fly, one block at a time, preferably by a {@link PostingCursor}.
+ * A compressed posting list may also carry its postings' precomputed scores,
+ * in impact order, see {@link ImpactList}.
+ * The compressed postings can be written to disk, and read back from, e.g.,
+ * a memory-mapped file without copying them.
  */
 public class PostingList {
+	/**
+	 * The number of postings per compressed block. Random access into a
+	 * compressed posting list decodes at most this many postings.
+	 */
+	static final int BLOCK_SIZE = 64;
+
+	/**
+	 * Set in the flags written by {@link #writeTo(DataOutput)} if the
+	 * posting list stores positions.
+	 */
+	private static final int FLAG_POSITIONAL = 1;
+
+	/**
+	 * Set in the flags written by {@link #writeTo(DataOutput)} if the
+	 * document identifiers are stored in a bitmap.
+	 */
+	private static final int FLAG_BITMAP = 2;
+
+	/**
+	 * Set in the flags written by {@link #writeTo(DataOutput)} if the
+	 * posting list carries an {@link ImpactList}.
+	 */
+	private static final int FLAG_IMPACTS = 4;
+
 	/**
 	 * Keeps tracks of in which documents the term occurs. Sorted
 	 * in ascending order according to {@link Posting.getDocumentId()}.
+	 * Null once the posting list has been compressed.
 	 */
     private ArrayList<Posting> postings;
 
+	/**
+	 * The compressed postings, or null if the posting list is not compressed.
+	 * Only accessed through absolute gets, so it can be shared by threads.
+	 */
+	ByteBuffer data;
+
+	/**
+	 * For each compressed block, where in {@link #data} the block starts.
+	 */
+	int[] blockOffsets;
+
+	/**
+	 * For each compressed block, the document identifier that the first
+	 * document identifier gap in the block is relative to, i.e., the last
+	 * document identifier in the previous block.
+	 */
+	int[] blockBaseDocumentIds;
+
+	/**
+	 * For each compressed block, the largest occurrence count in the block.
+	 * Lets query evaluation bound the relevance of the documents in a block
+	 * without decoding it.
+	 */
+	int[] blockMaxOccurrenceCounts;
+
+	/**
+	 * Whether a compressed posting list stores positions.
+	 */
+	boolean positional = true;
+
+	/**
+	 * The document identifiers of a compressed posting list, if they are
+	 * stored as a bitmap rather than in the blocks.
+	 */
+	RoaringBitmap bitmap;
+
+	/**
+	 * The postings in impact order, if their scores have been precomputed.
+	 */
+	private ImpactList impacts;
+
+	/**
+	 * The last document identifier in a compressed posting list.
+	 */
+	private int lastDocumentId;
+
+	/**
+	 * The largest occurrence count in a compressed posting list.
+	 */
+	private int maxOccurrenceCount;
+
+	/**
+	 * The number of postings in a compressed posting list.
+	 */
+	private int compressedCount;
+
+	/**
+	 * The number of bytes the compressed postings would occupy as plain
+	 * <code>int</code> values, i.e., one each for the document identifier,
+	 * the occurrence count and every position, if recorded.
+	 */
+	private long uncompressedSize;
+
+	/**
+	 * Constructor. Creates an empty posting list.
+	 */
+	public PostingList() {
+	}
+
+	/**
+	 * Constructor. Reads a compressed posting list as written by
+	 * {@link #writeTo(DataOutput)}, starting at the given offset. The
+	 * block table is copied, but the postings themselves are not.
+	 * @param buffer the buffer to read from, e.g., a memory-mapped file
+	 * @param offset where in the buffer the posting list starts
+	 */
+	PostingList(ByteBuffer buffer, int offset) {
+		this.compressedCount = buffer.getInt(offset);
+		this.lastDocumentId = buffer.getInt(offset + 4);
+		this.maxOccurrenceCount = buffer.getInt(offset + 8);
+		this.uncompressedSize = buffer.getLong(offset + 12);
+		int blockCount = buffer.getInt(offset + 20);
+		int dataLength = buffer.getInt(offset + 24);
+		int flags = buffer.getInt(offset + 28);
+		this.positional = (flags & FLAG_POSITIONAL) != 0;
+		offset += 32;
+		this.blockOffsets = new int[blockCount];
+		this.blockBaseDocumentIds = new int[blockCount];
+		this.blockMaxOccurrenceCounts = new int[blockCount];
+		for (int i = 0; i < blockCount; ++i, offset += 12) {
+			this.blockOffsets[i] = buffer.getInt(offset);
+			this.blockBaseDocumentIds[i] = buffer.getInt(offset + 4);
+			this.blockMaxOccurrenceCounts[i] = buffer.getInt(offset + 8);
+		}
+		if ((flags & FLAG_BITMAP) != 0) {
+			this.bitmap = new RoaringBitmap(buffer, offset);
+			offset += this.bitmap.getSerializedSize();
+		}
+		if ((flags & FLAG_IMPACTS) != 0) {
+			this.impacts = new ImpactList(buffer, offset);
+			offset += this.impacts.getSerializedSize();
+		}
+		ByteBuffer data = buffer.duplicate();
+		data.position(offset);
+		data.limit(offset + dataLength);
+		this.data = data.slice();
+	}
+
 	/**
 	 * Returns the size of the posting list, i.e., the number of postings
 	 * in this posting list. Since there is one posting per document that
@@ -21,6 +180,9 @@ public class PostingList {
 	 * @return the size of the posting list
 	 */
 	public int size() {
+		if (this.data != null) {
+			return this.compressedCount;
+		}
 		return (this.postings == null) ? 0 : this.postings.size();
 	}
 
@@ -30,7 +192,7 @@ public class PostingList {
 	 * @return the last {@link Posting} in the posting list
 	 */
 	public Posting getLastPosting() {
-		return this.postings.get(this.postings.size() - 1);
+		return this.getPosting(this.size() - 1);
 	}
 
 	/**
@@ -39,26 +201,156 @@ public class PostingList {
 	 * @return the first {@link Posting} in the posting list
 	 */
 	public Posting getFirstPosting() {
-		return this.postings.get(0);
+		return this.getPosting(0);
 	}
 
 	/**
-	 * Returns a given {@link Posting} in the posting list.
+	 * Returns a given {@link Posting} in the posting list. For a compressed
+	 * posting list, this decodes the posting, so use a {@link PostingCursor}
+	 * for sequential access.
 	 * @param i the index of the {@link Posting} to return
 	 * @return the identified {@link Posting}
 	 */
 	public Posting getPosting(int i) {
-		return this.postings.get(i);
+		if (this.data == null) {
+			return this.postings.get(i);
+		}
+		if (i < 0 || i >= this.compressedCount) {
+			throw new IndexOutOfBoundsException();
+		}
+		PostingCursor cursor = new PostingCursor(this);
+		cursor.seek(i);
+		return cursor.getPosting();
+	}
+
+	/**
+	 * Returns the largest occurrence count of any {@link Posting} in the list,
+	 * i.e., the largest number of times the term occurs in a single document.
+	 * @return the largest occurrence count in the posting list
+	 */
+	public int getMaxOccurrenceCount() {
+		if (this.data != null) {
+			return this.maxOccurrenceCount;
+		}
+		int maxOccurrenceCount = 0;
+		for (int i = 0; i < this.size(); ++i) {
+			maxOccurrenceCount = Math.max(maxOccurrenceCount, this.postings.get(i).getOccurrenceCount());
+		}
+		return maxOccurrenceCount;
+	}
+
+	/**
+	 * Returns the index of the block that the given document identifier falls
+	 * within, i.e., the last block whose postings are not all smaller than the
+	 * target, searching from the given block and onwards. We gallop over the
+	 * blocks, followed by a binary search. Only valid for compressed lists.
+	 * @param target the document identifier to look for
+	 * @param fromBlock the block to start searching from
+	 * @return the index of the block that the target falls within
+	 */
+	int findBlock(int target, int fromBlock) {
+		// Block b contains only document identifiers greater than base[b], and all
+		// blocks before it only smaller ones. Find the last block with base[b] < target.
+		int[] base = this.blockBaseDocumentIds;
+		int low = fromBlock;
+		int step = 1;
+		while (low + step < base.length && base[low + step] < target) {
+			low += step;
+			step <<= 1;
+		}
+		int high = Math.min(low + step, base.length);
+		while (high - low > 1) {
+			int middle = (low + high) >>> 1;
+			if (base[middle] < target) {
+				low = middle;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the last document identifier in the given block. Only valid
+	 * for compressed lists.
+	 * @param block the index of the block
+	 * @return the last document identifier in the block
+	 */
+	int getBlockLastDocumentId(int block) {
+		return (block + 1 < this.blockBaseDocumentIds.length) ? this.blockBaseDocumentIds[block + 1] : this.lastDocumentId;
+	}
+
+	/**
+	 * Returns true if the postings record where the term occurs, and not
+	 * only how many times. All postings in a list must agree on that.
+	 * @return true if and only if positions are recorded
+	 * @see Posting#hasPositions()
+	 */
+	public boolean hasPositions() {
+		if (this.data != null) {
+			return this.positional;
+		}
+		return (this.size() == 0 || this.postings.get(0).hasPositions());
+	}
+
+	/**
+	 * Returns the document identifiers of a compressed posting list as a
+	 * bitmap, if they are stored that way. Lets query evaluation combine
+	 * dense posting lists with bitwise operations.
+	 * @return the document identifiers, or null if they are not stored as a bitmap
+	 */
+	public RoaringBitmap getDocumentIdBitmap() {
+		return this.bitmap;
+	}
+
+	/**
+	 * Returns the postings in impact order, if their scores have been
+	 * precomputed. Lets query evaluation score documents by adding up
+	 * integers, highest contributions first.
+	 * @return the impact-ordered postings, or null if there are no impacts
+	 */
+	public ImpactList getImpacts() {
+		return this.impacts;
+	}
+
+	/**
+	 * Attaches the impact-ordered postings to a compressed posting list.
+	 * Concatenating posting lists drops the impacts, since they depend on
+	 * the whole collection.
+	 * @param impacts the impact-ordered postings
+	 * @throws IllegalStateException if the posting list isn't compressed
+	 */
+	void setImpacts(ImpactList impacts) {
+		if (this.data == null) {
+			throw new IllegalStateException();
+		}
+		this.impacts = impacts;
+	}
+
+	/**
+	 * Returns true if the posting list has been compressed.
+	 * @return true if and only if the posting list is compressed
+	 * @see #compress()
+	 */
+	public boolean isCompressed() {
+		return (this.data != null);
 	}
 
 	/**
 	 * Updates the posting list with the given {@link Posting}. The
 	 * posting entries must be appended in sorted order, or else an
-	 * exception will be thrown.
+	 * exception will be thrown. A compressed posting list cannot
+	 * be appended to. The previous posting is then finished, so it
+	 * is trimmed.
 	 * @param posting the {@link Posting} entry to add to the posting list
 	 * @throws IllegalStateException
-	 */    
+	 */
 	public void appendPosting(Posting posting) {
+		// Too late?
+		if (this.data != null) {
+			throw new IllegalStateException();
+		}
 		// First entry?
 		if (this.postings == null) {
 			this.postings = new ArrayList<Posting>(1);
@@ -67,31 +359,493 @@ public class PostingList {
 		else if (this.getLastPosting().getDocumentId() >= posting.getDocumentId()) {
 			throw new IllegalStateException();
 		}
-		this.postings.add(posting);    	
+		else {
+			this.getLastPosting().trim();
+		}
+		this.postings.add(posting);
 	}
-    
+
+	/**
+	 * Appends all postings in the given posting list to this one, e.g., when
+	 * merging partial indexes. The given posting list must only contain
+	 * document identifiers greater than those in this one, or else an
+	 * exception will be thrown. Neither posting list can be compressed.
+	 * @param postingList the posting list to append
+	 * @throws IllegalStateException
+	 */
+	void appendPostingList(PostingList postingList) {
+		if (this.data != null || postingList.data != null) {
+			throw new IllegalStateException();
+		}
+		if (postingList.size() == 0) {
+			return;
+		}
+		if (this.postings == null) {
+			this.postings = new ArrayList<Posting>(postingList.size());
+		}
+		else if (this.getLastPosting().getDocumentId() >= postingList.getFirstPosting().getDocumentId()) {
+			throw new IllegalStateException();
+		}
+		else {
+			this.getLastPosting().trim();
+		}
+		this.postings.addAll(postingList.postings);
+	}
+
 	/**
 	 * Trims the size of the posting list so that it doesn't allocate
 	 * more memory than needed. This is different from index compression.
 	 */
 	public void trim() {
+		if (this.postings == null) {
+			return;
+		}
 		for (Posting posting : this.postings) {
 			posting.trim();
 		}
 		this.postings.trimToSize();
 	}
 
+	/**
+	 * Compresses the posting list, and releases the uncompressed
+	 * {@link Posting} objects. Once compressed, the posting list is
+	 * read-only. Compressing an already compressed list does nothing.
+	 */
+	public void compress() {
+		if (this.data != null) {
+			return;
+		}
+		// The last posting is finished too, in case anyone holds on to it.
+		if (this.size() > 0) {
+			this.getLastPosting().trim();
+		}
+		Encoder encoder = new Encoder(this.size(), this.hasPositions());
+		for (int i = 0; i < this.size(); ++i) {
+			encoder.append(this.postings.get(i), 0);
+		}
+		encoder.finish(this);
+		this.postings = null;
+	}
+
+	/**
+	 * Concatenates compressed posting lists into a new compressed posting list,
+	 * e.g., when merging index segments. Each list's document identifiers are
+	 * shifted by the corresponding offset, and the shifted lists must be in
+	 * ascending order of document identifiers. Whenever the concatenated list
+	 * ends on a block boundary, the next list's blocks are copied without
+	 * decoding them, unless its document identifiers are in a bitmap.
+	 * Otherwise, its postings are decoded and encoded again.
+	 * @param postingLists the compressed posting lists to concatenate
+	 * @param documentIdOffsets what to add to each list's document identifiers
+	 * @return the concatenated posting list
+	 * @throws IllegalStateException if a list isn't compressed, or the lists are out of order
+	 */
+	public static PostingList concatenate(PostingList[] postingLists, int[] documentIdOffsets) {
+		return concatenate(postingLists, documentIdOffsets, null);
+	}
+
+	/**
+	 * Concatenates compressed posting lists as {@link #concatenate(PostingList[], int[])}
+	 * does, but leaves out the postings for the given documents, e.g., for
+	 * purging deleted documents when merging index segments. Blocks are only
+	 * copied from lists that don't lose any postings.
+	 * @param postingLists the compressed posting lists to concatenate
+	 * @param documentIdOffsets what to add to each list's document identifiers
+	 * @param excludedDocumentIds the shifted document identifiers to leave out, or null to keep all
+	 * @return the concatenated posting list
+	 * @throws IllegalStateException if a list isn't compressed, or the lists are out of order
+	 */
+	public static PostingList concatenate(PostingList[] postingLists, int[] documentIdOffsets, BitSet excludedDocumentIds) {
+		int count = 0;
+		boolean positional = true;
+		for (PostingList postingList : postingLists) {
+			if (postingList.data == null) {
+				throw new IllegalStateException();
+			}
+			if (count == 0) {
+				positional = postingList.positional;
+			}
+			count += postingList.size();
+		}
+		Encoder encoder = new Encoder(count, positional);
+		for (int i = 0; i < postingLists.length; ++i) {
+			// Does the list lose any postings? Its identifiers are between the offset and its last one.
+			boolean excluding = false;
+			if (excludedDocumentIds != null) {
+				int excludedDocumentId = excludedDocumentIds.nextSetBit(documentIdOffsets[i]);
+				excluding = (excludedDocumentId >= 0 && excludedDocumentId <= postingLists[i].lastDocumentId + documentIdOffsets[i]);
+			}
+			if (encoder.count % BLOCK_SIZE == 0 && !excluding && postingLists[i].bitmap == null) {
+				encoder.appendBlocks(postingLists[i], documentIdOffsets[i]);
+			}
+			else {
+				for (PostingCursor cursor = new PostingCursor(postingLists[i]); !cursor.isExhausted(); cursor.next()) {
+					Posting posting = cursor.getPosting();
+					if (!excluding || !excludedDocumentIds.get(posting.getDocumentId() + documentIdOffsets[i])) {
+						encoder.append(posting, documentIdOffsets[i]);
+					}
+				}
+			}
+		}
+		PostingList concatenated = new PostingList();
+		encoder.finish(concatenated);
+		return concatenated;
+	}
+
+	/**
+	 * Encodes postings into blocks, for {@link #compress()} and
+	 * {@link #concatenate(PostingList[], int[], BitSet)}.
+	 */
+	private static class Encoder {
+		/** The compressed postings so far. */
+		private ByteArrayOutputStream out;
+
+		/** Whether to encode positions. */
+		private final boolean positional;
+
+		/** The block table so far. */
+		private int[] blockOffsets;
+		private int[] blockBaseDocumentIds;
+		private int[] blockMaxOccurrenceCounts;
+
+		/** The number of postings encoded so far. */
+		int count;
+
+		/** The last document identifier encoded so far. */
+		private int previousDocumentId;
+
+		/** The document identifier gaps and occurrence counts in the current block. */
+		private final int[] gaps = new int[BLOCK_SIZE];
+		private final int[] occurrenceCounts = new int[BLOCK_SIZE];
+
+		/** The encoded positions in the current block. */
+		private final ByteArrayOutputStream positions = new ByteArrayOutputStream();
+
+		/** The uncompressed size of the postings encoded so far. */
+		private long uncompressedSize;
+
+		/**
+		 * Constructor.
+		 * @param count the number of postings that will be encoded, at most
+		 * @param positional whether the postings record positions
+		 */
+		Encoder(int count, boolean positional) {
+			this.positional = positional;
+			int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			this.out = new ByteArrayOutputStream(4 * count);
+			this.blockOffsets = new int[blockCount];
+			this.blockBaseDocumentIds = new int[blockCount];
+			this.blockMaxOccurrenceCounts = new int[blockCount];
+		}
+
+		/**
+		 * Encodes a posting.
+		 * @param posting the posting to encode
+		 * @param documentIdOffset what to add to the posting's document identifier
+		 */
+		void append(Posting posting, int documentIdOffset) {
+			int documentId = posting.getDocumentId() + documentIdOffset;
+			this.checkOrder(documentId);
+			if (posting.hasPositions() != this.positional) {
+				throw new IllegalStateException();
+			}
+			int block = this.count / BLOCK_SIZE;
+			int i = this.count % BLOCK_SIZE;
+
+			// New block? Note what its first gap is relative to, to support random access.
+			if (i == 0) {
+				this.blockBaseDocumentIds[block] = this.previousDocumentId;
+			}
+			int occurrenceCount = posting.getOccurrenceCount();
+			this.gaps[i] = documentId - this.previousDocumentId;
+			this.occurrenceCounts[i] = occurrenceCount;
+			if (this.positional) {
+				int previousPosition = 0;
+				for (int j = 0; j < occurrenceCount; ++j) {
+					int position = posting.getPosition(j);
+					VariableByte.write(this.positions, position - previousPosition);
+					previousPosition = position;
+				}
+				this.uncompressedSize += 4 * occurrenceCount;
+			}
+			this.previousDocumentId = documentId;
+			this.blockMaxOccurrenceCounts[block] = Math.max(this.blockMaxOccurrenceCounts[block], occurrenceCount);
+			this.uncompressedSize += 4 * 2;
+			++this.count;
+
+			// Full block? Write it out.
+			if (i + 1 == BLOCK_SIZE) {
+				this.flushBlock(BLOCK_SIZE);
+			}
+		}
+
+		/**
+		 * Writes the current block, column by column.
+		 * @param size the number of postings in the block
+		 */
+		private void flushBlock(int size) {
+			this.blockOffsets[(this.count - 1) / BLOCK_SIZE] = this.out.size();
+			for (int i = 0; i < size; ++i) {
+				VariableByte.write(this.out, this.gaps[i]);
+			}
+			for (int i = 0; i < size; ++i) {
+				VariableByte.write(this.out, this.occurrenceCounts[i]);
+			}
+			byte[] positions = this.positions.toByteArray();
+			this.out.write(positions, 0, positions.length);
+			this.positions.reset();
+		}
+
+		/**
+		 * Copies the blocks of a compressed posting list. Only the first
+		 * document identifier gap needs encoding again, since it is relative
+		 * to the last document identifier encoded so far. It comes first in
+		 * the first block. A partial last block is encoded again, though,
+		 * since the next postings have to go into its columns. Must start
+		 * on a block boundary.
+		 * @param postingList the compressed posting list to copy
+		 * @param documentIdOffset what to add to the list's document identifiers
+		 */
+		void appendBlocks(PostingList postingList, int documentIdOffset) {
+			if (postingList.size() == 0) {
+				return;
+			}
+			if (postingList.positional != this.positional) {
+				throw new IllegalStateException();
+			}
+			ByteBuffer data = postingList.data.duplicate();
+			int blockCount = postingList.size() / BLOCK_SIZE;
+			int firstBlock = this.count / BLOCK_SIZE;
+			long uncompressedSize = this.uncompressedSize + postingList.uncompressedSize;
+			for (int i = 0; i < blockCount; ++i) {
+				int start = postingList.blockOffsets[i];
+				int end = (i + 1 < postingList.blockOffsets.length) ? postingList.blockOffsets[i + 1] : data.capacity();
+				this.blockOffsets[firstBlock + i] = this.out.size();
+				this.blockBaseDocumentIds[firstBlock + i] = (i == 0) ? this.previousDocumentId : postingList.blockBaseDocumentIds[i] + documentIdOffset;
+				this.blockMaxOccurrenceCounts[firstBlock + i] = postingList.blockMaxOccurrenceCounts[i];
+				if (i == 0) {
+					// Decode the first gap, and encode it relative to where we are.
+					int gap = 0;
+					byte b;
+					do {
+						b = data.get(start++);
+						gap = (gap << 7) | VariableByte.payload(b);
+					} while (!VariableByte.isLast(b));
+					int documentId = postingList.blockBaseDocumentIds[0] + gap + documentIdOffset;
+					this.checkOrder(documentId);
+					VariableByte.write(this.out, documentId - this.previousDocumentId);
+				}
+				byte[] bytes = new byte[end - start];
+				data.position(start);
+				data.get(bytes);
+				this.out.write(bytes, 0, bytes.length);
+			}
+			this.count += blockCount * BLOCK_SIZE;
+			if (blockCount == postingList.blockOffsets.length) {
+				this.previousDocumentId = postingList.lastDocumentId + documentIdOffset;
+			}
+			else {
+				if (blockCount > 0) {
+					this.previousDocumentId = postingList.blockBaseDocumentIds[blockCount] + documentIdOffset;
+				}
+				PostingCursor cursor = new PostingCursor(postingList);
+				for (cursor.seek(blockCount * BLOCK_SIZE); !cursor.isExhausted(); cursor.next()) {
+					this.append(cursor.getPosting(), documentIdOffset);
+				}
+			}
+			// The postings we encoded again are already accounted for.
+			this.uncompressedSize = uncompressedSize;
+		}
+
+		/**
+		 * Barfs if the given document identifier doesn't come after the
+		 * ones encoded so far.
+		 */
+		private void checkOrder(int documentId) {
+			if (documentId < 0 || (this.count > 0 && documentId <= this.previousDocumentId)) {
+				throw new IllegalStateException();
+			}
+		}
+
+		/**
+		 * Stores the encoded postings in the given posting list.
+		 * @param postingList the posting list to compress into
+		 */
+		void finish(PostingList postingList) {
+			if (this.count % BLOCK_SIZE != 0) {
+				this.flushBlock(this.count % BLOCK_SIZE);
+			}
+			// Fewer postings than we made room for?
+			int blockCount = (this.count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			if (blockCount < this.blockOffsets.length) {
+				this.blockOffsets = Arrays.copyOf(this.blockOffsets, blockCount);
+				this.blockBaseDocumentIds = Arrays.copyOf(this.blockBaseDocumentIds, blockCount);
+				this.blockMaxOccurrenceCounts = Arrays.copyOf(this.blockMaxOccurrenceCounts, blockCount);
+			}
+			byte[] bytes = this.out.toByteArray();
+			postingList.bitmap = null;
+			if (this.count >= BLOCK_SIZE && 8L * this.count > this.previousDocumentId) {
+				bytes = this.extractBitmap(bytes, postingList);
+			}
+			postingList.data = ByteBuffer.wrap(bytes);
+			postingList.blockOffsets = this.blockOffsets;
+			postingList.blockBaseDocumentIds = this.blockBaseDocumentIds;
+			postingList.blockMaxOccurrenceCounts = this.blockMaxOccurrenceCounts;
+			postingList.positional = this.positional;
+			postingList.lastDocumentId = this.previousDocumentId;
+			postingList.maxOccurrenceCount = 0;
+			for (int blockMaxOccurrenceCount : this.blockMaxOccurrenceCounts) {
+				postingList.maxOccurrenceCount = Math.max(postingList.maxOccurrenceCount, blockMaxOccurrenceCount);
+			}
+			postingList.compressedCount = this.count;
+			postingList.uncompressedSize = this.uncompressedSize;
+		}
+
+		/**
+		 * Moves the document identifiers into a bitmap, if that is smaller than
+		 * their gaps. Only worth trying for dense lists, where a bitmap needs
+		 * about a bit per document in the collection, and less with runs.
+		 * @param bytes the encoded blocks
+		 * @param postingList gets the bitmap, if it is smaller
+		 * @return the encoded blocks, without their first column if it went into the bitmap
+		 */
+		private byte[] extractBitmap(byte[] bytes, PostingList postingList) {
+			RoaringBitmap bitmap = new RoaringBitmap();
+			int[] gapLengths = new int[this.blockOffsets.length];
+			int gapLength = 0;
+			for (int block = 0; block < this.blockOffsets.length; ++block) {
+				int offset = this.blockOffsets[block];
+				int documentId = this.blockBaseDocumentIds[block];
+				int size = Math.min(BLOCK_SIZE, this.count - block * BLOCK_SIZE);
+				for (int i = 0; i < size; ++i) {
+					int gap = 0;
+					byte b;
+					do {
+						b = bytes[offset++];
+						gap = (gap << 7) | VariableByte.payload(b);
+					} while (!VariableByte.isLast(b));
+					documentId += gap;
+					bitmap.add(documentId);
+				}
+				gapLengths[block] = offset - this.blockOffsets[block];
+				gapLength += gapLengths[block];
+			}
+			bitmap.optimize();
+			if (bitmap.getSerializedSize() >= gapLength) {
+				return bytes;
+			}
+			// Leave out the gaps. Each block's offset is overwritten after the next block's is read.
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length - gapLength);
+			for (int block = 0; block < this.blockOffsets.length; ++block) {
+				int start = this.blockOffsets[block] + gapLengths[block];
+				int end = (block + 1 < this.blockOffsets.length) ? this.blockOffsets[block + 1] : bytes.length;
+				this.blockOffsets[block] = out.size();
+				out.write(bytes, start, end - start);
+			}
+			postingList.bitmap = bitmap;
+			return out.toByteArray();
+		}
+	}
+
+	/**
+	 * Writes the compressed posting list, so that it can be read back by
+	 * {@link #PostingList(ByteBuffer, int)}. An uncompressed posting list
+	 * is compressed first, but left as it is.
+	 * @param out where to write the posting list
+	 * @return the number of bytes written
+	 * @throws IOException
+	 */
+	int writeTo(DataOutput out) throws IOException {
+		PostingList postingList = this;
+		if (this.data == null) {
+			postingList = new PostingList();
+			postingList.appendPostingList(this);
+			postingList.compress();
+		}
+		int blockCount = postingList.blockOffsets.length;
+		int dataLength = postingList.data.capacity();
+		out.writeInt(postingList.compressedCount);
+		out.writeInt(postingList.lastDocumentId);
+		out.writeInt(postingList.maxOccurrenceCount);
+		out.writeLong(postingList.uncompressedSize);
+		out.writeInt(blockCount);
+		out.writeInt(dataLength);
+		out.writeInt((postingList.positional ? FLAG_POSITIONAL : 0) | (postingList.bitmap != null ? FLAG_BITMAP : 0)
+				| (postingList.impacts != null ? FLAG_IMPACTS : 0));
+		for (int i = 0; i < blockCount; ++i) {
+			out.writeInt(postingList.blockOffsets[i]);
+			out.writeInt(postingList.blockBaseDocumentIds[i]);
+			out.writeInt(postingList.blockMaxOccurrenceCounts[i]);
+		}
+		int bitmapLength = 0;
+		if (postingList.bitmap != null) {
+			postingList.bitmap.writeTo(out);
+			bitmapLength = postingList.bitmap.getSerializedSize();
+		}
+		int impactsLength = 0;
+		if (postingList.impacts != null) {
+			postingList.impacts.writeTo(out);
+			impactsLength = postingList.impacts.getSerializedSize();
+		}
+		byte[] bytes = new byte[dataLength];
+		ByteBuffer data = postingList.data.duplicate();
+		data.position(0);
+		data.get(bytes);
+		out.write(bytes);
+		return 32 + 12 * blockCount + bitmapLength + impactsLength + dataLength;
+	}
+
+	/**
+	 * Returns the number of bytes used by the compressed postings, including
+	 * the block offsets and any bitmap or impacts. Returns 0 if the posting list is not compressed.
+	 * @return the size of the compressed posting list in bytes
+	 */
+	public long getCompressedSize() {
+		if (this.data == null) {
+			return 0;
+		}
+		long bitmapSize = (this.bitmap == null) ? 0 : this.bitmap.getSerializedSize();
+		long impactsSize = (this.impacts == null) ? 0 : this.impacts.getSerializedSize();
+		return this.data.capacity() + 12L * this.blockOffsets.length + bitmapSize + impactsSize;
+	}
+
+	/**
+	 * Returns the number of bytes the postings would occupy if stored as
+	 * plain <code>int</code> values. Returns 0 if the posting list is not
+	 * compressed.
+	 * @return the size of the uncompressed posting list in bytes
+	 */
+	public long getUncompressedSize() {
+		return this.uncompressedSize;
+	}
+
+	/**
+	 * Returns the compression ratio, i.e., the uncompressed size divided
+	 * by the compressed size. Returns 1.0 if the posting list is not compressed.
+	 * @return the compression ratio
+	 */
+	public double getCompressionRatio() {
+		long compressedSize = this.getCompressedSize();
+		return (compressedSize == 0) ? 1.0 : (double) this.uncompressedSize / compressedSize;
+	}
+
 	/**
 	 * Prints the posting list for debugging and manual inspection.
 	 */
 	public void debugPrint() {
-		for (Posting posting : this.postings) {
-			System.out.print(String.format("[%d;{", posting.getDocumentId()));
-			for (int position : posting.getPositions()) {
-				System.out.print(String.format("%d,", position));				
+		for (PostingCursor cursor = new PostingCursor(this); !cursor.isExhausted(); cursor.next()) {
+			Posting posting = cursor.getPosting();
+			if (posting.hasPositions()) {
+				System.out.print(String.format("[%d;{", posting.getDocumentId()));
+				for (int i = 0; i < posting.getOccurrenceCount(); ++i) {
+					System.out.print(String.format("%d,", posting.getPosition(i)));
+				}
+				System.out.print("}]");
+			}
+			else {
+				System.out.print(String.format("[%d;%d]", posting.getDocumentId(), posting.getOccurrenceCount()));
 			}
-			System.out.print("}]");
 		}
 		System.out.println();
 	}
-}
\ No newline at end of file
+}
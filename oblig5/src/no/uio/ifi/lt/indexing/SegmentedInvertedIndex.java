@@ -0,0 +1,929 @@
+package no.uio.ifi.lt.indexing;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import no.uio.ifi.lt.preprocessing.INormalizer;
+import no.uio.ifi.lt.storage.IDocument;
+import no.uio.ifi.lt.storage.IDocumentStore;
+import no.uio.ifi.lt.storage.InMemoryDocumentStore;
+import no.uio.ifi.lt.tokenization.ITokenizer;
+import no.uio.ifi.lt.utils.ThreadPools;
+
+/**
+ * An implementation of {@link IInvertedIndex} that documents can be added to
+ * while it is being searched, without rebuilding it. The index is a sequence
+ * of immutable segments, each covering a range of consecutive document
+ * identifiers. New documents are buffered until {@link #refresh()} is called,
+ * and are then indexed into a new, small segment and become searchable.
+ * <p>
+ * To keep the number of segments down, runs of similarly sized segments are
+ * merged, in the background by default. A run of at least
+ * {@link InvertedIndexSettings#mergeFactor} of the newest segments is merged
+ * whenever the largest segment in the run has at most that many times as
+ * many documents as the smallest one. The number of segments thus grows
+ * logarithmically with the number of documents.
+ * <p>
+ * Document identifiers are global, and are assigned in the order documents
+ * are added. Searches should go through {@link #getSnapshot()}, which pins
+ * the current segments. A snapshot concatenates the posting lists of the
+ * segments for a term the first time the term is looked up.
+ * <p>
+ * Documents can also be deleted or updated. A deleted document keeps its
+ * identifier, but is marked in a bitset that query evaluation consults, see
+ * {@link IInvertedIndex#getDeletedDocuments()}, and the document store returns
+ * null for it. Its postings are purged when its segment is merged, or
+ * rewritten on its own once {@link InvertedIndexSettings#maxDeletedFraction}
+ * of the segment has been deleted. Until then, deleted documents still count
+ * towards the sizes of the posting lists, i.e., the document frequencies,
+ * as well as towards the size of the document store. Updates are deletes
+ * followed by adds, so updated documents get new identifiers.
+ * <p>
+ * Safe for concurrent use.
+ */
+public class SegmentedInvertedIndex implements IInvertedIndex {
+	/** The tokenizer used when creating the inverted index. */
+	private ITokenizer tokenizer;
+
+	/** The normalizer used when creating the inverted index. */
+	private INormalizer normalizer;
+
+	/** How segments are built and merged. */
+	private InvertedIndexSettings settings;
+
+	/** For emitting log messages, if any. */
+	private Logger logger;
+
+	/** The documents added since the last refresh. Guarded by this. */
+	private List<IDocument> pendingDocuments = new ArrayList<IDocument>();
+
+	/** The documents deleted since the last refresh. Guarded by this. */
+	private BitSet pendingDeletions = new BitSet();
+
+	/** The number of documents added, searchable or not. Guarded by this. */
+	private int documentCount;
+
+	/** What searches see. */
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Runs merges, or null to merge as part of {@link #refresh()}. A thread of
+	 * its own by default, so that merges don't hold up searches on the default pool.
+	 */
+	private volatile ExecutorService mergeExecutor = ThreadPools.newSingleThreadPool("segment-merger");
+
+	/** Set while a background merge is scheduled or running. Guarded by this. */
+	private boolean mergeScheduled;
+
+	/** Held while refreshing, so that segments are added in document order. */
+	private final Object refreshLock = new Object();
+
+	/** Held while merging, so that there is only one merge at a time. */
+	private final Object mergeLock = new Object();
+
+	/** A document store for the documents in the current snapshot. */
+	private IDocumentStore documentStore = new IDocumentStore() {
+		public IDocument getDocument(int documentId) {
+			return snapshot.getDocumentStore().getDocument(documentId);
+		}
+
+		public int putDocument(IDocument document) {
+			return addDocument(document);
+		}
+
+		public int size() {
+			return snapshot.getDocumentStore().size();
+		}
+	};
+
+	/**
+	 * Constructor. Creates an empty index.
+	 * @param normalizer defines how the documents should be normalized
+	 * @param tokenizer defines how the documents should be tokenized
+	 * @param settings defines how segments are built and merged
+	 * @param logger defines where to emit log messages, if at all
+	 * @throws IllegalArgumentException if the settings ask for impacts
+	 */
+	public SegmentedInvertedIndex(INormalizer normalizer, ITokenizer tokenizer,
+	                              InvertedIndexSettings settings, Logger logger) {
+		if (settings.impactRanker != null) {
+			throw new IllegalArgumentException("Impacts are not supported for segmented indexes.");
+		}
+		this.normalizer = normalizer;
+		this.tokenizer = tokenizer;
+		this.settings = settings;
+		this.logger = logger;
+		this.snapshot = new Snapshot(new Segment[0], 0, null);
+	}
+
+	/**
+	 * Adds a document to the index. The document isn't searchable until
+	 * the next {@link #refresh()}.
+	 * @param document the document to add
+	 * @return the document's identifier
+	 */
+	public synchronized int addDocument(IDocument document) {
+		this.pendingDocuments.add(document);
+		return this.documentCount++;
+	}
+
+	/**
+	 * Deletes a document from the index. The document is still found until
+	 * the next {@link #refresh()}. Deleting a deleted document does nothing.
+	 * @param documentId the identifier of the document to delete
+	 * @throws IndexOutOfBoundsException if no such document has been added
+	 */
+	public synchronized void deleteDocument(int documentId) {
+		if (documentId < 0 || documentId >= this.documentCount) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.pendingDeletions.set(documentId);
+	}
+
+	/**
+	 * Replaces a document in the index, by deleting it and adding the new
+	 * version. Searches see both changes at the next {@link #refresh()}.
+	 * @param documentId the identifier of the document to replace
+	 * @param document the new version of the document
+	 * @return the new version's identifier
+	 * @throws IndexOutOfBoundsException if no such document has been added
+	 */
+	public synchronized int updateDocument(int documentId, IDocument document) {
+		this.deleteDocument(documentId);
+		return this.addDocument(document);
+	}
+
+	/**
+	 * Makes all documents added so far searchable, by indexing them into a
+	 * new segment, and hides the documents deleted so far. Schedules a merge
+	 * if the merge policy calls for one.
+	 */
+	public void refresh() {
+		synchronized (this.refreshLock) {
+			List<IDocument> documents;
+			BitSet deletions;
+			synchronized (this) {
+				documents = this.pendingDocuments;
+				deletions = this.pendingDeletions;
+				this.pendingDocuments = new ArrayList<IDocument>();
+				this.pendingDeletions = new BitSet();
+			}
+			if (!documents.isEmpty() || !deletions.isEmpty()) {
+				// Documents can be added while we index these. Only refreshes
+				// change the number of searchable documents, so it's stable.
+				Segment segment = documents.isEmpty() ? null : new Segment(this.snapshot.size, documents);
+				synchronized (this) {
+					Snapshot snapshot = this.snapshot;
+					Segment[] segments = snapshot.segments;
+					if (segment != null) {
+						segments = Arrays.copyOf(segments, segments.length + 1);
+						segments[segments.length - 1] = segment;
+					}
+					// Snapshots share the deletions, so add the old ones to the new ones, not vice versa.
+					BitSet deletedDocumentIds = snapshot.deletedDocumentIds;
+					if (!deletions.isEmpty()) {
+						if (deletedDocumentIds != null) {
+							deletions.or(deletedDocumentIds);
+						}
+						deletedDocumentIds = deletions;
+					}
+					this.snapshot = new Snapshot(segments, snapshot.generation + 1, deletedDocumentIds);
+				}
+				if (this.logger != null) {
+					this.logger.fine(String.format("Refreshed with %d new and %d deleted documents.", documents.size(), deletions.cardinality()));
+				}
+			}
+		}
+		ExecutorService mergeExecutor = this.mergeExecutor;
+		if (mergeExecutor == null) {
+			this.merge();
+		}
+		else {
+			this.scheduleMerge(mergeExecutor);
+		}
+	}
+
+	/**
+	 * Merges segments until the merge policy is satisfied. Searches see
+	 * the merged segments once each merge is done.
+	 */
+	public void merge() {
+		synchronized (this.mergeLock) {
+			while (true) {
+				Snapshot snapshot = this.snapshot;
+				int[] range = this.selectMerge(snapshot);
+				if (range == null) {
+					return;
+				}
+				int from = range[0];
+				int to = range[1];
+				int size = 0;
+				for (int i = from; i < to; ++i) {
+					size += snapshot.segments[i].size;
+				}
+				// Refreshes only append segments, so the run stays where it is. Documents
+				// deleted meanwhile just stay in the merged segment until next time.
+				Segment merged = new Segment(Arrays.copyOfRange(snapshot.segments, from, to), snapshot.deletedDocumentIds);
+				synchronized (this) {
+					Snapshot current = this.snapshot;
+					Segment[] replacement = new Segment[current.segments.length - (to - from) + 1];
+					System.arraycopy(current.segments, 0, replacement, 0, from);
+					replacement[from] = merged;
+					System.arraycopy(current.segments, to, replacement, from + 1, current.segments.length - to);
+					// Same documents, same results, so same generation. Unless we purged
+					// deleted documents, since that changes the document frequencies.
+					long generation = (merged.size < size) ? current.generation + 1 : current.generation;
+					this.snapshot = new Snapshot(replacement, generation, current.deletedDocumentIds);
+				}
+				if (this.logger != null) {
+					this.logger.fine(String.format("Merged %d segments into one with %d documents, purging %d.", to - from, merged.size, size - merged.size));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merges in the background, unless a merge is already underway.
+	 */
+	private synchronized void scheduleMerge(final ExecutorService mergeExecutor) {
+		if (this.mergeScheduled || this.selectMerge(this.snapshot) == null) {
+			return;
+		}
+		this.mergeScheduled = true;
+		mergeExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					merge();
+				}
+				catch (RuntimeException e) {
+					if (logger != null) {
+						logger.log(Level.SEVERE, "Merging segments failed.", e);
+					}
+					return;
+				}
+				finally {
+					synchronized (SegmentedInvertedIndex.this) {
+						mergeScheduled = false;
+					}
+				}
+				// Segments may have been added while we merged.
+				scheduleMerge(mergeExecutor);
+			}
+		});
+	}
+
+	/**
+	 * Finds the segments to merge next, if any. Runs of similarly sized
+	 * segments come first. Failing that, a segment is rewritten on its own
+	 * if enough of its documents have been deleted.
+	 * @param snapshot the current snapshot
+	 * @return the first segment to merge and the one after the last, or null if nothing needs merging
+	 */
+	private int[] selectMerge(Snapshot snapshot) {
+		Segment[] segments = snapshot.segments;
+		int from = findMerge(segments, this.settings.mergeFactor);
+		if (from >= 0) {
+			return new int[] { from, segments.length };
+		}
+		BitSet deletedDocumentIds = snapshot.deletedDocumentIds;
+		if (deletedDocumentIds != null) {
+			for (int i = 0; i < segments.length; ++i) {
+				// The purged documents are deleted, too, so don't count them twice.
+				Segment segment = segments[i];
+				int deletedCount = deletedDocumentIds.get(segment.base, segment.base + segment.documents.length).cardinality()
+				                   - (segment.documents.length - segment.size);
+				if (deletedCount > 0 && deletedCount >= this.settings.maxDeletedFraction * segment.size) {
+					return new int[] { i, i + 1 };
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the run of segments to merge, if any. The run always extends to
+	 * the newest segment, since the segments get smaller towards the end.
+	 * @param segments the segments, oldest first
+	 * @param mergeFactor the minimum run length, and the maximum size ratio within a run
+	 * @return the first segment in the run, or -1 if nothing needs merging
+	 */
+	private static int findMerge(Segment[] segments, int mergeFactor) {
+		int from = segments.length;
+		int smallest = Integer.MAX_VALUE;
+		int largest = 0;
+		while (from > 0) {
+			int size = Math.max(1, segments[from - 1].size);
+			if ((long) Math.max(largest, size) > (long) mergeFactor * Math.min(smallest, size)) {
+				break;
+			}
+			smallest = Math.min(smallest, size);
+			largest = Math.max(largest, size);
+			--from;
+		}
+		return (segments.length - from >= Math.max(2, mergeFactor)) ? from : -1;
+	}
+
+	/**
+	 * Replaces the executor that merges segments in the background.
+	 * The caller remains responsible for shutting it down.
+	 * @param mergeExecutor runs merges, or null to merge as part of {@link #refresh()}
+	 */
+	public void setMergeExecutor(ExecutorService mergeExecutor) {
+		this.mergeExecutor = mergeExecutor;
+	}
+
+	/**
+	 * Returns the number of segments that searches currently see.
+	 * @return the number of segments
+	 */
+	public int getSegmentCount() {
+		return this.snapshot.segments.length;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface.
+	 */
+	public ITokenizer getTokenizer() {
+		return this.tokenizer;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface.
+	 */
+	public INormalizer getNormalizer() {
+		return this.normalizer;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface. Documents put into
+	 * the store are added to the index, as by {@link #addDocument(IDocument)}.
+	 */
+	public IDocumentStore getDocumentStore() {
+		return this.documentStore;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface. Only valid together
+	 * with {@link #getPostingList(int)} if there is no refresh or merge in
+	 * between, so prefer going through {@link #getSnapshot()}.
+	 */
+	public ILexicon getLexicon() {
+		return this.snapshot.getLexicon();
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface. See {@link #getLexicon()}.
+	 */
+	public PostingList getPostingList(int lexiconId) {
+		return this.snapshot.getPostingList(lexiconId);
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface. Changes on every refresh
+	 * that adds or deletes documents, and on every merge that purges deleted ones.
+	 */
+	public long getGeneration() {
+		return this.snapshot.generation;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface. See {@link #getLexicon()}.
+	 */
+	public BitSet getDeletedDocuments() {
+		return this.snapshot.deletedDocumentIds;
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface.
+	 */
+	public double getStaticRankBound(int documentId) {
+		return this.snapshot.getStaticRankBound(documentId);
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface. See {@link #getLexicon()}.
+	 */
+	public ICollectionStatistics getStatistics() {
+		return this.snapshot.getStatistics();
+	}
+
+	/**
+	 * Implements the {@link IInvertedIndex} interface.
+	 */
+	public IInvertedIndex getSnapshot() {
+		return this.snapshot;
+	}
+
+	/**
+	 * An immutable index over a range of consecutive document identifiers.
+	 * The posting lists use local document identifiers, i.e., relative to
+	 * the first document in the segment.
+	 */
+	private final class Segment {
+		/** The global identifier of the first document in the segment. */
+		final int base;
+
+		/** The documents in the segment. Purged documents are null. */
+		final IDocument[] documents;
+
+		/** The number of documents that haven't been purged. */
+		final int size;
+
+		/** The terms in the segment. */
+		final ILexicon lexicon;
+
+		/** The compressed posting lists, by lexicon identifier. */
+		final PostingList[] postingLists;
+
+		/** Bounds the static ranks of the documents, by local identifier. */
+		final StaticRankTiers staticRankTiers;
+
+		/** The statistics about the segment, by local identifiers. */
+		final CollectionStatistics statistics;
+
+		/**
+		 * Constructor. Indexes the given documents.
+		 * @param base the global identifier of the first document
+		 * @param documents the documents to index
+		 */
+		Segment(int base, List<IDocument> documents) {
+			InMemoryDocumentStore documentStore = new InMemoryDocumentStore();
+			for (IDocument document : documents) {
+				documentStore.putDocument(document);
+			}
+			InMemoryInvertedIndex invertedIndex = new InMemoryInvertedIndex(documentStore, normalizer, tokenizer, settings, null);
+			this.base = base;
+			this.documents = documents.toArray(new IDocument[documents.size()]);
+			this.size = this.documents.length;
+			this.lexicon = invertedIndex.getLexicon();
+			this.postingLists = new PostingList[this.lexicon.size()];
+			for (int lexiconId = 0; lexiconId < this.postingLists.length; ++lexiconId) {
+				this.postingLists[lexiconId] = invertedIndex.getPostingList(lexiconId);
+			}
+			this.staticRankTiers = createStaticRankTiers(this.documents);
+			this.statistics = new CollectionStatistics(this.postingLists, this.documents.length, this.size);
+		}
+
+		/**
+		 * Constructor. Merges the given consecutive segments, without indexing
+		 * their documents again, and purges the deleted documents. Terms that
+		 * only occur in deleted documents are dropped.
+		 * @param segments the segments to merge, in document order
+		 * @param deletedDocumentIds the global identifiers of the deleted documents, or null if there are none
+		 */
+		Segment(Segment[] segments, BitSet deletedDocumentIds) {
+			this.base = segments[0].base;
+			Segment last = segments[segments.length - 1];
+			this.documents = new IDocument[last.base + last.documents.length - this.base];
+
+			// Which documents to purge, by local identifier?
+			BitSet purged = null;
+			if (deletedDocumentIds != null) {
+				purged = deletedDocumentIds.get(this.base, this.base + this.documents.length);
+				if (purged.isEmpty()) {
+					purged = null;
+				}
+			}
+			int size = 0;
+			CompactLexicon values = new CompactLexicon(segments[0].lexicon.size());
+			List<PostingList[]> parts = new ArrayList<PostingList[]>();
+			for (int i = 0; i < segments.length; ++i) {
+				for (int j = 0; j < segments[i].documents.length; ++j) {
+					int documentId = segments[i].base - this.base + j;
+					if (segments[i].documents[j] != null && (purged == null || !purged.get(documentId))) {
+						this.documents[documentId] = segments[i].documents[j];
+						++size;
+					}
+				}
+				for (String value : segments[i].lexicon) {
+					int valueCount = values.size();
+					int lexiconId = values.addValue(value);
+					if (lexiconId == valueCount) {
+						parts.add(new PostingList[segments.length]);
+					}
+					parts.get(lexiconId)[i] = segments[i].postingLists[segments[i].lexicon.lookup(value)];
+				}
+			}
+			this.size = size;
+			CompactLexicon lexicon = (purged == null) ? values : new CompactLexicon(values.size());
+			List<PostingList> postingLists = new ArrayList<PostingList>(values.size());
+			for (int lexiconId = 0; lexiconId < values.size(); ++lexiconId) {
+				PostingList postingList = concatenate(segments, parts.get(lexiconId), this.base, purged);
+				if (purged != null) {
+					if (postingList.size() == 0) {
+						continue;
+					}
+					lexicon.addValue(values.getValue(lexiconId));
+				}
+				postingLists.add(postingList);
+			}
+			this.lexicon = lexicon;
+			this.postingLists = postingLists.toArray(new PostingList[postingLists.size()]);
+			this.staticRankTiers = createStaticRankTiers(this.documents);
+			this.statistics = new CollectionStatistics(this.postingLists, this.documents.length, this.size);
+		}
+	}
+
+	/**
+	 * Bounds the static ranks of the given documents.
+	 * @param documents the documents, where purged ones are null
+	 * @return the static rank bounds
+	 */
+	private static StaticRankTiers createStaticRankTiers(IDocument[] documents) {
+		double[] staticRanks = new double[documents.length];
+		for (int i = 0; i < documents.length; ++i) {
+			staticRanks[i] = (documents[i] == null) ? Double.NEGATIVE_INFINITY : documents[i].getStaticRank();
+		}
+		return new StaticRankTiers(staticRanks);
+	}
+
+	/**
+	 * Concatenates the posting lists for a term across consecutive segments.
+	 * @param segments the segments, in document order
+	 * @param postingLists the term's posting list in each segment, or null if the term doesn't occur there
+	 * @param base the document identifier that the result is relative to
+	 * @param excludedDocumentIds the document identifiers to leave out, relative to the base, or null to keep all
+	 * @return the concatenated posting list
+	 */
+	private static PostingList concatenate(Segment[] segments, PostingList[] postingLists, int base, BitSet excludedDocumentIds) {
+		int count = 0;
+		for (PostingList postingList : postingLists) {
+			if (postingList != null) {
+				++count;
+			}
+		}
+		PostingList[] parts = new PostingList[count];
+		int[] offsets = new int[count];
+		for (int i = 0, j = 0; i < postingLists.length; ++i) {
+			if (postingLists[i] != null) {
+				parts[j] = postingLists[i];
+				offsets[j++] = segments[i].base - base;
+			}
+		}
+		return (count == 1 && offsets[0] == 0 && excludedDocumentIds == null) ? parts[0] : PostingList.concatenate(parts, offsets, excludedDocumentIds);
+	}
+
+	/**
+	 * The statistics for a term in a {@link Snapshot}. Immutable, so that it
+	 * can be shared between threads without locking.
+	 */
+	private static final class TermStatistics {
+		/** The number of documents that the term occurs in. */
+		final int documentFrequency;
+
+		/** The number of times the term occurs. */
+		final long collectionFrequency;
+
+		/** The inverse document frequency of the term. */
+		final double inverseDocumentFrequency;
+
+		/**
+		 * Constructor.
+		 * @param documentFrequency the number of documents that the term occurs in
+		 * @param collectionFrequency the number of times the term occurs
+		 * @param inverseDocumentFrequency the inverse document frequency of the term
+		 */
+		TermStatistics(int documentFrequency, long collectionFrequency, double inverseDocumentFrequency) {
+			this.documentFrequency = documentFrequency;
+			this.collectionFrequency = collectionFrequency;
+			this.inverseDocumentFrequency = inverseDocumentFrequency;
+		}
+	}
+
+	/**
+	 * A view of the index that doesn't change, with global document
+	 * identifiers. Terms are assigned lexicon identifiers as they are looked
+	 * up, and their posting lists are concatenated the first time they are
+	 * asked for.
+	 */
+	private final class Snapshot implements IInvertedIndex {
+		/** The segments, oldest first. */
+		final Segment[] segments;
+
+		/** The generation of the index that this is a snapshot of. */
+		final long generation;
+
+		/** The number of documents in the segments, deleted or not. */
+		final int size;
+
+		/** The deleted documents, or null if there are none. Shared with later snapshots, so never modified. */
+		final BitSet deletedDocumentIds;
+
+		/** For each segment, the largest static rank in the segments after it. */
+		private final double[] laterStaticRankBounds;
+
+		/** The number of documents that haven't been purged, and their average length. */
+		private final int documentCount;
+		private final double averageDocumentLength;
+
+		/** The statistics for the terms asked for so far, by lexicon identifier. Entries may be null. */
+		private volatile TermStatistics[] termStatistics = new TermStatistics[16];
+
+		/** The terms looked up so far. Guarded by the lexicon. */
+		private final CompactLexicon values = new CompactLexicon();
+
+		/** True once all terms in the segments are in {@link #values}. Guarded by the lexicon. */
+		private boolean complete;
+
+		/** The concatenated posting lists, by lexicon identifier. Guarded by the lexicon. */
+		private PostingList[] postingLists = new PostingList[16];
+
+		/** The terms in all segments. */
+		private final ILexicon lexicon = new ILexicon() {
+			public synchronized int size() {
+				this.complete();
+				return values.size();
+			}
+
+			public synchronized int lookup(String value) {
+				int lexiconId = values.lookup(value);
+				if (lexiconId == INVALID && !complete) {
+					for (Segment segment : segments) {
+						if (segment.lexicon.lookup(value) != INVALID) {
+							return values.addValue(value);
+						}
+					}
+				}
+				return lexiconId;
+			}
+
+			public synchronized int lookup(CharSequence value, int start, int end) {
+				int lexiconId = values.lookup(value, start, end);
+				return (lexiconId == INVALID && !complete) ? this.lookup(value.subSequence(start, end).toString()) : lexiconId;
+			}
+
+			public int addValue(String value) {
+				throw new UnsupportedOperationException();
+			}
+
+			public synchronized Iterator<String> iterator() {
+				this.complete();
+				return values.iterator();
+			}
+
+			/**
+			 * Adds the terms that haven't been looked up yet.
+			 */
+			private void complete() {
+				if (!complete) {
+					for (Segment segment : segments) {
+						for (String value : segment.lexicon) {
+							values.addValue(value);
+						}
+					}
+					complete = true;
+				}
+			}
+		};
+
+		/** The documents in the segments. Deleted documents are null. */
+		private final IDocumentStore documentStore = new IDocumentStore() {
+			public IDocument getDocument(int documentId) {
+				if (documentId < 0 || documentId >= size) {
+					throw new IndexOutOfBoundsException();
+				}
+				if (deletedDocumentIds != null && deletedDocumentIds.get(documentId)) {
+					return null;
+				}
+				Segment segment = segments[findSegment(documentId)];
+				return segment.documents[documentId - segment.base];
+			}
+
+			public int putDocument(IDocument document) {
+				throw new UnsupportedOperationException();
+			}
+
+			public int size() {
+				return size;
+			}
+		};
+
+		/**
+		 * The statistics about the segments, with global identifiers. Documents
+		 * that have been deleted, but not yet purged, still count.
+		 */
+		private final ICollectionStatistics statistics = new ICollectionStatistics() {
+			public int getDocumentCount() {
+				return documentCount;
+			}
+
+			public int getDocumentFrequency(int lexiconId) {
+				return getTermStatistics(lexiconId).documentFrequency;
+			}
+
+			public long getCollectionFrequency(int lexiconId) {
+				return getTermStatistics(lexiconId).collectionFrequency;
+			}
+
+			public double getInverseDocumentFrequency(int lexiconId) {
+				return getTermStatistics(lexiconId).inverseDocumentFrequency;
+			}
+
+			public int getDocumentLength(int documentId) {
+				if (documentId < 0 || documentId >= size) {
+					throw new IndexOutOfBoundsException();
+				}
+				Segment segment = segments[findSegment(documentId)];
+				return segment.statistics.getDocumentLength(documentId - segment.base);
+			}
+
+			public double getAverageDocumentLength() {
+				return averageDocumentLength;
+			}
+		};
+
+		/**
+		 * Constructor.
+		 * @param segments the segments, oldest first
+		 * @param generation the generation of the index
+		 * @param deletedDocumentIds the deleted documents, or null if there are none
+		 */
+		Snapshot(Segment[] segments, long generation, BitSet deletedDocumentIds) {
+			this.segments = segments;
+			this.generation = generation;
+			this.deletedDocumentIds = deletedDocumentIds;
+			this.size = (segments.length == 0) ? 0 : segments[segments.length - 1].base + segments[segments.length - 1].documents.length;
+			this.laterStaticRankBounds = new double[segments.length];
+			double bound = Double.NEGATIVE_INFINITY;
+			for (int i = segments.length - 1; i >= 0; --i) {
+				this.laterStaticRankBounds[i] = bound;
+				bound = Math.max(bound, segments[i].staticRankTiers.getBound(0));
+			}
+			int documentCount = 0;
+			long totalDocumentLength = 0;
+			for (Segment segment : segments) {
+				documentCount += segment.size;
+				totalDocumentLength += segment.statistics.getTotalDocumentLength();
+			}
+			this.documentCount = documentCount;
+			this.averageDocumentLength = (documentCount == 0) ? 0.0 : (double) totalDocumentLength / documentCount;
+		}
+
+		/**
+		 * Returns the statistics for the given term, summed over the segments
+		 * the first time they are asked for.
+		 * @param lexiconId identifies the term
+		 * @return the term statistics
+		 */
+		private TermStatistics getTermStatistics(int lexiconId) {
+			TermStatistics[] termStatistics = this.termStatistics;
+			if (lexiconId >= 0 && lexiconId < termStatistics.length && termStatistics[lexiconId] != null) {
+				return termStatistics[lexiconId];
+			}
+			String value;
+			synchronized (this.lexicon) {
+				if (lexiconId < 0 || lexiconId >= this.values.size()) {
+					throw new IndexOutOfBoundsException();
+				}
+				value = this.values.getValue(lexiconId);
+			}
+			// Sum outside the lock. Racing threads just do it twice.
+			int documentFrequency = 0;
+			long collectionFrequency = 0;
+			for (Segment segment : this.segments) {
+				int segmentLexiconId = segment.lexicon.lookup(value);
+				if (segmentLexiconId != ILexicon.INVALID) {
+					documentFrequency += segment.statistics.getDocumentFrequency(segmentLexiconId);
+					collectionFrequency += segment.statistics.getCollectionFrequency(segmentLexiconId);
+				}
+			}
+			TermStatistics statistics = new TermStatistics(documentFrequency, collectionFrequency,
+					CollectionStatistics.getInverseDocumentFrequency(this.documentCount, documentFrequency));
+			synchronized (this.lexicon) {
+				termStatistics = this.termStatistics;
+				if (lexiconId >= termStatistics.length) {
+					termStatistics = Arrays.copyOf(termStatistics, Math.max(2 * termStatistics.length, lexiconId + 1));
+				}
+				termStatistics[lexiconId] = statistics;
+				this.termStatistics = termStatistics;
+			}
+			return statistics;
+		}
+
+		/**
+		 * Returns the index of the last segment that starts at or before the given document.
+		 * @param documentId the global document identifier
+		 * @return the index of the segment that the document is in
+		 */
+		private int findSegment(int documentId) {
+			int low = 0;
+			int high = this.segments.length;
+			while (high - low > 1) {
+				int middle = (low + high) >>> 1;
+				if (this.segments[middle].base <= documentId) {
+					low = middle;
+				}
+				else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Implements the {@link IInvertedIndex} interface.
+		 */
+		public ITokenizer getTokenizer() {
+			return tokenizer;
+		}
+
+		/**
+		 * Implements the {@link IInvertedIndex} interface.
+		 */
+		public INormalizer getNormalizer() {
+			return normalizer;
+		}
+
+		/**
+		 * Implements the {@link IInvertedIndex} interface.
+		 */
+		public IDocumentStore getDocumentStore() {
+			return this.documentStore;
+		}
+
+		/**
+		 * Implements the {@link IInvertedIndex} interface.
+		 */
+		public ILexicon getLexicon() {
+			return this.lexicon;
+		}
+
+		/**
+		 * Implements the {@link IInvertedIndex} interface.
+		 */
+		public PostingList getPostingList(int lexiconId) {
+			String value;
+			synchronized (this.lexicon) {
+				if (lexiconId < 0 || lexiconId >= this.values.size()) {
+					throw new IndexOutOfBoundsException();
+				}
+				if (lexiconId < this.postingLists.length && this.postingLists[lexiconId] != null) {
+					return this.postingLists[lexiconId];
+				}
+				value = this.values.getValue(lexiconId);
+			}
+			// Concatenate outside the lock. Racing threads just do it twice.
+			PostingList[] parts = new PostingList[this.segments.length];
+			for (int i = 0; i < this.segments.length; ++i) {
+				int segmentLexiconId = this.segments[i].lexicon.lookup(value);
+				if (segmentLexiconId != ILexicon.INVALID) {
+					parts[i] = this.segments[i].postingLists[segmentLexiconId];
+				}
+			}
+			PostingList postingList = concatenate(this.segments, parts, 0, null);
+			synchronized (this.lexicon) {
+				if (lexiconId >= this.postingLists.length) {
+					this.postingLists = Arrays.copyOf(this.postingLists, Math.max(2 * this.postingLists.length, lexiconId + 1));
+				}
+				this.postingLists[lexiconId] = postingList;
+			}
+			return postingList;
+		}
+
+		/**
+		 * Implements the {@link IInvertedIndex} interface.
+		 */
+		public long getGeneration() {
+			return this.generation;
+		}
+
+		/**
+		 * Implements the {@link IInvertedIndex} interface.
+		 */
+		public BitSet getDeletedDocuments() {
+			return this.deletedDocumentIds;
+		}
+
+		/**
+		 * Implements the {@link IInvertedIndex} interface. Documents are numbered
+		 * in the order they were added, so the bounds are only as good as that
+		 * order is.
+		 */
+		public double getStaticRankBound(int documentId) {
+			if (documentId >= this.size) {
+				return Double.NEGATIVE_INFINITY;
+			}
+			int i = this.findSegment(Math.max(0, documentId));
+			Segment segment = this.segments[i];
+			return Math.max(segment.staticRankTiers.getBound(documentId - segment.base), this.laterStaticRankBounds[i]);
+		}
+
+		/**
+		 * Implements the {@link IInvertedIndex} interface.
+		 */
+		public ICollectionStatistics getStatistics() {
+			return this.statistics;
+		}
+
+		/**
+		 * Implements the {@link IInvertedIndex} interface.
+		 */
+		public IInvertedIndex getSnapshot() {
+			return this;
+		}
+	}
+}
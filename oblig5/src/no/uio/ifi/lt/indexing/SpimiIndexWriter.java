@@ -0,0 +1,541 @@
+package no.uio.ifi.lt.indexing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+import no.uio.ifi.lt.preprocessing.DocumentReaderFactory;
+import no.uio.ifi.lt.preprocessing.INormalizer;
+import no.uio.ifi.lt.storage.IDocument;
+import no.uio.ifi.lt.storage.IDocumentStore;
+import no.uio.ifi.lt.storage.MappedDocumentStore;
+import no.uio.ifi.lt.tokenization.IToken;
+import no.uio.ifi.lt.tokenization.ITokenizer;
+import no.uio.ifi.lt.utils.RecordFileWriter;
+import no.uio.ifi.lt.utils.VariableByte;
+
+/**
+ * Builds a {@link MappedInvertedIndex} for document collections that are too
+ * large to index on the heap, using single-pass in-memory indexing (SPIMI).
+ * Postings are accumulated in memory until they exceed the memory budget
+ * given by {@link InvertedIndexSettings#memoryBudget}, and are then spilled
+ * to disk as a segment sorted by token value. When all documents have been
+ * added, the segments are merged with a k-way merge into the final index.
+ * The documents themselves are streamed straight to disk. Positions are
+ * only kept if {@link InvertedIndexSettings#positional} is set.
+ * <p>
+ * Each index file must fit in a single mapping, so the postings and the
+ * documents are each limited to {@link RecordFileWriter#MAX_FILE_SIZE} bytes,
+ * whatever the memory budget. Adding a document fails as soon as either
+ * file is certain to pass that limit, rather than when the segments are
+ * finally merged.
+ * <p>
+ * Since the segments cover consecutive ranges of document identifiers, the
+ * posting lists for a token value are merged by concatenating them in
+ * segment order. The resulting index is the same as the one written by
+ * {@link MappedInvertedIndex#write(IInvertedIndex, java.io.File)} for an
+ * {@link InMemoryInvertedIndex} over the same documents.
+ * <p>
+ * Not safe for concurrent use.
+ */
+public class SpimiIndexWriter {
+	/** The initial size of the postings buffer for a new token value. */
+	private static final int INITIAL_BUFFER_SIZE = 8;
+
+	/** Approximate per-array overhead on the heap, for the memory estimate. */
+	private static final int ARRAY_OVERHEAD = 16;
+
+	/** Where to write the index. */
+	private File directory;
+
+	/** Defines how the documents should be normalized. */
+	private INormalizer normalizer;
+
+	/** Defines how the documents should be tokenized. */
+	private ITokenizer tokenizer;
+
+	/** How many bytes of postings to accumulate before spilling a segment. */
+	private long memoryBudget;
+
+	/** Whether to keep the positions of the occurrences. */
+	private boolean positional;
+
+	/** Emits log messages, if any. */
+	private Logger logger;
+
+	/** Writes the documents as they are added. */
+	private MappedDocumentStore.Writer documentWriter;
+
+	/** The segments spilled so far, in document order. */
+	private List<File> segments = new ArrayList<File>();
+
+	/** The lexicon for the documents since the last spill. */
+	private CompactLexicon lexicon;
+
+	/**
+	 * For each lexicon identifier, the postings since the last spill.
+	 * Each posting is stored as its document identifier, its number of
+	 * occurrences, and then the positions of the occurrences.
+	 */
+	private int[][] buffers;
+
+	/** For each lexicon identifier, the number of entries used in its buffer. */
+	private int[] bufferSizes;
+
+	/** For each lexicon identifier, the number of postings in its buffer. */
+	private int[] postingCounts;
+
+	/** For each lexicon identifier, where in its buffer the last posting starts. */
+	private int[] lastPostings;
+
+	/** The estimated number of bytes used by the buffers since the last spill. */
+	private long bufferMemoryUsage;
+
+	/**
+	 * The number of bytes spilled so far for the occurrence counts and the
+	 * positions, which the final postings file stores the same way.
+	 */
+	private long spilledPostingsSize;
+
+	/**
+	 * The number of occurrence counts and positions since the last spill,
+	 * each of which takes at least one byte in the final postings file.
+	 */
+	private long bufferedPostingsSize;
+
+	/** The largest estimated memory usage seen before a spill. */
+	private long peakMemoryUsage;
+
+	/** The largest heap usage seen before a spill. */
+	private long peakHeapUsage;
+
+	/**
+	 * Constructor.
+	 * @param directory where to write the index files
+	 * @param normalizer defines how the documents should be normalized
+	 * @param tokenizer defines how the documents should be tokenized
+	 * @param settings defines the memory budget, and whether to keep positions
+	 * @param logger defines where to emit log messages, if at all
+	 * @throws IOException
+	 */
+	public SpimiIndexWriter(File directory, INormalizer normalizer, ITokenizer tokenizer,
+	                        InvertedIndexSettings settings, Logger logger) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException(String.format("Can't create directory '%s'.", directory));
+		}
+		this.directory = directory;
+		this.normalizer = normalizer;
+		this.tokenizer = tokenizer;
+		this.memoryBudget = settings.memoryBudget;
+		this.positional = settings.positional;
+		this.logger = logger;
+		this.documentWriter = new MappedDocumentStore.Writer(new File(directory, MappedInvertedIndex.DOCUMENTS_FILE));
+		this.clear();
+	}
+
+	/**
+	 * Adds all documents in the named file, using the same document readers
+	 * as {@link no.uio.ifi.lt.storage.InMemoryDocumentStore}.
+	 * @param filename the name of the file containing the document data
+	 * @throws IOException
+	 */
+	public void addDocuments(String filename) throws IOException {
+		// The document readers populate a document store, so give them one
+		// that indexes the documents instead of storing them.
+		IDocumentStore sink = new IDocumentStore() {
+			public int putDocument(IDocument document) {
+				try {
+					return addDocument(document);
+				}
+				catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+
+			public IDocument getDocument(int documentId) {
+				throw new UnsupportedOperationException();
+			}
+
+			public int size() {
+				return documentWriter.size();
+			}
+		};
+		try {
+			if (!DocumentReaderFactory.getInstance(filename).readDocuments(filename, this.normalizer, sink, this.logger)) {
+				throw new IOException(String.format("Can't read documents from '%s'.", filename));
+			}
+		}
+		catch (IllegalStateException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds a document to the index. Spills a segment if the memory budget
+	 * is exceeded afterwards.
+	 * @param document the document to add
+	 * @return the document's identifier
+	 * @throws IOException if the postings or the documents would no longer fit in a single mapping
+	 */
+	public int addDocument(IDocument document) throws IOException {
+		// Index a normalized version of the document's data.
+		String normalized = this.normalizer.normalize(document.getOriginalData());
+		if (normalized.length() != document.getNormalizedLength()) {
+			throw new IllegalStateException();
+		}
+		int documentId = this.documentWriter.putDocument(document);
+
+		// Process all document tokens.
+		Iterator<IToken> tokenIterator = this.tokenizer.iterator(normalized);
+		while (tokenIterator.hasNext()) {
+			IToken token = tokenIterator.next();
+			int size = this.lexicon.size();
+			int lexiconId = this.lexicon.addValue(token.getValue());
+			if (lexiconId == size) {
+				this.addBuffer(lexiconId);
+			}
+			int last = this.lastPostings[lexiconId];
+			if (last < 0 || this.buffers[lexiconId][last] != documentId) {
+				this.lastPostings[lexiconId] = this.bufferSizes[lexiconId];
+				this.append(lexiconId, documentId);
+				this.append(lexiconId, 1);
+				++this.postingCounts[lexiconId];
+				++this.bufferedPostingsSize;
+			}
+			else {
+				++this.buffers[lexiconId][last + 1];
+			}
+			if (this.positional) {
+				this.append(lexiconId, token.getPosition());
+				++this.bufferedPostingsSize;
+			}
+		}
+
+		// The occurrence counts and positions alone give a lower bound on the
+		// size of the final postings file, so this never fails too early.
+		if (this.spilledPostingsSize + this.bufferedPostingsSize > RecordFileWriter.MAX_FILE_SIZE) {
+			throw new IOException(String.format("The postings in '%s' would be too large to map.", this.directory));
+		}
+
+		// Spill if we're over budget.
+		long memoryUsage = this.getMemoryUsage();
+		if (memoryUsage > this.memoryBudget) {
+			this.spill();
+		}
+		return documentId;
+	}
+
+	/**
+	 * Spills the remaining postings, merges all segments into the final
+	 * index files, and removes the segments.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (this.lexicon.size() > 0) {
+			this.spill();
+		}
+		this.documentWriter.close();
+		this.merge();
+		if (this.logger != null) {
+			this.logger.info(String.format("Indexed %d documents, spilling %d segments. Peak memory %d bytes estimated, %d bytes on the heap.",
+					this.documentWriter.size(), this.segments.size(), this.peakMemoryUsage, this.peakHeapUsage));
+		}
+	}
+
+	/**
+	 * Returns the number of segments spilled to disk so far.
+	 * @return the number of segments
+	 */
+	public int getSpillCount() {
+		return this.segments.size();
+	}
+
+	/**
+	 * Returns the largest estimated number of bytes used for accumulating
+	 * postings, i.e., what is compared against the memory budget.
+	 * @return the peak estimated memory usage in bytes
+	 */
+	public long getPeakMemoryUsage() {
+		return this.peakMemoryUsage;
+	}
+
+	/**
+	 * Returns the largest heap usage observed before spilling a segment.
+	 * Includes everything else on the heap, e.g., garbage.
+	 * @return the peak heap usage in bytes
+	 */
+	public long getPeakHeapUsage() {
+		return this.peakHeapUsage;
+	}
+
+	/**
+	 * Returns the estimated number of bytes used for accumulating postings.
+	 */
+	private long getMemoryUsage() {
+		return this.bufferMemoryUsage + this.lexicon.getMemoryUsage();
+	}
+
+	/**
+	 * Forgets all accumulated postings.
+	 */
+	private void clear() {
+		this.lexicon = new CompactLexicon();
+		this.buffers = new int[16][];
+		this.bufferSizes = new int[16];
+		this.postingCounts = new int[16];
+		this.lastPostings = new int[16];
+		this.bufferedPostingsSize = 0;
+		this.bufferMemoryUsage = 4L * ARRAY_OVERHEAD + 16L * 16;
+	}
+
+	/**
+	 * Creates an empty postings buffer for a new lexicon identifier.
+	 */
+	private void addBuffer(int lexiconId) {
+		if (lexiconId == this.buffers.length) {
+			int capacity = 2 * lexiconId;
+			this.buffers = Arrays.copyOf(this.buffers, capacity);
+			this.bufferSizes = Arrays.copyOf(this.bufferSizes, capacity);
+			this.postingCounts = Arrays.copyOf(this.postingCounts, capacity);
+			this.lastPostings = Arrays.copyOf(this.lastPostings, capacity);
+			this.bufferMemoryUsage += 16L * lexiconId;
+		}
+		this.buffers[lexiconId] = new int[INITIAL_BUFFER_SIZE];
+		this.lastPostings[lexiconId] = -1;
+		this.bufferMemoryUsage += ARRAY_OVERHEAD + 4 * INITIAL_BUFFER_SIZE;
+	}
+
+	/**
+	 * Appends a value to the postings buffer for a lexicon identifier.
+	 */
+	private void append(int lexiconId, int value) {
+		int[] buffer = this.buffers[lexiconId];
+		int size = this.bufferSizes[lexiconId];
+		if (size == buffer.length) {
+			buffer = this.buffers[lexiconId] = Arrays.copyOf(buffer, 2 * size);
+			this.bufferMemoryUsage += 4L * size;
+		}
+		buffer[size] = value;
+		this.bufferSizes[lexiconId] = size + 1;
+	}
+
+	/**
+	 * Writes the accumulated postings to a new segment, sorted by token value,
+	 * and starts over.
+	 * @throws IOException
+	 */
+	private void spill() throws IOException {
+		this.peakMemoryUsage = Math.max(this.peakMemoryUsage, this.getMemoryUsage());
+		Runtime runtime = Runtime.getRuntime();
+		this.peakHeapUsage = Math.max(this.peakHeapUsage, runtime.totalMemory() - runtime.freeMemory());
+
+		// Sort the token values the way the final lexicon is sorted.
+		final byte[][] values = new byte[this.lexicon.size()][];
+		Integer[] order = new Integer[this.lexicon.size()];
+		for (int lexiconId = 0; lexiconId < values.length; ++lexiconId) {
+			values[lexiconId] = this.lexicon.getValue(lexiconId).getBytes(MappedLexicon.UTF8);
+			order[lexiconId] = lexiconId;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer x, Integer y) {
+				return MappedLexicon.BYTEWISE.compare(values[x], values[y]);
+			}
+		});
+
+		// Write the segment. Gaps between document identifiers and positions
+		// are variable byte encoded, as in the final index. Positions are
+		// left out unless they are kept.
+		File file = new File(this.directory, "segment-" + this.segments.size());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(values.length);
+			for (int lexiconId : order) {
+				out.writeInt(values[lexiconId].length);
+				out.write(values[lexiconId]);
+				VariableByte.write(out, this.postingCounts[lexiconId]);
+				int[] buffer = this.buffers[lexiconId];
+				int previousDocumentId = 0;
+				for (int i = 0; i < this.bufferSizes[lexiconId]; ) {
+					int documentId = buffer[i++];
+					int occurrenceCount = buffer[i++];
+					VariableByte.write(out, documentId - previousDocumentId);
+					VariableByte.write(out, occurrenceCount);
+					this.spilledPostingsSize += VariableByte.length(occurrenceCount);
+					if (this.positional) {
+						int previousPosition = 0;
+						for (int j = 0; j < occurrenceCount; ++j) {
+							int position = buffer[i++];
+							VariableByte.write(out, position - previousPosition);
+							this.spilledPostingsSize += VariableByte.length(position - previousPosition);
+							previousPosition = position;
+						}
+					}
+					previousDocumentId = documentId;
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+		this.segments.add(file);
+		if (this.logger != null) {
+			this.logger.fine(String.format("Spilled %d unique terms to '%s'.", values.length, file));
+		}
+		this.clear();
+	}
+
+	/**
+	 * Merges all segments into the final lexicon, postings and statistics
+	 * files. Only the current token value's posting list is kept in memory.
+	 * @throws IOException
+	 */
+	private void merge() throws IOException {
+		PriorityQueue<Segment> queue = new PriorityQueue<Segment>(Math.max(1, this.segments.size()), new Comparator<Segment>() {
+			public int compare(Segment x, Segment y) {
+				int comparison = MappedLexicon.BYTEWISE.compare(x.value, y.value);
+				return (comparison != 0) ? comparison : x.number - y.number;
+			}
+		});
+		RecordFileWriter lexiconWriter = MappedLexicon.createWriter(new File(this.directory, MappedInvertedIndex.LEXICON_FILE));
+		RecordFileWriter postingsWriter = MappedInvertedIndex.createPostingsWriter(new File(this.directory, MappedInvertedIndex.POSTINGS_FILE));
+		MappedCollectionStatistics.Writer statisticsWriter = MappedInvertedIndex.createStatisticsWriter(this.directory, this.documentWriter.size());
+		try {
+			for (int i = 0; i < this.segments.size(); ++i) {
+				Segment segment = new Segment(this.segments.get(i), i, this.positional);
+				if (segment.next()) {
+					queue.add(segment);
+				}
+				else {
+					segment.close();
+				}
+			}
+			while (!queue.isEmpty()) {
+				// Concatenate the posting lists for the smallest token value,
+				// in segment order.
+				byte[] value = queue.peek().value;
+				PostingList postingList = new PostingList();
+				while (!queue.isEmpty() && Arrays.equals(queue.peek().value, value)) {
+					Segment segment = queue.poll();
+					segment.readPostings(postingList);
+					if (segment.next()) {
+						queue.add(segment);
+					}
+					else {
+						segment.close();
+					}
+				}
+				lexiconWriter.getOutput().write(value);
+				lexiconWriter.endRecord();
+				postingList.writeTo(postingsWriter.getOutput());
+				postingsWriter.endRecord();
+				statisticsWriter.addPostingList(postingList);
+			}
+			statisticsWriter.close();
+		}
+		finally {
+			for (Segment segment : queue) {
+				segment.close();
+			}
+			lexiconWriter.close();
+			postingsWriter.close();
+			for (File file : this.segments) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Reads a spilled segment, one token value at a time.
+	 */
+	private static class Segment {
+		/** Reads the segment file. */
+		private DataInputStream in;
+
+		/** The segment's number, i.e., its place in document order. */
+		final int number;
+
+		/** Whether the postings have positions. */
+		private final boolean positional;
+
+		/** The number of token values not yet read. */
+		private int remaining;
+
+		/** The current token value, UTF-8 encoded. */
+		byte[] value;
+
+		/**
+		 * Constructor.
+		 * @param file the segment file
+		 * @param number the segment's number
+		 * @param positional whether the postings have positions
+		 * @throws IOException
+		 */
+		Segment(File file, int number, boolean positional) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			this.number = number;
+			this.positional = positional;
+			this.remaining = this.in.readInt();
+		}
+
+		/**
+		 * Moves on to the next token value. Its postings must be read first.
+		 * @return false if there are no more token values
+		 * @throws IOException
+		 */
+		boolean next() throws IOException {
+			if (this.remaining == 0) {
+				return false;
+			}
+			--this.remaining;
+			this.value = new byte[this.in.readInt()];
+			this.in.readFully(this.value);
+			return true;
+		}
+
+		/**
+		 * Reads the postings for the current token value.
+		 * @param postingList where to append the postings
+		 * @throws IOException
+		 */
+		void readPostings(PostingList postingList) throws IOException {
+			int count = VariableByte.read(this.in);
+			int documentId = 0;
+			for (int i = 0; i < count; ++i) {
+				documentId += VariableByte.read(this.in);
+				int occurrenceCount = VariableByte.read(this.in);
+				if (!this.positional) {
+					postingList.appendPosting(new Posting(documentId, occurrenceCount, null));
+					continue;
+				}
+				int[] positions = new int[occurrenceCount];
+				int position = 0;
+				for (int j = 0; j < positions.length; ++j) {
+					position += VariableByte.read(this.in);
+					positions[j] = position;
+				}
+				postingList.appendPosting(new Posting(documentId, positions));
+			}
+		}
+
+		/**
+		 * Closes the segment file.
+		 * @throws IOException
+		 */
+		void close() throws IOException {
+			this.in.close();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package no.uio.ifi.lt.indexing;
+import java.util.Arrays;
+
+/**
+ * Bounds the static ranks of the documents from a given one and onwards,
+ * with a tier per {@link #TIER_SIZE} consecutive document identifiers.
+ * If the documents are numbered in order of descending static rank, the
+ * bounds are tight, and drop as query evaluation proceeds through the
+ * tiers. Query evaluation can then stop once even the best remaining
+ * static rank can't lift a document into the results.
+ */
+final class StaticRankTiers {
+	/** The number of document identifiers per tier. */
+	static final int TIER_SIZE = 64;
+
+	/** For each tier, the largest static rank in that tier and the ones after it. */
+	private final double[] bounds;
+
+	/** The number of documents. */
+	private final int size;
+
+	/**
+	 * Constructor.
+	 * @param staticRanks the static ranks, by document identifier, where documents that are gone have negative infinity
+	 */
+	StaticRankTiers(double[] staticRanks) {
+		this.size = staticRanks.length;
+		this.bounds = new double[(this.size + TIER_SIZE - 1) / TIER_SIZE];
+		Arrays.fill(this.bounds, Double.NEGATIVE_INFINITY);
+		for (int documentId = 0; documentId < staticRanks.length; ++documentId) {
+			int tier = documentId / TIER_SIZE;
+			this.bounds[tier] = Math.max(this.bounds[tier], staticRanks[documentId]);
+		}
+		for (int tier = this.bounds.length - 2; tier >= 0; --tier) {
+			this.bounds[tier] = Math.max(this.bounds[tier], this.bounds[tier + 1]);
+		}
+	}
+
+	/**
+	 * Returns an upper bound on the static ranks of the given document and
+	 * the ones after it.
+	 * @param documentId the document identifier
+	 * @return the bound, or negative infinity if there are no such documents
+	 */
+	double getBound(int documentId) {
+		if (documentId >= this.size) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return this.bounds[Math.max(0, documentId) / TIER_SIZE];
+	}
+}
@@ -8,6 +8,7 @@ import java.util.Map;
 import java.util.logging.Logger;
 import no.uio.ifi.lt.indexing.IInvertedIndex;
 import no.uio.ifi.lt.indexing.InMemoryInvertedIndex;
+import no.uio.ifi.lt.indexing.InvertedIndexSettings;
 import no.uio.ifi.lt.preprocessing.INormalizer;
 import no.uio.ifi.lt.storage.Document;
 import no.uio.ifi.lt.storage.IDocumentStore;
@@ -30,13 +31,16 @@ public class FolderReader {
 	                                                  ITokenizer tokenizer, Logger logger) {
 		IInvertedIndex[] invertedIndex = new InMemoryInvertedIndex[newsGroupName.size()];
 		IDocumentStore documentStore;
+		// The classifier only needs the term frequencies.
+		InvertedIndexSettings settings = new InvertedIndexSettings();
+		settings.positional = false;
 		for (int i = 0; i<newsGroupName.size();i++) {
 			if (logger != null) {
 				logger.info(String.format("Reading documents from '%s'...", newsGroupName.get(i)));
 			}
 			try {
 				documentStore = getDocumentStore(newsGroupName.get(i), normalizer, logger);
-				invertedIndex[i]  = new InMemoryInvertedIndex(documentStore, normalizer, tokenizer, logger);
+				invertedIndex[i]  = new InMemoryInvertedIndex(documentStore, normalizer, tokenizer, settings, logger);
 			} catch (IOException e) {
 				e.printStackTrace();
 				System.exit(0);
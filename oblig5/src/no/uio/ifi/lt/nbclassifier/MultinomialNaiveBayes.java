@@ -6,10 +6,11 @@ import java.util.HashSet;
 import java.util.HashMap;
 import no.uio.ifi.lt.indexing.IInvertedIndex;
 import no.uio.ifi.lt.indexing.ILexicon;
-import no.uio.ifi.lt.indexing.InMemoryLexicon;
+import no.uio.ifi.lt.indexing.CompactLexicon;
+import no.uio.ifi.lt.indexing.PostingCursor;
 import no.uio.ifi.lt.indexing.PostingList;
 import no.uio.ifi.lt.tokenization.IToken;
-import no.uio.ifi.lt.utils.Sieve;
+import no.uio.ifi.lt.utils.IntDoubleSieve;
 
 /**
  * Representation of a multinomial Naive Bayes classifier for document classification.  
@@ -73,7 +74,7 @@ public class MultinomialNaiveBayes implements DocumentClassifier {
 	 * @param store the message store
 	 */
 	private void constructGlobalLexicon (MessageStore store) {
-		globalLexicon = new InMemoryLexicon();
+		globalLexicon = new CompactLexicon();
 		for (int i = 0 ; i < this.nClasses; ++i) {
 			IInvertedIndex localIndex = store.getIndexes()[i];
 			Iterator<String> iterator = localIndex.getLexicon().iterator();
@@ -129,8 +130,8 @@ public class MultinomialNaiveBayes implements DocumentClassifier {
 				
 				// Counting the occurrences
 				int count = 0;
-				for(int k = 0; k < pl.size(); ++k) {
-					count += pl.getPosting(k).getOccurrenceCount();
+				for(PostingCursor cursor = new PostingCursor(pl); !cursor.isExhausted(); cursor.next()) {
+					count += cursor.getOccurrenceCount();
 				}
 				likelihood[i][globalID] = (double) count;
 				nWords += count;
@@ -167,7 +168,7 @@ public class MultinomialNaiveBayes implements DocumentClassifier {
 	 * @return the class with highest probability
 	 */
 	public int classify (List<IToken> documentContent) {
-		Sieve<Integer, Double> posterior = new Sieve<Integer, Double>(1);
+		IntDoubleSieve posterior = new IntDoubleSieve(1);
 		
 		for(int i = 0; i < this.nClasses; ++i) {
 			double totalProb = Math.log(getPriorProbability(i));
@@ -179,7 +180,7 @@ public class MultinomialNaiveBayes implements DocumentClassifier {
 			}
 			posterior.sift(i, totalProb);
 		}
-		return posterior.iterator().next().data;
+		return posterior.getData(0);
 	}
 
 	/**
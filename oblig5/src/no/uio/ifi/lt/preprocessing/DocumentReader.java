@@ -66,8 +66,8 @@ public abstract class DocumentReader {
 		// How much normalized document data is there?
 		String normalizedData = normalizer.normalize(originalData);
 		
-		// Create the document object.
-		// TODO: Implement support for static rank.
+		// Create the document object. Static ranks are assigned later, if at all,
+		// see InMemoryDocumentStore.assignStaticRanks().
 		Document document = new Document();
 		
 		document.setOriginalData(originalData);
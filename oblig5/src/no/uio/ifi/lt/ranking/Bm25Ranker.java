@@ -0,0 +1,125 @@
+package no.uio.ifi.lt.ranking;
+import java.util.logging.Logger;
+import no.uio.ifi.lt.indexing.ICollectionStatistics;
+import no.uio.ifi.lt.indexing.Posting;
+import no.uio.ifi.lt.indexing.PostingList;
+import no.uio.ifi.lt.search.IQuery;
+import no.uio.ifi.lt.storage.IDocument;
+import no.uio.ifi.lt.tokenization.IToken;
+
+/**
+ * Implements Okapi BM25. A term's contribution saturates as its occurrence
+ * count grows, and is normalized by the document's length relative to the
+ * average. The inverse document frequencies are those of the
+ * {@link ICollectionStatistics}.
+ */
+public class Bm25Ranker implements IImpactRanker {
+	/** For emitting log messages, if any. */
+	private Logger logger;
+
+	/** Emit debug information? */
+	private boolean debug;
+
+	/** How quickly a term's contribution saturates. */
+	private final double k1;
+
+	/** How much the document length counts, between 0 and 1. */
+	private final double b;
+
+	/** The statistics about the collection. */
+	private ICollectionStatistics statistics;
+
+	/** The relevance score accumulated for the current document. */
+	private double accumulatedResult;
+
+	/**
+	 * Constructor. Uses the customary parameters, k1 = 1.2 and b = 0.75.
+	 * @param logger defines where to emit log messages, if at all
+	 */
+	public Bm25Ranker(Logger logger) {
+		this(1.2, 0.75, logger);
+	}
+
+	/**
+	 * Constructor.
+	 * @param k1 how quickly a term's contribution saturates
+	 * @param b how much the document length counts, between 0 and 1
+	 * @param logger defines where to emit log messages, if at all
+	 */
+	public Bm25Ranker(double k1, double b, Logger logger) {
+		this.k1 = k1;
+		this.b = b;
+		this.logger = logger;
+		this.debug = false;
+		this.reset();
+	}
+
+	/**
+	 * Implements the {@link IRanker} interface.
+	 */
+	public IRanker clone() {
+		return new Bm25Ranker(this.k1, this.b, this.logger);
+	}
+
+	/**
+	 * Implements the {@link IRanker} interface.
+	 */
+	public void debug(boolean value) {
+		this.debug = value;
+	}
+
+	/**
+	 * Implements the {@link IRanker} interface.
+	 */
+	public void setCollectionStatistics(ICollectionStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Implements the {@link IRanker} interface.
+	 */
+	public void reset() {
+		this.accumulatedResult = 0;
+	}
+
+	/**
+	 * Implements the {@link IRanker} interface.
+	 */
+	public double evaluate(IQuery query, IDocument document) {
+		return this.accumulatedResult;
+	}
+
+	/**
+	 * Implements the {@link IImpactRanker} interface.
+	 */
+	public double getImpact(ICollectionStatistics statistics, int lexiconId, int documentId, int occurrenceCount) {
+		double averageDocumentLength = statistics.getAverageDocumentLength();
+		double relativeLength = (averageDocumentLength == 0.0) ? 1.0 : statistics.getDocumentLength(documentId) / averageDocumentLength;
+		double norm = this.k1 * (1.0 - this.b + this.b * relativeLength);
+		return statistics.getInverseDocumentFrequency(lexiconId) * occurrenceCount * (this.k1 + 1.0) / (occurrenceCount + norm);
+	}
+
+	/**
+	 * Implements the {@link IBoundedRanker} interface. The contribution grows
+	 * with the occurrence count, and shrinks with the document length, so the
+	 * bound is attained for the largest count in the shortest possible document.
+	 */
+	public double getUpperBound(IToken token, int lexiconId, int maxOccurrenceCount, PostingList postingList) {
+		int occurrenceCount = Math.max(1, maxOccurrenceCount);
+		double norm = this.k1 * (1.0 - this.b);
+		return this.statistics.getInverseDocumentFrequency(lexiconId) * occurrenceCount * (this.k1 + 1.0) / (occurrenceCount + norm);
+	}
+
+	/**
+	 * Implements the {@link IRanker} interface.
+	 */
+	public void update(IToken token, int lexiconId, Posting posting, PostingList postingList) {
+		this.accumulatedResult += this.getImpact(this.statistics, lexiconId, posting.getDocumentId(), posting.getOccurrenceCount());
+
+		// Log spam?
+		if (this.debug && this.logger != null) {
+			this.logger.finest(String.format("Token '%s' occurs %d times in a document of length %d.", token.getValue(),
+					posting.getOccurrenceCount(), this.statistics.getDocumentLength(posting.getDocumentId())));
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package no.uio.ifi.lt.ranking;
 import java.util.logging.Logger;
+import no.uio.ifi.lt.indexing.ICollectionStatistics;
 import no.uio.ifi.lt.indexing.Posting;
 import no.uio.ifi.lt.indexing.PostingList;
 import no.uio.ifi.lt.search.IQuery;
@@ -11,14 +12,14 @@ import no.uio.ifi.lt.tokenization.IToken;
  * Implements an extremely simple relevance computation.
  * @see IQueryEvaluator
  */
-public class BrainDeadRanker implements IRanker {
+public class BrainDeadRanker implements IBoundedRanker {
 	/**
 	 * For emitting log messages, if any.
 	 */
 	private Logger logger;
 	
 	/**
-	 * Keeps track of how many times the {@link #update(IToken, Posting, PostingList)}
+	 * Keeps track of how many times the {@link #update(IToken, int, Posting, PostingList)}
 	 * method was invoked.
 	 */
 	private int hitCount;
@@ -50,6 +51,12 @@ public class BrainDeadRanker implements IRanker {
 	public void debug(boolean value) {
 		this.debug = value;
 	}
+
+	/**
+	 * Implements the {@link IRanker} interface. Hits don't depend on the collection.
+	 */
+	public void setCollectionStatistics(ICollectionStatistics statistics) {
+	}
 	
 	/**
 	 * Implements the {@link IRanker} interface.
@@ -58,6 +65,14 @@ public class BrainDeadRanker implements IRanker {
 		return this.hitCount;
 	}
 
+	/**
+	 * Implements the {@link IBoundedRanker} interface. Each matching
+	 * query term counts as one hit.
+	 */
+	public double getUpperBound(IToken token, int lexiconId, int maxOccurrenceCount, PostingList postingList) {
+		return 1.0;
+	}
+
 	/**
 	 * Implements the {@link IRanker} interface.
 	 */
@@ -68,7 +83,7 @@ public class BrainDeadRanker implements IRanker {
 	/**
 	 * Implements the {@link IRanker} interface.
 	 */
-	public void update(IToken token, Posting posting, PostingList postingList) {
+	public void update(IToken token, int lexiconId, Posting posting, PostingList postingList) {
 		this.hitCount++;
 		
 		// Log spam?
@@ -0,0 +1,51 @@
+package no.uio.ifi.lt.ranking;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import no.uio.ifi.lt.storage.IDocument;
+
+/**
+ * Assigns static ranks from an external score file, e.g., computed from
+ * link analysis or click logs. The file has one score per line, in the
+ * order the documents were read. Documents without a score, or with a
+ * blank line, get a static rank of 0.
+ */
+public class FileStaticRanker implements IStaticRanker {
+	/** The scores, by document identifier. */
+	private double[] scores = new double[1024];
+
+	/** The number of lines read. */
+	private int size;
+
+	/**
+	 * Constructor. Reads the named score file.
+	 * @param filename the name of the score file
+	 * @throws IOException
+	 * @throws NumberFormatException if a line is not a number
+	 */
+	public FileStaticRanker(String filename) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(filename), Charset.forName("UTF-8")));
+		try {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				if (this.size == this.scores.length) {
+					this.scores = Arrays.copyOf(this.scores, 2 * this.size);
+				}
+				line = line.trim();
+				this.scores[this.size++] = line.isEmpty() ? 0.0 : Double.parseDouble(line);
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Implements the {@link IStaticRanker} interface.
+	 */
+	public double getStaticRank(int documentId, IDocument document) {
+		return (documentId < this.size) ? this.scores[documentId] : 0.0;
+	}
+}
@@ -0,0 +1,25 @@
+package no.uio.ifi.lt.ranking;
+import no.uio.ifi.lt.indexing.Posting;
+import no.uio.ifi.lt.indexing.PostingList;
+import no.uio.ifi.lt.tokenization.IToken;
+
+/**
+ * Defines a ranker whose relevance score is a sum of independent contributions,
+ * one per invocation of {@link #update(IToken, int, Posting, PostingList)}, and where
+ * each contribution can be bounded from above. This lets query evaluation skip
+ * documents that cannot possibly score well enough to make it into the results.
+ */
+public interface IBoundedRanker extends IRanker {
+	/**
+	 * Returns an upper bound on the contribution the given query term can make to
+	 * the relevance score of any document in which the term occurs at most the
+	 * given number of times. The bound must never be smaller than the actual
+	 * contribution, but the tighter it is, the more documents can be skipped.
+	 * @param token the query {@link IToken}
+	 * @param lexiconId the lexicon identifier of the query term
+	 * @param maxOccurrenceCount the largest number of times the term occurs in a document
+	 * @param postingList the posting list for the query term
+	 * @return an upper bound on the term's contribution to the relevance score
+	 */
+	double getUpperBound(IToken token, int lexiconId, int maxOccurrenceCount, PostingList postingList);
+}
@@ -0,0 +1,27 @@
+package no.uio.ifi.lt.ranking;
+import no.uio.ifi.lt.indexing.ICollectionStatistics;
+import no.uio.ifi.lt.indexing.InvertedIndexSettings;
+import no.uio.ifi.lt.indexing.Posting;
+import no.uio.ifi.lt.indexing.PostingList;
+import no.uio.ifi.lt.tokenization.IToken;
+
+/**
+ * Defines a ranker whose contribution from each posting depends only on the
+ * posting and the collection, and not on the query. The contributions can
+ * thus be computed when the index is built, and stored as impacts in the
+ * posting lists.
+ * @see InvertedIndexSettings#impactRanker
+ */
+public interface IImpactRanker extends IBoundedRanker {
+	/**
+	 * Returns the contribution that a query term makes to the relevance score
+	 * of a document it occurs in, i.e., what {@link #update(IToken, int, Posting, PostingList)}
+	 * adds for the posting.
+	 * @param statistics the statistics about the collection
+	 * @param lexiconId the lexicon identifier of the term
+	 * @param documentId the document identifier
+	 * @param occurrenceCount the number of times the term occurs in the document
+	 * @return the term's contribution to the relevance score
+	 */
+	double getImpact(ICollectionStatistics statistics, int lexiconId, int documentId, int occurrenceCount);
+}
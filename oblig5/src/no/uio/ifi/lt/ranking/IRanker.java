@@ -1,4 +1,5 @@
 package no.uio.ifi.lt.ranking;
+import no.uio.ifi.lt.indexing.ICollectionStatistics;
 import no.uio.ifi.lt.indexing.Posting;
 import no.uio.ifi.lt.indexing.PostingList;
 import no.uio.ifi.lt.search.IQuery;
@@ -29,21 +30,30 @@ public interface IRanker extends Cloneable {
 	 * @param value true if and only if the ranker should emit debug information
 	 */
 	void debug(boolean value);
+
+	/**
+	 * Tells the ranker about the collection that documents are evaluated
+	 * against, e.g., so that it can look up document frequencies instead of
+	 * computing them. Invoked once per query, before any documents are evaluated.
+	 * @param statistics the statistics about the collection
+	 */
+	void setCollectionStatistics(ICollectionStatistics statistics);
 	
 	/**
 	 * Tells the ranker to update its internals based on information
 	 * from one query term. This method might be invoked multiple times
 	 * if the query contains multiple terms.
 	 * @param token the query {@link IToken} for which the given {@link Posting} is for 
+	 * @param lexiconId the lexicon identifier of the query term, for looking up its {@link ICollectionStatistics}
 	 * @param posting the {@link Posting} that holds information about which document the term occurs in
 	 * @param postingList the posting list in which the given {@link Posting} occurs
 	 */
-	void update(IToken token, Posting posting, PostingList postingList);
+	void update(IToken token, int lexiconId, Posting posting, PostingList postingList);
 	
 	/**
 	 * Tells the ranker to evaluate how relevant the given {@link IDocument} is
 	 * for the given {@link IQuery}, given all the previous invocations of
-	 * {@link #update(IToken, Posting, PostingList)}.
+	 * {@link #update(IToken, int, Posting, PostingList)}.
 	 * @param query the {@link IQuery} used for the retrieval task
 	 * @param document the {@link IDocument} to rank
 	 * @return the relevance score for the given document
@@ -0,0 +1,20 @@
+package no.uio.ifi.lt.ranking;
+import no.uio.ifi.lt.storage.IDocument;
+import no.uio.ifi.lt.storage.InMemoryDocumentStore;
+
+/**
+ * Defines a static ranker, i.e., an object that assesses how relevant a
+ * document is a priori, without taking any query into account. Static
+ * ranks are assigned before the documents are indexed.
+ * @see IDocument#getStaticRank()
+ * @see InMemoryDocumentStore#assignStaticRanks(IStaticRanker)
+ */
+public interface IStaticRanker {
+	/**
+	 * Returns the static rank for the given document.
+	 * @param documentId identifies the document, in the order the documents were read
+	 * @param document the document
+	 * @return the document's static rank
+	 */
+	double getStaticRank(int documentId, IDocument document);
+}
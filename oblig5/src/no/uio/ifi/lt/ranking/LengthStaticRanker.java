@@ -0,0 +1,35 @@
+package no.uio.ifi.lt.ranking;
+import no.uio.ifi.lt.storage.IDocument;
+
+/**
+ * Assigns static ranks by document length, on the assumption that longer
+ * documents have more to say. The static rank saturates, so that it is
+ * between 0 and 1, and a document of the given pivot length gets 0.5.
+ */
+public class LengthStaticRanker implements IStaticRanker {
+	/** The normalized length that gets a static rank of 0.5. */
+	private final double pivotLength;
+
+	/**
+	 * Constructor. Uses a pivot length of 1000 characters.
+	 */
+	public LengthStaticRanker() {
+		this(1000);
+	}
+
+	/**
+	 * Constructor.
+	 * @param pivotLength the normalized length that gets a static rank of 0.5
+	 */
+	public LengthStaticRanker(int pivotLength) {
+		this.pivotLength = pivotLength;
+	}
+
+	/**
+	 * Implements the {@link IStaticRanker} interface.
+	 */
+	public double getStaticRank(int documentId, IDocument document) {
+		double length = document.getNormalizedLength();
+		return length / (length + this.pivotLength);
+	}
+}
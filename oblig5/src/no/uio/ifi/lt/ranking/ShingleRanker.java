@@ -1,5 +1,6 @@
 package no.uio.ifi.lt.ranking;
 import java.util.logging.Logger;
+import no.uio.ifi.lt.indexing.ICollectionStatistics;
 import no.uio.ifi.lt.indexing.Posting;
 import no.uio.ifi.lt.indexing.PostingList;
 import no.uio.ifi.lt.search.IQuery;
@@ -49,6 +50,13 @@ public class ShingleRanker implements IRanker {
 	public void debug(boolean value) {
 		this.debug = value;
 	}
+
+	/**
+	 * Implements the {@link IRanker} interface. Hits don't depend on the collection.
+	 */
+	@Override
+	public void setCollectionStatistics(ICollectionStatistics statistics) {
+	}
 	
 	/**
 	 * Implements the {@link IRanker} interface.
@@ -90,7 +98,7 @@ public class ShingleRanker implements IRanker {
 	 * Implements the {@link IRanker} interface.
 	 */
 	@Override
-	public void update(IToken token, Posting posting, PostingList postingList) {
+	public void update(IToken token, int lexiconId, Posting posting, PostingList postingList) {
 		this.hitCount += posting.getOccurrenceCount();
 	}
 }
\ No newline at end of file
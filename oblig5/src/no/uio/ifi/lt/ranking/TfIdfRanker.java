@@ -1,16 +1,17 @@
 package no.uio.ifi.lt.ranking;
 import java.util.logging.Logger;
+import no.uio.ifi.lt.indexing.ICollectionStatistics;
 import no.uio.ifi.lt.indexing.Posting;
 import no.uio.ifi.lt.indexing.PostingList;
 import no.uio.ifi.lt.search.IQuery;
 import no.uio.ifi.lt.storage.IDocument;
 import no.uio.ifi.lt.tokenization.IToken;
 
-public class TfIdfRanker implements IRanker {
+public class TfIdfRanker implements IImpactRanker {
 	private Logger logger;
 	private boolean debug;
 	private double accumulatedResult;
-	private final int N = 10000; // total number of documents hardcoded in
+	private ICollectionStatistics statistics;
 
 	public TfIdfRanker(Logger logger) {
 		this.logger = logger;
@@ -31,6 +32,15 @@ public class TfIdfRanker implements IRanker {
 		this.debug = value;
 	}
 
+	/**
+	 * Implements the {@link IRanker} interface. The inverse document
+	 * frequencies are looked up from the statistics, by lexicon identifier.
+	 */
+	@Override
+	public void setCollectionStatistics(ICollectionStatistics statistics) {
+		this.statistics = statistics;
+	}
+
 	@Override
 	public double evaluate(IQuery query, IDocument document) {
 		// TODO Auto-generated method stub
@@ -42,11 +52,28 @@ public class TfIdfRanker implements IRanker {
 		this.accumulatedResult = 0;
 	}
 
+	/**
+	 * Implements the {@link IBoundedRanker} interface. The contribution is linear
+	 * in the occurrence count, so the bound is attained at one of the extremes.
+	 */
+	@Override
+	public double getUpperBound(IToken token, int lexiconId, int maxOccurrenceCount, PostingList postingList) {
+		double idf = this.statistics.getInverseDocumentFrequency(lexiconId);
+		return Math.max(maxOccurrenceCount * idf, idf);
+	}
+
+	/**
+	 * Implements the {@link IImpactRanker} interface.
+	 */
+	@Override
+	public double getImpact(ICollectionStatistics statistics, int lexiconId, int documentId, int occurrenceCount) {
+		return occurrenceCount * statistics.getInverseDocumentFrequency(lexiconId);
+	}
+
 	@Override
-	public void update(IToken token, Posting posting, PostingList postingList) {	
+	public void update(IToken token, int lexiconId, Posting posting, PostingList postingList) {	
 		int tf = posting.getOccurrenceCount();
-		int df = postingList.size();
-		double idf = Math.log(N/df);
+		double idf = this.statistics.getInverseDocumentFrequency(lexiconId);
 		this.accumulatedResult += (tf*idf);
 		
 		// Log spam?
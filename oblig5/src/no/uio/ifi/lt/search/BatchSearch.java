@@ -0,0 +1,33 @@
+package no.uio.ifi.lt.search;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Scope for static helper methods shared by the {@link ISearchEngine}
+ * implementations, to support batch searches.
+ */
+final class BatchSearch {
+	private BatchSearch() {}
+
+	/**
+	 * Submits one search task per query to the given executor.
+	 * @param engine the search engine, which must be safe for concurrent use
+	 * @param values the raw query strings
+	 * @param executor runs the searches
+	 * @return the pending results, in the same order as the queries
+	 */
+	static List<Future<IResultSet>> submitAll(final ISearchEngine engine, List<String> values, ExecutorService executor) {
+		List<Future<IResultSet>> futures = new ArrayList<Future<IResultSet>>(values.size());
+		for (final String value : values) {
+			futures.add(executor.submit(new Callable<IResultSet>() {
+				public IResultSet call() {
+					return engine.search(value);
+				}
+			}));
+		}
+		return futures;
+	}
+}
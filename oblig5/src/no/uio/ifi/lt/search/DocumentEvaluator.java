@@ -1,4 +1,5 @@
 package no.uio.ifi.lt.search;
+import java.util.BitSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import no.uio.ifi.lt.indexing.IInvertedIndex;
@@ -10,8 +11,7 @@ import no.uio.ifi.lt.storage.IDocumentStore;
 import no.uio.ifi.lt.storage.IDocumentVector;
 import no.uio.ifi.lt.tokenization.IToken;
 import no.uio.ifi.lt.tokenization.ITokenizer;
-import no.uio.ifi.lt.utils.HeapItem;
-import no.uio.ifi.lt.utils.Sieve;
+import no.uio.ifi.lt.utils.IntDoubleSieve;
 
 public class DocumentEvaluator implements IDocumentEvaluator {
 	/** Defines the evaluation parameters. */
@@ -20,6 +20,14 @@ public class DocumentEvaluator implements IDocumentEvaluator {
 	/** Where we emit messages, if at all. */
 	private Logger logger;
 
+	/** Collects the most similar documents. One per thread, reused across queries. */
+	private ThreadLocal<IntDoubleSieve> sieves = new ThreadLocal<IntDoubleSieve>() {
+		@Override
+		protected IntDoubleSieve initialValue() {
+			return new IntDoubleSieve(settings.candidates);
+		}
+	};
+
 	/**
 	 * Constructor.
 	 * @param settings defines the evaluation parameters
@@ -38,12 +46,14 @@ public class DocumentEvaluator implements IDocumentEvaluator {
 		// Spam the logs?
 		boolean debug =  this.settings.debug && (this.logger != null) && this.logger.isLoggable(Level.FINEST);
 		ranker.debug(debug);
+		ranker.setCollectionStatistics(invertedIndex.getStatistics());
 
 		// Synchronize query processing with document processing.
 		INormalizer normalizer = invertedIndex.getNormalizer();
 		ITokenizer tokenizer = invertedIndex.getTokenizer();
 		ILexicon lexicon = invertedIndex.getLexicon();
 		IDocumentStore documentStore = invertedIndex.getDocumentStore();
+		BitSet deletedDocumentIds = invertedIndex.getDeletedDocuments();
 
 		// Process a normalized version, not the raw value.
 		String normalizedDocument = normalizer.normalize(document.getOriginalQuery());
@@ -52,7 +62,8 @@ public class DocumentEvaluator implements IDocumentEvaluator {
 		
 		// Creates the document vector for the document that will be compared with other documents
 		docVectorOrg = new DocumentVector(documentTerms,lexicon,invertedIndex);
-		Sieve<Integer, Double> bestDocumentIds = new Sieve<Integer, Double>(this.settings.candidates); 
+		IntDoubleSieve bestDocumentIds = this.sieves.get();
+		bestDocumentIds.reset(this.settings.candidates);
 
 		// Computes the cosine similarity between the document vector of
 		// the query document, and all other documents in the doc store
@@ -64,6 +75,9 @@ public class DocumentEvaluator implements IDocumentEvaluator {
 				 */
 				continue;
 			}
+			if (deletedDocumentIds != null && deletedDocumentIds.get(currentDocId)) {
+				continue;
+			}
 			normalizedDocument = normalizer.normalize(documentStore.getDocument(currentDocId).getOriginalData());
 			documentTerms = tokenizer.toArray(normalizedDocument);
 			docVector = new DocumentVector(documentTerms,lexicon,invertedIndex);
@@ -71,14 +85,14 @@ public class DocumentEvaluator implements IDocumentEvaluator {
 			// The actual consine similarity is computed here, and sent directly to the sift!
 			bestDocumentIds.sift(currentDocId,docVector.getCosineSimilarity(docVectorOrg));
 		}
+		bestDocumentIds.sort();
 		ResultSet results = new ResultSet(document, bestDocumentIds.size());
 		System.out.println("\n\n FINDING SIMILAR DOCUMENTS TO: \n"+document.getOriginalQuery());
-		for (HeapItem<Integer, Double> item : bestDocumentIds) {        	
-			int documentId = item.data;
-			double rankScore = item.rank;
+		for (int i = 0; i < bestDocumentIds.size(); ++i) {
+			int documentId = bestDocumentIds.getData(i);
+			double rankScore = bestDocumentIds.getRank(i);
 			results.appendResult(new Result(documentStore.getDocument(documentId), rankScore));
 		}
-		results.sortByRelevance();
 		return results;
 	}
 }
\ No newline at end of file
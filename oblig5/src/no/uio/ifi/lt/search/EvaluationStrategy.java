@@ -0,0 +1,51 @@
+package no.uio.ifi.lt.search;
+import no.uio.ifi.lt.indexing.ImpactList;
+import no.uio.ifi.lt.indexing.InvertedIndexSettings;
+import no.uio.ifi.lt.ranking.IBoundedRanker;
+
+/**
+ * Defines how a {@link QueryEvaluator} traverses the posting lists.
+ * @see QueryEvaluatorSettings
+ */
+public enum EvaluationStrategy {
+	/**
+	 * Scores every document that contains enough of the query terms.
+	 */
+	EXHAUSTIVE,
+
+	/**
+	 * Weak AND. Skips documents whose upper bound score, summed over the
+	 * query terms they can contain, cannot beat the worst result kept so
+	 * far. Requires an {@link IBoundedRanker}, otherwise falls back to
+	 * {@link #EXHAUSTIVE}.
+	 */
+	WAND,
+
+	/**
+	 * Like {@link #WAND}, but additionally bounds the scores using the
+	 * per-block maxima of the posting lists, which lets it skip whole
+	 * blocks of postings.
+	 */
+	BLOCK_MAX_WAND,
+
+	/**
+	 * MaxScore. Splits the query terms into essential and non-essential ones,
+	 * where a document that only contains non-essential terms can't make it,
+	 * either because their upper bounds don't add up to enough or because
+	 * there are too few of them for N-of-M matching. Only the essential terms'
+	 * posting lists are traversed, and the others are just probed for the
+	 * documents found, until the document can't make it. Requires an
+	 * {@link IBoundedRanker}, otherwise falls back to {@link #EXHAUSTIVE}.
+	 */
+	MAX_SCORE,
+
+	/**
+	 * Score-at-a-time. Adds up the precomputed impacts of the postings, see
+	 * {@link ImpactList}, highest impacts first, and never calls the ranker.
+	 * The scores are thus the quantized impacts of the ranker that the index
+	 * was built with, see {@link InvertedIndexSettings#impactRanker}. Can stop
+	 * early, see {@link QueryEvaluatorSettings#impactPostingBudget}. Requires
+	 * an index with impacts, otherwise falls back to {@link #EXHAUSTIVE}.
+	 */
+	SCORE_AT_A_TIME
+}
@@ -17,4 +17,31 @@ public interface IQueryEvaluator {
 	 * @return a set containing the highest-ranked results
 	 */
 	IResultSet evaluate(IQuery query, IInvertedIndex invertedIndex, IRanker ranker);
+
+	/**
+	 * Like {@link #evaluate(IQuery, IInvertedIndex, IRanker)}, but stops
+	 * once the given budget is exhausted, and then returns the best results
+	 * found so far, flagged as partial.
+	 * @param query the query to evaluate
+	 * @param invertedIndex the indexed documents to evaluate the query against
+	 * @param ranker the ranker that assesses relevance and scores each document
+	 * @param budget bounds how much work evaluation may do
+	 * @return a set containing the highest-ranked results found
+	 * @see IResultSet#isPartial()
+	 */
+	IResultSet evaluate(IQuery query, IInvertedIndex invertedIndex, IRanker ranker, QueryBudget budget);
+
+	/**
+	 * Like {@link #evaluate(IQuery, IInvertedIndex, IRanker, QueryBudget)},
+	 * and notes where the time goes in the given profile, which is then
+	 * attached to the results.
+	 * @param query the query to evaluate
+	 * @param invertedIndex the indexed documents to evaluate the query against
+	 * @param ranker the ranker that assesses relevance and scores each document
+	 * @param budget bounds how much work evaluation may do
+	 * @param profile where to note where the time goes, or null to not profile
+	 * @return a set containing the highest-ranked results found
+	 * @see IResultSet#getProfile()
+	 */
+	IResultSet evaluate(IQuery query, IInvertedIndex invertedIndex, IRanker ranker, QueryBudget budget, QueryProfile profile);
 }
\ No newline at end of file
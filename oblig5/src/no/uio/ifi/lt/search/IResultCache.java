@@ -0,0 +1,53 @@
+package no.uio.ifi.lt.search;
+
+/**
+ * Defines a cache of query results, so that repeated queries need not be
+ * evaluated again. Keys are opaque strings, and should capture everything
+ * that affects the results, e.g., the normalized query and the evaluation
+ * settings. Implementations must be safe for concurrent use.
+ * @see SearchEngine
+ */
+public interface IResultCache {
+	/**
+	 * Looks up the results for the given key.
+	 * @param key identifies the query
+	 * @return the cached results, or null if there are none
+	 */
+	IResultSet get(String key);
+
+	/**
+	 * Caches the results for the given key. May evict other entries.
+	 * @param key identifies the query
+	 * @param results the results to cache
+	 */
+	void put(String key, IResultSet results);
+
+	/**
+	 * Removes all cached results, e.g., because the index has changed.
+	 */
+	void clear();
+
+	/**
+	 * Returns the number of cached results.
+	 * @return the size of the cache
+	 */
+	int size();
+
+	/**
+	 * Returns how many lookups found cached results.
+	 * @return the number of cache hits
+	 */
+	long getHitCount();
+
+	/**
+	 * Returns how many lookups did not find cached results.
+	 * @return the number of cache misses
+	 */
+	long getMissCount();
+
+	/**
+	 * Returns how many cached results have been evicted to make room for others.
+	 * @return the number of evictions
+	 */
+	long getEvictionCount();
+}
@@ -17,4 +17,21 @@ public interface IResultSet extends Iterable<IResult> {
 	 * @return the size of the result set
 	 */
 	int size();
+
+	/**
+	 * Returns true if query evaluation stopped before it was done, e.g.,
+	 * because it ran out of time. The results are then the best ones
+	 * found so far, and may be missing better ones.
+	 * @return true if and only if the results are partial
+	 * @see QueryBudget
+	 */
+	boolean isPartial();
+
+	/**
+	 * Returns where the time went when evaluating the query, if it was
+	 * profiled.
+	 * @return the profile, or null if the query wasn't profiled
+	 * @see QueryEvaluatorSettings#profileSampleRate
+	 */
+	QueryProfile getProfile();
 }
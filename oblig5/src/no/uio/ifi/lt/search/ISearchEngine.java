@@ -1,5 +1,11 @@
 package no.uio.ifi.lt.search;
+import java.util.List;
+import java.util.concurrent.Future;
 
+/**
+ * Defines a search engine. Implementations must be safe for concurrent
+ * use, i.e., several threads may search at the same time.
+ */
 public interface ISearchEngine {
 	/**
 	 * Implements the actual retrieval task.
@@ -7,6 +13,14 @@ public interface ISearchEngine {
 	 * @return a result set comprising the most relevant documents
 	 */
 	IResultSet search(String value);
+
+	/**
+	 * Submits a batch of queries for concurrent evaluation. The queries are
+	 * evaluated as by {@link #search(String)}, on the engine's executor.
+	 * @param values the raw query strings
+	 * @return the pending result sets, in the same order as the queries
+	 */
+	List<Future<IResultSet>> searchAll(List<String> values);
 	
 	/**
 	 * Implements the find similar document lookup
@@ -14,4 +28,4 @@ public interface ISearchEngine {
 	 * @return a result set comprising the most relevant documents
 	 */
 	IResultSet findSimilar(int docID);
-}
\ No newline at end of file
+}
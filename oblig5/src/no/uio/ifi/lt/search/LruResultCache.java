@@ -0,0 +1,187 @@
+package no.uio.ifi.lt.search;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Implements the {@link IResultCache} interface, holding a bounded number of
+ * results and evicting the least recently used ones first. Large caches are
+ * split into segments by the hash of the key, each with a lock of its own,
+ * so that concurrent lookups rarely wait for each other. The least recently
+ * used results are then evicted per segment.
+ */
+public class LruResultCache implements IResultCache {
+	/**
+	 * The fewest results a segment holds, so that small caches stay exact.
+	 */
+	private static final int MIN_SEGMENT_CAPACITY = 64;
+
+	/**
+	 * The most segments a cache is split into.
+	 */
+	private static final int MAX_SEGMENT_COUNT = 16;
+
+	/**
+	 * The segments, a power of two of them.
+	 */
+	private final Segment[] segments;
+
+	/**
+	 * Constructor.
+	 * @param capacity the maximum number of results to cache
+	 */
+	public LruResultCache(int capacity) {
+		int segmentCount = 1;
+		while (segmentCount < MAX_SEGMENT_COUNT && capacity / (2 * segmentCount) >= MIN_SEGMENT_CAPACITY) {
+			segmentCount *= 2;
+		}
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; ++i) {
+			// Spread the remainder, so that the capacities add up.
+			this.segments[i] = new Segment(capacity / segmentCount + ((i < capacity % segmentCount) ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Returns the segment that holds the given key.
+	 * @param key identifies the query
+	 * @return the segment
+	 */
+	private Segment getSegment(String key) {
+		int hash = key.hashCode();
+		return this.segments[(hash ^ (hash >>> 16)) & (this.segments.length - 1)];
+	}
+
+	/**
+	 * Implements the {@link IResultCache} interface.
+	 */
+	public IResultSet get(String key) {
+		Segment segment = this.getSegment(key);
+		synchronized (segment) {
+			IResultSet results = segment.get(key);
+			if (results == null) {
+				++segment.missCount;
+			}
+			else {
+				++segment.hitCount;
+			}
+			return results;
+		}
+	}
+
+	/**
+	 * Implements the {@link IResultCache} interface.
+	 */
+	public void put(String key, IResultSet results) {
+		Segment segment = this.getSegment(key);
+		synchronized (segment) {
+			segment.put(key, results);
+		}
+	}
+
+	/**
+	 * Implements the {@link IResultCache} interface.
+	 */
+	public void clear() {
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Implements the {@link IResultCache} interface.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Implements the {@link IResultCache} interface.
+	 */
+	public long getHitCount() {
+		long hitCount = 0;
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				hitCount += segment.hitCount;
+			}
+		}
+		return hitCount;
+	}
+
+	/**
+	 * Implements the {@link IResultCache} interface.
+	 */
+	public long getMissCount() {
+		long missCount = 0;
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				missCount += segment.missCount;
+			}
+		}
+		return missCount;
+	}
+
+	/**
+	 * Implements the {@link IResultCache} interface.
+	 */
+	public long getEvictionCount() {
+		long evictionCount = 0;
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				evictionCount += segment.evictionCount;
+			}
+		}
+		return evictionCount;
+	}
+
+	/**
+	 * Summarizes the usage statistics, e.g., for logging.
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d cached results, %d hits, %d misses, %d evictions.",
+				this.size(), this.getHitCount(), this.getMissCount(), this.getEvictionCount());
+	}
+
+	/**
+	 * Holds some of the cached results, in access order, along with their
+	 * usage statistics. Guarded by itself.
+	 */
+	@SuppressWarnings("serial")
+	private static class Segment extends LinkedHashMap<String, IResultSet> {
+		/**
+		 * The maximum number of results in the segment.
+		 */
+		private final int capacity;
+
+		/**
+		 * Usage statistics.
+		 */
+		long hitCount, missCount, evictionCount;
+
+		/**
+		 * Constructor.
+		 * @param capacity the maximum number of results in the segment
+		 */
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, IResultSet> eldest) {
+			if (this.size() > this.capacity) {
+				++this.evictionCount;
+				return true;
+			}
+			return false;
+		}
+	}
+}
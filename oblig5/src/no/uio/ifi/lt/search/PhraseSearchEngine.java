@@ -1,4 +1,7 @@
 package no.uio.ifi.lt.search;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import no.uio.ifi.lt.preprocessing.BrainDeadNormalizer;
 import no.uio.ifi.lt.preprocessing.INormalizer;
@@ -7,6 +10,7 @@ import no.uio.ifi.lt.storage.IDocumentStore;
 import no.uio.ifi.lt.storage.InMemoryDocumentStore;
 import no.uio.ifi.lt.tokenization.ITokenizer;
 import no.uio.ifi.lt.utils.SuffixArray;
+import no.uio.ifi.lt.utils.ThreadPools;
 
 /**
  * Implements a simple, in-memory search engine that does
@@ -27,6 +31,9 @@ public class PhraseSearchEngine implements ISearchEngine {
 	
 	/** Defines the "index" over the contents of the document store. */
 	private SuffixArray suffixArray;
+
+	/** Runs batch searches. */
+	private volatile ExecutorService executor = ThreadPools.getDefaultPool();
 	
 	/**
 	 * Constructor. Uses simple default in-memory implementations.
@@ -92,4 +99,22 @@ public class PhraseSearchEngine implements ISearchEngine {
 		// TODO Auto-generated method stub
 		return null;
 	}
+
+	/**
+	 * Implements the {@link ISearchEngine} interface.
+	 */
+	public List<Future<IResultSet>> searchAll(List<String> values) {
+		return BatchSearch.submitAll(this, values, this.executor);
+	}
+
+	/**
+	 * Replaces the executor that runs batch searches, e.g., with one that
+	 * uses virtual threads. The caller remains responsible for shutting
+	 * it down.
+	 * @param executor runs batch searches
+	 * @see ThreadPools
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,158 @@
+package no.uio.ifi.lt.search;
+
+/**
+ * Implements a binary min heap of {@link TraversedPostingList} objects, organized
+ * according to their current document IDs. The top of the heap is thus always
+ * the posting list lagging the most behind in the traversal. Used for merging
+ * posting lists document-at-a-time, where each step costs O(log k) for k lists.
+ * <p>
+ * The document ID of a posting list must not change while it is in the heap,
+ * unless {@link #updateRoot()} is called right after it changes for the root.
+ */
+public class PostingListHeap {
+	/**
+	 * The posting lists, organized according to the heap principle.
+	 */
+	private TraversedPostingList[] items;
+
+	/**
+	 * The current document IDs of the posting lists in {@link #items}.
+	 * Cached, so that comparisons are cheap.
+	 */
+	private int[] documentIds;
+
+	/**
+	 * The logical size of the heap.
+	 */
+	private int size;
+
+	/**
+	 * Constructor.
+	 * @param capacity the maximum number of posting lists in the heap
+	 */
+	public PostingListHeap(int capacity) {
+		this.items = new TraversedPostingList[capacity];
+		this.documentIds = new int[capacity];
+		this.size = 0;
+	}
+
+	/**
+	 * Returns the number of posting lists in the heap.
+	 * @return the size of the heap
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the posting list on top of the heap, i.e., the one with the
+	 * smallest current document ID.
+	 * @return the posting list on top of the heap
+	 */
+	public TraversedPostingList getRoot() {
+		if (this.size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		return this.items[0];
+	}
+
+	/**
+	 * Returns the smallest current document ID of the posting lists in the heap.
+	 * @return the current document ID of the posting list on top of the heap
+	 */
+	public int getRootDocumentId() {
+		if (this.size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		return this.documentIds[0];
+	}
+
+	/**
+	 * Inserts a posting list into the heap. The posting list must not
+	 * be fully traversed.
+	 * @param postingList the posting list to insert
+	 */
+	public void insert(TraversedPostingList postingList) {
+		int documentId = postingList.getCurrentDocumentId();
+		int i = this.size++;
+
+		// Percolate upwards.
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (this.documentIds[parent] <= documentId) {
+				break;
+			}
+			this.items[i] = this.items[parent];
+			this.documentIds[i] = this.documentIds[parent];
+			i = parent;
+		}
+		this.items[i] = postingList;
+		this.documentIds[i] = documentId;
+	}
+
+	/**
+	 * Removes the posting list on top of the heap, and returns it.
+	 * @return the removed posting list
+	 */
+	public TraversedPostingList deleteRoot() {
+		TraversedPostingList root = this.getRoot();
+		--this.size;
+		this.items[0] = this.items[this.size];
+		this.documentIds[0] = this.documentIds[this.size];
+		this.items[this.size] = null;
+		this.percolateDown();
+		return root;
+	}
+
+	/**
+	 * Restores the heap order after the posting list on top of the heap
+	 * has moved forward. Removes it if it got fully traversed.
+	 */
+	public void updateRoot() {
+		TraversedPostingList root = this.getRoot();
+		if (root.isFullyTraversed()) {
+			this.deleteRoot();
+		}
+		else {
+			this.documentIds[0] = root.getCurrentDocumentId();
+			this.percolateDown();
+		}
+	}
+
+	/**
+	 * Removes all posting lists from the heap.
+	 */
+	public void clear() {
+		for (int i = 0; i < this.size; ++i) {
+			this.items[i] = null;
+		}
+		this.size = 0;
+	}
+
+	/**
+	 * Moves the root downwards until the heap principle holds.
+	 */
+	private void percolateDown() {
+		TraversedPostingList item = this.items[0];
+		int documentId = this.documentIds[0];
+		int i = 0;
+		int half = this.size >> 1;
+
+		while (i < half) {
+			// Pick the smaller child.
+			int child = (i << 1) + 1;
+			int right = child + 1;
+			if (right < this.size && this.documentIds[right] < this.documentIds[child]) {
+				child = right;
+			}
+			if (documentId <= this.documentIds[child]) {
+				break;
+			}
+			this.items[i] = this.items[child];
+			this.documentIds[i] = this.documentIds[child];
+			i = child;
+		}
+		this.items[i] = item;
+		this.documentIds[i] = documentId;
+	}
+}
@@ -0,0 +1,103 @@
+package no.uio.ifi.lt.search;
+
+/**
+ * Bounds how much work evaluating a single query may do, in time and in
+ * postings visited. The query evaluator spends the budget as it traverses
+ * the posting lists, and once the budget is exhausted, it stops and returns
+ * the best results found so far, flagged as partial, see
+ * {@link IResultSet#isPartial()}. The clock is only read every so often,
+ * so a deadline may be overshot by a little.
+ * <p>
+ * Not safe for concurrent use. Each evaluation needs a budget of its own.
+ */
+public class QueryBudget {
+	/** How many times to spend before reading the clock again. */
+	private static final int CHECK_INTERVAL = 256;
+
+	/** When to stop, as per {@link System#nanoTime()}, if there is a time limit. */
+	private final long deadline;
+
+	/** Is there a time limit? */
+	private final boolean timeLimited;
+
+	/** How many postings may be visited, or 0 if there is no limit. */
+	private final long postingLimit;
+
+	/** How many postings have been visited so far. */
+	private long postingCount;
+
+	/** How many times to spend before reading the clock again. */
+	private int countdown = CHECK_INTERVAL;
+
+	/** Has the budget been used up? */
+	private boolean exhausted;
+
+	/**
+	 * Constructor. The time starts running now.
+	 * @param timeLimitNanos how long evaluation may take, in nanoseconds, or 0 if there is no limit
+	 * @param postingLimit how many postings may be visited, or 0 if there is no limit
+	 */
+	public QueryBudget(long timeLimitNanos, long postingLimit) {
+		this.timeLimited = (timeLimitNanos > 0);
+		this.deadline = this.timeLimited ? System.nanoTime() + timeLimitNanos : 0;
+		this.postingLimit = postingLimit;
+	}
+
+	/**
+	 * Returns a budget without limits.
+	 * @return the budget
+	 */
+	public static QueryBudget unlimited() {
+		return new QueryBudget(0, 0);
+	}
+
+	/**
+	 * Returns a budget as defined by the given settings.
+	 * @param settings the evaluation parameters
+	 * @return the budget, starting now
+	 * @see QueryEvaluatorSettings#timeBudgetMillis
+	 * @see QueryEvaluatorSettings#postingBudget
+	 */
+	public static QueryBudget of(QueryEvaluatorSettings settings) {
+		return new QueryBudget(settings.timeBudgetMillis * 1000000L, settings.postingBudget);
+	}
+
+	/**
+	 * Accounts for having visited the given number of postings, and tells
+	 * whether evaluation may go on. Called from the traversal loops, so
+	 * it's cheap unless it is time to read the clock.
+	 * @param postings the number of postings visited since the last call
+	 * @return true if there is budget left, false if evaluation should stop
+	 */
+	public boolean spend(int postings) {
+		this.postingCount += postings;
+		if (--this.countdown > 0 && (this.postingLimit == 0 || this.postingCount < this.postingLimit)) {
+			return !this.exhausted;
+		}
+		this.countdown = CHECK_INTERVAL;
+		if (this.postingLimit > 0 && this.postingCount >= this.postingLimit) {
+			this.exhausted = true;
+		}
+		if (this.timeLimited && System.nanoTime() - this.deadline >= 0) {
+			this.exhausted = true;
+		}
+		return !this.exhausted;
+	}
+
+	/**
+	 * Returns true if the budget has been used up, i.e., if evaluation
+	 * stopped before it was done.
+	 * @return true if and only if the budget is exhausted
+	 */
+	public boolean isExhausted() {
+		return this.exhausted;
+	}
+
+	/**
+	 * Returns how many postings have been visited so far.
+	 * @return the number of postings visited
+	 */
+	public long getPostingCount() {
+		return this.postingCount;
+	}
+}
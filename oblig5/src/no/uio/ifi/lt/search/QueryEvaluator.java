@@ -1,17 +1,23 @@
 package no.uio.ifi.lt.search;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import no.uio.ifi.lt.indexing.ICollectionStatistics;
 import no.uio.ifi.lt.indexing.IInvertedIndex;
-import no.uio.ifi.lt.indexing.ILexicon;
+import no.uio.ifi.lt.indexing.ImpactList;
 import no.uio.ifi.lt.indexing.Posting;
+import no.uio.ifi.lt.indexing.PostingList;
+import no.uio.ifi.lt.ranking.IBoundedRanker;
+import no.uio.ifi.lt.ranking.IImpactRanker;
 import no.uio.ifi.lt.ranking.IRanker;
 import no.uio.ifi.lt.storage.IDocument;
 import no.uio.ifi.lt.tokenization.IToken;
-import no.uio.ifi.lt.utils.HeapItem;
-import no.uio.ifi.lt.utils.Sieve;
+import no.uio.ifi.lt.utils.IntDoubleSieve;
+import no.uio.ifi.lt.utils.RoaringBitmap;
 
 /**
  * Implements the query evaluation logic in a search engine.
@@ -23,6 +29,25 @@ public class QueryEvaluator implements IQueryEvaluator {
 	/** Where we emit messages, if at all. */
 	private Logger logger;
 
+	/** Plans how to evaluate the queries. */
+	private QueryPlanner planner;
+
+	/** Collects the best documents. One per thread, reused across queries. */
+	private ThreadLocal<IntDoubleSieve> sieves = new ThreadLocal<IntDoubleSieve>() {
+		@Override
+		protected IntDoubleSieve initialValue() {
+			return new IntDoubleSieve(settings.candidates);
+		}
+	};
+
+	/** Accumulates the scores for term-at-a-time and score-at-a-time evaluation. One per thread, reused across queries. */
+	private ThreadLocal<ScoreAccumulators> accumulators = new ThreadLocal<ScoreAccumulators>() {
+		@Override
+		protected ScoreAccumulators initialValue() {
+			return new ScoreAccumulators();
+		}
+	};
+
 	/**
 	 * Constructor.
 	 * @param settings defines the evaluation parameters
@@ -31,156 +56,948 @@ public class QueryEvaluator implements IQueryEvaluator {
 	public QueryEvaluator(QueryEvaluatorSettings settings, Logger logger) {
 		this.settings = settings;
 		this.logger = logger;
+		this.planner = new QueryPlanner(settings);
 	}
 	
 	/**
-	 * Implements the {@link IQueryEvaluator} interface.
+	 * Implements the {@link IQueryEvaluator} interface. Plans how to evaluate
+	 * the query, see {@link QueryPlanner}, and evaluates it accordingly.
 	 */
 	@Override
 	public IResultSet evaluate(IQuery query, IInvertedIndex invertedIndex, IRanker ranker) {
+		return this.evaluate(query, invertedIndex, ranker, QueryBudget.of(this.settings));
+	}
+
+	/**
+	 * Implements the {@link IQueryEvaluator} interface. Profiles the query
+	 * if it's among the sampled ones, see {@link QueryEvaluatorSettings#profileSampleRate}.
+	 */
+	@Override
+	public IResultSet evaluate(IQuery query, IInvertedIndex invertedIndex, IRanker ranker, QueryBudget budget) {
+		return this.evaluate(query, invertedIndex, ranker, budget, QueryProfile.sample(this.settings));
+	}
+
+	/**
+	 * Implements the {@link IQueryEvaluator} interface.
+	 */
+	@Override
+	public IResultSet evaluate(IQuery query, IInvertedIndex invertedIndex, IRanker ranker, QueryBudget budget, QueryProfile profile) {
+		QueryPlan plan = this.planner.plan(query, invertedIndex, ranker, null, profile);
+		return this.evaluate(query, invertedIndex, ranker, plan, budget, profile);
+	}
+
+	/**
+	 * Evaluates the given query according to the given plan, until done or
+	 * until the given budget is exhausted.
+	 * @param query the query to evaluate
+	 * @param invertedIndex the indexed documents to evaluate the query against
+	 * @param ranker the ranker that assesses relevance and scores each document
+	 * @param plan the plan for the query, made for the same index and ranker
+	 * @param budget bounds how much work evaluation may do
+	 * @param profile where to note where the time goes, if at all
+	 * @return a set containing the highest-ranked results found
+	 */
+	public IResultSet evaluate(IQuery query, IInvertedIndex invertedIndex, IRanker ranker, QueryPlan plan, QueryBudget budget, QueryProfile profile) {
 		// Paranoia.
 		if (query.getNormalizedLength() == 0) {
-			return new ResultSet(query, 0);
+			ResultSet results = new ResultSet(query, 0);
+			results.setProfile(profile);
+			return results;
 		}
 		// Spam the logs?
 		boolean debug =  this.settings.debug && (this.logger != null) && this.logger.isLoggable(Level.FINEST);
 		ranker.debug(debug);
+		ranker.setCollectionStatistics(invertedIndex.getStatistics());
 
 		// Core of the query evaluation: extract a set of ranked documents for
 		// the query, inserted in a sieve data structure for efficient sorting
-		Sieve<Integer,Double> bestDocumentIds = extractRankedDocumentsForQuery(query, invertedIndex, ranker, debug);
-	
+		long time = (profile != null) ? System.nanoTime() : 0;
+		IntDoubleSieve bestDocumentIds = extractRankedDocumentsForQuery(query, plan, invertedIndex, ranker, budget, profile, debug);
+		if (profile != null) {
+			// Scoring was timed on its own, along the way.
+			time = profile.lap(QueryProfile.Phase.TRAVERSAL, time);
+			profile.addNanos(QueryProfile.Phase.TRAVERSAL, -profile.getNanos(QueryProfile.Phase.SCORING));
+		}
+
+		// For client convenience, sort the results according to relevance.
+		// TODO: Make this configurable, some clients may not care.
+		bestDocumentIds.sort();
+
 		// Create the set of matches to emit.
 		// TODO: For fuzzy matching, implement optional reevaluation of candidates, e.g., based on edit distance.
 		ResultSet results = new ResultSet(query, bestDocumentIds.size());
 
-		for (HeapItem<Integer, Double> item : bestDocumentIds) {
-			int documentId = item.data;
-			double rankScore = item.rank;
+		for (int i = 0; i < bestDocumentIds.size(); ++i) {
+			int documentId = bestDocumentIds.getData(i);
+			double rankScore = bestDocumentIds.getRank(i);
 			results.appendResult(new Result(invertedIndex.getDocumentStore().getDocument(documentId), rankScore));
 		}
-		// For client convenience, sort the results according to relevance.
-		// TODO: Make this configurable, some clients may not care.
-		results.sortByRelevance();
+
+		// Where did the time go?
+		if (profile != null) {
+			profile.lap(QueryProfile.Phase.MATERIALIZATION, time);
+			profile.setPlan(plan);
+			profile.setPostingCount(budget.getPostingCount());
+			if (profile.getExplainedDocumentId() != QueryProfile.NO_DOCUMENT) {
+				profile.setExplanation(this.explain(profile.getExplainedDocumentId(), query, plan, invertedIndex, ranker, bestDocumentIds));
+			}
+			results.setProfile(profile);
+			if (this.logger != null && this.logger.isLoggable(Level.FINE)) {
+				this.logger.fine(String.format("Profiled query '%s': %s.", query.getOriginalQuery(), profile));
+			}
+		}
+
+		// Out of time? Then these are just the best results we found.
+		if (budget.isExhausted()) {
+			results.setPartial(true);
+			if (this.logger != null) {
+				this.logger.fine(String.format("Stopped evaluating query '%s' as %s after %d postings.",
+						query.getOriginalQuery(), plan.getMethod(), budget.getPostingCount()));
+			}
+		}
 
 		// Your results, sir!
 		return results;
 	}
 
+	/**
+	 * Explains how the given document was scored, or why it wasn't. The
+	 * posting lists are traversed afresh, straight to the document, and the
+	 * ranker scores it as during evaluation. Score-at-a-time evaluation ranks
+	 * by quantized impacts instead, so its scores differ a little.
+	 * @param documentId the document identifier
+	 * @param query the query
+	 * @param plan the plan that the query was evaluated according to
+	 * @param invertedIndex the inverted index
+	 * @param ranker the ranker
+	 * @param bestDocumentIds the best documents, sorted
+	 * @return the explanation
+	 * @see QueryProfile#getExplanation()
+	 */
+	private String explain(int documentId, IQuery query, QueryPlan plan, IInvertedIndex invertedIndex,
+				IRanker ranker, IntDoubleSieve bestDocumentIds) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("Document ").append(documentId);
+		if (documentId < 0 || documentId >= invertedIndex.getDocumentStore().size()) {
+			return builder.append(" doesn't exist").toString();
+		}
+		// Which query terms does the document contain?
+		List<TraversedPostingList> postingLists = getPostingLists(plan);
+		TraversedPostingList[] matchingPostingLists = new TraversedPostingList[postingLists.size()];
+		int matchingCount = 0;
+		for (TraversedPostingList postingList : postingLists) {
+			postingList.advanceTo(documentId);
+			if (!postingList.isFullyTraversed() && postingList.getCurrentDocumentId() == documentId) {
+				matchingPostingLists[matchingCount++] = postingList;
+			}
+		}
+		builder.append(String.format(" matches %d of %d terms, %d required", matchingCount, plan.getTermCount(), plan.getRequiredCount()));
+
+		// What does each of them contribute, if the ranker can tell?
+		ICollectionStatistics statistics = invertedIndex.getStatistics();
+		for (int i = 0; i < matchingCount; ++i) {
+			TraversedPostingList postingList = matchingPostingLists[i];
+			builder.append((i == 0) ? ": " : ", ");
+			builder.append('\'').append(postingList.getQueryTerm().getValue()).append('\'');
+			if (postingList.getMultiplicity() > 1) {
+				builder.append(" x").append(postingList.getMultiplicity());
+			}
+			builder.append(" tf=").append(postingList.getCurrentOccurrenceCount());
+			if (ranker instanceof IImpactRanker) {
+				double impact = ((IImpactRanker) ranker).getImpact(statistics, postingList.getLexiconId(), documentId, postingList.getCurrentOccurrenceCount());
+				builder.append(String.format(" +%.4g", postingList.getMultiplicity() * impact));
+			}
+		}
+		BitSet deletedDocumentIds = invertedIndex.getDeletedDocuments();
+		if (deletedDocumentIds != null && deletedDocumentIds.get(documentId)) {
+			return builder.append("; deleted").toString();
+		}
+		if (matchingCount > 0) {
+			IDocument document = invertedIndex.getDocumentStore().getDocument(documentId);
+			double score = computeRelevanceScore(matchingPostingLists, matchingCount, query, document, ranker, null, false);
+			builder.append(String.format("; score %.4g", score));
+			if (this.settings.staticRankWeight != 0.0) {
+				builder.append(String.format(" incl. static rank %.4g", this.settings.staticRankWeight * document.getStaticRank()));
+			}
+		}
+		// Did it make it?
+		for (int i = 0; i < bestDocumentIds.size(); ++i) {
+			if (bestDocumentIds.getData(i) == documentId) {
+				return builder.append(String.format(", ranked %d of %d", i + 1, bestDocumentIds.size())).toString();
+			}
+		}
+		return builder.append(", not among the results").toString();
+	}
+
 	/**
 	 * Extracts a set of ranked documents for the query, and populate a sieve 
 	 * data structure which <documentId, documentRank> pairs
 	 * @param query the query
+	 * @param plan the plan for the query
 	 * @param invertedIndex the inverted index
 	 * @param ranker the ranker
+	 * @param budget bounds how much work evaluation may do
+	 * @param profile where to note where the time goes, if at all
 	 * @param debug whether to show debug information
 	 * @return the sieve data structure containing the ranked documents
 	 */
-	private Sieve<Integer,Double> extractRankedDocumentsForQuery(IQuery query, 
-				IInvertedIndex invertedIndex, IRanker ranker, boolean debug) {
-		// Process a normalized version, not the raw value.
-		String normalizedQuery = invertedIndex.getNormalizer().normalize(query.getOriginalQuery());
-
-		// Split the query string up into terms.
-		// TODO: Move to IQuery, to support a real query language.
-		IToken[] queryTerms = invertedIndex.getTokenizer().toArray(normalizedQuery);
-
-		// for each term in the query, we extract its corresponding posting list in the
+	private IntDoubleSieve extractRankedDocumentsForQuery(IQuery query, QueryPlan plan,
+				IInvertedIndex invertedIndex, IRanker ranker, QueryBudget budget, QueryProfile profile, boolean debug) {
+		// for each unique term in the query, we extract its corresponding posting list in the
 		// inverted index, since we will have to traverse them
-		List<TraversedPostingList> postingListsToTraverse = getPostingLists(queryTerms, invertedIndex);
+		List<TraversedPostingList> postingListsToTraverse = getPostingLists(plan);
 		
 		// We can require that at least N of the M query terms are present in the document,
-		// for the document to be considered part of the result set. What should N be?
-		// TODO: Take multiplicity into account, and not just uniqueness.
-		int requiredCount = Math.max(1, Math.min(postingListsToTraverse.size(),
-				(int) Math.round(this.settings.recallThreshold * postingListsToTraverse.size())));
+		// for the document to be considered part of the result set.
+		int requiredCount = plan.getRequiredCount();
 
 		if (debug) {
-			this.logger.finest(String.format("There are %d unique query terms to consider.", postingListsToTraverse.size()));
-			this.logger.finest(String.format("At least %d unique query terms must occur in a document.", requiredCount));
+			this.logger.finest(String.format("Evaluating query '%s' as %s.", query.getOriginalQuery(), plan));
 		}
 		// Define a helper to let us efficiently find the "best" results.
-		Sieve<Integer, Double> bestDocumentIds = new Sieve<Integer, Double>(this.settings.candidates);
+		IntDoubleSieve bestDocumentIds = this.sieves.get();
+		bestDocumentIds.reset(this.settings.candidates);
+
+		switch (plan.getMethod()) {
+		case SCORE_AT_A_TIME:
+			// Add up precomputed impacts instead of ranking.
+			scoreAtATime(postingListsToTraverse, requiredCount, invertedIndex, budget, profile, bestDocumentIds, debug);
+			break;
+		case TERM_AT_A_TIME:
+			termAtATime(postingListsToTraverse, requiredCount, invertedIndex, (IImpactRanker) ranker, budget, profile, bestDocumentIds, debug);
+			break;
+		case PRUNED_TOP_K:
+			// Skip documents that can't make it into the sieve.
+			if (plan.getStrategy() == EvaluationStrategy.MAX_SCORE) {
+				mergeWithMaxScore(postingListsToTraverse, requiredCount, query, invertedIndex,
+						(IBoundedRanker) ranker, budget, profile, bestDocumentIds, debug);
+			}
+			else {
+				mergeWithDynamicPruning(postingListsToTraverse, requiredCount, query, invertedIndex,
+						(IBoundedRanker) ranker, budget, profile, bestDocumentIds, debug);
+			}
+			break;
+		default:
+			// Can bitwise operations on dense posting lists rule out most documents up front? When
+			// intersecting, only if all the lists are bitmaps, else the rarest list drives instead.
+			RoaringBitmap candidateDocumentIds = null;
+			if (this.settings.bitmapFiltering
+					&& (plan.getMethod() != QueryPlan.Method.INTERSECTION || hasDocumentIdBitmaps(postingListsToTraverse))) {
+				candidateDocumentIds = getCandidateDocumentIds(postingListsToTraverse, requiredCount);
+			}
+			if (candidateDocumentIds != null) {
+				if (debug) {
+					this.logger.finest(String.format("Bitmap filtering leaves %d candidate documents.", candidateDocumentIds.cardinality()));
+				}
+				mergeCandidates(postingListsToTraverse, requiredCount, candidateDocumentIds, query, invertedIndex,
+						ranker, budget, profile, bestDocumentIds, debug);
+			}
+			else if (plan.getMethod() == QueryPlan.Method.INTERSECTION) {
+				intersect(postingListsToTraverse, query, invertedIndex, ranker, budget, profile, bestDocumentIds, debug);
+			}
+			else {
+				mergeExhaustively(postingListsToTraverse, requiredCount, query, invertedIndex,
+						ranker, budget, profile, bestDocumentIds, debug);
+			}
+			break;
+		}
+		return bestDocumentIds;
+	}
+
+	/**
+	 * Traverses the posting lists score-at-a-time, i.e., processes the segments
+	 * of postings with equal impact across all the lists in order of descending
+	 * impact, and adds up the impacts per document. Segments with no impact
+	 * only matter if documents must contain more than one of the query terms.
+	 * Stops once the posting budget is spent, if there is one, which leaves
+	 * the segments that matter least unprocessed. The lists must have impacts.
+	 * @param postingListsToTraverse the posting lists for the query terms
+	 * @param requiredCount how many of the query terms a document must contain
+	 * @param invertedIndex the inverted index
+	 * @param budget bounds how much work evaluation may do
+	 * @param profile where to note where the time goes, if at all
+	 * @param bestDocumentIds the sieve to populate with ranked documents
+	 * @param debug whether to show debug information
+	 */
+	private void scoreAtATime(List<TraversedPostingList> postingListsToTraverse, int requiredCount,
+				IInvertedIndex invertedIndex, QueryBudget budget, QueryProfile profile, IntDoubleSieve bestDocumentIds, boolean debug) {
+		ImpactList[] impactLists = new ImpactList[postingListsToTraverse.size()];
+		int[] multiplicities = new int[impactLists.length];
+		for (int i = 0; i < impactLists.length; ++i) {
+			impactLists[i] = postingListsToTraverse.get(i).getPostingList().getImpacts();
+			multiplicities[i] = postingListsToTraverse.get(i).getMultiplicity();
+		}
+		int[] segments = new int[impactLists.length];
+		int lowestImpact = (requiredCount > 1) ? 0 : 1;
+		ScoreAccumulators accumulators = this.accumulators.get();
+		accumulators.reset(invertedIndex.getDocumentStore().size());
+		long processedCount = 0;
+		while (true) {
+			// Which list has the segment with the highest impact left?
+			int best = -1;
+			int bestImpact = lowestImpact - 1;
+			for (int i = 0; i < impactLists.length; ++i) {
+				if (segments[i] < impactLists[i].getSegmentCount() && impactLists[i].getImpact(segments[i]) * multiplicities[i] > bestImpact) {
+					best = i;
+					bestImpact = impactLists[i].getImpact(segments[i]) * multiplicities[i];
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			if (this.settings.impactPostingBudget > 0 && processedCount >= this.settings.impactPostingBudget) {
+				if (debug) {
+					this.logger.finest(String.format("Stopping after %d postings, at impact %d.", processedCount, bestImpact));
+				}
+				break;
+			}
+			int[] documentIds = accumulators.getScratch(impactLists[best].getSegmentSize(segments[best]));
+			int count = impactLists[best].getDocumentIds(segments[best]++, documentIds);
+			for (int i = 0; i < count; ++i) {
+				accumulators.add(documentIds[i], bestImpact);
+			}
+			processedCount += count;
+			if (!budget.spend(count)) {
+				break;
+			}
+		}
+		siftAccumulators(accumulators, requiredCount, invertedIndex, profile, bestDocumentIds);
+	}
+
+	/**
+	 * Traverses the posting lists term-at-a-time, shortest first, and adds
+	 * up each posting's contribution to the document's score. Only the first
+	 * M - N + 1 lists can bring up documents not seen yet, since a document
+	 * that only occurs in the rest can't contain N of the M query terms.
+	 * The remaining lists just skip ahead to the documents already seen.
+	 * @param postingListsToTraverse the posting lists for the query terms, shortest first
+	 * @param requiredCount how many of the query terms a document must contain
+	 * @param invertedIndex the inverted index
+	 * @param ranker the ranker, whose scores must be sums of per-posting contributions
+	 * @param budget bounds how much work evaluation may do
+	 * @param profile where to note where the time goes, if at all
+	 * @param bestDocumentIds the sieve to populate with ranked documents
+	 * @param debug whether to show debug information
+	 */
+	private void termAtATime(List<TraversedPostingList> postingListsToTraverse, int requiredCount,
+				IInvertedIndex invertedIndex, IImpactRanker ranker, QueryBudget budget, QueryProfile profile, IntDoubleSieve bestDocumentIds, boolean debug) {
+		ICollectionStatistics statistics = invertedIndex.getStatistics();
+		ScoreAccumulators accumulators = this.accumulators.get();
+		accumulators.reset(invertedIndex.getDocumentStore().size());
+		int count = postingListsToTraverse.size();
+		for (int i = 0; i < count && !budget.isExhausted(); ++i) {
+			TraversedPostingList postingList = postingListsToTraverse.get(i);
+			int lexiconId = postingList.getLexiconId();
+			int multiplicity = postingList.getMultiplicity();
+			if (i <= count - requiredCount) {
+				for (; !postingList.isFullyTraversed() && budget.spend(1); postingList.incrementPosition()) {
+					int documentId = postingList.getCurrentDocumentId();
+					accumulators.add(documentId, multiplicity * ranker.getImpact(statistics, lexiconId, documentId, postingList.getCurrentOccurrenceCount()));
+				}
+				continue;
+			}
+			if (i == count - requiredCount + 1) {
+				accumulators.sortDocumentIds();
+				if (debug) {
+					this.logger.finest(String.format("Skipping ahead to the %d documents seen so far.", accumulators.size()));
+				}
+			}
+			for (int j = 0; j < accumulators.size() && !postingList.isFullyTraversed() && budget.spend(1); ++j) {
+				int documentId = accumulators.getDocumentId(j);
+				postingList.advanceTo(documentId);
+				if (!postingList.isFullyTraversed() && postingList.getCurrentDocumentId() == documentId) {
+					accumulators.add(documentId, multiplicity * ranker.getImpact(statistics, lexiconId, documentId, postingList.getCurrentOccurrenceCount()));
+				}
+			}
+		}
+		siftAccumulators(accumulators, requiredCount, invertedIndex, profile, bestDocumentIds);
+	}
+
+	/**
+	 * Sifts the documents whose scores have been accumulated, and that match
+	 * enough of the query terms.
+	 * @param accumulators the accumulated scores
+	 * @param requiredCount how many of the query terms a document must contain
+	 * @param invertedIndex the inverted index
+	 * @param profile where to note where the time goes, if at all
+	 * @param bestDocumentIds the sieve to populate with ranked documents
+	 */
+	private void siftAccumulators(ScoreAccumulators accumulators, int requiredCount,
+				IInvertedIndex invertedIndex, QueryProfile profile, IntDoubleSieve bestDocumentIds) {
+		long time = (profile != null) ? System.nanoTime() : 0;
+		BitSet deletedDocumentIds = invertedIndex.getDeletedDocuments();
+		for (int i = 0; i < accumulators.size(); ++i) {
+			int documentId = accumulators.getDocumentId(i);
+			if (accumulators.getMatchCount(documentId) < requiredCount) {
+				continue;
+			}
+			if (deletedDocumentIds != null && deletedDocumentIds.get(documentId)) {
+				continue;
+			}
+			double score = accumulators.getScore(documentId);
+			if (this.settings.staticRankWeight != 0.0) {
+				score += this.settings.staticRankWeight * invertedIndex.getDocumentStore().getDocument(documentId).getStaticRank();
+			}
+			if (profile != null) {
+				profile.countCandidate();
+			}
+			if (score > this.settings.rankThreshold) {
+				sift(bestDocumentIds, documentId, score, profile);
+			}
+		}
+		if (profile != null) {
+			profile.lap(QueryProfile.Phase.SCORING, time);
+		}
+	}
+
+	/**
+	 * Returns true if all the posting lists store their document identifiers as bitmaps.
+	 * @param postingListsToTraverse the posting lists for the query terms
+	 * @return true if and only if every list has a document identifier bitmap
+	 */
+	private static boolean hasDocumentIdBitmaps(List<TraversedPostingList> postingListsToTraverse) {
+		for (TraversedPostingList postingList : postingListsToTraverse) {
+			if (postingList.getPostingList().getDocumentIdBitmap() == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the documents that can possibly occur in enough of the posting
+	 * lists, as computed from the lists whose document identifiers are stored
+	 * as bitmaps. If K of the M lists are bitmaps, and a document must occur in
+	 * N of them, it must occur in at least N - (M - K) of the bitmaps. That
+	 * only narrows things down if it means at least two of them, e.g., when
+	 * ANDing stopwords.
+	 * @param postingListsToTraverse the posting lists for the query terms
+	 * @param requiredCount how many of the query terms a document must contain
+	 * @return the candidate documents, or null if the bitmaps don't narrow things down
+	 */
+	private RoaringBitmap getCandidateDocumentIds(List<TraversedPostingList> postingListsToTraverse, int requiredCount) {
+		List<RoaringBitmap> bitmaps = new ArrayList<RoaringBitmap>();
+		for (TraversedPostingList postingList : postingListsToTraverse) {
+			RoaringBitmap bitmap = postingList.getPostingList().getDocumentIdBitmap();
+			if (bitmap != null) {
+				bitmaps.add(bitmap);
+			}
+		}
+		int bitmapRequiredCount = requiredCount - (postingListsToTraverse.size() - bitmaps.size());
+		if (bitmapRequiredCount < 2) {
+			return null;
+		}
+		return RoaringBitmap.atLeast(bitmaps.toArray(new RoaringBitmap[bitmaps.size()]), bitmapRequiredCount);
+	}
+
+	/**
+	 * Scores every candidate document that occurs in enough of the posting
+	 * lists. For each candidate, every list skips ahead to it, so the lists
+	 * only decode the blocks that candidates fall within.
+	 * @param postingListsToTraverse the posting lists for the query terms
+	 * @param requiredCount how many of the query terms a document must contain
+	 * @param candidateDocumentIds the documents that can possibly occur in enough of the lists
+	 * @param query the query
+	 * @param invertedIndex the inverted index
+	 * @param ranker the ranker
+	 * @param budget bounds how much work evaluation may do
+	 * @param profile where to note where the time goes, if at all
+	 * @param bestDocumentIds the sieve to populate with ranked documents
+	 * @param debug whether to show debug information
+	 */
+	private void mergeCandidates(List<TraversedPostingList> postingListsToTraverse, int requiredCount,
+				RoaringBitmap candidateDocumentIds, IQuery query, IInvertedIndex invertedIndex, IRanker ranker,
+				QueryBudget budget, QueryProfile profile, IntDoubleSieve bestDocumentIds, boolean debug) {
+		BitSet deletedDocumentIds = invertedIndex.getDeletedDocuments();
+		TraversedPostingList[] matchingPostingLists = new TraversedPostingList[postingListsToTraverse.size()];
+		int[] candidates = new int[256];
+		int count = candidateDocumentIds.nextSetBits(0, candidates, candidates.length);
+		while (count > 0) {
+			for (int c = 0; c < count; ++c) {
+				int currentDocumentId = candidates[c];
+				if (deletedDocumentIds != null && deletedDocumentIds.get(currentDocumentId)) {
+					continue;
+				}
+				if (!budget.spend(postingListsToTraverse.size())) {
+					return;
+				}
+				// Which posting lists contain the candidate?
+				int matchingCount = 0;
+				for (TraversedPostingList postingList : postingListsToTraverse) {
+					postingList.advanceTo(currentDocumentId);
+					if (!postingList.isFullyTraversed() && postingList.getCurrentDocumentId() == currentDocumentId) {
+						matchingPostingLists[matchingCount++] = postingList;
+					}
+				}
+				if (matchingCount >= requiredCount) {
+					IDocument document = invertedIndex.getDocumentStore().getDocument(currentDocumentId);
+					double score = computeRelevanceScore(matchingPostingLists, matchingCount, query, document, ranker, profile, debug);
+					if (score > this.settings.rankThreshold) {
+						sift(bestDocumentIds, currentDocumentId, score, profile);
+					}
+				}
+			}
+			count = candidateDocumentIds.nextSetBits(candidates[count - 1] + 1, candidates, candidates.length);
+		}
+	}
+
+	/**
+	 * Traverses the posting lists document-at-a-time, and scores every document
+	 * that occurs in all of them. The first list drives, and the others skip
+	 * ahead to its documents, in order, until one of them doesn't contain the
+	 * document. The first list then skips ahead to where that one is. The
+	 * rarer the terms whose lists come first, the fewer postings are decoded.
+	 * @param postingListsToTraverse the posting lists for the query terms, shortest first
+	 * @param query the query
+	 * @param invertedIndex the inverted index
+	 * @param ranker the ranker
+	 * @param budget bounds how much work evaluation may do
+	 * @param profile where to note where the time goes, if at all
+	 * @param bestDocumentIds the sieve to populate with ranked documents
+	 * @param debug whether to show debug information
+	 */
+	private void intersect(List<TraversedPostingList> postingListsToTraverse,
+				IQuery query, IInvertedIndex invertedIndex, IRanker ranker,
+				QueryBudget budget, QueryProfile profile, IntDoubleSieve bestDocumentIds, boolean debug) {
+		BitSet deletedDocumentIds = invertedIndex.getDeletedDocuments();
+		TraversedPostingList[] postingLists = postingListsToTraverse.toArray(new TraversedPostingList[0]);
+		TraversedPostingList first = postingLists[0];
+		while (!first.isFullyTraversed() && budget.spend(postingLists.length)) {
+			int currentDocumentId = first.getCurrentDocumentId();
+			int i = 1;
+			for (; i < postingLists.length; ++i) {
+				postingLists[i].advanceTo(currentDocumentId);
+				if (postingLists[i].isFullyTraversed()) {
+					return;
+				}
+				if (postingLists[i].getCurrentDocumentId() != currentDocumentId) {
+					break;
+				}
+			}
+			// Some list doesn't contain the document? Skip to where that list is.
+			if (i < postingLists.length) {
+				first.advanceTo(postingLists[i].getCurrentDocumentId());
+				continue;
+			}
+			if (deletedDocumentIds == null || !deletedDocumentIds.get(currentDocumentId)) {
+				IDocument document = invertedIndex.getDocumentStore().getDocument(currentDocumentId);
+				double score = computeRelevanceScore(postingLists, postingLists.length, query, document, ranker, profile, debug);
+				if (score > this.settings.rankThreshold) {
+					sift(bestDocumentIds, currentDocumentId, score, profile);
+				}
+			}
+			first.incrementPosition();
+		}
+	}
+
+	/**
+	 * Traverses the posting lists document-at-a-time, and scores every document
+	 * that occurs in enough of them.
+	 * @param postingListsToTraverse the posting lists for the query terms
+	 * @param requiredCount how many of the query terms a document must contain
+	 * @param query the query
+	 * @param invertedIndex the inverted index
+	 * @param ranker the ranker
+	 * @param budget bounds how much work evaluation may do
+	 * @param profile where to note where the time goes, if at all
+	 * @param bestDocumentIds the sieve to populate with ranked documents
+	 * @param debug whether to show debug information
+	 */
+	private void mergeExhaustively(List<TraversedPostingList> postingListsToTraverse, int requiredCount,
+				IQuery query, IInvertedIndex invertedIndex, IRanker ranker,
+				QueryBudget budget, QueryProfile profile, IntDoubleSieve bestDocumentIds, boolean debug) {
+		// Merge the posting lists document-at-a-time. The heap keeps the list lagging
+		// the most behind on top, and the scratch array holds the lists we've popped off.
+		BitSet deletedDocumentIds = invertedIndex.getDeletedDocuments();
+		PostingListHeap heap = new PostingListHeap(postingListsToTraverse.size());
+		TraversedPostingList[] poppedPostingLists = new TraversedPostingList[postingListsToTraverse.size()];
+		for (TraversedPostingList postingList : postingListsToTraverse) {
+			heap.insert(postingList);
+		}
 
 		// continue traversing the posting lists until we reach the minimum threshold
-		while (postingListsToTraverse.size() >= requiredCount) {
+		while (heap.size() >= requiredCount) {
 			if (debug) {
-				this.logger.finest(String.format("There are still %d lists remaining.", postingListsToTraverse.size()));
+				this.logger.finest(String.format("There are still %d lists remaining.", heap.size()));
+			}
+			// Which document identifier are we evaluating now? A document needs to occur in at
+			// least requiredCount lists, so it can't be smaller than the requiredCount-th smallest
+			// document Id amongst the traversed posting lists. For pure "OR" evaluation, that's
+			// simply the minimum.
+			for (int i = 0; i < requiredCount - 1; ++i) {
+				poppedPostingLists[i] = heap.deleteRoot();
+			}
+			int currentDocumentId = heap.getRootDocumentId();
+
+			// Leapfrog the posting lists lagging behind. They can skip everything before the
+			// selected document ID, since no document in between can have enough matches.
+			for (int i = 0; i < requiredCount - 1; ++i) {
+				poppedPostingLists[i].advanceTo(currentDocumentId);
+				if (!poppedPostingLists[i].isFullyTraversed()) {
+					heap.insert(poppedPostingLists[i]);
+				}
 			}
-			// Which document identifier are we evaluating now? We simply take the minimum
-			// of the document Ids amongst the traversed posting lists
-			int currentDocumentId = Collections.min(postingListsToTraverse).getCurrentPosting().getDocumentId();
 
-			// Given the selected document ID, which posting lists contains it? 
-			List<TraversedPostingList> matchingPostingLists = 
-				getMatchingPostingListsForDocId(postingListsToTraverse, currentDocumentId);            
+			// Given the selected document ID, which posting lists contains it? These
+			// are now on top of the heap.
+			int matchingCount = 0;
+			while (heap.size() > 0 && heap.getRootDocumentId() == currentDocumentId) {
+				poppedPostingLists[matchingCount++] = heap.deleteRoot();
+			}
+
+			// Out of budget? Stop here, with the best documents so far.
+			if (!budget.spend(matchingCount)) {
+				break;
+			}
 
 			// if the number of matching posting lists is above the required threshold,
-			// we compute the relevance score.  Else, we ignore it
-			if (matchingPostingLists.size() >= requiredCount) {
+			// we compute the relevance score.  Else, we ignore it. Deleted documents
+			// still have postings, but never make it.
+			if (matchingCount >= requiredCount && (deletedDocumentIds == null || !deletedDocumentIds.get(currentDocumentId))) {
 				IDocument document = invertedIndex.getDocumentStore().getDocument(currentDocumentId);
 
 				// We compute the relevance score
-				double score = computeRelevanceScore(matchingPostingLists, query, document, ranker, debug);
+				double score = computeRelevanceScore(poppedPostingLists, matchingCount, query, document, ranker, profile, debug);
 
 				// The current document may or may not be a keeper, depending on how well it
 				// scored. Sift it through the sieve that preserves the "best" matches.
 				if (score > this.settings.rankThreshold) {
-					bestDocumentIds.sift(currentDocumentId, score);
+					sift(bestDocumentIds, currentDocumentId, score, profile);
 				}
 			}
 
 			// we now increment the traversal position for the matching posting lists
-			for (TraversedPostingList postingList : matchingPostingLists) {
-				postingList.incrementPosition();
+			for (int i = 0; i < matchingCount; ++i) {
+				poppedPostingLists[i].incrementPosition();
 
 				// Has the current posting list reached its end? If so, there's one less list
 				// remaining to be be dealt with for this query. 
-				if (postingList.isFullyTraversed()) {
-					postingListsToTraverse.remove(postingList);
+				if (!poppedPostingLists[i].isFullyTraversed()) {
+					heap.insert(poppedPostingLists[i]);
 				}
 			}
 		}
-		return bestDocumentIds;
+	}
+
+	/**
+	 * Traverses the posting lists document-at-a-time using (Block-Max) WAND. The
+	 * lists are kept sorted by their current document IDs. A document can only
+	 * make it into the sieve if it beats the current threshold, so we pick as
+	 * pivot the first list where the accumulated upper bounds beat it. No document
+	 * before the pivot document can do that, so the lists lagging behind can skip
+	 * straight to it. With block maxima, we also skip the pivot document and what
+	 * follows it, for as long as the current blocks can't beat the threshold.
+	 * @param postingListsToTraverse the posting lists for the query terms
+	 * @param requiredCount how many of the query terms a document must contain
+	 * @param query the query
+	 * @param invertedIndex the inverted index
+	 * @param ranker the ranker, which must be able to bound its scores
+	 * @param budget bounds how much work evaluation may do
+	 * @param profile where to note where the time goes, if at all
+	 * @param bestDocumentIds the sieve to populate with ranked documents
+	 * @param debug whether to show debug information
+	 */
+	private void mergeWithDynamicPruning(List<TraversedPostingList> postingListsToTraverse, int requiredCount,
+				IQuery query, IInvertedIndex invertedIndex, IBoundedRanker ranker,
+				QueryBudget budget, QueryProfile profile, IntDoubleSieve bestDocumentIds, boolean debug) {
+		boolean blockMax = (this.settings.strategy == EvaluationStrategy.BLOCK_MAX_WAND);
+		BitSet deletedDocumentIds = invertedIndex.getDeletedDocuments();
+
+		// How much can each query term contribute at most?
+		TraversedPostingList[] postingLists = postingListsToTraverse.toArray(new TraversedPostingList[0]);
+		for (TraversedPostingList postingList : postingLists) {
+			PostingList postings = postingList.getPostingList();
+			postingList.setUpperBound(postingList.getMultiplicity()
+					* ranker.getUpperBound(postingList.getQueryTerm(), postingList.getLexiconId(), postings.getMaxOccurrenceCount(), postings));
+		}
+		int count = sortByDocumentId(postingLists, postingLists.length);
+
+		while (count >= requiredCount) {
+			double threshold = this.getThreshold(bestDocumentIds);
+
+			// Find the pivot. It has to be at least the requiredCount-th list, too. No remaining
+			// document comes before the first list's, so their static ranks are bounded from there.
+			int pivot = -1;
+			double upperBound = this.getStaticRankBound(invertedIndex, postingLists[0].getCurrentDocumentId());
+			for (int i = 0; i < count; ++i) {
+				upperBound += postingLists[i].getUpperBound();
+				if (i + 1 >= requiredCount && upperBound > threshold) {
+					pivot = i;
+					break;
+				}
+			}
+			// No remaining document can make it? If the documents are ordered by static
+			// rank, this is where the later tiers' static ranks get too low, and we stop early.
+			if (pivot < 0) {
+				if (debug) {
+					this.logger.finest(String.format("Stopping at document %d.", postingLists[0].getCurrentDocumentId()));
+				}
+				break;
+			}
+			// Include all lists that are at the pivot document.
+			int pivotDocumentId = postingLists[pivot].getCurrentDocumentId();
+			while (pivot + 1 < count && postingLists[pivot + 1].getCurrentDocumentId() == pivotDocumentId) {
+				++pivot;
+			}
+			// Out of budget? Stop here, with the best documents so far.
+			if (!budget.spend(pivot + 1)) {
+				break;
+			}
+			// Do the current blocks rule out the pivot document, and the ones following it?
+			if (blockMax) {
+				double blockUpperBound = this.getStaticRankBound(invertedIndex, pivotDocumentId);
+				int lastDocumentId = Integer.MAX_VALUE;
+				for (int i = 0; i <= pivot; ++i) {
+					TraversedPostingList postingList = postingLists[i];
+					postingList.shallowAdvanceTo(pivotDocumentId);
+					blockUpperBound += postingList.getMultiplicity() * ranker.getUpperBound(postingList.getQueryTerm(), postingList.getLexiconId(),
+							postingList.getShallowMaxOccurrenceCount(), postingList.getPostingList());
+					lastDocumentId = Math.min(lastDocumentId, postingList.getShallowLastDocumentId());
+				}
+				if (blockUpperBound <= threshold) {
+					// Skip past the block that ends first, but not past the next list.
+					int nextDocumentId = Math.max(lastDocumentId, pivotDocumentId) + 1;
+					if (pivot + 1 < count) {
+						nextDocumentId = Math.min(nextDocumentId, postingLists[pivot + 1].getCurrentDocumentId());
+					}
+					count = skipToDocumentId(postingLists, count, pivot + 1, nextDocumentId);
+					continue;
+				}
+			}
+			// Not there yet? Let the lists lagging behind catch up.
+			if (postingLists[0].getCurrentDocumentId() != pivotDocumentId) {
+				count = skipToDocumentId(postingLists, count, pivot, pivotDocumentId);
+				continue;
+			}
+			// All the lists up to and including the pivot contain the pivot document.
+			// Unless it has been deleted, score it.
+			if (deletedDocumentIds == null || !deletedDocumentIds.get(pivotDocumentId)) {
+				IDocument document = invertedIndex.getDocumentStore().getDocument(pivotDocumentId);
+				double score = computeRelevanceScore(postingLists, pivot + 1, query, document, ranker, profile, debug);
+				if (score > this.settings.rankThreshold) {
+					sift(bestDocumentIds, pivotDocumentId, score, profile);
+				}
+			}
+			for (int i = 0; i <= pivot; ++i) {
+				postingLists[i].incrementPosition();
+			}
+			count = sortByDocumentId(postingLists, count);
+		}
+	}
+
+	/**
+	 * Traverses the posting lists MaxScore style. The lists are ordered by
+	 * their upper bounds, and the first few are non-essential: no document
+	 * that only occurs in them can make it, since their bounds add up to at
+	 * most the threshold, or since there are fewer of them than the number of
+	 * query terms a document must contain. Only the essential lists are merged,
+	 * and for each document they surface, the non-essential lists are probed,
+	 * highest bound first, until the document can no longer beat the threshold
+	 * or reach the required number of query terms. As the threshold rises,
+	 * more lists become non-essential. The ranker must be additive, so that
+	 * evaluating it part way gives the score so far.
+	 * @param postingListsToTraverse the posting lists for the query terms
+	 * @param requiredCount how many of the query terms a document must contain
+	 * @param query the query
+	 * @param invertedIndex the inverted index
+	 * @param ranker the ranker
+	 * @param budget bounds how much work evaluation may do
+	 * @param profile where to note where the time goes, if at all
+	 * @param bestDocumentIds the sieve to populate with ranked documents
+	 * @param debug whether to show debug information
+	 */
+	private void mergeWithMaxScore(List<TraversedPostingList> postingListsToTraverse, int requiredCount,
+				IQuery query, IInvertedIndex invertedIndex, IBoundedRanker ranker,
+				QueryBudget budget, QueryProfile profile, IntDoubleSieve bestDocumentIds, boolean debug) {
+		BitSet deletedDocumentIds = invertedIndex.getDeletedDocuments();
+
+		// Order the lists by how much their query terms can contribute at most.
+		TraversedPostingList[] postingLists = postingListsToTraverse.toArray(new TraversedPostingList[0]);
+		for (TraversedPostingList postingList : postingLists) {
+			PostingList postings = postingList.getPostingList();
+			postingList.setUpperBound(postingList.getMultiplicity()
+					* ranker.getUpperBound(postingList.getQueryTerm(), postingList.getLexiconId(), postings.getMaxOccurrenceCount(), postings));
+		}
+		Arrays.sort(postingLists, new Comparator<TraversedPostingList>() {
+			public int compare(TraversedPostingList x, TraversedPostingList y) {
+				return Double.compare(x.getUpperBound(), y.getUpperBound());
+			}
+		});
+		// The bounds of the first i lists add up to cumulativeUpperBounds[i].
+		double[] cumulativeUpperBounds = new double[postingLists.length + 1];
+		for (int i = 0; i < postingLists.length; ++i) {
+			cumulativeUpperBounds[i + 1] = cumulativeUpperBounds[i] + postingLists[i].getUpperBound();
+		}
+		TraversedPostingList[] matchingPostingLists = new TraversedPostingList[postingLists.length];
+
+		// A document with enough query terms must occur in one of the last M - N + 1 lists.
+		int firstEssential = requiredCount - 1;
+		double staticRankBound = this.getStaticRankBound(invertedIndex, 0);
+		while (true) {
+			// Which lists are non-essential now? The threshold only rises, and the static ranks only fall.
+			double threshold = this.getThreshold(bestDocumentIds);
+			while (firstEssential < postingLists.length && cumulativeUpperBounds[firstEssential + 1] + staticRankBound <= threshold) {
+				++firstEssential;
+				if (debug) {
+					this.logger.finest(String.format("Query term '%s' is no longer essential.",
+							postingLists[firstEssential - 1].getQueryTerm().getValue()));
+				}
+			}
+			// The next document is the first one in any of the essential lists.
+			int currentDocumentId = Integer.MAX_VALUE;
+			for (int i = firstEssential; i < postingLists.length; ++i) {
+				if (!postingLists[i].isFullyTraversed()) {
+					currentDocumentId = Math.min(currentDocumentId, postingLists[i].getCurrentDocumentId());
+				}
+			}
+			if (currentDocumentId == Integer.MAX_VALUE) {
+				break;
+			}
+			staticRankBound = this.getStaticRankBound(invertedIndex, currentDocumentId);
+
+			// Which essential lists contain it? Move them past it right away.
+			int matchingCount = 0;
+			double upperBound = staticRankBound + cumulativeUpperBounds[firstEssential];
+			for (int i = firstEssential; i < postingLists.length; ++i) {
+				if (!postingLists[i].isFullyTraversed() && postingLists[i].getCurrentDocumentId() == currentDocumentId) {
+					matchingPostingLists[matchingCount++] = postingLists[i];
+					upperBound += postingLists[i].getUpperBound();
+				}
+			}
+			// Out of budget? Stop here, with the best documents so far.
+			if (!budget.spend(matchingCount)) {
+				break;
+			}
+			boolean candidate = (matchingCount + firstEssential >= requiredCount && upperBound > threshold);
+			if (candidate && deletedDocumentIds != null && deletedDocumentIds.get(currentDocumentId)) {
+				candidate = false;
+			}
+			if (candidate) {
+				// Score the essential terms, and probe the non-essential lists while the document can still make it.
+				IDocument document = invertedIndex.getDocumentStore().getDocument(currentDocumentId);
+				double score = computeRelevanceScore(matchingPostingLists, matchingCount, query, document, ranker, profile, debug);
+				double staticRankScore = (this.settings.staticRankWeight == 0.0) ? 0.0 : this.settings.staticRankWeight * document.getStaticRank();
+				int essentialCount = matchingCount;
+				boolean pruned = false;
+				for (int i = firstEssential - 1; i >= 0 && !pruned; --i) {
+					if (score + cumulativeUpperBounds[i + 1] <= threshold || matchingCount + i + 1 < requiredCount) {
+						pruned = true;
+						continue;
+					}
+					TraversedPostingList postingList = postingLists[i];
+					postingList.advanceTo(currentDocumentId);
+					if (!postingList.isFullyTraversed() && postingList.getCurrentDocumentId() == currentDocumentId) {
+						// The ranker still holds the rest of the score, so just add this term's part.
+						update(ranker, postingList, postingList.getCurrentPosting());
+						score = ranker.evaluate(query, document) + staticRankScore;
+						++matchingCount;
+					}
+				}
+				if (!pruned && matchingCount >= requiredCount && score > this.settings.rankThreshold) {
+					sift(bestDocumentIds, currentDocumentId, score, profile);
+				}
+				matchingCount = essentialCount;
+			}
+			for (int i = 0; i < matchingCount; ++i) {
+				matchingPostingLists[i].incrementPosition();
+			}
+		}
+	}
+
+	/**
+	 * Returns an upper bound on what the static rank adds to the score of the
+	 * given document, and of every document after it.
+	 * @param invertedIndex the inverted index
+	 * @param documentId the document identifier
+	 * @return the bound on the weighted static rank
+	 */
+	private double getStaticRankBound(IInvertedIndex invertedIndex, int documentId) {
+		if (this.settings.staticRankWeight == 0.0) {
+			return 0.0;
+		}
+		return this.settings.staticRankWeight * invertedIndex.getStaticRankBound(documentId);
+	}
+
+	/**
+	 * Returns the score a document has to beat to make it into the sieve.
+	 * @param bestDocumentIds the sieve with the best documents so far
+	 * @return the current score threshold
+	 */
+	private double getThreshold(IntDoubleSieve bestDocumentIds) {
+		return Math.max(this.settings.rankThreshold, bestDocumentIds.threshold());
+	}
+
+	/**
+	 * Advances the first few of the given posting lists to the given document ID,
+	 * and restores the ordering.
+	 * @param postingLists the posting lists, sorted by current document ID
+	 * @param count the number of posting lists
+	 * @param n how many posting lists to advance, counted from the front
+	 * @param documentId the document ID to advance to
+	 * @return the number of posting lists that are not fully traversed
+	 */
+	private static int skipToDocumentId(TraversedPostingList[] postingLists, int count, int n, int documentId) {
+		for (int i = 0; i < n; ++i) {
+			postingLists[i].advanceTo(documentId);
+		}
+		return sortByDocumentId(postingLists, count);
+	}
+
+	/**
+	 * Removes the fully traversed posting lists, and sorts the rest by their
+	 * current document IDs. Insertion sort, since the lists are mostly sorted.
+	 * @param postingLists the posting lists
+	 * @param count the number of posting lists
+	 * @return the number of posting lists that are not fully traversed
+	 */
+	private static int sortByDocumentId(TraversedPostingList[] postingLists, int count) {
+		int remaining = 0;
+		for (int i = 0; i < count; ++i) {
+			TraversedPostingList postingList = postingLists[i];
+			if (postingList.isFullyTraversed()) {
+				continue;
+			}
+			int documentId = postingList.getCurrentDocumentId();
+			int j = remaining++;
+			while (j > 0 && postingLists[j - 1].getCurrentDocumentId() > documentId) {
+				postingLists[j] = postingLists[j - 1];
+				--j;
+			}
+			postingLists[j] = postingList;
+		}
+		for (int i = remaining; i < count; ++i) {
+			postingLists[i] = null;
+		}
+		return remaining;
 	}
 	
 	/**
 	 * Returns a list of TraversedPostingList objects corresponding
-	 * to the query terms, and initialized at their start position.
-	 * @param queryTerms the query terms
-	 * @param index the inverted index which contains the initial posting lists
+	 * to the unique query terms in the plan, in the same order, and
+	 * initialized at their start position.
+	 * @param plan the plan for the query
 	 * @return a list of TraversedPostingList
 	 */
-	private List<TraversedPostingList> getPostingLists(IToken[] queryTerms, IInvertedIndex index) {
-		List<TraversedPostingList> postingLists = new ArrayList<TraversedPostingList>();
-		ILexicon lexicon = index.getLexicon();
-		for (int i = 0 ; i < queryTerms.length; i++) {
-			int lexiconId = lexicon.lookup(queryTerms[i].getValue());
-			if (lexiconId != ILexicon.INVALID) {
-				TraversedPostingList newTraversedPostingList = 
-					new TraversedPostingList(index.getPostingList(lexiconId), queryTerms[i]);
-				postingLists.add(newTraversedPostingList);
-			}
+	private static List<TraversedPostingList> getPostingLists(QueryPlan plan) {
+		List<TraversedPostingList> postingLists = new ArrayList<TraversedPostingList>(plan.getTermCount());
+		for (int i = 0; i < plan.getTermCount(); ++i) {
+			QueryPlan.Term term = plan.getTerm(i);
+			postingLists.add(new TraversedPostingList(term.getPostingList(), term.getLexiconId(), term.getQueryTerm(), term.getMultiplicity()));
 		}
 		return postingLists;
 	}
 
 	/**
-	 * Returns the subset of posting lists which contain the given 
-	 * document id at their current index position.
-	 * @param postingLists the traversed posting lists
-	 * @param currentDocumentId the current document id
-	 * @return the posting lists which contain the document id
+	 * Lets the ranker account for a posting, once for each time its
+	 * query term occurs in the query.
+	 * @param ranker the ranker
+	 * @param postingList the posting list
+	 * @param posting the posting at the current position of the posting list
 	 */
-	private List<TraversedPostingList> getMatchingPostingListsForDocId(
-				List<TraversedPostingList> postingLists, int currentDocumentId) {
-		List<TraversedPostingList> matchingPostingLists = new ArrayList<TraversedPostingList>();
-		for (TraversedPostingList postingList : postingLists) {
-			if (postingList.getCurrentDocumentId() == currentDocumentId) {
-				matchingPostingLists.add(postingList);
-			}
-		}		
-		return matchingPostingLists;
+	private static void update(IRanker ranker, TraversedPostingList postingList, Posting posting) {
+		for (int i = 0; i < postingList.getMultiplicity(); ++i) {
+			ranker.update(postingList.getQueryTerm(), postingList.getLexiconId(), posting, postingList.getPostingList());
+		}
 	}
 
 	/**
@@ -188,18 +1005,23 @@ public class QueryEvaluator implements IQueryEvaluator {
 	 * posting lists.  The matching posting lists must all an 
 	 * identical document id at their current position.
 	 * @param matchingPostingLists the matching posting lists
+	 * @param matchingCount the number of matching posting lists
 	 * @param query the query
 	 * @param document the document
 	 * @param ranker the ranker
+	 * @param profile where to note where the time goes, if at all
 	 * @param debug whether to show debug information
 	 * @return the computed relevance score
 	 */
-	private double computeRelevanceScore(List<TraversedPostingList> matchingPostingLists, 
-				IQuery query, IDocument document, IRanker ranker, boolean debug) {
+	private double computeRelevanceScore(TraversedPostingList[] matchingPostingLists, int matchingCount,
+				IQuery query, IDocument document, IRanker ranker, QueryProfile profile, boolean debug) {
+		long time = (profile != null) ? System.nanoTime() : 0;
+
 		// Each document starts with a clean slate.
 		ranker.reset();
 		
-		for (TraversedPostingList postingList : matchingPostingLists) {
+		for (int i = 0; i < matchingCount; ++i) {
+			TraversedPostingList postingList = matchingPostingLists[i];
 			IToken queryTerm = postingList.getQueryTerm();
 			if (debug) {
 				this.logger.finest(String.format("Considering query term '%s' and that occurs in position %d in the query.",
@@ -215,7 +1037,7 @@ public class QueryEvaluator implements IQueryEvaluator {
 						posting.getDocumentId(), posting.getOccurrenceCount()));
 			}
 			// Accumulate relevance data.
-			ranker.update(queryTerm, posting, postingList.getPostingList());
+			update(ranker, postingList, posting);
 		}
 
 		// We now have fully accumulated all the relevance statistics for the current
@@ -224,10 +1046,32 @@ public class QueryEvaluator implements IQueryEvaluator {
 		// relevance score for this document identifier.
 		double rankScore = ranker.evaluate(query, document);
 
+		// How relevant is the document a priori, if that counts at all?
+		if (this.settings.staticRankWeight != 0.0) {
+			rankScore += this.settings.staticRankWeight * document.getStaticRank();
+		}
+
 		if (debug) {
 			this.logger.finest(String.format("Document %d is assigned rank score %g.", 
-					matchingPostingLists.get(0).getCurrentDocumentId(), rankScore));
+					matchingPostingLists[0].getCurrentDocumentId(), rankScore));
+		}
+		if (profile != null) {
+			profile.countCandidate();
+			profile.lap(QueryProfile.Phase.SCORING, time);
 		}
 		return rankScore;
 	}
+
+	/**
+	 * Sifts a scored document through the sieve, and counts it if it makes it.
+	 * @param bestDocumentIds the sieve with the best documents so far
+	 * @param documentId the document identifier
+	 * @param score the document's score
+	 * @param profile where to count the sieve insertions, if at all
+	 */
+	private static void sift(IntDoubleSieve bestDocumentIds, int documentId, double score, QueryProfile profile) {
+		if (bestDocumentIds.sift(documentId, score) && profile != null) {
+			profile.countSieveInsertion();
+		}
+	}
 }
\ No newline at end of file
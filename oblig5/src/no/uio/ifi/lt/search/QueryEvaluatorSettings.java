@@ -26,4 +26,88 @@ public class QueryEvaluatorSettings {
 	 * Ignore candidates with a relevance score below this value.
 	 */
 	public double rankThreshold = 0.0;
+
+	/**
+	 * How much the documents' static ranks count. A document's score is its
+	 * relevance for the query plus this times its static rank. Must not be
+	 * negative. If the index numbers the documents in order of descending
+	 * static rank, the pruning strategies can stop early, once the remaining
+	 * documents' static ranks are too low for them to make it.
+	 */
+	public double staticRankWeight = 0.0;
+
+	/**
+	 * Defines how the posting lists are traversed, and thus whether
+	 * documents that cannot make it into the results are skipped.
+	 */
+	public EvaluationStrategy strategy = EvaluationStrategy.EXHAUSTIVE;
+
+	/**
+	 * For {@link EvaluationStrategy#SCORE_AT_A_TIME}, roughly how many postings
+	 * to process before stopping, or 0 to process them all. The postings with
+	 * the highest impacts are processed first, so stopping early gives an
+	 * approximation of the results that improves with the budget.
+	 */
+	public int impactPostingBudget = 0;
+
+	/**
+	 * How long evaluating a single query may take, in milliseconds, or 0 for
+	 * no limit. Once the time is up, evaluation stops, and the best results
+	 * found so far are returned, flagged as partial. Bounds the latency of
+	 * pathological queries, e.g., all stopwords.
+	 * @see QueryBudget
+	 */
+	public long timeBudgetMillis = 0;
+
+	/**
+	 * How many postings evaluating a single query may visit, or 0 for no
+	 * limit. Like {@link #timeBudgetMillis}, but deterministic.
+	 * @see QueryBudget
+	 */
+	public long postingBudget = 0;
+
+	/**
+	 * The fraction of queries to profile, from 0.0 for none to 1.0 for all.
+	 * A profiled query's result set tells where the time went, and how much
+	 * work was done. Profiling reads the clock around every document scored,
+	 * so it's meant for a sample of the production traffic.
+	 * @see QueryProfile
+	 */
+	public double profileSampleRate = 0.0;
+
+	/**
+	 * Narrow down the documents to score up front with bitwise operations
+	 * on the posting lists that are stored as bitmaps, if any? Doesn't
+	 * change the results, only how fast we get them.
+	 */
+	public boolean bitmapFiltering = true;
+
+	/**
+	 * Let the planner evaluate queries term-at-a-time, where the ranker allows
+	 * it and it's deemed faster? Off by default, so that the configured
+	 * {@link #strategy} runs as chosen. Doesn't change the results, only how
+	 * fast we get them.
+	 * @see QueryPlanner
+	 */
+	public boolean termAtATime = false;
+
+	/**
+	 * From how long posting lists on, relative to the number of documents
+	 * and averaged over the query terms, to evaluate queries term-at-a-time
+	 * rather than with the pruning strategies, if {@link #termAtATime} is on. Dense lists leave the pruning
+	 * strategies little to skip, whereas term-at-a-time evaluation just
+	 * streams through them. A value above 1.0 means never.
+	 * @see QueryPlanner
+	 */
+	public double termAtATimeDensity = 0.5;
+
+	/**
+	 * Summarizes the settings that affect the results, e.g., to tell
+	 * apart cached results computed with different settings.
+	 */
+	@Override
+	public String toString() {
+		return String.format("candidates=%d;recallThreshold=%s;rankThreshold=%s;staticRankWeight=%s;strategy=%s;impactPostingBudget=%d",
+				this.candidates, this.recallThreshold, this.rankThreshold, this.staticRankWeight, this.strategy, this.impactPostingBudget);
+	}
 }
\ No newline at end of file
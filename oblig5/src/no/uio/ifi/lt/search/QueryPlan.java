@@ -0,0 +1,217 @@
+package no.uio.ifi.lt.search;
+import no.uio.ifi.lt.indexing.PostingList;
+import no.uio.ifi.lt.tokenization.IToken;
+
+/**
+ * A plan for evaluating a query, as made by a {@link QueryPlanner}: which
+ * posting lists to traverse, in how many of them a document must occur, and
+ * how to traverse them. Each unique query term occurs once in the plan, along
+ * with how many times it occurs in the query, and the terms are ordered by
+ * selectivity, i.e., rarest first. The {@link #toString()} method explains
+ * the plan, e.g., for logging slow queries.
+ */
+public class QueryPlan {
+	/**
+	 * Defines how the posting lists are traversed.
+	 */
+	public enum Method {
+		/**
+		 * Document-at-a-time, for documents that contain all the query terms.
+		 * The rarest term's posting list drives, and the others skip ahead
+		 * to the documents it contains.
+		 */
+		INTERSECTION,
+
+		/**
+		 * Document-at-a-time, scoring every document that contains enough
+		 * of the query terms.
+		 */
+		UNION,
+
+		/**
+		 * Document-at-a-time, skipping documents that can't make it into the
+		 * top results, as defined by {@link QueryEvaluatorSettings#strategy}.
+		 */
+		PRUNED_TOP_K,
+
+		/**
+		 * Term-at-a-time, accumulating the rarest terms' contributions first.
+		 * @see TermAtATimeQueryEvaluator
+		 */
+		TERM_AT_A_TIME,
+
+		/**
+		 * Score-at-a-time, adding up precomputed impacts.
+		 * @see EvaluationStrategy#SCORE_AT_A_TIME
+		 */
+		SCORE_AT_A_TIME
+	}
+
+	/**
+	 * A unique query term, and its posting list.
+	 */
+	public static final class Term {
+		/** The first occurrence of the term in the query. */
+		private final IToken queryTerm;
+
+		/** The lexicon identifier of the term. */
+		private final int lexiconId;
+
+		/** How many times the term occurs in the query. */
+		private final int multiplicity;
+
+		/** The term's posting list. */
+		private final PostingList postingList;
+
+		/**
+		 * Constructor.
+		 * @param queryTerm the first occurrence of the term in the query
+		 * @param lexiconId the lexicon identifier of the term
+		 * @param multiplicity how many times the term occurs in the query
+		 * @param postingList the term's posting list
+		 */
+		Term(IToken queryTerm, int lexiconId, int multiplicity, PostingList postingList) {
+			this.queryTerm = queryTerm;
+			this.lexiconId = lexiconId;
+			this.multiplicity = multiplicity;
+			this.postingList = postingList;
+		}
+
+		/**
+		 * @return the first occurrence of the term in the query
+		 */
+		public IToken getQueryTerm() {
+			return this.queryTerm;
+		}
+
+		/**
+		 * @return the lexicon identifier of the term
+		 */
+		public int getLexiconId() {
+			return this.lexiconId;
+		}
+
+		/**
+		 * @return how many times the term occurs in the query
+		 */
+		public int getMultiplicity() {
+			return this.multiplicity;
+		}
+
+		/**
+		 * @return the term's posting list
+		 */
+		public PostingList getPostingList() {
+			return this.postingList;
+		}
+
+		/**
+		 * @return the number of documents that contain the term
+		 */
+		public int getDocumentFrequency() {
+			return this.postingList.size();
+		}
+	}
+
+	/** The unique query terms that occur in the index, rarest first. */
+	private final Term[] terms;
+
+	/** How many of the unique query terms a document must contain. */
+	private final int requiredCount;
+
+	/** How to traverse the posting lists. */
+	private final Method method;
+
+	/** How {@link Method#PRUNED_TOP_K} prunes. */
+	private final EvaluationStrategy strategy;
+
+	/** Roughly what evaluating the plan costs, in units of streaming through a posting. */
+	private final long estimatedCost;
+
+	/**
+	 * Constructor.
+	 * @param terms the unique query terms that occur in the index, rarest first
+	 * @param requiredCount how many of the unique query terms a document must contain
+	 * @param method how to traverse the posting lists
+	 * @param strategy how {@link Method#PRUNED_TOP_K} prunes
+	 * @param estimatedCost roughly what evaluating the plan costs, in units of streaming through a posting
+	 */
+	QueryPlan(Term[] terms, int requiredCount, Method method, EvaluationStrategy strategy, long estimatedCost) {
+		this.terms = terms;
+		this.requiredCount = requiredCount;
+		this.method = method;
+		this.strategy = strategy;
+		this.estimatedCost = estimatedCost;
+	}
+
+	/**
+	 * @return the number of unique query terms that occur in the index
+	 */
+	public int getTermCount() {
+		return this.terms.length;
+	}
+
+	/**
+	 * Returns a unique query term that occurs in the index.
+	 * @param i the index of the term, where the rarest term comes first
+	 * @return the query term
+	 */
+	public Term getTerm(int i) {
+		return this.terms[i];
+	}
+
+	/**
+	 * @return how many of the unique query terms a document must contain, i.e., the N in N-of-M matching
+	 */
+	public int getRequiredCount() {
+		return this.requiredCount;
+	}
+
+	/**
+	 * @return how to traverse the posting lists
+	 */
+	public Method getMethod() {
+		return this.method;
+	}
+
+	/**
+	 * @return how {@link Method#PRUNED_TOP_K} prunes
+	 */
+	public EvaluationStrategy getStrategy() {
+		return this.strategy;
+	}
+
+	/**
+	 * Returns roughly what evaluating the plan costs, in units of streaming
+	 * through a posting, as estimated by the planner from the lengths of the
+	 * posting lists. Pruning is estimated as the exhaustive union, and usually
+	 * costs a lot less.
+	 * @return the estimated cost
+	 */
+	public long getEstimatedCost() {
+		return this.estimatedCost;
+	}
+
+	/**
+	 * Explains the plan, e.g., "TERM_AT_A_TIME 2 of 3 terms, cost ~1234:
+	 * 'flutter' df=42, 'panel' x2 df=100, 'the' df=1300".
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(this.method);
+		if (this.method == Method.PRUNED_TOP_K) {
+			builder.append('(').append(this.strategy).append(')');
+		}
+		builder.append(String.format(" %d of %d terms, cost ~%d", this.requiredCount, this.terms.length, this.estimatedCost));
+		for (int i = 0; i < this.terms.length; ++i) {
+			builder.append((i == 0) ? ": " : ", ");
+			builder.append('\'').append(this.terms[i].getQueryTerm().getValue()).append('\'');
+			if (this.terms[i].getMultiplicity() > 1) {
+				builder.append(" x").append(this.terms[i].getMultiplicity());
+			}
+			builder.append(" df=").append(this.terms[i].getDocumentFrequency());
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,306 @@
+package no.uio.ifi.lt.search;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import no.uio.ifi.lt.indexing.IInvertedIndex;
+import no.uio.ifi.lt.indexing.ILexicon;
+import no.uio.ifi.lt.ranking.IBoundedRanker;
+import no.uio.ifi.lt.ranking.IImpactRanker;
+import no.uio.ifi.lt.ranking.IRanker;
+import no.uio.ifi.lt.tokenization.IToken;
+
+/**
+ * Plans how to evaluate queries. The query terms are looked up in the index
+ * and deduplicated, and their posting lists are ordered by length, shortest
+ * first. How to traverse the lists is then decided by what the ranker and
+ * the index support, and by how long the lists are:
+ * <ol>
+ * <li>Score-at-a-time, if that's the configured strategy and the index has impacts.</li>
+ * <li>If the configured strategy prunes and the ranker can bound its scores, pruned
+ * top-k. How much pruning skips can't be estimated, so term-at-a-time is chosen
+ * instead only if the ranker's scores are sums of per-posting contributions and the
+ * lists are too dense to skip much, see {@link QueryEvaluatorSettings#termAtATimeDensity}.</li>
+ * <li>Otherwise, if term-at-a-time evaluation is enabled, see
+ * {@link QueryEvaluatorSettings#termAtATime}, and the ranker's scores are sums of
+ * per-posting contributions, whichever of union, intersection and term-at-a-time is
+ * estimated to be cheapest given the lengths of the lists, see
+ * {@link QueryPlan#getEstimatedCost()}. The cost weights were fitted to timings on the
+ * Cranfield and WeScience collections, see {@code SearchBenchmark planner}.</li>
+ * <li>Otherwise, intersection if documents must contain all of several query terms.</li>
+ * <li>Union, otherwise.</li>
+ * </ol>
+ * All but score-at-a-time give the same results as exhaustive evaluation.
+ */
+public class QueryPlanner {
+	/** What skipping a posting list ahead to a document costs, relative to streaming through a posting. */
+	private static final double PROBE_COST = 2.0;
+
+	/** What merging a posting through the heap costs, per level of the heap. */
+	private static final double HEAP_COST = 1.0;
+
+	/** What scoring a document document-at-a-time costs, per matching term, i.e., decoding the posting and updating the ranker. */
+	private static final double SCORE_COST = 4.0;
+
+	/** What sifting an accumulated score costs. */
+	private static final double SIFT_COST = 1.0;
+
+	/** Defines the evaluation parameters. */
+	private QueryEvaluatorSettings settings;
+
+	/**
+	 * Constructor.
+	 * @param settings defines the evaluation parameters
+	 */
+	public QueryPlanner(QueryEvaluatorSettings settings) {
+		this.settings = settings;
+	}
+
+	/**
+	 * Plans how to evaluate the given query.
+	 * @param query the query to evaluate
+	 * @param invertedIndex the indexed documents to evaluate the query against
+	 * @param ranker the ranker that will score the documents
+	 * @return the plan
+	 */
+	public QueryPlan plan(IQuery query, IInvertedIndex invertedIndex, IRanker ranker) {
+		return this.plan(query, invertedIndex, ranker, null, null);
+	}
+
+	/**
+	 * Plans how to evaluate the given query with the given method, e.g., to
+	 * compare the methods. The method must suit the query and the ranker.
+	 * @param query the query to evaluate
+	 * @param invertedIndex the indexed documents to evaluate the query against
+	 * @param ranker the ranker that will score the documents
+	 * @param method how to traverse the posting lists
+	 * @return the plan
+	 */
+	public QueryPlan plan(IQuery query, IInvertedIndex invertedIndex, IRanker ranker, QueryPlan.Method method) {
+		return this.plan(query, invertedIndex, ranker, method, null);
+	}
+
+	/**
+	 * Plans how to evaluate the given query, possibly with a given method.
+	 * @param query the query to evaluate
+	 * @param invertedIndex the indexed documents to evaluate the query against
+	 * @param ranker the ranker that will score the documents
+	 * @param method how to traverse the posting lists, or null to decide
+	 * @param profile where to note the time spent on looking up the query terms, if at all
+	 * @return the plan
+	 */
+	QueryPlan plan(IQuery query, IInvertedIndex invertedIndex, IRanker ranker, QueryPlan.Method method, QueryProfile profile) {
+		QueryPlan.Term[] terms = getTerms(query, invertedIndex, profile);
+		int requiredCount = getRequiredCount(this.settings.recallThreshold, terms.length);
+		if (method == null) {
+			method = this.getMethod(terms, requiredCount, invertedIndex, ranker);
+		}
+		double cost = this.getEstimatedCost(terms, requiredCount, method, invertedIndex.getDocumentStore().size());
+		return new QueryPlan(terms, requiredCount, method, this.settings.strategy, Math.round(cost));
+	}
+
+	/**
+	 * Returns how many of the query terms a document must contain, i.e., the
+	 * N in N-of-M matching.
+	 * @param recallThreshold the fraction of the query terms that must be present
+	 * @param termCount the number of unique query terms that occur in the index
+	 * @return the required number of query terms, at least one
+	 */
+	static int getRequiredCount(double recallThreshold, int termCount) {
+		return Math.max(1, Math.min(termCount, (int) Math.round(recallThreshold * termCount)));
+	}
+
+	/**
+	 * Returns the unique query terms that occur in the index, ordered by
+	 * the lengths of their posting lists, shortest first, and otherwise by
+	 * where they first occur in the query.
+	 * @param query the query
+	 * @param invertedIndex the inverted index
+	 * @param profile where to note the time spent, if at all
+	 * @return the query terms
+	 */
+	private static QueryPlan.Term[] getTerms(IQuery query, IInvertedIndex invertedIndex, QueryProfile profile) {
+		long time = (profile != null) ? System.nanoTime() : 0;
+
+		// Process a normalized version, not the raw value.
+		// TODO: Move to IQuery, to support a real query language.
+		String normalizedQuery = invertedIndex.getNormalizer().normalize(query.getOriginalQuery());
+		if (profile != null) {
+			time = profile.lap(QueryProfile.Phase.NORMALIZATION, time);
+		}
+		IToken[] queryTerms = invertedIndex.getTokenizer().toArray(normalizedQuery);
+		if (profile != null) {
+			time = profile.lap(QueryProfile.Phase.TOKENIZATION, time);
+		}
+
+		// Count the occurrences of each term. Queries are short, so a linear search will do.
+		ILexicon lexicon = invertedIndex.getLexicon();
+		List<IToken> tokens = new ArrayList<IToken>(queryTerms.length);
+		List<Integer> lexiconIds = new ArrayList<Integer>(queryTerms.length);
+		int[] multiplicities = new int[queryTerms.length];
+		for (IToken queryTerm : queryTerms) {
+			int lexiconId = lexicon.lookup(queryTerm.getValue());
+			if (lexiconId == ILexicon.INVALID) {
+				continue;
+			}
+			int i = lexiconIds.indexOf(lexiconId);
+			if (i < 0) {
+				i = lexiconIds.size();
+				tokens.add(queryTerm);
+				lexiconIds.add(lexiconId);
+			}
+			++multiplicities[i];
+		}
+		List<QueryPlan.Term> terms = new ArrayList<QueryPlan.Term>(tokens.size());
+		for (int i = 0; i < tokens.size(); ++i) {
+			terms.add(new QueryPlan.Term(tokens.get(i), lexiconIds.get(i), multiplicities[i], invertedIndex.getPostingList(lexiconIds.get(i))));
+		}
+		// Stable, so ties keep the query order.
+		Collections.sort(terms, new Comparator<QueryPlan.Term>() {
+			public int compare(QueryPlan.Term x, QueryPlan.Term y) {
+				return Integer.compare(x.getDocumentFrequency(), y.getDocumentFrequency());
+			}
+		});
+		if (profile != null) {
+			profile.lap(QueryProfile.Phase.LEXICON_LOOKUP, time);
+		}
+		return terms.toArray(new QueryPlan.Term[terms.size()]);
+	}
+
+	/**
+	 * Decides how to traverse the posting lists.
+	 * @param terms the query terms, rarest first
+	 * @param requiredCount how many of the query terms a document must contain
+	 * @param invertedIndex the inverted index
+	 * @param ranker the ranker that will score the documents
+	 * @return how to traverse the posting lists
+	 */
+	private QueryPlan.Method getMethod(QueryPlan.Term[] terms, int requiredCount, IInvertedIndex invertedIndex, IRanker ranker) {
+		EvaluationStrategy strategy = this.settings.strategy;
+		if (strategy == EvaluationStrategy.SCORE_AT_A_TIME && hasImpacts(terms)) {
+			return QueryPlan.Method.SCORE_AT_A_TIME;
+		}
+		boolean pruning = (strategy == EvaluationStrategy.WAND || strategy == EvaluationStrategy.BLOCK_MAX_WAND || strategy == EvaluationStrategy.MAX_SCORE)
+				&& ranker instanceof IBoundedRanker;
+		boolean termAtATime = this.settings.termAtATime && ranker instanceof IImpactRanker;
+		if (pruning) {
+			// How much pruning skips can't be estimated, but dense lists leave it little to skip.
+			if (termAtATime && getDensity(terms, invertedIndex) >= this.settings.termAtATimeDensity) {
+				return QueryPlan.Method.TERM_AT_A_TIME;
+			}
+			return QueryPlan.Method.PRUNED_TOP_K;
+		}
+
+		QueryPlan.Method documentAtATime = (terms.length > 1 && requiredCount == terms.length)
+				? QueryPlan.Method.INTERSECTION : QueryPlan.Method.UNION;
+		if (!termAtATime) {
+			return documentAtATime;
+		}
+
+		// Otherwise, pick the cheapest of the exhaustive methods.
+		List<QueryPlan.Method> methods = new ArrayList<QueryPlan.Method>(3);
+		methods.add(QueryPlan.Method.UNION);
+		if (documentAtATime == QueryPlan.Method.INTERSECTION) {
+			methods.add(QueryPlan.Method.INTERSECTION);
+		}
+		methods.add(QueryPlan.Method.TERM_AT_A_TIME);
+		int documentCount = invertedIndex.getDocumentStore().size();
+		QueryPlan.Method cheapestMethod = null;
+		double cheapestCost = Double.POSITIVE_INFINITY;
+		for (QueryPlan.Method method : methods) {
+			double cost = this.getEstimatedCost(terms, requiredCount, method, documentCount);
+			if (cost <= cheapestCost) {
+				cheapestMethod = method;
+				cheapestCost = cost;
+			}
+		}
+		return cheapestMethod;
+	}
+
+	/**
+	 * Estimates what traversing the posting lists with the given method costs,
+	 * in units of streaming through a posting term-at-a-time. The terms of a
+	 * query tend to occur together, so rather than assuming that they occur
+	 * independently, a list with df of the N documents is assumed to keep a
+	 * fraction (df / N)^(1/3) of the documents that get that far. Pruning is
+	 * estimated as the exhaustive union it prunes, since how much it skips
+	 * can't be known up front.
+	 * @param terms the query terms, rarest first
+	 * @param requiredCount how many of the query terms a document must contain
+	 * @param method how to traverse the posting lists
+	 * @param documentCount the number of documents
+	 * @return the estimated cost
+	 */
+	private double getEstimatedCost(QueryPlan.Term[] terms, int requiredCount, QueryPlan.Method method, int documentCount) {
+		if (terms.length == 0 || documentCount == 0) {
+			return 0.0;
+		}
+		long postingCount = 0;
+		switch (method) {
+		case INTERSECTION:
+			// The rarest term drives, and fewer and fewer of its documents survive each list.
+			double cost = terms[0].getDocumentFrequency();
+			double survivorCount = terms[0].getDocumentFrequency();
+			for (int i = 1; i < terms.length; ++i) {
+				cost += survivorCount * PROBE_COST;
+				survivorCount *= Math.cbrt((double) terms[i].getDocumentFrequency() / documentCount);
+			}
+			return cost + survivorCount * terms.length * SCORE_COST;
+		case TERM_AT_A_TIME:
+			// The first M - N + 1 lists are streamed through, and the rest probed for the documents seen.
+			for (int i = 0; i <= terms.length - requiredCount; ++i) {
+				postingCount += terms[i].getDocumentFrequency();
+			}
+			long seenCount = Math.min(postingCount, documentCount);
+			return postingCount + (requiredCount - 1) * seenCount * PROBE_COST + seenCount * SIFT_COST;
+		case SCORE_AT_A_TIME:
+			// Impacts are added up as they are streamed through, possibly only the highest ones.
+			for (QueryPlan.Term term : terms) {
+				postingCount += term.getDocumentFrequency();
+			}
+			if (this.settings.impactPostingBudget > 0) {
+				return Math.min(postingCount, this.settings.impactPostingBudget);
+			}
+			return postingCount;
+		default:
+			// Every posting goes through the heap, and at most every document with N of the M terms is scored.
+			for (QueryPlan.Term term : terms) {
+				postingCount += term.getDocumentFrequency();
+			}
+			double heapDepth = 1.0 + Math.log(terms.length) / Math.log(2.0);
+			return postingCount * heapDepth * HEAP_COST + Math.min(postingCount / requiredCount, documentCount) * requiredCount * SCORE_COST;
+		}
+	}
+
+	/**
+	 * Returns true if all the posting lists have impacts.
+	 * @param terms the query terms
+	 * @return true if and only if score-at-a-time evaluation is possible
+	 */
+	private static boolean hasImpacts(QueryPlan.Term[] terms) {
+		for (QueryPlan.Term term : terms) {
+			if (term.getPostingList().getImpacts() == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the average length of the posting lists, relative to the number of documents.
+	 * @param terms the query terms
+	 * @param invertedIndex the inverted index
+	 * @return the average density of the posting lists
+	 */
+	private static double getDensity(QueryPlan.Term[] terms, IInvertedIndex invertedIndex) {
+		int documentCount = invertedIndex.getDocumentStore().size();
+		if (terms.length == 0 || documentCount == 0) {
+			return 0.0;
+		}
+		long postingCount = 0;
+		for (QueryPlan.Term term : terms) {
+			postingCount += term.getDocumentFrequency();
+		}
+		return (double) postingCount / terms.length / documentCount;
+	}
+}
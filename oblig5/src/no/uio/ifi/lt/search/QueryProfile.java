@@ -0,0 +1,239 @@
+package no.uio.ifi.lt.search;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Profiles the evaluation of a single query: where the time went, and how
+ * much work was done. Attached to the result set, see
+ * {@link IResultSet#getProfile()}. Profiling reads the clock around every
+ * document scored, so it's meant for a sampled fraction of the queries, see
+ * {@link QueryEvaluatorSettings#profileSampleRate}, or for looking into a
+ * given query, see {@link SearchEngine#profile(String, int)}. Optionally,
+ * the profile also explains how a given document was scored.
+ * <p>
+ * Not safe for concurrent use. Each evaluation needs a profile of its own.
+ */
+public class QueryProfile {
+	/**
+	 * The phases of query evaluation that the time is split between.
+	 */
+	public enum Phase {
+		/** Normalizing the query. */
+		NORMALIZATION,
+
+		/** Splitting the normalized query into terms. */
+		TOKENIZATION,
+
+		/** Looking up the query terms in the lexicon, and fetching their posting lists. */
+		LEXICON_LOOKUP,
+
+		/** Traversing the posting lists, less the time spent scoring. */
+		TRAVERSAL,
+
+		/**
+		 * Computing the scores of the candidate documents. For term-at-a-time
+		 * and score-at-a-time evaluation, the contributions are added up while
+		 * traversing, so only sifting the accumulated scores counts here.
+		 */
+		SCORING,
+
+		/** Sorting the best documents, and creating the results. */
+		MATERIALIZATION
+	}
+
+	/** Denotes that no document is to be explained. */
+	public static final int NO_DOCUMENT = -1;
+
+	/** The time spent in each phase, in nanoseconds, indexed by ordinal. */
+	private final long[] nanos = new long[Phase.values().length];
+
+	/** The document whose score to explain, if any. */
+	private final int explainedDocumentId;
+
+	/** The plan that the query was evaluated according to. */
+	private QueryPlan plan;
+
+	/** How many postings were visited. */
+	private long postingCount;
+
+	/** How many candidate documents were scored. */
+	private long candidateCount;
+
+	/** How many times a document made it into the sieve, if only for a while. */
+	private long sieveInsertionCount;
+
+	/** How the explained document was scored, if at all. */
+	private String explanation;
+
+	/**
+	 * Constructor. No document is explained.
+	 */
+	public QueryProfile() {
+		this(NO_DOCUMENT);
+	}
+
+	/**
+	 * Constructor.
+	 * @param explainedDocumentId the document whose score to explain, or {@link #NO_DOCUMENT}
+	 */
+	public QueryProfile(int explainedDocumentId) {
+		this.explainedDocumentId = explainedDocumentId;
+	}
+
+	/**
+	 * Returns a profile for the sampled fraction of the queries, as defined
+	 * by the given settings.
+	 * @param settings the evaluation parameters
+	 * @return a profile, or null if this query isn't to be profiled
+	 * @see QueryEvaluatorSettings#profileSampleRate
+	 */
+	public static QueryProfile sample(QueryEvaluatorSettings settings) {
+		double sampleRate = settings.profileSampleRate;
+		if (sampleRate <= 0.0 || (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+			return null;
+		}
+		return new QueryProfile();
+	}
+
+	/**
+	 * Adds the time since the given time to the given phase.
+	 * @param phase the phase
+	 * @param start when the phase started, as per {@link System#nanoTime()}
+	 * @return the current time, i.e., when the next phase starts
+	 */
+	long lap(Phase phase, long start) {
+		long now = System.nanoTime();
+		this.nanos[phase.ordinal()] += now - start;
+		return now;
+	}
+
+	/**
+	 * Adds the given time to the given phase.
+	 * @param phase the phase
+	 * @param nanos the time, in nanoseconds, which may be negative to move it elsewhere
+	 */
+	void addNanos(Phase phase, long nanos) {
+		this.nanos[phase.ordinal()] += nanos;
+	}
+
+	/**
+	 * Returns the time spent in the given phase.
+	 * @param phase the phase
+	 * @return the time, in nanoseconds
+	 */
+	public long getNanos(Phase phase) {
+		return this.nanos[phase.ordinal()];
+	}
+
+	/**
+	 * @return the total time spent in all the phases, in nanoseconds
+	 */
+	public long getTotalNanos() {
+		long total = 0;
+		for (long nanos : this.nanos) {
+			total += nanos;
+		}
+		return total;
+	}
+
+	/**
+	 * @param plan the plan that the query was evaluated according to
+	 */
+	void setPlan(QueryPlan plan) {
+		this.plan = plan;
+	}
+
+	/**
+	 * @return the plan that the query was evaluated according to, or null if it was never planned
+	 */
+	public QueryPlan getPlan() {
+		return this.plan;
+	}
+
+	/**
+	 * @param postingCount how many postings were visited
+	 */
+	void setPostingCount(long postingCount) {
+		this.postingCount = postingCount;
+	}
+
+	/**
+	 * Returns how many postings were visited, as counted by the {@link QueryBudget}.
+	 * @return the number of postings visited
+	 */
+	public long getPostingCount() {
+		return this.postingCount;
+	}
+
+	/**
+	 * Counts a candidate document as scored.
+	 */
+	void countCandidate() {
+		++this.candidateCount;
+	}
+
+	/**
+	 * @return how many candidate documents were scored
+	 */
+	public long getCandidateCount() {
+		return this.candidateCount;
+	}
+
+	/**
+	 * Counts a document as having made it into the sieve.
+	 */
+	void countSieveInsertion() {
+		++this.sieveInsertionCount;
+	}
+
+	/**
+	 * Returns how many times a document made it into the sieve, if only
+	 * for a while. The fewer beyond the number of results, the sooner the
+	 * best documents were found.
+	 * @return the number of sieve insertions
+	 */
+	public long getSieveInsertionCount() {
+		return this.sieveInsertionCount;
+	}
+
+	/**
+	 * @return the document whose score to explain, or {@link #NO_DOCUMENT}
+	 */
+	public int getExplainedDocumentId() {
+		return this.explainedDocumentId;
+	}
+
+	/**
+	 * @param explanation how the explained document was scored
+	 */
+	void setExplanation(String explanation) {
+		this.explanation = explanation;
+	}
+
+	/**
+	 * Explains how the document given up front was scored, or why it wasn't,
+	 * e.g., "Document 42 matches 2 of 3 terms, 2 required: 'panel' tf=3 +1.250,
+	 * 'the' x2 tf=5 +0.5000; score 1.750, ranked 3 of 10".
+	 * @return the explanation, or null if no document was to be explained
+	 */
+	public String getExplanation() {
+		return this.explanation;
+	}
+
+	/**
+	 * Summarizes the profile, e.g., for logging slow queries.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		if (this.plan != null) {
+			builder.append(this.plan.getMethod()).append(": ");
+		}
+		builder.append(String.format("%d us", this.getTotalNanos() / 1000));
+		for (Phase phase : Phase.values()) {
+			builder.append(String.format(", %s %d us", phase.name().toLowerCase(), this.getNanos(phase) / 1000));
+		}
+		builder.append(String.format("; %d postings, %d candidates, %d sieve insertions",
+				this.postingCount, this.candidateCount, this.sieveInsertionCount));
+		return builder.toString();
+	}
+}
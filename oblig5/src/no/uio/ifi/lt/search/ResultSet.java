@@ -19,6 +19,16 @@ public class ResultSet implements IResultSet {
 	 * The individual results in the result set.
 	 */
 	private List<IResult> results;
+
+	/**
+	 * Did query evaluation stop before it was done?
+	 */
+	private boolean partial;
+
+	/**
+	 * Where the time went when evaluating the query, if it was profiled.
+	 */
+	private QueryProfile profile;
 	
 	/**
 	 * Constructor.
@@ -30,6 +40,20 @@ public class ResultSet implements IResultSet {
 		this.results = new ArrayList<IResult>(capacity);
 	}
 
+	/**
+	 * Constructor. Copies the given results, e.g., to hand out cached
+	 * results without sharing them.
+	 * @param query the query that the copy is for
+	 * @param results the results to copy
+	 */
+	public ResultSet(IQuery query, IResultSet results) {
+		this(query, results.size());
+		for (IResult result : results) {
+			this.results.add(result);
+		}
+		this.partial = results.isPartial();
+	}
+
 	/**
 	 * Implements the {@link IResultSet} interface.
 	 */
@@ -74,4 +98,34 @@ public class ResultSet implements IResultSet {
 	public int size() {
 		return results.size();
 	}
-}
+
+	/**
+	 * Implements the {@link IResultSet} interface.
+	 */
+	public boolean isPartial() {
+		return this.partial;
+	}
+
+	/**
+	 * Flags the results as partial, or not.
+	 * @param partial true if query evaluation stopped before it was done
+	 */
+	public void setPartial(boolean partial) {
+		this.partial = partial;
+	}
+
+	/**
+	 * Implements the {@link IResultSet} interface.
+	 */
+	public QueryProfile getProfile() {
+		return this.profile;
+	}
+
+	/**
+	 * Attaches a profile of the query evaluation.
+	 * @param profile where the time went, or null if the query wasn't profiled
+	 */
+	public void setProfile(QueryProfile profile) {
+		this.profile = profile;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,118 @@
+package no.uio.ifi.lt.search;
+import java.util.Arrays;
+
+/**
+ * Accumulates document scores for term-at-a-time and score-at-a-time query
+ * evaluation, in arrays indexed by document identifier. The arrays are reused
+ * across queries, and only the entries for the documents that were touched
+ * are cleared in between.
+ */
+final class ScoreAccumulators {
+	/** The accumulated scores, by document identifier. */
+	private double[] scores = new double[0];
+
+	/** How many of the query terms each document has matched so far, by document identifier. */
+	private int[] matchCounts = new int[0];
+
+	/** The documents touched so far, in the order they were first touched. */
+	private int[] documentIds = new int[0];
+
+	/** The number of documents touched so far. */
+	private int size;
+
+	/** Scratch space for decoding a segment of document identifiers. */
+	private int[] scratch = new int[0];
+
+	/**
+	 * Prepares for evaluating another query.
+	 * @param documentCount the number of document identifiers in the index
+	 */
+	void reset(int documentCount) {
+		for (int i = 0; i < this.size; ++i) {
+			this.scores[this.documentIds[i]] = 0;
+			this.matchCounts[this.documentIds[i]] = 0;
+		}
+		this.size = 0;
+		if (this.scores.length < documentCount) {
+			this.scores = new double[documentCount];
+			this.matchCounts = new int[documentCount];
+			this.documentIds = new int[documentCount];
+		}
+	}
+
+	/**
+	 * Adds a query term's contribution to a document's score.
+	 * @param documentId the document identifier
+	 * @param score the query term's contribution to the document's score
+	 */
+	void add(int documentId, double score) {
+		if (this.matchCounts[documentId]++ == 0) {
+			this.documentIds[this.size++] = documentId;
+		}
+		this.scores[documentId] += score;
+	}
+
+	/**
+	 * Returns true if a document has been touched.
+	 * @param documentId the document identifier
+	 * @return true if and only if the document has matched a query term
+	 */
+	boolean contains(int documentId) {
+		return this.matchCounts[documentId] != 0;
+	}
+
+	/**
+	 * Sorts the documents touched so far by document identifier, e.g., so
+	 * that posting lists can skip ahead to them.
+	 */
+	void sortDocumentIds() {
+		Arrays.sort(this.documentIds, 0, this.size);
+	}
+
+	/**
+	 * Returns the number of documents touched so far.
+	 * @return the number of documents touched
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns a document touched so far.
+	 * @param i the index of the document, in the order the documents were first touched
+	 * @return the document identifier
+	 */
+	int getDocumentId(int i) {
+		return this.documentIds[i];
+	}
+
+	/**
+	 * Returns the score accumulated for a document.
+	 * @param documentId the document identifier
+	 * @return the accumulated score
+	 */
+	double getScore(int documentId) {
+		return this.scores[documentId];
+	}
+
+	/**
+	 * Returns how many of the query terms a document has matched.
+	 * @param documentId the document identifier
+	 * @return the number of matching query terms
+	 */
+	int getMatchCount(int documentId) {
+		return this.matchCounts[documentId];
+	}
+
+	/**
+	 * Returns scratch space for decoding document identifiers.
+	 * @param capacity how many document identifiers there must be room for
+	 * @return the scratch space
+	 */
+	int[] getScratch(int capacity) {
+		if (this.scratch.length < capacity) {
+			this.scratch = Arrays.copyOf(this.scratch, Math.max(capacity, 2 * this.scratch.length));
+		}
+		return this.scratch;
+	}
+}
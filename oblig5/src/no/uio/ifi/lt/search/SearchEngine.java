@@ -1,6 +1,9 @@
 package no.uio.ifi.lt.search;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import no.uio.ifi.lt.indexing.IInvertedIndex;
 import no.uio.ifi.lt.indexing.InMemoryInvertedIndex;
@@ -12,6 +15,7 @@ import no.uio.ifi.lt.storage.IDocumentStore;
 import no.uio.ifi.lt.storage.InMemoryDocumentStore;
 import no.uio.ifi.lt.tokenization.IToken;
 import no.uio.ifi.lt.tokenization.ITokenizer;
+import no.uio.ifi.lt.utils.ThreadPools;
 
 /**
  * Implements a simple search engine.
@@ -35,12 +39,31 @@ public class SearchEngine implements ISearchEngine {
 	/** Defines how the query is matched against the inverted index. */
 	private IQueryEvaluator queryEvaluator;
 
+	/** Plans how the query is matched against the inverted index, for explaining it. */
+	private QueryPlanner queryPlanner;
+
 	/** Defines how we assess relevance. Gets cloned on per lookup basis. */
 	private IRanker ranker;
 	
 	/** Defines how we document is scores against other documents in the document score. */
 	private IDocumentEvaluator documentEvaluator;
 
+	/** Defines the evaluation parameters for the query evaluator. */
+	private QueryEvaluatorSettings settings;
+
+	/** Remembers the results of recent queries, if at all. */
+	private volatile IResultCache resultCache = new LruResultCache(1000);
+
+	/**
+	 * The newest generation of the inverted index that the cache has seen.
+	 * Results for older generations are stale, but since the generation is
+	 * part of the cache key, they are never handed out, only emptied out.
+	 */
+	private volatile long resultCacheGeneration;
+
+	/** Runs batch searches. */
+	private volatile ExecutorService executor = ThreadPools.getDefaultPool();
+
 	/**
 	 * Constructor, sort of. For internal use.
 	 * @param logger
@@ -49,18 +72,22 @@ public class SearchEngine implements ISearchEngine {
 	 * @param documentStore
 	 * @param invertedIndex
 	 * @param queryEvaluator
+	 * @param settings
 	 * @param ranker
 	 * @param docEvaluator
 	 */
 	private void create(Logger logger, INormalizer normalizer, ITokenizer tokenizer,
 		                IDocumentStore documentStore, IInvertedIndex invertedIndex,
-		                IQueryEvaluator queryEvaluator, IRanker ranker, IDocumentEvaluator docEvaluator) {
+		                IQueryEvaluator queryEvaluator, QueryEvaluatorSettings settings,
+		                IRanker ranker, IDocumentEvaluator docEvaluator) {
 		this.logger = logger;
 		this.normalizer = normalizer;
 		this.tokenizer = tokenizer;
 		this.documentStore = documentStore;
 		this.invertedIndex = invertedIndex;
 		this.queryEvaluator = queryEvaluator;
+		this.queryPlanner = new QueryPlanner(settings);
+		this.settings = settings;
 		this.ranker = ranker;
 		this.documentEvaluator = docEvaluator;
 	}
@@ -88,17 +115,53 @@ public class SearchEngine implements ISearchEngine {
 
 		// For now, evaluate all queries using default settings.
 		// TODO: Use dependency injection.
-		IQueryEvaluator queryEvaluator = new QueryEvaluator(new QueryEvaluatorSettings(), logger);
+		QueryEvaluatorSettings settings = new QueryEvaluatorSettings();
+		IQueryEvaluator queryEvaluator = new QueryEvaluator(settings, logger);
 		IDocumentEvaluator docEvaluator = new DocumentEvaluator(new QueryEvaluatorSettings(), logger);
 
 		// Invoke the "constructor".
-		create(logger, normalizer, tokenizer, documentStore, invertedIndex, queryEvaluator, ranker,docEvaluator);
+		create(logger, normalizer, tokenizer, documentStore, invertedIndex, queryEvaluator, settings, ranker, docEvaluator);
+	}
+
+	/**
+	 * Constructor. Searches an existing inverted index, e.g., a
+	 * {@link no.uio.ifi.lt.indexing.MappedInvertedIndex} opened from disk.
+	 * @param invertedIndex the index to search
+	 * @param logger
+	 * @param ranker
+	 */
+	public SearchEngine(IInvertedIndex invertedIndex, Logger logger, IRanker ranker) {
+		QueryEvaluatorSettings settings = new QueryEvaluatorSettings();
+		IQueryEvaluator queryEvaluator = new QueryEvaluator(settings, logger);
+		IDocumentEvaluator docEvaluator = new DocumentEvaluator(new QueryEvaluatorSettings(), logger);
+		create(logger, invertedIndex.getNormalizer(), invertedIndex.getTokenizer(), invertedIndex.getDocumentStore(),
+		       invertedIndex, queryEvaluator, settings, ranker, docEvaluator);
 	}
 
 	/**
 	 * Implements the {@link ISearchEngine} interface.
 	 */
 	public IResultSet search(String value) {
+		// Evaluate against a fixed view, in case documents are added meanwhile.
+		IInvertedIndex invertedIndex = this.invertedIndex.getSnapshot();
+
+		// Seen this query before? The results depend on the evaluation settings and on
+		// the generation of the index, too, so stale results are never looked up.
+		IResultCache resultCache = this.resultCache;
+		String key = null;
+		long generation = invertedIndex.getGeneration();
+		if (resultCache != null) {
+			if (generation > this.resultCacheGeneration) {
+				this.advanceResultCache(resultCache, generation);
+			}
+			key = generation + "\u0000" + invertedIndex.getNormalizer().normalize(value) + '\u0000' + this.settings;
+			IResultSet results = resultCache.get(key);
+			if (results != null) {
+				// Hand out a copy, so that callers don't share results, nor queries.
+				return new ResultSet(new Query(value, this.normalizer), results);
+			}
+		}
+
 		// Normalize the query.
 		// TODO: Use dependency injection.
 		IQuery query = new Query(value, this.normalizer);
@@ -107,21 +170,105 @@ public class SearchEngine implements ISearchEngine {
 		IRanker ranker = this.ranker.clone();
 
 		// Evaluate!
-		return this.queryEvaluator.evaluate(query, this.invertedIndex, ranker);
+		IResultSet results = this.queryEvaluator.evaluate(query, invertedIndex, ranker);
+
+		// Don't cache partial results, nor profiled ones, since the profile is only
+		// true for this evaluation.
+		if (resultCache != null && !results.isPartial() && results.getProfile() == null
+				&& generation == this.resultCacheGeneration) {
+			resultCache.put(key, new ResultSet(results.getQuery(), results));
+		}
+		return results;
+	}
+
+	/**
+	 * Explains how a query would be evaluated, e.g., to see why it's slow.
+	 * @param value the query
+	 * @return the plan for the query
+	 * @see QueryPlan#toString()
+	 */
+	public QueryPlan explain(String value) {
+		return this.queryPlanner.plan(new Query(value, this.normalizer), this.invertedIndex.getSnapshot(), this.ranker);
+	}
+
+	/**
+	 * Searches like {@link #search(String)}, but bypasses the result cache,
+	 * and profiles the query evaluation, e.g., to see where the time goes
+	 * or why a given document ranks where it does.
+	 * @param value the query
+	 * @param documentId the document whose score to explain, or {@link QueryProfile#NO_DOCUMENT}
+	 * @return the results, with a profile attached
+	 * @see IResultSet#getProfile()
+	 */
+	public IResultSet profile(String value, int documentId) {
+		IQuery query = new Query(value, this.normalizer);
+		QueryProfile profile = new QueryProfile(documentId);
+		return this.queryEvaluator.evaluate(query, this.invertedIndex.getSnapshot(), this.ranker.clone(), QueryBudget.of(this.settings), profile);
+	}
+
+	/**
+	 * Implements the {@link ISearchEngine} interface.
+	 */
+	public List<Future<IResultSet>> searchAll(List<String> values) {
+		return BatchSearch.submitAll(this, values, this.executor);
+	}
+
+	/**
+	 * Replaces the executor that runs batch searches, e.g., with one that
+	 * uses virtual threads. The caller remains responsible for shutting
+	 * it down.
+	 * @param executor runs batch searches
+	 * @see ThreadPools
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Empties the result cache once the inverted index has changed, since
+	 * the results for older generations will never be looked up again. Only
+	 * called on a change, so searches don't otherwise take this lock.
+	 * @param resultCache the result cache
+	 * @param generation the current generation of the inverted index
+	 */
+	private synchronized void advanceResultCache(IResultCache resultCache, long generation) {
+		if (resultCache == this.resultCache && generation > this.resultCacheGeneration) {
+			this.resultCacheGeneration = generation;
+			resultCache.clear();
+		}
+	}
+
+	/**
+	 * Returns the cache of recent query results, if any.
+	 * @return the result cache, or null if results are not cached
+	 */
+	public IResultCache getResultCache() {
+		return this.resultCache;
+	}
+
+	/**
+	 * Replaces the cache of recent query results.
+	 * @param resultCache the result cache, or null to not cache results
+	 */
+	public synchronized void setResultCache(IResultCache resultCache) {
+		this.resultCache = resultCache;
+		this.resultCacheGeneration = this.invertedIndex.getGeneration();
 	}
 
 	/**
 	 * Implements the {@link ISearchEngine} interface.
 	 */
 	public IResultSet findSimilar(int documentID) {
+		IInvertedIndex invertedIndex = this.invertedIndex.getSnapshot();
+
 		// Wrap the document as a query
-		IQuery query = new Query(this.documentStore.getDocument(documentID).getOriginalData(), this.normalizer);
+		IQuery query = new Query(invertedIndex.getDocumentStore().getDocument(documentID).getOriginalData(), this.normalizer);
 
 		// Rankers have state. Clone to be thread-safe.
 		IRanker ranker = this.ranker.clone();
 
 		// Evaluate!
-		return this.documentEvaluator.evaluate(query,documentID, this.invertedIndex, ranker);
+		return this.documentEvaluator.evaluate(query,documentID, invertedIndex, ranker);
 	}
 
 	/**
@@ -131,11 +278,12 @@ public class SearchEngine implements ISearchEngine {
 		// frequencies for each lookup token
 		Map<String,Integer> frequencies = new HashMap<String,Integer>();
 		
+		IInvertedIndex invertedIndex = this.invertedIndex.getSnapshot();
 		IToken[] loopupsTokenized = this.tokenizer.toArray(lookups);
 		for (IToken lookup : loopupsTokenized) {
-			int lexiconID = this.invertedIndex.getLexicon().lookup(lookup.getValue());
+			int lexiconID = invertedIndex.getLexicon().lookup(lookup.getValue());
 			if (lexiconID != -1) {
-				PostingList ps = this.invertedIndex.getPostingList(lexiconID);
+				PostingList ps = invertedIndex.getPostingList(lexiconID);
 				frequencies.put(lookup.getValue(), ps.size());
 			}
 		}
@@ -0,0 +1,69 @@
+package no.uio.ifi.lt.search;
+import java.util.logging.Logger;
+import no.uio.ifi.lt.indexing.IInvertedIndex;
+import no.uio.ifi.lt.ranking.IImpactRanker;
+import no.uio.ifi.lt.ranking.IRanker;
+
+/**
+ * Implements the query evaluation logic term-at-a-time, regardless of what
+ * the {@link QueryPlanner} would choose. The posting lists are processed one
+ * at a time, shortest first, and each posting's contribution is added to an
+ * accumulator array indexed by document identifier. Nothing but a single
+ * cursor is live at any time, which pays off for short queries over long
+ * posting lists. The number of query terms each document matches is counted,
+ * too, so N-of-M matching still holds. Once so few lists remain that a
+ * document not seen yet can't reach the required number of query terms, the
+ * remaining lists just skip ahead to the documents already seen.
+ * <p>
+ * Requires an {@link IImpactRanker}, since the contributions are added up
+ * without the ranker seeing the document as a whole. Other rankers are
+ * evaluated as planned instead. The evaluation strategy in the settings is
+ * ignored, since all postings are processed anyway.
+ * @see QueryPlan.Method#TERM_AT_A_TIME
+ */
+public class TermAtATimeQueryEvaluator implements IQueryEvaluator {
+	/** Defines the evaluation parameters. */
+	private QueryEvaluatorSettings settings;
+
+	/** Plans how to evaluate the queries. */
+	private QueryPlanner planner;
+
+	/** Evaluates the queries according to plan. */
+	private QueryEvaluator evaluator;
+
+	/**
+	 * Constructor.
+	 * @param settings defines the evaluation parameters
+	 * @param logger defines where to emit log messages, if at all
+	 */
+	public TermAtATimeQueryEvaluator(QueryEvaluatorSettings settings, Logger logger) {
+		this.settings = settings;
+		this.planner = new QueryPlanner(settings);
+		this.evaluator = new QueryEvaluator(settings, logger);
+	}
+
+	/**
+	 * Implements the {@link IQueryEvaluator} interface.
+	 */
+	public IResultSet evaluate(IQuery query, IInvertedIndex invertedIndex, IRanker ranker) {
+		return this.evaluate(query, invertedIndex, ranker, QueryBudget.of(this.settings));
+	}
+
+	/**
+	 * Implements the {@link IQueryEvaluator} interface.
+	 */
+	public IResultSet evaluate(IQuery query, IInvertedIndex invertedIndex, IRanker ranker, QueryBudget budget) {
+		return this.evaluate(query, invertedIndex, ranker, budget, QueryProfile.sample(this.settings));
+	}
+
+	/**
+	 * Implements the {@link IQueryEvaluator} interface.
+	 */
+	public IResultSet evaluate(IQuery query, IInvertedIndex invertedIndex, IRanker ranker, QueryBudget budget, QueryProfile profile) {
+		if (!(ranker instanceof IImpactRanker)) {
+			return this.evaluator.evaluate(query, invertedIndex, ranker, budget, profile);
+		}
+		QueryPlan plan = this.planner.plan(query, invertedIndex, ranker, QueryPlan.Method.TERM_AT_A_TIME, profile);
+		return this.evaluator.evaluate(query, invertedIndex, ranker, plan, budget, profile);
+	}
+}
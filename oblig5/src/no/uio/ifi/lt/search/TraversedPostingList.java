@@ -1,5 +1,6 @@
 package no.uio.ifi.lt.search;
 import no.uio.ifi.lt.indexing.Posting;
+import no.uio.ifi.lt.indexing.PostingCursor;
 import no.uio.ifi.lt.indexing.PostingList;
 import no.uio.ifi.lt.tokenization.IToken;
 
@@ -7,52 +8,125 @@ import no.uio.ifi.lt.tokenization.IToken;
  * Representation of a posting list currently traversed for query evaluation.  
  * The class contains 3 elements: <ol>
  * <li> a posting list, 
- * <li> an index position which keeps track of the current index position 
- *      of the posting list in the traversal;
+ * <li> a cursor which keeps track of the current index position 
+ *      of the posting list in the traversal, and decodes the postings;
  * <li> the query token related to the traversed posting list
  * </ol>
  */
 public class TraversedPostingList implements Comparable<TraversedPostingList> {
 	IToken queryTerm; // the query term
 	PostingList postingList;
-	int currentPosition = 0;
+	int lexiconId; // the lexicon identifier of the query term
+	int multiplicity; // how many times the query term occurs in the query
+	PostingCursor cursor;
+	double upperBound; // upper bound on the query term's score contribution, if known
 	
 	/**
 	 * Creates a new posting list to traverse
 	 * @param postingList the posting list
+	 * @param lexiconId the lexicon identifier of the query term
 	 * @param queryTerm the associated query term
 	 */
-	public TraversedPostingList(PostingList postingList, IToken queryTerm) {
+	public TraversedPostingList(PostingList postingList, int lexiconId, IToken queryTerm) {
+		this(postingList, lexiconId, queryTerm, 1);
+	}
+	
+	/**
+	 * Creates a new posting list to traverse
+	 * @param postingList the posting list
+	 * @param lexiconId the lexicon identifier of the query term
+	 * @param queryTerm the associated query term
+	 * @param multiplicity how many times the query term occurs in the query
+	 */
+	public TraversedPostingList(PostingList postingList, int lexiconId, IToken queryTerm, int multiplicity) {
 		this.postingList = postingList;
+		this.lexiconId = lexiconId;
 		this.queryTerm = queryTerm;
+		this.multiplicity = multiplicity;
+		this.cursor = new PostingCursor(postingList);
 	}
 	
 	/**
 	 * Increment the current position in the traversal
 	 */
 	public void incrementPosition() {
-		currentPosition++;
+		cursor.next();
+	}
+	
+	/**
+	 * Moves the current position forward to the first posting whose document
+	 * ID is at least the given one, skipping over postings in between.
+	 * @param documentId the document ID to advance to
+	 */
+	public void advanceTo(int documentId) {
+		cursor.advance(documentId);
+	}
+	
+	/**
+	 * Locates the block of postings that the given document ID falls within,
+	 * without moving the current position.
+	 * @param documentId the document ID to look for
+	 */
+	public void shallowAdvanceTo(int documentId) {
+		cursor.shallowAdvance(documentId);
+	}
+	
+	/**
+	 * @return the largest occurrence count in the block located by {@link #shallowAdvanceTo(int)}
+	 */
+	public int getShallowMaxOccurrenceCount() {
+		return cursor.getShallowMaxOccurrenceCount();
+	}
+	
+	/**
+	 * @return the last document ID in the block located by {@link #shallowAdvanceTo(int)}
+	 */
+	public int getShallowLastDocumentId() {
+		return cursor.getShallowLastDocumentId();
+	}
+	
+	/**
+	 * @return the upper bound on the query term's contribution to a document's score
+	 */
+	public double getUpperBound() {
+		return upperBound;
+	}
+	
+	/**
+	 * Sets the upper bound on the query term's contribution to a document's score.
+	 * @param upperBound the upper bound
+	 */
+	public void setUpperBound(double upperBound) {
+		this.upperBound = upperBound;
 	}
 	
 	/**
 	 * @return the current index position in the traversal
 	 */
 	public int getCurrentPosition() {
-		return currentPosition;
+		return cursor.getIndex();
 	}
 	
 	/**
 	 * @return the posting for the current position
 	 */
 	public Posting getCurrentPosting() {
-		return postingList.getPosting(currentPosition);
+		return cursor.getPosting();
+	}
+	
+	/**
+	 * @return the number of times the query term occurs in the document at the current position,
+	 *         without decoding the posting
+	 */
+	public int getCurrentOccurrenceCount() {
+		return cursor.getOccurrenceCount();
 	}
 	
 	/**
 	 * @return the document ID for the current position
 	 */
 	public int getCurrentDocumentId() {
-		return postingList.getPosting(currentPosition).getDocumentId();
+		return cursor.getDocumentId();
 	}
 	
 	/**
@@ -62,11 +136,25 @@ public class TraversedPostingList implements Comparable<TraversedPostingList> {
 		return queryTerm;
 	}
 	
+	/**
+	 * @return the lexicon identifier of the query term
+	 */
+	public int getLexiconId() {
+		return lexiconId;
+	}
+	
+	/**
+	 * @return how many times the query term occurs in the query
+	 */
+	public int getMultiplicity() {
+		return multiplicity;
+	}
+	
 	/**
 	 * @return true if the posting list has been fully traversed, false otherwise
 	 */
 	public boolean isFullyTraversed() {
-		return (currentPosition >= postingList.size());
+		return cursor.isExhausted();
 	}
 
 	/**
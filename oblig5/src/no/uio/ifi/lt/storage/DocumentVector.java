@@ -3,9 +3,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import no.uio.ifi.lt.indexing.ICollectionStatistics;
 import no.uio.ifi.lt.indexing.IInvertedIndex;
 import no.uio.ifi.lt.indexing.ILexicon;
-import no.uio.ifi.lt.indexing.PostingList;
 import no.uio.ifi.lt.tokenization.IToken;
 
 /**
@@ -44,7 +44,7 @@ public class DocumentVector implements IDocumentVector {
 	private void createDocVector(IToken[] documentTerms, ILexicon lexicon,
 		                         IInvertedIndex invertedIndex) {
 		double tfValue,idfValue;
-		int dfCount;
+		ICollectionStatistics statistics = invertedIndex.getStatistics();
 		int[] lexIDs = new int[documentTerms.length];
 		for(int i = 0; i<lexIDs.length;i++) {
 			lexIDs[i] = lexicon.lookup(documentTerms[i].getValue());
@@ -53,12 +53,6 @@ public class DocumentVector implements IDocumentVector {
 		this.nonZeroList = new ArrayList<Integer>(lexIDs.length);
 		this.tfIdfScoreList = new ArrayList<Double>(lexIDs.length);
 		
-		PostingList[] postingListsForTerms = new PostingList[lexIDs.length];
-		for (int i = 0; i < lexIDs.length; i++) {
-			if (lexIDs[i] != -1) {
-				postingListsForTerms[i] = invertedIndex.getPostingList(lexIDs[i]);
-			}
-		}
 		for(int i = 0; i<lexIDs.length;i++) {
 			// Since we don't have immediate access to the postings, we use this 
 			// relatively crude way of finding duplicates in the document
@@ -72,10 +66,13 @@ public class DocumentVector implements IDocumentVector {
 					break;
 				}
 			}
+			// Terms that aren't in the collection can't match anything.
+			if (lexIDs[i] == ILexicon.INVALID) {
+				continue;
+			}
 			// tf- idf weights are computed:
-			dfCount = postingListsForTerms[i].size();
 			tfValue = occurrences;
-			idfValue = Math.log(10000 / dfCount);
+			idfValue = statistics.getInverseDocumentFrequency(lexIDs[i]);
 			this.nonZeroList.add(lexIDs[i]);
 			this.tfIdfScoreList.add(tfValue * idfValue);
 		}
@@ -1,9 +1,12 @@
 package no.uio.ifi.lt.storage;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.logging.Logger;
 import no.uio.ifi.lt.preprocessing.DocumentReaderFactory;
 import no.uio.ifi.lt.preprocessing.INormalizer;
+import no.uio.ifi.lt.ranking.IStaticRanker;
 
 /**
  * A simple in-memory implementation of {@link IDocumentStore}, suitable for small to
@@ -55,4 +58,56 @@ public class InMemoryDocumentStore implements IDocumentStore {
 	public int size() {
 		return this.documents.size();
 	}
+
+	/**
+	 * Assigns static ranks to all documents. Documents that aren't a
+	 * {@link Document} are replaced by copies with the static rank set.
+	 * @param staticRanker defines the static ranks
+	 */
+	public void assignStaticRanks(IStaticRanker staticRanker) {
+		for (int documentId = 0; documentId < this.documents.size(); ++documentId) {
+			IDocument document = this.documents.get(documentId);
+			Document updated;
+			if (document instanceof Document) {
+				updated = (Document) document;
+			}
+			else {
+				updated = new Document();
+				updated.setOriginalData(document.getOriginalData());
+				updated.setExtraData(document.getExtraData());
+				updated.setNormalizedLength(document.getNormalizedLength());
+				this.documents.set(documentId, updated);
+			}
+			updated.setStaticRank(staticRanker.getStaticRank(documentId, document));
+		}
+	}
+
+	/**
+	 * Renumbers the documents in order of descending static rank. Documents
+	 * with the same static rank keep their relative order. Must be done before
+	 * the documents are indexed. An index over documents in this order lets
+	 * query evaluation stop early, once no document that remains can have a
+	 * high enough static rank to make it into the results.
+	 * @return the new identifier of each document, by its old identifier
+	 */
+	public int[] sortByStaticRank() {
+		Integer[] order = new Integer[this.documents.size()];
+		for (int i = 0; i < order.length; ++i) {
+			order[i] = i;
+		}
+		final List<IDocument> documents = this.documents;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer x, Integer y) {
+				return Double.compare(documents.get(y).getStaticRank(), documents.get(x).getStaticRank());
+			}
+		});
+		List<IDocument> sorted = new ArrayList<IDocument>(order.length);
+		int[] documentIds = new int[order.length];
+		for (int i = 0; i < order.length; ++i) {
+			sorted.add(documents.get(order[i]));
+			documentIds[order[i]] = i;
+		}
+		this.documents = sorted;
+		return documentIds;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,187 @@
+package no.uio.ifi.lt.storage;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+import no.uio.ifi.lt.utils.MappedFiles;
+import no.uio.ifi.lt.utils.RecordFileWriter;
+
+/**
+ * A read-only implementation of {@link IDocumentStore}, backed by a memory-mapped
+ * file. The file starts with a table of document offsets, followed by the
+ * documents themselves, see {@link RecordFileWriter}. Documents are decoded
+ * when they are asked for, so opening the store is instant and the documents
+ * stay off the heap.
+ * <p>
+ * Safe for concurrent use.
+ */
+public class MappedDocumentStore implements IDocumentStore {
+	/** Identifies the file format. */
+	private static final int MAGIC = 0x444F4331;
+
+	/** How strings are encoded in the file. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The mapped file contents. */
+	private MappedByteBuffer buffer;
+
+	/** The number of documents in the store. */
+	private int size;
+
+	/** Where the documents start, after the offset table. */
+	private int dataOffset;
+
+	/**
+	 * Constructor. Maps the given file, as written by {@link #write(IDocumentStore, File)}.
+	 * @param file the file to map
+	 * @throws IOException
+	 */
+	public MappedDocumentStore(File file) throws IOException {
+		this.buffer = MappedFiles.map(file);
+		MappedFiles.checkMagic(this.buffer, MAGIC, file);
+		this.size = this.buffer.getInt(4);
+		this.dataOffset = RecordFileWriter.getDataOffset(this.size);
+	}
+
+	/**
+	 * Writes the documents in the given store to a file, in the format
+	 * expected by {@link #MappedDocumentStore(File)}.
+	 * @param documentStore the documents to write
+	 * @param file the file to write
+	 * @throws IOException
+	 */
+	public static void write(IDocumentStore documentStore, File file) throws IOException {
+		Writer writer = new Writer(file);
+		for (int documentId = 0; documentId < documentStore.size(); ++documentId) {
+			writer.putDocument(documentStore.getDocument(documentId));
+		}
+		writer.close();
+	}
+
+	/**
+	 * Writes documents one at a time to a file, in the format expected by
+	 * {@link #MappedDocumentStore(File)}. Only the document offsets are kept
+	 * in memory, so there can be more documents than fit on the heap.
+	 */
+	public static class Writer {
+		/** Writes the document records. */
+		private RecordFileWriter records;
+
+		/**
+		 * Constructor.
+		 * @param file the file to write
+		 * @throws IOException
+		 */
+		public Writer(File file) throws IOException {
+			this.records = new RecordFileWriter(file, MAGIC);
+		}
+
+		/**
+		 * Appends a document.
+		 * @param document the document to append
+		 * @return the document's identifier
+		 * @throws IOException
+		 */
+		public int putDocument(IDocument document) throws IOException {
+			DataOutputStream out = this.records.getOutput();
+			out.writeInt(document.getNormalizedLength());
+			out.writeDouble(document.getStaticRank());
+			writeString(out, document.getOriginalData());
+			writeString(out, document.getExtraData());
+			return this.records.endRecord();
+		}
+
+		/**
+		 * Returns the number of documents appended so far.
+		 * @return the number of documents appended so far
+		 */
+		public int size() {
+			return this.records.getCount();
+		}
+
+		/**
+		 * Finishes the file.
+		 * @throws IOException
+		 */
+		public void close() throws IOException {
+			this.records.close();
+		}
+	}
+
+	/**
+	 * Writes a string as its length in bytes followed by the bytes. Null is
+	 * written as length -1.
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 */
+	private String readString(int offset) {
+		int length = this.buffer.getInt(offset);
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		ByteBuffer data = this.buffer.duplicate();
+		data.position(offset + 4);
+		data.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Implements the {@link IDocumentStore} interface.
+	 */
+	public IDocument getDocument(int documentId) {
+		if (documentId < 0 || documentId >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		int offset = this.dataOffset + this.buffer.getInt(8 + 4 * documentId);
+		Document document = new Document();
+		document.setNormalizedLength(this.buffer.getInt(offset));
+		document.setStaticRank(this.buffer.getDouble(offset + 4));
+		String originalData = this.readString(offset + 12);
+		document.setOriginalData(originalData);
+		int extraOffset = offset + 16 + ((originalData == null) ? 0 : this.buffer.getInt(offset + 12));
+		document.setExtraData(this.readString(extraOffset));
+		return document;
+	}
+
+	/**
+	 * Returns the static rank of the given document, without reading the
+	 * rest of it.
+	 * @param documentId identifies the document
+	 * @return the document's static rank
+	 */
+	public double getStaticRank(int documentId) {
+		if (documentId < 0 || documentId >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return this.buffer.getDouble(this.dataOffset + this.buffer.getInt(8 + 4 * documentId) + 4);
+	}
+
+	/**
+	 * Implements the {@link IDocumentStore} interface. The store is read-only.
+	 * @throws UnsupportedOperationException
+	 */
+	public int putDocument(IDocument document) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Implements the {@link IDocumentStore} interface.
+	 */
+	public int size() {
+		return this.size;
+	}
+}
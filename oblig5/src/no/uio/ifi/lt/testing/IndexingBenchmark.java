@@ -0,0 +1,63 @@
+package no.uio.ifi.lt.testing;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import no.uio.ifi.lt.indexing.InMemoryInvertedIndex;
+import no.uio.ifi.lt.indexing.InvertedIndexSettings;
+import no.uio.ifi.lt.nbclassifier.FolderReader;
+import no.uio.ifi.lt.preprocessing.BrainDeadNormalizer;
+import no.uio.ifi.lt.preprocessing.INormalizer;
+import no.uio.ifi.lt.storage.IDocumentStore;
+import no.uio.ifi.lt.storage.InMemoryDocumentStore;
+import no.uio.ifi.lt.tokenization.BrainDeadTokenizer;
+
+/**
+ * Measures how much faster indexing gets with more threads, for the
+ * wescience collection and the newsgroups training set.
+ */
+public class IndexingBenchmark {
+	/**
+	 * Indexes the given document stores, and returns the elapsed time.
+	 * @param documentStores the documents to index
+	 * @param threads the number of indexing threads per document store
+	 * @return the elapsed time in milliseconds
+	 */
+	private static double index(List<IDocumentStore> documentStores, int threads) {
+		InvertedIndexSettings settings = new InvertedIndexSettings();
+		settings.threads = threads;
+		long before = System.nanoTime();
+		for (IDocumentStore documentStore : documentStores) {
+			new InMemoryInvertedIndex(documentStore, new BrainDeadNormalizer(), new BrainDeadTokenizer(), settings, null);
+		}
+		long after = System.nanoTime();
+		return (after - before) / 1000000.0;
+	}
+
+	/**
+	 * Reports the indexing time and speedup for a growing number of threads.
+	 * @param name the name of the document collection
+	 * @param documentStores the documents to index
+	 */
+	private static void benchmark(String name, List<IDocumentStore> documentStores) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		index(documentStores, cores);
+		double baseline = index(documentStores, 1);
+		for (int threads = 1; threads <= cores; threads *= 2) {
+			double elapsed = index(documentStores, threads);
+			System.out.println(String.format("%s, %d threads: %.1f ms, speedup %.2f.", name, threads, elapsed, baseline / elapsed));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		INormalizer normalizer = new BrainDeadNormalizer();
+		List<IDocumentStore> wescience = new ArrayList<IDocumentStore>();
+		wescience.add(new InMemoryDocumentStore("data/wescience.txt", normalizer, null));
+		benchmark("wescience", wescience);
+
+		List<IDocumentStore> newsgroups = new ArrayList<IDocumentStore>();
+		for (String folder : new File("data/train").list()) {
+			newsgroups.add(FolderReader.getDocumentStore("data/train/" + folder, normalizer, null));
+		}
+		benchmark("newsgroups", newsgroups);
+	}
+}
@@ -0,0 +1,777 @@
+package no.uio.ifi.lt.testing;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import no.uio.ifi.lt.indexing.CompactLexicon;
+import no.uio.ifi.lt.indexing.ICollectionStatistics;
+import no.uio.ifi.lt.indexing.IInvertedIndex;
+import no.uio.ifi.lt.indexing.ILexicon;
+import no.uio.ifi.lt.indexing.InMemoryInvertedIndex;
+import no.uio.ifi.lt.indexing.InvertedIndexSettings;
+import no.uio.ifi.lt.indexing.MappedInvertedIndex;
+import no.uio.ifi.lt.indexing.Posting;
+import no.uio.ifi.lt.indexing.PostingCursor;
+import no.uio.ifi.lt.indexing.PostingList;
+import no.uio.ifi.lt.indexing.SegmentedInvertedIndex;
+import no.uio.ifi.lt.indexing.SpimiIndexWriter;
+import no.uio.ifi.lt.preprocessing.BrainDeadNormalizer;
+import no.uio.ifi.lt.preprocessing.INormalizer;
+import no.uio.ifi.lt.ranking.TfIdfRanker;
+import no.uio.ifi.lt.search.IResult;
+import no.uio.ifi.lt.search.IResultSet;
+import no.uio.ifi.lt.search.SearchEngine;
+import no.uio.ifi.lt.storage.Document;
+import no.uio.ifi.lt.storage.IDocument;
+import no.uio.ifi.lt.storage.IDocumentStore;
+import no.uio.ifi.lt.storage.InMemoryDocumentStore;
+import no.uio.ifi.lt.tokenization.BrainDeadTokenizer;
+import no.uio.ifi.lt.utils.RoaringBitmap;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the indexing data structures.
+ */
+public class IndexingTest extends TestCase {
+	/**
+	 * Builds an uncompressed posting list with random gaps and positions.
+	 * @param random the source of randomness
+	 * @param size the number of postings to create
+	 * @return the posting list
+	 */
+	private PostingList createPostingList(Random random, int size) {
+		PostingList postingList = new PostingList();
+		int documentId = random.nextInt(3);
+		for (int i = 0; i < size; ++i) {
+			documentId += 1 + random.nextInt((i % 7 == 0) ? 100000 : 10);
+			Posting posting = new Posting(documentId, random.nextInt(5));
+			int occurrences = random.nextInt(4);
+			for (int j = 0; j < occurrences; ++j) {
+				posting.appendPosition(posting.getPositions()[j] + random.nextInt(300));
+			}
+			postingList.appendPosting(posting);
+		}
+		postingList.trim();
+		return postingList;
+	}
+
+	/**
+	 * Asserts that two postings carry the same information.
+	 */
+	private void assertSamePosting(Posting expected, Posting actual) {
+		assertEquals(expected.getDocumentId(), actual.getDocumentId());
+		assertEquals(expected.getOccurrenceCount(), actual.getOccurrenceCount());
+		assertEquals(expected.hasPositions(), actual.hasPositions());
+		for (int i = 0; expected.hasPositions() && i < expected.getOccurrenceCount(); ++i) {
+			assertEquals(expected.getPositions()[i], actual.getPositions()[i]);
+		}
+	}
+
+	/**
+	 * The compact lexicon must behave like a map from values to dense identifiers,
+	 * also when looking up slices of larger strings.
+	 */
+	public void testCompactLexicon() {
+		Random random = new Random(3);
+		CompactLexicon lexicon = new CompactLexicon(1);
+		Map<String, Integer> expected = new HashMap<String, Integer>();
+		for (int i = 0; i < 20000; ++i) {
+			String value = Integer.toString(random.nextInt(10000), 36);
+			Integer lexiconId = expected.get(value);
+			if (lexiconId == null) {
+				assertEquals(ILexicon.INVALID, lexicon.lookup(value));
+				expected.put(value, expected.size());
+			}
+			assertEquals((int) expected.get(value), lexicon.addValue(value));
+		}
+		assertEquals(expected.size(), lexicon.size());
+		int lexiconId = 0;
+		for (String value : lexicon) {
+			assertEquals(lexiconId, (int) expected.get(value));
+			assertEquals(value, lexicon.getValue(lexiconId++));
+			assertEquals(expected.get(value).intValue(), lexicon.lookup("<" + value + ">", 1, value.length() + 1));
+		}
+		assertEquals(ILexicon.INVALID, lexicon.lookup(""));
+		assertEquals(ILexicon.INVALID, lexicon.lookup("not there"));
+	}
+
+	/**
+	 * Appending positions must keep them all, and trimming must not lose any.
+	 */
+	public void testPostingPositions() {
+		Posting posting = new Posting(1, 0);
+		for (int i = 1; i < 1000; ++i) {
+			posting.appendPosition(3 * i);
+			assertEquals(i + 1, posting.getOccurrenceCount());
+		}
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals(3 * i, posting.getPosition(i));
+		}
+		posting.trim();
+		assertEquals(1000, posting.getPositions().length);
+		assertEquals(2997, posting.getPositions()[999]);
+		posting.appendPosition(3000);
+		assertEquals(1001, posting.getOccurrenceCount());
+		assertEquals(3000, posting.getPosition(1000));
+
+		// The previous posting is finished, and trimmed, when the next one is appended.
+		PostingList postingList = new PostingList();
+		postingList.appendPosting(posting);
+		postingList.appendPosting(new Posting(2, 0));
+		assertEquals(1001, posting.getPositions().length);
+		assertEquals(3000, posting.getPositions()[1000]);
+	}
+
+	/**
+	 * Compressing a posting list must not change what it contains.
+	 */
+	public void testPostingListCompression() {
+		Random random = new Random(42);
+		for (int size : new int[] { 1, 63, 64, 65, 1000 }) {
+			PostingList original = createPostingList(new Random(size), size);
+			PostingList compressed = createPostingList(new Random(size), size);
+			compressed.compress();
+			assertTrue(compressed.isCompressed());
+			assertEquals(original.size(), compressed.size());
+
+			// Sequential access.
+			PostingCursor cursor = new PostingCursor(compressed);
+			for (int i = 0; i < size; ++i, cursor.next()) {
+				assertFalse(cursor.isExhausted());
+				assertEquals(original.getPosting(i).getDocumentId(), cursor.getDocumentId());
+				if (i % 2 == 0) {
+					assertSamePosting(original.getPosting(i), cursor.getPosting());
+				}
+			}
+			assertTrue(cursor.isExhausted());
+
+			// Random access.
+			for (int i = 0; i < 100; ++i) {
+				int j = random.nextInt(size);
+				assertSamePosting(original.getPosting(j), compressed.getPosting(j));
+			}
+			assertSamePosting(original.getLastPosting(), compressed.getLastPosting());
+			assertTrue(size < 64 || compressed.getCompressionRatio() > 1.0);
+		}
+	}
+
+	/**
+	 * Advancing a cursor must land on the first posting at or after the target,
+	 * whether or not the posting list is compressed.
+	 */
+	public void testPostingCursorAdvance() {
+		Random random = new Random(7);
+		PostingList original = createPostingList(new Random(1000), 1000);
+		PostingList compressed = createPostingList(new Random(1000), 1000);
+		compressed.compress();
+		for (int round = 0; round < 50; ++round) {
+			PostingCursor uncompressedCursor = new PostingCursor(original);
+			PostingCursor compressedCursor = new PostingCursor(compressed);
+			int target = 0;
+			while (!uncompressedCursor.isExhausted()) {
+				target += random.nextInt(round * 1000 + 10);
+				uncompressedCursor.advance(target);
+				compressedCursor.advance(target);
+				assertEquals(uncompressedCursor.isExhausted(), compressedCursor.isExhausted());
+				if (!uncompressedCursor.isExhausted()) {
+					int i = uncompressedCursor.getIndex();
+					assertEquals(i, compressedCursor.getIndex());
+					assertTrue(original.getPosting(i).getDocumentId() >= target);
+					assertTrue(i == 0 || original.getPosting(i - 1).getDocumentId() < target);
+					assertSamePosting(original.getPosting(i), compressedCursor.getPosting());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Indexing in parallel must give the same index as indexing sequentially,
+	 * down to the lexicon identifiers, and must fail if any thread fails.
+	 */
+	public void testParallelIndexing() {
+		INormalizer normalizer = new BrainDeadNormalizer();
+		IDocumentStore documentStore = new InMemoryDocumentStore("data/cran.xml", normalizer, null);
+		InvertedIndexSettings settings = new InvertedIndexSettings();
+		settings.threads = 1;
+		IInvertedIndex expected = new InMemoryInvertedIndex(documentStore, normalizer, new BrainDeadTokenizer(), settings, null);
+		settings.threads = 7;
+		settings.minDocumentsPerThread = 1;
+		IInvertedIndex actual = new InMemoryInvertedIndex(documentStore, normalizer, new BrainDeadTokenizer(), settings, null);
+
+		assertEquals(expected.getLexicon().size(), actual.getLexicon().size());
+		for (String value : expected.getLexicon()) {
+			int lexiconId = expected.getLexicon().lookup(value);
+			assertEquals(lexiconId, actual.getLexicon().lookup(value));
+			PostingList expectedPostings = expected.getPostingList(lexiconId);
+			PostingList actualPostings = actual.getPostingList(lexiconId);
+			assertEquals(expectedPostings.size(), actualPostings.size());
+			PostingCursor cursor = new PostingCursor(actualPostings);
+			for (PostingCursor expectedCursor = new PostingCursor(expectedPostings); !expectedCursor.isExhausted(); expectedCursor.next(), cursor.next()) {
+				assertSamePosting(expectedCursor.getPosting(), cursor.getPosting());
+			}
+		}
+
+		// An error in any of the threads must fail the build, not leave a gap in the index.
+		final String failingData = documentStore.getDocument(documentStore.size() - 1).getOriginalData();
+		INormalizer failingNormalizer = new BrainDeadNormalizer() {
+			@Override
+			public String normalize(String value) {
+				if (value.equals(failingData)) {
+					throw new OutOfMemoryError("Simulated.");
+				}
+				return super.normalize(value);
+			}
+		};
+		try {
+			new InMemoryInvertedIndex(documentStore, failingNormalizer, new BrainDeadTokenizer(), settings, null);
+			fail();
+		}
+		catch (OutOfMemoryError e) {
+			assertEquals("Simulated.", e.getMessage());
+		}
+	}
+
+	/**
+	 * Asserts that two indexes over the same documents hold the same documents
+	 * and postings, and give the same search results. The lexicon identifiers
+	 * may differ.
+	 */
+	private void assertSameIndex(IInvertedIndex expected, IInvertedIndex actual) {
+		IDocumentStore documentStore = expected.getDocumentStore();
+		assertEquals(documentStore.size(), actual.getDocumentStore().size());
+		for (int documentId = 0; documentId < documentStore.size(); ++documentId) {
+			IDocument expectedDocument = documentStore.getDocument(documentId);
+			IDocument actualDocument = actual.getDocumentStore().getDocument(documentId);
+			assertEquals(expectedDocument.getOriginalData(), actualDocument.getOriginalData());
+			assertEquals(expectedDocument.getExtraData(), actualDocument.getExtraData());
+			assertEquals(expectedDocument.getNormalizedLength(), actualDocument.getNormalizedLength());
+			assertEquals(expectedDocument.getStaticRank(), actualDocument.getStaticRank(), 0.0);
+		}
+
+		assertEquals(expected.getLexicon().size(), actual.getLexicon().size());
+		assertEquals(ILexicon.INVALID, actual.getLexicon().lookup("nonexistent"));
+		for (String value : expected.getLexicon()) {
+			PostingList expectedPostings = expected.getPostingList(expected.getLexicon().lookup(value));
+			PostingList actualPostings = actual.getPostingList(actual.getLexicon().lookup(value));
+			assertEquals(expectedPostings.size(), actualPostings.size());
+			PostingCursor cursor = new PostingCursor(actualPostings);
+			for (PostingCursor expectedCursor = new PostingCursor(expectedPostings); !expectedCursor.isExhausted(); expectedCursor.next(), cursor.next()) {
+				assertSamePosting(expectedCursor.getPosting(), cursor.getPosting());
+			}
+		}
+
+		String[] queries = { "supersonic flow", "heat transfer in boundary layers", "panel flutter" };
+		SearchEngine expectedEngine = new SearchEngine(expected, null, new TfIdfRanker(null));
+		SearchEngine actualEngine = new SearchEngine(actual, null, new TfIdfRanker(null));
+		for (String query : queries) {
+			IResultSet expectedResults = expectedEngine.search(query);
+			IResultSet actualResults = actualEngine.search(query);
+			assertEquals(expectedResults.size(), actualResults.size());
+			Iterator<IResult> actualIterator = actualResults.iterator();
+			for (IResult expectedResult : expectedResults) {
+				IResult actualResult = actualIterator.next();
+				assertEquals(expectedResult.getDocument().getOriginalData(), actualResult.getDocument().getOriginalData());
+				assertEquals(expectedResult.getRelevance(), actualResult.getRelevance(), 1e-9);
+			}
+		}
+	}
+
+	/**
+	 * Returns an empty temporary directory.
+	 */
+	private File createTemporaryDirectory() throws IOException {
+		File directory = File.createTempFile("index", "");
+		assertTrue(directory.delete());
+		assertTrue(directory.mkdir());
+		return directory;
+	}
+
+	/**
+	 * Removes a temporary directory and its files.
+	 */
+	private void deleteTemporaryDirectory(File directory) {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	/**
+	 * An index written to disk and mapped back in must hold the same documents
+	 * and postings, and give the same search results, as the original.
+	 */
+	public void testMappedInvertedIndex() throws IOException {
+		INormalizer normalizer = new BrainDeadNormalizer();
+		IDocumentStore documentStore = new InMemoryDocumentStore("data/cran.xml", normalizer, null);
+		IInvertedIndex expected = new InMemoryInvertedIndex(documentStore, normalizer, new BrainDeadTokenizer(), null);
+		File directory = this.createTemporaryDirectory();
+		try {
+			MappedInvertedIndex.write(expected, directory);
+			assertSameIndex(expected, new MappedInvertedIndex(directory, normalizer, new BrainDeadTokenizer(), null));
+		}
+		finally {
+			this.deleteTemporaryDirectory(directory);
+		}
+	}
+
+	/**
+	 * Indexing with a small memory budget must spill several segments, and
+	 * merging them must give the same index as indexing in memory.
+	 */
+	public void testSpimiIndexWriter() throws IOException {
+		INormalizer normalizer = new BrainDeadNormalizer();
+		IDocumentStore documentStore = new InMemoryDocumentStore("data/cran.xml", normalizer, null);
+		IInvertedIndex expected = new InMemoryInvertedIndex(documentStore, normalizer, new BrainDeadTokenizer(), null);
+		File directory = this.createTemporaryDirectory();
+		try {
+			InvertedIndexSettings settings = new InvertedIndexSettings();
+			settings.memoryBudget = 256 * 1024;
+			SpimiIndexWriter writer = new SpimiIndexWriter(directory, normalizer, new BrainDeadTokenizer(), settings, null);
+			writer.addDocuments("data/cran.xml");
+			writer.close();
+			assertTrue(writer.getSpillCount() > 1);
+			assertTrue(writer.getPeakMemoryUsage() > settings.memoryBudget);
+			assertEquals(4, directory.list().length);
+			MappedInvertedIndex actual = new MappedInvertedIndex(directory, normalizer, new BrainDeadTokenizer(), null);
+			assertSameIndex(expected, actual);
+			assertSameStatistics(expected, actual);
+		}
+		finally {
+			this.deleteTemporaryDirectory(directory);
+		}
+
+		// Without positions, too.
+		directory = this.createTemporaryDirectory();
+		try {
+			InvertedIndexSettings settings = new InvertedIndexSettings();
+			settings.memoryBudget = 256 * 1024;
+			settings.positional = false;
+			expected = new InMemoryInvertedIndex(documentStore, normalizer, new BrainDeadTokenizer(), settings, null);
+			SpimiIndexWriter writer = new SpimiIndexWriter(directory, normalizer, new BrainDeadTokenizer(), settings, null);
+			writer.addDocuments("data/cran.xml");
+			writer.close();
+			assertTrue(writer.getSpillCount() > 1);
+			MappedInvertedIndex actual = new MappedInvertedIndex(directory, normalizer, new BrainDeadTokenizer(), null);
+			assertSameIndex(expected, actual);
+			assertSameStatistics(expected, actual);
+		}
+		finally {
+			this.deleteTemporaryDirectory(directory);
+		}
+	}
+
+	/**
+	 * Concatenating compressed posting lists must give the same postings as
+	 * compressing the concatenated postings, whether or not the lists end on
+	 * block boundaries.
+	 */
+	public void testPostingListConcatenation() {
+		Random random = new Random(42);
+		int[] sizes = { 128, 1, 0, 70, 64, 200 };
+		PostingList[] postingLists = new PostingList[sizes.length];
+		int[] offsets = new int[sizes.length];
+		PostingList expected = new PostingList();
+		int offset = 0;
+		for (int i = 0; i < sizes.length; ++i) {
+			postingLists[i] = createPostingList(random, sizes[i]);
+			offsets[i] = offset;
+			for (int j = 0; j < sizes[i]; ++j) {
+				Posting posting = postingLists[i].getPosting(j);
+				expected.appendPosting(new Posting(posting.getDocumentId() + offset, posting.getPositions()));
+			}
+			if (sizes[i] > 0) {
+				offset += postingLists[i].getLastPosting().getDocumentId() + 1;
+			}
+			postingLists[i].compress();
+		}
+		PostingList actual = PostingList.concatenate(postingLists, offsets);
+		expected.compress();
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.getMaxOccurrenceCount(), actual.getMaxOccurrenceCount());
+		assertEquals(expected.getUncompressedSize(), actual.getUncompressedSize());
+		PostingCursor cursor = new PostingCursor(actual);
+		for (PostingCursor expectedCursor = new PostingCursor(expected); !expectedCursor.isExhausted(); expectedCursor.next(), cursor.next()) {
+			assertSamePosting(expectedCursor.getPosting(), cursor.getPosting());
+		}
+		assertTrue(cursor.isExhausted());
+
+		// Skipping relies on the block table.
+		for (int i = 0; i < expected.size(); i += 7) {
+			int target = expected.getPosting(i).getDocumentId();
+			PostingCursor skipping = new PostingCursor(actual);
+			skipping.advance(target);
+			assertEquals(target, skipping.getDocumentId());
+		}
+
+		// The lists must stay in order.
+		try {
+			PostingList.concatenate(new PostingList[] { postingLists[0], postingLists[0] }, new int[] { 0, 0 });
+			fail();
+		}
+		catch (IllegalStateException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Documents must become searchable on refresh, and the segments must be
+	 * merged as they pile up. The result must be the same as indexing all
+	 * documents at once.
+	 */
+	public void testSegmentedInvertedIndex() {
+		INormalizer normalizer = new BrainDeadNormalizer();
+		IDocumentStore documentStore = new InMemoryDocumentStore("data/cran.xml", normalizer, null);
+		IInvertedIndex expected = new InMemoryInvertedIndex(documentStore, normalizer, new BrainDeadTokenizer(), null);
+		SegmentedInvertedIndex actual = new SegmentedInvertedIndex(normalizer, new BrainDeadTokenizer(), new InvertedIndexSettings(), null);
+		actual.setMergeExecutor(null);
+
+		int maxSegmentCount = 0;
+		for (int documentId = 0; documentId < documentStore.size(); ++documentId) {
+			assertEquals(documentId, actual.getDocumentStore().putDocument(documentStore.getDocument(documentId)));
+			if (documentId % 20 == 19) {
+				// Not searchable yet.
+				IInvertedIndex snapshot = actual.getSnapshot();
+				assertEquals(documentId - 19, snapshot.getDocumentStore().size());
+				long generation = actual.getGeneration();
+				actual.refresh();
+				assertEquals(generation + 1, actual.getGeneration());
+				assertEquals(documentId + 1, actual.getDocumentStore().size());
+				// The old snapshot doesn't change.
+				assertEquals(documentId - 19, snapshot.getDocumentStore().size());
+				maxSegmentCount = Math.max(maxSegmentCount, actual.getSegmentCount());
+			}
+		}
+		actual.refresh();
+		assertTrue(maxSegmentCount < 20);
+		assertSameIndex(expected, actual.getSnapshot());
+	}
+
+	/**
+	 * Deleted documents must not be found once the deletes are refreshed,
+	 * and an updated document must be found by its new contents. Once all
+	 * segments have been merged or compacted, the deleted postings must be
+	 * gone, and the index must be the same as one over the remaining documents.
+	 */
+	public void testDocumentDeletion() {
+		INormalizer normalizer = new BrainDeadNormalizer();
+		IDocumentStore documentStore = new InMemoryDocumentStore("data/cran.xml", normalizer, null);
+		SegmentedInvertedIndex actual = new SegmentedInvertedIndex(normalizer, new BrainDeadTokenizer(), new InvertedIndexSettings(), null);
+		actual.setMergeExecutor(null);
+		for (int documentId = 0; documentId < documentStore.size(); ++documentId) {
+			actual.addDocument(documentStore.getDocument(documentId));
+			if (documentId % 100 == 99) {
+				actual.refresh();
+			}
+		}
+		actual.refresh();
+
+		// Delete every other document, and update one of the remaining ones.
+		String[] queries = { "supersonic flow", "heat transfer in boundary layers", "panel flutter" };
+		SearchEngine engine = new SearchEngine(actual, null, new TfIdfRanker(null));
+		engine.setResultCache(null);
+		int resultCount = engine.search(queries[0]).size();
+		BitSet deleted = new BitSet();
+		for (int documentId = 0; documentId < documentStore.size(); documentId += 2) {
+			actual.deleteDocument(documentId);
+			deleted.set(documentId);
+		}
+		Document document = new Document();
+		document.setOriginalData("supersonic zyzzyva");
+		document.setNormalizedLength(document.getOriginalData().length());
+		int updatedId = actual.updateDocument(1, document);
+		deleted.set(1);
+		assertEquals(documentStore.size(), updatedId);
+		assertEquals(resultCount, engine.search(queries[0]).size());
+		IInvertedIndex snapshot = actual.getSnapshot();
+		long generation = actual.getGeneration();
+		actual.refresh();
+		assertNull(snapshot.getDeletedDocuments());
+		assertEquals(deleted, actual.getDeletedDocuments());
+		assertNull(actual.getDocumentStore().getDocument(0));
+		assertSame(document, actual.getDocumentStore().getDocument(updatedId));
+		IResultSet results = engine.search("zyzzyva");
+		assertEquals(1, results.size());
+		assertSame(document, results.iterator().next().getDocument());
+
+		// The remaining documents, indexed from scratch.
+		IDocumentStore remaining = new InMemoryDocumentStore();
+		for (int documentId = 0; documentId < documentStore.size(); ++documentId) {
+			if (!deleted.get(documentId)) {
+				remaining.putDocument(documentStore.getDocument(documentId));
+			}
+		}
+		remaining.putDocument(document);
+		IInvertedIndex expected = new InMemoryInvertedIndex(remaining, normalizer, new BrainDeadTokenizer(), null);
+
+		// Half of each segment is gone, so the refresh compacted them all,
+		// and purging changes the generation, too.
+		IInvertedIndex merged = actual.getSnapshot();
+		assertTrue(merged.getGeneration() > generation + 1);
+		assertEquals(expected.getLexicon().size(), merged.getLexicon().size());
+		for (String value : expected.getLexicon()) {
+			PostingList postings = merged.getPostingList(merged.getLexicon().lookup(value));
+			assertEquals(expected.getPostingList(expected.getLexicon().lookup(value)).size(), postings.size());
+			for (PostingCursor cursor = new PostingCursor(postings); !cursor.isExhausted(); cursor.next()) {
+				assertFalse(deleted.get(cursor.getDocumentId()));
+			}
+		}
+		SearchEngine expectedEngine = new SearchEngine(expected, null, new TfIdfRanker(null));
+		for (String query : queries) {
+			IResultSet expectedResults = expectedEngine.search(query);
+			IResultSet actualResults = engine.search(query);
+			assertEquals(expectedResults.size(), actualResults.size());
+			Iterator<IResult> actualIterator = actualResults.iterator();
+			for (IResult expectedResult : expectedResults) {
+				IResult actualResult = actualIterator.next();
+				assertEquals(expectedResult.getRelevance(), actualResult.getRelevance(), 1e-9);
+			}
+		}
+	}
+
+	/**
+	 * An index without positions must have the same postings as one with
+	 * positions, save for the positions, and give the same search results.
+	 * It must survive being written to disk, too.
+	 */
+	public void testCountsOnlyIndex() throws IOException {
+		INormalizer normalizer = new BrainDeadNormalizer();
+		IDocumentStore documentStore = new InMemoryDocumentStore("data/cran.xml", normalizer, null);
+		InMemoryInvertedIndex expected = new InMemoryInvertedIndex(documentStore, normalizer, new BrainDeadTokenizer(), null);
+		InvertedIndexSettings settings = new InvertedIndexSettings();
+		settings.positional = false;
+		InMemoryInvertedIndex actual = new InMemoryInvertedIndex(documentStore, normalizer, new BrainDeadTokenizer(), settings, null);
+		assertTrue(actual.getCompressedSize() < expected.getCompressedSize());
+
+		File directory = this.createTemporaryDirectory();
+		try {
+			MappedInvertedIndex.write(actual, directory);
+			MappedInvertedIndex mapped = new MappedInvertedIndex(directory, normalizer, new BrainDeadTokenizer(), null);
+			for (IInvertedIndex index : new IInvertedIndex[] { actual, mapped }) {
+				assertEquals(expected.getLexicon().size(), index.getLexicon().size());
+				for (String value : expected.getLexicon()) {
+					PostingList expectedPostings = expected.getPostingList(expected.getLexicon().lookup(value));
+					PostingList actualPostings = index.getPostingList(index.getLexicon().lookup(value));
+					assertFalse(actualPostings.hasPositions());
+					assertEquals(expectedPostings.size(), actualPostings.size());
+					assertEquals(expectedPostings.getMaxOccurrenceCount(), actualPostings.getMaxOccurrenceCount());
+					PostingCursor cursor = new PostingCursor(actualPostings);
+					for (PostingCursor expectedCursor = new PostingCursor(expectedPostings); !expectedCursor.isExhausted(); expectedCursor.next(), cursor.next()) {
+						assertEquals(expectedCursor.getDocumentId(), cursor.getDocumentId());
+						assertEquals(expectedCursor.getOccurrenceCount(), cursor.getPosting().getOccurrenceCount());
+						assertNull(cursor.getPosting().getPositions());
+					}
+				}
+
+				SearchEngine expectedEngine = new SearchEngine(expected, null, new TfIdfRanker(null));
+				SearchEngine actualEngine = new SearchEngine(index, null, new TfIdfRanker(null));
+				for (String query : new String[] { "supersonic flow", "panel flutter" }) {
+					IResultSet expectedResults = expectedEngine.search(query);
+					IResultSet actualResults = actualEngine.search(query);
+					assertEquals(expectedResults.size(), actualResults.size());
+					Iterator<IResult> actualIterator = actualResults.iterator();
+					for (IResult expectedResult : expectedResults) {
+						assertEquals(expectedResult.getRelevance(), actualIterator.next().getRelevance(), 1e-9);
+					}
+				}
+			}
+		}
+		finally {
+			this.deleteTemporaryDirectory(directory);
+		}
+	}
+
+	/**
+	 * The collection statistics must agree with the postings, and be the same
+	 * whether the index is in memory, mapped from disk, or split into segments.
+	 */
+	public void testCollectionStatistics() throws IOException {
+		INormalizer normalizer = new BrainDeadNormalizer();
+		IDocumentStore documentStore = new InMemoryDocumentStore("data/cran.xml", normalizer, null);
+		IInvertedIndex expected = new InMemoryInvertedIndex(documentStore, normalizer, new BrainDeadTokenizer(), null);
+		ICollectionStatistics statistics = expected.getStatistics();
+		assertEquals(documentStore.size(), statistics.getDocumentCount());
+		int[] documentLengths = new int[documentStore.size()];
+		long totalDocumentLength = 0;
+		for (int lexiconId = 0; lexiconId < expected.getLexicon().size(); ++lexiconId) {
+			PostingList postings = expected.getPostingList(lexiconId);
+			long collectionFrequency = 0;
+			for (PostingCursor cursor = new PostingCursor(postings); !cursor.isExhausted(); cursor.next()) {
+				collectionFrequency += cursor.getOccurrenceCount();
+				documentLengths[cursor.getDocumentId()] += cursor.getOccurrenceCount();
+			}
+			assertEquals(postings.size(), statistics.getDocumentFrequency(lexiconId));
+			assertEquals(collectionFrequency, statistics.getCollectionFrequency(lexiconId));
+			assertEquals(Math.log((double) documentStore.size() / postings.size()), statistics.getInverseDocumentFrequency(lexiconId), 1e-12);
+			totalDocumentLength += collectionFrequency;
+		}
+		for (int documentId = 0; documentId < documentLengths.length; ++documentId) {
+			assertEquals(documentLengths[documentId], statistics.getDocumentLength(documentId));
+		}
+		assertEquals((double) totalDocumentLength / documentStore.size(), statistics.getAverageDocumentLength(), 1e-9);
+
+		// The same, but split into segments.
+		SegmentedInvertedIndex segmented = new SegmentedInvertedIndex(normalizer, new BrainDeadTokenizer(), new InvertedIndexSettings(), null);
+		segmented.setMergeExecutor(null);
+		for (int documentId = 0; documentId < documentStore.size(); ++documentId) {
+			segmented.addDocument(documentStore.getDocument(documentId));
+			if (documentId % 100 == 99) {
+				segmented.refresh();
+			}
+		}
+		segmented.refresh();
+		assertTrue(segmented.getSegmentCount() > 1);
+		assertSameStatistics(expected, segmented.getSnapshot());
+
+		// The same, but mapped from disk.
+		File directory = this.createTemporaryDirectory();
+		try {
+			MappedInvertedIndex.write(expected, directory);
+			assertSameStatistics(expected, new MappedInvertedIndex(directory, normalizer, new BrainDeadTokenizer(), null));
+		}
+		finally {
+			this.deleteTemporaryDirectory(directory);
+		}
+	}
+
+	/**
+	 * Asserts that two indexes over the same documents have the same statistics,
+	 * even if their lexicon identifiers differ.
+	 * @param expected the expected index
+	 * @param actual the actual index
+	 */
+	private void assertSameStatistics(IInvertedIndex expected, IInvertedIndex actual) {
+		ICollectionStatistics expectedStatistics = expected.getStatistics();
+		ICollectionStatistics actualStatistics = actual.getStatistics();
+		assertEquals(expectedStatistics.getDocumentCount(), actualStatistics.getDocumentCount());
+		assertEquals(expectedStatistics.getAverageDocumentLength(), actualStatistics.getAverageDocumentLength(), 1e-9);
+		for (int documentId = 0; documentId < expectedStatistics.getDocumentCount(); ++documentId) {
+			assertEquals(expectedStatistics.getDocumentLength(documentId), actualStatistics.getDocumentLength(documentId));
+		}
+		assertEquals(expected.getLexicon().size(), actual.getLexicon().size());
+		for (String value : expected.getLexicon()) {
+			int expectedId = expected.getLexicon().lookup(value);
+			int actualId = actual.getLexicon().lookup(value);
+			assertEquals(expectedStatistics.getDocumentFrequency(expectedId), actualStatistics.getDocumentFrequency(actualId));
+			assertEquals(expectedStatistics.getCollectionFrequency(expectedId), actualStatistics.getCollectionFrequency(actualId));
+			assertEquals(expectedStatistics.getInverseDocumentFrequency(expectedId), actualStatistics.getInverseDocumentFrequency(actualId), 1e-12);
+		}
+	}
+
+	/**
+	 * A roaring bitmap must behave like a {@link BitSet}, whichever kinds of
+	 * containers it picks, and survive being written and read back.
+	 */
+	public void testRoaringBitmap() throws IOException {
+		Random random = new Random(17);
+		BitSet[] expected = new BitSet[3];
+		RoaringBitmap[] bitmaps = new RoaringBitmap[3];
+		for (int i = 0; i < 3; ++i) {
+			// Sparse, dense and run-heavy chunks, with gaps between them.
+			expected[i] = new BitSet();
+			for (int chunk = 0; chunk < 6; ++chunk) {
+				int start = (chunk + i) * 65536 + random.nextInt(1000);
+				for (int value = start; value < (chunk + 1 + i) * 65536 - 1000; ++value) {
+					boolean set = (chunk % 3 == 0) ? random.nextInt(100) == 0 : (chunk % 3 == 1) ? random.nextInt(2) == 0 : (value / 5000) % 2 == 0;
+					expected[i].set(value, set);
+				}
+			}
+			bitmaps[i] = new RoaringBitmap();
+			for (int value = expected[i].nextSetBit(0); value >= 0; value = expected[i].nextSetBit(value + 1)) {
+				bitmaps[i].add(value);
+			}
+			bitmaps[i].optimize();
+		}
+		try {
+			bitmaps[0].add(1);
+			fail();
+		}
+		catch (IllegalStateException e) {
+			// As expected.
+		}
+
+		// Written and read back, at an offset.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(42);
+		bitmaps[1].writeTo(out);
+		out.close();
+		assertEquals(4 + bitmaps[1].getSerializedSize(), bytes.size());
+		RoaringBitmap copy = new RoaringBitmap(ByteBuffer.wrap(bytes.toByteArray()), 4);
+
+		// Each bitmap, and how many of them the values occur in.
+		for (int n = 1; n <= 4; ++n) {
+			BitSet expectedCounted = new BitSet();
+			for (int value = 0; value < 9 * 65536; ++value) {
+				int count = 0;
+				for (BitSet set : expected) {
+					count += set.get(value) ? 1 : 0;
+				}
+				expectedCounted.set(value, count >= n);
+			}
+			assertSameBits(expectedCounted, RoaringBitmap.atLeast(bitmaps, n));
+		}
+		for (int i = 0; i < 3; ++i) {
+			assertSameBits(expected[i], bitmaps[i]);
+		}
+		assertSameBits(expected[1], copy);
+		BitSet and = (BitSet) expected[0].clone();
+		and.and(expected[1]);
+		assertSameBits(and, RoaringBitmap.and(bitmaps[0], bitmaps[1]));
+		BitSet or = (BitSet) expected[0].clone();
+		or.or(expected[1]);
+		assertSameBits(or, RoaringBitmap.or(bitmaps[0], bitmaps[1]));
+
+		// A dense posting list keeps its document identifiers in a bitmap, but not its occurrence counts.
+		PostingList postingList = new PostingList();
+		for (int value = expected[1].nextSetBit(0); value >= 0; value = expected[1].nextSetBit(value + 1)) {
+			Posting posting = new Posting(value, 0);
+			for (int j = 1; j <= value % 3; ++j) {
+				posting.appendPosition(j);
+			}
+			postingList.appendPosting(posting);
+		}
+		postingList.compress();
+		assertNotNull(postingList.getDocumentIdBitmap());
+		PostingCursor cursor = new PostingCursor(postingList);
+		for (int value = expected[1].nextSetBit(0); value >= 0; value = expected[1].nextSetBit(value + 1), cursor.next()) {
+			assertEquals(value, cursor.getDocumentId());
+			assertEquals(value % 3 + 1, cursor.getOccurrenceCount());
+			assertEquals(value % 3, cursor.getPosting().getPosition(value % 3));
+		}
+		assertTrue(cursor.isExhausted());
+		for (int i = 0; i < 100; ++i) {
+			int j = random.nextInt(postingList.size());
+			cursor = new PostingCursor(postingList);
+			cursor.advance(postingList.getPosting(j).getDocumentId());
+			assertEquals(j, cursor.getIndex());
+		}
+	}
+
+	/**
+	 * Asserts that a roaring bitmap holds the same values as a {@link BitSet}.
+	 */
+	private void assertSameBits(BitSet expected, RoaringBitmap actual) {
+		assertEquals(expected.cardinality(), actual.cardinality());
+		int[] values = new int[100];
+		int count = 0;
+		int next = 0;
+		for (int value = expected.nextSetBit(0); value >= 0; value = expected.nextSetBit(value + 1)) {
+			assertTrue(actual.contains(value));
+			assertEquals(value, actual.nextSetBit(value));
+			assertEquals(value, actual.nextSetBit(expected.previousSetBit(value - 1) + 1));
+			if (next == count) {
+				count = actual.nextSetBits(value, values, values.length);
+				next = 0;
+			}
+			assertEquals(value, values[next++]);
+		}
+		assertEquals(-1, actual.nextSetBit(expected.length()));
+		assertFalse(actual.contains(expected.length()));
+	}
+}
@@ -0,0 +1,420 @@
+package no.uio.ifi.lt.testing;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import no.uio.ifi.lt.indexing.IInvertedIndex;
+import no.uio.ifi.lt.indexing.InMemoryInvertedIndex;
+import no.uio.ifi.lt.indexing.InvertedIndexSettings;
+import no.uio.ifi.lt.indexing.MappedInvertedIndex;
+import no.uio.ifi.lt.preprocessing.BrainDeadNormalizer;
+import no.uio.ifi.lt.preprocessing.INormalizer;
+import no.uio.ifi.lt.ranking.Bm25Ranker;
+import no.uio.ifi.lt.ranking.BrainDeadRanker;
+import no.uio.ifi.lt.ranking.FileStaticRanker;
+import no.uio.ifi.lt.ranking.IRanker;
+import no.uio.ifi.lt.ranking.LengthStaticRanker;
+import no.uio.ifi.lt.ranking.TfIdfRanker;
+import no.uio.ifi.lt.search.EvaluationStrategy;
+import no.uio.ifi.lt.search.IQuery;
+import no.uio.ifi.lt.search.IResult;
+import no.uio.ifi.lt.search.IResultSet;
+import no.uio.ifi.lt.search.Query;
+import no.uio.ifi.lt.search.QueryBudget;
+import no.uio.ifi.lt.search.QueryEvaluator;
+import no.uio.ifi.lt.search.QueryEvaluatorSettings;
+import no.uio.ifi.lt.search.QueryPlan;
+import no.uio.ifi.lt.search.QueryPlanner;
+import no.uio.ifi.lt.search.QueryProfile;
+import no.uio.ifi.lt.search.TermAtATimeQueryEvaluator;
+import no.uio.ifi.lt.storage.IDocument;
+import no.uio.ifi.lt.storage.IDocumentStore;
+import no.uio.ifi.lt.storage.InMemoryDocumentStore;
+import no.uio.ifi.lt.tokenization.BrainDeadTokenizer;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the different query evaluation strategies agree.
+ */
+public class QueryEvaluatorTest extends TestCase {
+	/** Queries with a mix of rare and very common terms. */
+	private static final String[] QUERIES = {
+		"what similarity laws must be obeyed when constructing aeroelastic models of heated high speed aircraft",
+		"the of and a in",
+		"supersonic flow over a wing",
+		"heat transfer in the laminar boundary layer",
+		"panel flutter",
+	};
+
+	/** The normalizer used for both documents and queries. */
+	private INormalizer normalizer = new BrainDeadNormalizer();
+
+	/** Shared across the tests, since indexing takes a while. */
+	private static IInvertedIndex invertedIndex;
+
+	/**
+	 * Returns the index over the CRAN document collection.
+	 * @return the inverted index
+	 */
+	private IInvertedIndex getInvertedIndex() {
+		if (invertedIndex == null) {
+			IDocumentStore documentStore = new InMemoryDocumentStore("data/cran.xml", this.normalizer, null);
+			invertedIndex = new InMemoryInvertedIndex(documentStore, this.normalizer, new BrainDeadTokenizer(), null);
+		}
+		return invertedIndex;
+	}
+
+	/**
+	 * Evaluates a query with the given settings.
+	 */
+	private IResultSet evaluate(String query, QueryEvaluatorSettings settings) {
+		QueryEvaluator evaluator = new QueryEvaluator(settings, null);
+		return evaluator.evaluate(new Query(query, this.normalizer), this.getInvertedIndex(), new TfIdfRanker(null));
+	}
+
+	/**
+	 * Asserts that two result sets contain the same scores in the same order.
+	 */
+	private void assertSameScores(IResultSet expected, IResultSet actual) {
+		assertEquals(expected.size(), actual.size());
+		Iterator<IResult> iterator = actual.iterator();
+		for (IResult result : expected) {
+			assertEquals(result.getRelevance(), iterator.next().getRelevance(), 1e-9);
+		}
+	}
+
+	/**
+	 * Dynamic pruning must not change the results.
+	 */
+	public void testDynamicPruning() {
+		for (double recallThreshold : new double[] { 0.0, 0.5, 1.0 }) {
+			for (String query : QUERIES) {
+				QueryEvaluatorSettings settings = new QueryEvaluatorSettings();
+				settings.recallThreshold = recallThreshold;
+				IResultSet expected = this.evaluate(query, settings);
+				for (EvaluationStrategy strategy : EvaluationStrategy.values()) {
+					settings.strategy = strategy;
+					assertSameScores(expected, this.evaluate(query, settings));
+				}
+			}
+		}
+	}
+
+	/**
+	 * With documents numbered by descending static rank, the pruning strategies
+	 * must give the same results as exhaustive evaluation, but stop early.
+	 */
+	public void testStaticRankTiers() throws IOException {
+		IDocumentStore unsorted = new InMemoryDocumentStore("data/cran.xml", this.normalizer, null);
+		InMemoryDocumentStore documentStore = new InMemoryDocumentStore("data/cran.xml", this.normalizer, null);
+		documentStore.assignStaticRanks(new LengthStaticRanker());
+		int[] documentIds = documentStore.sortByStaticRank();
+		for (int i = 0; i < documentIds.length; ++i) {
+			assertEquals(unsorted.getDocument(i).getOriginalData(), documentStore.getDocument(documentIds[i]).getOriginalData());
+		}
+		IInvertedIndex sortedIndex = new InMemoryInvertedIndex(documentStore, this.normalizer, new BrainDeadTokenizer(), null);
+		double previous = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < documentStore.size(); ++i) {
+			double staticRank = documentStore.getDocument(i).getStaticRank();
+			assertTrue(staticRank <= previous);
+			assertTrue(staticRank <= sortedIndex.getStaticRankBound(i));
+			previous = staticRank;
+		}
+		assertEquals(Double.NEGATIVE_INFINITY, sortedIndex.getStaticRankBound(documentStore.size()));
+
+		// Let the static ranks dominate, so that the later tiers can't make it.
+		final int[] scored = new int[EvaluationStrategy.values().length];
+		for (String query : QUERIES) {
+			QueryEvaluatorSettings settings = new QueryEvaluatorSettings();
+			settings.staticRankWeight = 1000.0;
+			settings.termAtATime = false;
+			IResultSet expected = null;
+			for (final EvaluationStrategy strategy : EvaluationStrategy.values()) {
+				settings.strategy = strategy;
+				TfIdfRanker ranker = new TfIdfRanker(null) {
+					@Override
+					public double evaluate(IQuery query, IDocument document) {
+						++scored[strategy.ordinal()];
+						return super.evaluate(query, document);
+					}
+				};
+				IResultSet actual = new QueryEvaluator(settings, null).evaluate(new Query(query, this.normalizer), sortedIndex, ranker);
+				if (expected == null) {
+					expected = actual;
+				}
+				assertSameScores(expected, actual);
+			}
+		}
+		assertTrue(2 * scored[EvaluationStrategy.WAND.ordinal()] < scored[EvaluationStrategy.EXHAUSTIVE.ordinal()]);
+		assertTrue(2 * scored[EvaluationStrategy.BLOCK_MAX_WAND.ordinal()] < scored[EvaluationStrategy.EXHAUSTIVE.ordinal()]);
+		assertTrue(2 * scored[EvaluationStrategy.MAX_SCORE.ordinal()] < scored[EvaluationStrategy.EXHAUSTIVE.ordinal()]);
+
+		// Static ranks from a file, one per line.
+		File file = File.createTempFile("static", ".txt");
+		try {
+			Writer writer = new FileWriter(file);
+			writer.write("0.5\n\n2\n");
+			writer.close();
+			InMemoryDocumentStore scoredStore = new InMemoryDocumentStore("data/cran.xml", this.normalizer, null);
+			scoredStore.assignStaticRanks(new FileStaticRanker(file.getPath()));
+			assertEquals(0.5, scoredStore.getDocument(0).getStaticRank());
+			assertEquals(0.0, scoredStore.getDocument(1).getStaticRank());
+			assertEquals(2.0, scoredStore.getDocument(2).getStaticRank());
+			assertEquals(0.0, scoredStore.getDocument(3).getStaticRank());
+			int[] sortedDocumentIds = scoredStore.sortByStaticRank();
+			assertEquals(0, sortedDocumentIds[2]);
+			assertEquals(1, sortedDocumentIds[0]);
+			assertEquals(2, sortedDocumentIds[1]);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Score-at-a-time evaluation over quantized impacts must mostly agree with
+	 * evaluating the ranker exhaustively, and pruning with the ranker's bounds
+	 * must not change its results. Impacts must survive being mapped from disk,
+	 * and a posting budget must stop evaluation early.
+	 */
+	public void testScoreAtATime() throws IOException {
+		IDocumentStore documentStore = new InMemoryDocumentStore("data/cran.xml", this.normalizer, null);
+		InvertedIndexSettings indexSettings = new InvertedIndexSettings();
+		indexSettings.impactRanker = new Bm25Ranker(null);
+		IInvertedIndex impactIndex = new InMemoryInvertedIndex(documentStore, this.normalizer, new BrainDeadTokenizer(), indexSettings, null);
+		File directory = File.createTempFile("impacts", "");
+		assertTrue(directory.delete());
+		try {
+			MappedInvertedIndex.write(impactIndex, directory);
+			IInvertedIndex mappedIndex = new MappedInvertedIndex(directory, this.normalizer, new BrainDeadTokenizer(), null);
+			int overlap = 0;
+			int total = 0;
+			for (String query : QUERIES) {
+				QueryEvaluatorSettings settings = new QueryEvaluatorSettings();
+				settings.recallThreshold = 0.0;
+				IResultSet expected = new QueryEvaluator(settings, null).evaluate(new Query(query, this.normalizer), impactIndex, new Bm25Ranker(null));
+				settings.strategy = EvaluationStrategy.BLOCK_MAX_WAND;
+				assertSameScores(expected, new QueryEvaluator(settings, null).evaluate(new Query(query, this.normalizer), impactIndex, new Bm25Ranker(null)));
+				settings.strategy = EvaluationStrategy.SCORE_AT_A_TIME;
+				IResultSet actual = new QueryEvaluator(settings, null).evaluate(new Query(query, this.normalizer), impactIndex, new Bm25Ranker(null));
+				assertEquals(expected.size(), actual.size());
+				assertSameScores(actual, new QueryEvaluator(settings, null).evaluate(new Query(query, this.normalizer), mappedIndex, new Bm25Ranker(null)));
+				for (IResult result : actual) {
+					assertEquals(Math.rint(result.getRelevance()), result.getRelevance());
+					for (IResult expectedResult : expected) {
+						if (expectedResult.getDocument() == result.getDocument()) {
+							++overlap;
+						}
+					}
+				}
+				total += actual.size();
+
+				// A budget that covers all postings changes nothing, and a tiny one still finds something.
+				settings.impactPostingBudget = Integer.MAX_VALUE;
+				assertSameScores(actual, new QueryEvaluator(settings, null).evaluate(new Query(query, this.normalizer), impactIndex, new Bm25Ranker(null)));
+				settings.impactPostingBudget = 1;
+				IResultSet approximate = new QueryEvaluator(settings, null).evaluate(new Query(query, this.normalizer), impactIndex, new Bm25Ranker(null));
+				assertTrue(approximate.size() > 0);
+				assertTrue(approximate.iterator().next().getRelevance() <= actual.iterator().next().getRelevance());
+			}
+			// Terms that occur almost everywhere have impacts that quantize to next to nothing.
+			assertTrue(4 * overlap >= 3 * total);
+		}
+		finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Term-at-a-time evaluation must give the same results as exhaustive
+	 * document-at-a-time evaluation, also with N-of-M matching, and fall
+	 * back to the latter for rankers without per-posting contributions.
+	 */
+	public void testTermAtATime() {
+		IRanker[] rankers = { new TfIdfRanker(null), new Bm25Ranker(null), new BrainDeadRanker(null) };
+		for (double recallThreshold : new double[] { 0.0, 0.5, 1.0 }) {
+			for (IRanker ranker : rankers) {
+				for (String query : QUERIES) {
+					QueryEvaluatorSettings settings = new QueryEvaluatorSettings();
+					settings.recallThreshold = recallThreshold;
+					settings.termAtATime = false;
+					IResultSet expected = new QueryEvaluator(settings, null).evaluate(new Query(query, this.normalizer), this.getInvertedIndex(), ranker.clone());
+					IResultSet actual = new TermAtATimeQueryEvaluator(settings, null).evaluate(new Query(query, this.normalizer), this.getInvertedIndex(), ranker.clone());
+					assertSameScores(expected, actual);
+					Iterator<IResult> iterator = actual.iterator();
+					for (IResult result : expected) {
+						assertSame(result.getDocument(), iterator.next().getDocument());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The planner must deduplicate the query terms, order them rarest first,
+	 * and pick a method that suits the ranker and the settings. Whichever it
+	 * picks, repeated query terms must weigh in as many times as they occur.
+	 */
+	public void testQueryPlanner() {
+		QueryEvaluatorSettings settings = new QueryEvaluatorSettings();
+		settings.recallThreshold = 1.0;
+		settings.termAtATime = true;
+		QueryPlanner planner = new QueryPlanner(settings);
+		IQuery query = new Query("the flutter of the panel", this.normalizer);
+		QueryPlan plan = planner.plan(query, this.getInvertedIndex(), new TfIdfRanker(null));
+		assertEquals(QueryPlan.Method.TERM_AT_A_TIME, plan.getMethod());
+		assertEquals(4, plan.getTermCount());
+		assertEquals(4, plan.getRequiredCount());
+		for (int i = 1; i < plan.getTermCount(); ++i) {
+			assertTrue(plan.getTerm(i - 1).getDocumentFrequency() <= plan.getTerm(i).getDocumentFrequency());
+		}
+		assertEquals("panel", plan.getTerm(0).getQueryTerm().getValue());
+		for (int i = 0; i < plan.getTermCount(); ++i) {
+			assertEquals(plan.getTerm(i).getQueryTerm().getValue().equals("the") ? 2 : 1, plan.getTerm(i).getMultiplicity());
+		}
+		assertTrue(plan.toString().contains("'the' x2"));
+		assertEquals(QueryPlan.Method.INTERSECTION, planner.plan(query, this.getInvertedIndex(), new BrainDeadRanker(null)).getMethod());
+		settings.termAtATime = false;
+		assertEquals(QueryPlan.Method.INTERSECTION, planner.plan(query, this.getInvertedIndex(), new TfIdfRanker(null)).getMethod());
+		settings.termAtATime = true;
+
+		// The planner picks the method with the lowest estimated cost.
+		for (String value : QUERIES) {
+			IQuery other = new Query(value, this.normalizer);
+			QueryPlan chosen = planner.plan(other, this.getInvertedIndex(), new TfIdfRanker(null));
+			for (QueryPlan.Method method : new QueryPlan.Method[] { QueryPlan.Method.UNION, QueryPlan.Method.INTERSECTION, QueryPlan.Method.TERM_AT_A_TIME }) {
+				if (method != QueryPlan.Method.INTERSECTION || chosen.getTermCount() > 1) {
+					assertTrue(chosen.getEstimatedCost() <= planner.plan(other, this.getInvertedIndex(), new TfIdfRanker(null), method).getEstimatedCost());
+				}
+			}
+		}
+
+		// With many terms, intersecting leaves so few documents to score that it beats streaming through the rarest list.
+		IQuery longQuery = new Query("what similarity laws must be obeyed when constructing aeroelastic models of heated high speed aircraft", this.normalizer);
+		assertEquals(QueryPlan.Method.INTERSECTION, planner.plan(longQuery, this.getInvertedIndex(), new TfIdfRanker(null)).getMethod());
+		settings.recallThreshold = 0.5;
+		assertEquals(QueryPlan.Method.TERM_AT_A_TIME, planner.plan(query, this.getInvertedIndex(), new TfIdfRanker(null)).getMethod());
+		assertEquals(QueryPlan.Method.UNION, planner.plan(query, this.getInvertedIndex(), new BrainDeadRanker(null)).getMethod());
+		settings.strategy = EvaluationStrategy.MAX_SCORE;
+		IQuery denseQuery = new Query("of the", this.normalizer);
+		assertEquals(QueryPlan.Method.TERM_AT_A_TIME, planner.plan(denseQuery, this.getInvertedIndex(), new TfIdfRanker(null)).getMethod());
+		settings.termAtATimeDensity = 2.0;
+		assertEquals(QueryPlan.Method.PRUNED_TOP_K, planner.plan(query, this.getInvertedIndex(), new TfIdfRanker(null)).getMethod());
+
+		// By default, a pruning strategy runs as chosen, however dense the lists.
+		settings = new QueryEvaluatorSettings();
+		settings.strategy = EvaluationStrategy.MAX_SCORE;
+		assertEquals(QueryPlan.Method.PRUNED_TOP_K, new QueryPlanner(settings).plan(denseQuery, this.getInvertedIndex(), new TfIdfRanker(null)).getMethod());
+
+		// A repeated term counts twice towards the score, but once towards N-of-M.
+		for (double recallThreshold : new double[] { 0.0, 0.5, 1.0 }) {
+			settings = new QueryEvaluatorSettings();
+			settings.recallThreshold = recallThreshold;
+			settings.termAtATime = false;
+			IResultSet expected = this.evaluate("panel flutter flutter", settings);
+			settings.termAtATime = true;
+			assertSameScores(expected, this.evaluate("panel flutter flutter", settings));
+			for (EvaluationStrategy strategy : EvaluationStrategy.values()) {
+				settings.strategy = strategy;
+				assertSameScores(expected, this.evaluate("flutter panel flutter", settings));
+			}
+		}
+		settings = new QueryEvaluatorSettings();
+		settings.recallThreshold = 1.0;
+		IResultSet once = this.evaluate("panel flutter", settings);
+		IResultSet twice = this.evaluate("panel flutter flutter", settings);
+		assertEquals(once.size(), twice.size());
+		assertTrue(twice.iterator().next().getRelevance() > once.iterator().next().getRelevance());
+	}
+
+	/**
+	 * Evaluation must stop once its budget is exhausted, whatever the method,
+	 * and flag the results as partial. A budget that suffices must change nothing.
+	 */
+	public void testQueryBudget() {
+		String query = "the of and a in";
+		for (boolean termAtATime : new boolean[] { false, true }) {
+			for (EvaluationStrategy strategy : EvaluationStrategy.values()) {
+				for (double recallThreshold : new double[] { 0.0, 1.0 }) {
+					QueryEvaluatorSettings settings = new QueryEvaluatorSettings();
+					settings.termAtATime = termAtATime;
+					settings.strategy = strategy;
+					settings.recallThreshold = recallThreshold;
+					IResultSet expected = this.evaluate(query, settings);
+					assertFalse(expected.isPartial());
+					QueryEvaluator evaluator = new QueryEvaluator(settings, null);
+					IResultSet actual = evaluator.evaluate(new Query(query, this.normalizer), this.getInvertedIndex(), new TfIdfRanker(null), new QueryBudget(0, 100));
+					assertTrue(actual.isPartial());
+					assertTrue(actual.size() <= expected.size());
+					actual = evaluator.evaluate(new Query(query, this.normalizer), this.getInvertedIndex(), new TfIdfRanker(null), new QueryBudget(1, 0));
+					assertTrue(actual.isPartial());
+					actual = evaluator.evaluate(new Query(query, this.normalizer), this.getInvertedIndex(), new TfIdfRanker(null), new QueryBudget(60000000000L, 100000000L));
+					assertFalse(actual.isPartial());
+					assertSameScores(expected, actual);
+				}
+			}
+		}
+		// The settings define the budget, too.
+		QueryEvaluatorSettings settings = new QueryEvaluatorSettings();
+		settings.postingBudget = 10;
+		assertTrue(this.evaluate(query, settings).isPartial());
+		assertFalse(this.evaluate("panel flutter", new QueryEvaluatorSettings()).isPartial());
+	}
+
+	/**
+	 * Profiling must not change the results, and must account for the work done.
+	 */
+	public void testQueryProfile() {
+		String query = "the flutter of the panel";
+		IDocumentStore documentStore = this.getInvertedIndex().getDocumentStore();
+		for (boolean termAtATime : new boolean[] { false, true }) {
+			for (EvaluationStrategy strategy : EvaluationStrategy.values()) {
+				QueryEvaluatorSettings settings = new QueryEvaluatorSettings();
+				settings.termAtATime = termAtATime;
+				settings.strategy = strategy;
+				IResultSet expected = this.evaluate(query, settings);
+				assertNull(expected.getProfile());
+				assertTrue(expected.size() > 0);
+
+				// Which document came out on top?
+				IDocument best = expected.iterator().next().getDocument();
+				int bestDocumentId = 0;
+				while (documentStore.getDocument(bestDocumentId) != best) {
+					++bestDocumentId;
+				}
+				QueryEvaluator evaluator = new QueryEvaluator(settings, null);
+				IResultSet actual = evaluator.evaluate(new Query(query, this.normalizer), this.getInvertedIndex(),
+						new TfIdfRanker(null), QueryBudget.unlimited(), new QueryProfile(bestDocumentId));
+				assertSameScores(expected, actual);
+				QueryProfile profile = actual.getProfile();
+				assertNotNull(profile);
+				assertNotNull(profile.getPlan());
+				assertTrue(profile.getPostingCount() > 0);
+				assertTrue(profile.getCandidateCount() >= actual.size());
+				assertTrue(profile.getSieveInsertionCount() >= actual.size());
+				assertTrue(profile.getTotalNanos() > 0);
+				assertTrue(profile.getExplanation(), profile.getExplanation().startsWith("Document " + bestDocumentId + " matches"));
+				assertTrue(profile.getExplanation(), profile.getExplanation().endsWith("ranked 1 of " + actual.size()));
+			}
+		}
+		// Documents that don't make it are explained, too.
+		QueryEvaluator evaluator = new QueryEvaluator(new QueryEvaluatorSettings(), null);
+		IResultSet results = evaluator.evaluate(new Query(query, this.normalizer), this.getInvertedIndex(),
+				new TfIdfRanker(null), QueryBudget.unlimited(), new QueryProfile(documentStore.size()));
+		assertEquals("Document " + documentStore.size() + " doesn't exist", results.getProfile().getExplanation());
+		results = evaluator.evaluate(new Query(query, this.normalizer), this.getInvertedIndex(),
+				new TfIdfRanker(null), QueryBudget.unlimited(), new QueryProfile());
+		assertNull(results.getProfile().getExplanation());
+
+		// The settings define which queries are profiled.
+		QueryEvaluatorSettings settings = new QueryEvaluatorSettings();
+		settings.profileSampleRate = 1.0;
+		assertNotNull(this.evaluate(query, settings).getProfile());
+		settings.profileSampleRate = 0.0;
+		assertNull(this.evaluate(query, settings).getProfile());
+	}
+}
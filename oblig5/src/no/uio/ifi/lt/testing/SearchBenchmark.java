@@ -0,0 +1,242 @@
+package no.uio.ifi.lt.testing;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import no.uio.ifi.lt.indexing.IInvertedIndex;
+import no.uio.ifi.lt.indexing.InMemoryInvertedIndex;
+import no.uio.ifi.lt.indexing.InvertedIndexSettings;
+import no.uio.ifi.lt.preprocessing.BrainDeadNormalizer;
+import no.uio.ifi.lt.preprocessing.INormalizer;
+import no.uio.ifi.lt.ranking.IRanker;
+import no.uio.ifi.lt.ranking.TfIdfRanker;
+import no.uio.ifi.lt.search.EvaluationStrategy;
+import no.uio.ifi.lt.search.IQuery;
+import no.uio.ifi.lt.search.IResultSet;
+import no.uio.ifi.lt.search.LruResultCache;
+import no.uio.ifi.lt.search.Query;
+import no.uio.ifi.lt.search.QueryBudget;
+import no.uio.ifi.lt.search.QueryEvaluator;
+import no.uio.ifi.lt.search.QueryEvaluatorSettings;
+import no.uio.ifi.lt.search.QueryPlan;
+import no.uio.ifi.lt.search.QueryPlanner;
+import no.uio.ifi.lt.search.QueryProfile;
+import no.uio.ifi.lt.search.SearchEngine;
+import no.uio.ifi.lt.search.SimpleSearchEngine;
+import no.uio.ifi.lt.storage.IDocumentStore;
+import no.uio.ifi.lt.storage.InMemoryDocumentStore;
+import no.uio.ifi.lt.tokenization.BrainDeadTokenizer;
+import no.uio.ifi.lt.utils.ThreadPools;
+
+/**
+ * Measures search throughput for a varying number of threads, by replaying
+ * a query log through {@link SearchEngine#searchAll(List)}. Alternatively,
+ * given "strategies" as the first argument, compares the evaluation
+ * strategies on a fixed query log, see {@link #compareStrategies(String, int)},
+ * or given "planner", checks the planner's choices against the timings of
+ * the methods it chooses between, see {@link #comparePlans(String, int)}.
+ */
+public class SearchBenchmark {
+	/**
+	 * Creates a query log from the documents in the given file. The queries
+	 * are short runs of words taken from the documents, so most of them
+	 * have matches.
+	 * @param filename the document collection
+	 * @param count the number of queries to create
+	 * @return the queries
+	 */
+	public static List<String> createQueryLog(String filename, int count) {
+		INormalizer normalizer = new BrainDeadNormalizer();
+		IDocumentStore documentStore = new InMemoryDocumentStore(filename, normalizer, null);
+		List<String> queries = new ArrayList<String>(count);
+		for (int i = 0; queries.size() < count; ++i) {
+			String[] words = normalizer.normalize(documentStore.getDocument(i % documentStore.size()).getOriginalData()).split(" ");
+			int length = 1 + i % 5;
+			int start = (i * 7) % Math.max(1, words.length - length);
+			StringBuilder query = new StringBuilder();
+			for (int j = start; j < Math.min(words.length, start + length); ++j) {
+				query.append(words[j]).append(' ');
+			}
+			queries.add(query.toString().trim());
+		}
+		return queries;
+	}
+
+	/**
+	 * Evaluates all the queries, and waits for the results.
+	 * @param engine the search engine
+	 * @param queries the queries
+	 * @return the total number of results
+	 */
+	private static long replay(SearchEngine engine, List<String> queries) throws Exception {
+		long total = 0;
+		for (Future<IResultSet> future : engine.searchAll(queries)) {
+			total += future.get().size();
+		}
+		return total;
+	}
+
+	/**
+	 * Measures the throughput of the given engine for 1, 2, 4, ... threads,
+	 * and prints it.
+	 * @param engine the search engine
+	 * @param queries the queries
+	 * @param maxThreads the most threads to measure with
+	 * @param label what is being measured
+	 */
+	private static void measureThroughput(SearchEngine engine, List<String> queries, int maxThreads, String label) throws Exception {
+		double baseline = 0.0;
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			ExecutorService executor = ThreadPools.newFixedThreadPool(threads);
+			engine.setExecutor(executor);
+			replay(engine, queries);
+			long before = System.nanoTime();
+			replay(engine, queries);
+			long after = System.nanoTime();
+			executor.shutdown();
+			double throughput = queries.size() / ((after - before) / 1e9);
+			if (threads == 1) {
+				baseline = throughput;
+			}
+			System.out.println(String.format("%s, %d threads: %.0f queries/s, speedup %.2f.", label, threads, throughput, throughput / baseline));
+		}
+	}
+
+	/**
+	 * Replays a fixed query log, single-threaded, with each evaluation
+	 * strategy at a range of recall thresholds, and prints the average
+	 * latency and the number of postings visited per query. The index has
+	 * impacts, so that score-at-a-time evaluation is possible, and the
+	 * strategies run as chosen, since term-at-a-time is off by default.
+	 * @param filename the document collection
+	 * @param count the number of queries
+	 */
+	public static void compareStrategies(String filename, int count) {
+		List<String> values = createQueryLog(filename, count);
+		INormalizer normalizer = new BrainDeadNormalizer();
+		IDocumentStore documentStore = new InMemoryDocumentStore(filename, normalizer, null);
+		InvertedIndexSettings indexSettings = new InvertedIndexSettings();
+		indexSettings.impactRanker = new TfIdfRanker(null);
+		IInvertedIndex invertedIndex = new InMemoryInvertedIndex(documentStore, normalizer, new BrainDeadTokenizer(), indexSettings, null);
+		List<IQuery> queries = new ArrayList<IQuery>(values.size());
+		for (String value : values) {
+			queries.add(new Query(value, normalizer));
+		}
+		IRanker ranker = new TfIdfRanker(null);
+		for (double recallThreshold : new double[] { 0.0, 0.5, 1.0 }) {
+			for (EvaluationStrategy strategy : EvaluationStrategy.values()) {
+				QueryEvaluatorSettings settings = new QueryEvaluatorSettings();
+				settings.recallThreshold = recallThreshold;
+				settings.strategy = strategy;
+				QueryEvaluator queryEvaluator = new QueryEvaluator(settings, null);
+
+				// Warm up while counting the postings, then measure without profiling.
+				long postingCount = 0;
+				for (IQuery query : queries) {
+					QueryProfile profile = new QueryProfile();
+					queryEvaluator.evaluate(query, invertedIndex, ranker.clone(), QueryBudget.of(settings), profile);
+					postingCount += profile.getPostingCount();
+				}
+				long before = System.nanoTime();
+				for (IQuery query : queries) {
+					queryEvaluator.evaluate(query, invertedIndex, ranker.clone());
+				}
+				long after = System.nanoTime();
+				System.out.println(String.format("%s, recall %.1f, %s: %.1f us/query, %d postings/query.", filename, recallThreshold, strategy,
+						(after - before) / 1000.0 / queries.size(), postingCount / queries.size()));
+			}
+		}
+	}
+
+	/**
+	 * Times every method that the planner chooses between on each query of a
+	 * fixed query log, with term-at-a-time evaluation enabled, at a range of
+	 * recall thresholds. Prints the total time of the default plans, i.e.,
+	 * intersection if all terms are required and union otherwise, of always
+	 * going term-at-a-time, of the planner's choices, and of the fastest method
+	 * for each query, along with how often the planner chose the fastest one.
+	 * Each query is timed as the best of a few runs.
+	 * @param filename the document collection
+	 * @param count the number of queries
+	 */
+	public static void comparePlans(String filename, int count) {
+		List<String> values = createQueryLog(filename, count);
+		INormalizer normalizer = new BrainDeadNormalizer();
+		IDocumentStore documentStore = new InMemoryDocumentStore(filename, normalizer, null);
+		IInvertedIndex invertedIndex = new InMemoryInvertedIndex(documentStore, normalizer, new BrainDeadTokenizer(), null);
+		IRanker ranker = new TfIdfRanker(null);
+		for (double recallThreshold : new double[] { 0.0, 0.5, 1.0 }) {
+			QueryEvaluatorSettings settings = new QueryEvaluatorSettings();
+			settings.recallThreshold = recallThreshold;
+			settings.termAtATime = true;
+			QueryPlanner planner = new QueryPlanner(settings);
+			QueryEvaluator queryEvaluator = new QueryEvaluator(settings, null);
+			long defaultNanos = 0, termAtATimeNanos = 0, plannedNanos = 0, fastestNanos = 0;
+			int fastestCount = 0;
+			for (String value : values) {
+				IQuery query = new Query(value, normalizer);
+				QueryPlan planned = planner.plan(query, invertedIndex, ranker);
+				QueryPlan.Method defaultMethod = (planned.getTermCount() > 1 && planned.getRequiredCount() == planned.getTermCount())
+						? QueryPlan.Method.INTERSECTION : QueryPlan.Method.UNION;
+				QueryPlan.Method[] methods = (defaultMethod == QueryPlan.Method.INTERSECTION)
+						? new QueryPlan.Method[] { QueryPlan.Method.UNION, QueryPlan.Method.INTERSECTION, QueryPlan.Method.TERM_AT_A_TIME }
+						: new QueryPlan.Method[] { QueryPlan.Method.UNION, QueryPlan.Method.TERM_AT_A_TIME };
+				long[] nanos = new long[QueryPlan.Method.values().length];
+				long fastest = Long.MAX_VALUE;
+				for (QueryPlan.Method method : methods) {
+					QueryPlan plan = planner.plan(query, invertedIndex, ranker, method);
+					nanos[method.ordinal()] = Long.MAX_VALUE;
+					for (int run = 0; run < 5; ++run) {
+						long before = System.nanoTime();
+						queryEvaluator.evaluate(query, invertedIndex, ranker.clone(), plan, QueryBudget.of(settings), null);
+						nanos[method.ordinal()] = Math.min(nanos[method.ordinal()], System.nanoTime() - before);
+					}
+					fastest = Math.min(fastest, nanos[method.ordinal()]);
+				}
+				defaultNanos += nanos[defaultMethod.ordinal()];
+				termAtATimeNanos += nanos[QueryPlan.Method.TERM_AT_A_TIME.ordinal()];
+				plannedNanos += nanos[planned.getMethod().ordinal()];
+				fastestNanos += fastest;
+				if (nanos[planned.getMethod().ordinal()] == fastest) {
+					++fastestCount;
+				}
+			}
+			System.out.println(String.format("%s, recall %.1f: default %.1f, term-at-a-time %.1f, planned %.1f, fastest %.1f us/query; planner chose the fastest for %.0f%%.",
+					filename, recallThreshold, defaultNanos / 1000.0 / values.size(), termAtATimeNanos / 1000.0 / values.size(),
+					plannedNanos / 1000.0 / values.size(), fastestNanos / 1000.0 / values.size(), 100.0 * fastestCount / values.size()));
+		}
+	}
+
+	/**
+	 * Measures search throughput with the result cache off, and on with the
+	 * default size, so that both the evaluation and the lookup path are
+	 * covered. With the cache on, the first replay fills it.
+	 * @param args the document collection, the number of queries, and the
+	 * most threads to measure with, by default the number of cores; or
+	 * "strategies" or "planner", and the number of queries
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("strategies")) {
+			int count = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+			compareStrategies("data/cran.xml", count);
+			compareStrategies("data/wescience.txt", count);
+			return;
+		}
+		if (args.length > 0 && args[0].equals("planner")) {
+			int count = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+			comparePlans("data/cran.xml", count);
+			comparePlans("data/wescience.txt", count);
+			return;
+		}
+		String filename = (args.length > 0) ? args[0] : "data/cran.xml";
+		int count = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+		int maxThreads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		List<String> queries = createQueryLog(filename, count);
+		SearchEngine engine = new SimpleSearchEngine(filename, null, new TfIdfRanker(null));
+		engine.setResultCache(null);
+		measureThroughput(engine, queries, maxThreads, "No cache");
+		engine.setResultCache(new LruResultCache(1000));
+		measureThroughput(engine, queries, maxThreads, "Cache");
+		System.out.println(engine.getResultCache());
+	}
+}
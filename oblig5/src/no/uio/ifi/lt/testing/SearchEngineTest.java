@@ -0,0 +1,183 @@
+package no.uio.ifi.lt.testing;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import no.uio.ifi.lt.indexing.InvertedIndexSettings;
+import no.uio.ifi.lt.indexing.SegmentedInvertedIndex;
+import no.uio.ifi.lt.preprocessing.BrainDeadNormalizer;
+import no.uio.ifi.lt.search.IResult;
+import no.uio.ifi.lt.search.IResultCache;
+import no.uio.ifi.lt.search.IResultSet;
+import no.uio.ifi.lt.search.LruResultCache;
+import no.uio.ifi.lt.search.SearchEngine;
+import no.uio.ifi.lt.search.SimpleSearchEngine;
+import no.uio.ifi.lt.ranking.TfIdfRanker;
+import no.uio.ifi.lt.storage.IDocumentStore;
+import no.uio.ifi.lt.storage.InMemoryDocumentStore;
+import no.uio.ifi.lt.tokenization.BrainDeadTokenizer;
+import no.uio.ifi.lt.utils.ThreadPools;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the search engine plumbing around query evaluation.
+ */
+public class SearchEngineTest extends TestCase {
+	/** Shared across the tests, since indexing takes a while. */
+	private static SearchEngine engine;
+
+	/**
+	 * Returns a search engine over the CRAN document collection.
+	 * @return the search engine
+	 */
+	private SearchEngine getSearchEngine() {
+		if (engine == null) {
+			engine = new SimpleSearchEngine("data/cran.xml", null, new TfIdfRanker(null));
+		}
+		return engine;
+	}
+
+	/**
+	 * Repeated queries must be served from the cache, also when they only
+	 * differ after normalization.
+	 */
+	public void testResultCache() {
+		SearchEngine engine = this.getSearchEngine();
+		IResultCache resultCache = new LruResultCache(2);
+		engine.setResultCache(resultCache);
+
+		IResultSet results = engine.search("supersonic flow");
+		assertEquals(0, resultCache.getHitCount());
+		assertEquals(1, resultCache.getMissCount());
+		IResultSet cachedResults = engine.search("Supersonic Flow");
+		assertEquals(1, resultCache.getHitCount());
+		assertSameResults(results, cachedResults);
+
+		// Every caller gets results of its own, for its own query.
+		assertNotSame(results, cachedResults);
+		assertEquals("Supersonic Flow", cachedResults.getQuery().getOriginalQuery());
+
+		// The least recently used results go first.
+		engine.search("panel flutter");
+		engine.search("supersonic flow");
+		engine.search("heat transfer");
+		assertEquals(2, resultCache.size());
+		assertEquals(1, resultCache.getEvictionCount());
+		assertSameResults(results, engine.search("supersonic flow"));
+		assertEquals(3, resultCache.getHitCount());
+
+		resultCache.clear();
+		assertSameResults(results, engine.search("supersonic flow"));
+		assertEquals(3, resultCache.getHitCount());
+		engine.setResultCache(null);
+		assertNotSame(engine.search("panel flutter"), engine.search("panel flutter"));
+
+		// Large caches are split into segments, but still hold as many results as asked for.
+		IResultCache largeCache = new LruResultCache(1000);
+		for (int i = 0; i < 2000; ++i) {
+			largeCache.put("query " + i, results);
+		}
+		assertEquals(1000, largeCache.size());
+		assertEquals(1000, largeCache.getEvictionCount());
+		assertSame(results, largeCache.get("query 1999"));
+		assertNull(largeCache.get("query 0"));
+		assertEquals(1, largeCache.getHitCount());
+		assertEquals(1, largeCache.getMissCount());
+	}
+
+	/**
+	 * Asserts that two result sets contain the same documents with the same scores.
+	 */
+	private void assertSameResults(IResultSet expected, IResultSet actual) {
+		assertEquals(expected.size(), actual.size());
+		Iterator<IResult> iterator = actual.iterator();
+		for (IResult result : expected) {
+			IResult other = iterator.next();
+			assertSame(result.getDocument(), other.getDocument());
+			assertEquals(result.getRelevance(), other.getRelevance(), 0.0);
+		}
+	}
+
+	/**
+	 * Hammers the search engine from many threads at once. Concurrent searches
+	 * must give exactly the same results as sequential ones, with or without
+	 * virtual threads, and with or without the result cache.
+	 */
+	public void testConcurrentSearch() throws Exception {
+		SearchEngine engine = this.getSearchEngine();
+		engine.setResultCache(null);
+		List<String> queries = SearchBenchmark.createQueryLog("data/cran.xml", 2000);
+		List<IResultSet> expected = new ArrayList<IResultSet>();
+		for (String query : queries) {
+			expected.add(engine.search(query));
+		}
+		ExecutorService[] executors = { ThreadPools.newFixedThreadPool(16), ThreadPools.newVirtualThreadPool() };
+		for (ExecutorService executor : executors) {
+			engine.setExecutor(executor);
+			for (int round = 0; round < 4; ++round) {
+				engine.setResultCache((round % 2 == 0) ? null : new LruResultCache(100));
+				List<Future<IResultSet>> futures = engine.searchAll(queries);
+				for (int i = 0; i < queries.size(); ++i) {
+					assertSameResults(expected.get(i), futures.get(i).get());
+				}
+			}
+			executor.shutdown();
+		}
+		engine.setExecutor(ThreadPools.getDefaultPool());
+	}
+
+	/**
+	 * Searches while documents are added, refreshed and merged in the
+	 * background. Every search must see a consistent snapshot, i.e., only
+	 * documents that were added before it started, and the final results
+	 * must match those of the search engine built all at once.
+	 */
+	public void testSearchWhileIndexing() throws Exception {
+		final SegmentedInvertedIndex invertedIndex = new SegmentedInvertedIndex(new BrainDeadNormalizer(), new BrainDeadTokenizer(), new InvertedIndexSettings(), null);
+		ExecutorService mergeExecutor = ThreadPools.newFixedThreadPool(1);
+		invertedIndex.setMergeExecutor(mergeExecutor);
+		SearchEngine engine = new SearchEngine(invertedIndex, null, new TfIdfRanker(null));
+		final IDocumentStore documentStore = new InMemoryDocumentStore("data/cran.xml", new BrainDeadNormalizer(), null);
+		Thread indexer = new Thread() {
+			public void run() {
+				for (int documentId = 0; documentId < documentStore.size(); ++documentId) {
+					invertedIndex.addDocument(documentStore.getDocument(documentId));
+					if (documentId % 10 == 9) {
+						invertedIndex.refresh();
+					}
+				}
+				invertedIndex.refresh();
+			}
+		};
+		indexer.start();
+		List<String> queries = SearchBenchmark.createQueryLog("data/cran.xml", 200);
+		for (int i = 0; indexer.isAlive(); i = (i + 1) % queries.size()) {
+			int size = invertedIndex.getDocumentStore().size();
+			IResultSet results = engine.search(queries.get(i));
+			for (IResult result : results) {
+				assertNotNull(result.getDocument());
+			}
+			assertTrue(size <= invertedIndex.getDocumentStore().size());
+		}
+		indexer.join();
+		mergeExecutor.shutdown();
+		assertTrue(mergeExecutor.awaitTermination(60, TimeUnit.SECONDS));
+		invertedIndex.merge();
+
+		SearchEngine expected = this.getSearchEngine();
+		expected.setResultCache(null);
+		for (String query : queries) {
+			IResultSet expectedResults = expected.search(query);
+			IResultSet actualResults = engine.search(query);
+			assertEquals(expectedResults.size(), actualResults.size());
+			Iterator<IResult> iterator = actualResults.iterator();
+			for (IResult result : expectedResults) {
+				IResult other = iterator.next();
+				assertEquals(result.getDocument().getOriginalData(), other.getDocument().getOriginalData());
+				assertEquals(result.getRelevance(), other.getRelevance(), 1e-9);
+			}
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package no.uio.ifi.lt.testing;
+import java.util.Arrays;
+import java.util.Random;
+import no.uio.ifi.lt.utils.IntDoubleSieve;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the sieve data structures.
+ */
+public class SieveTest extends TestCase {
+	/**
+	 * The sieve must keep the best items, ties broken by the smallest data
+	 * values, and hand them out best first. Reusing it must not matter.
+	 */
+	public void testIntDoubleSieve() {
+		Random random = new Random(42);
+		IntDoubleSieve sieve = new IntDoubleSieve(1);
+		for (int round = 0; round < 200; ++round) {
+			int capacity = random.nextInt(20);
+			int count = random.nextInt(100);
+			sieve.reset(capacity);
+
+			// Few distinct ranks, so that there are plenty of ties.
+			long[] expected = new long[count];
+			for (int i = 0; i < count; ++i) {
+				int data = (i * 37) % 101;
+				int rank = random.nextInt(10);
+				sieve.sift(data, rank);
+				expected[i] = ((long) (9 - rank) << 32) | data;
+			}
+			Arrays.sort(expected);
+			sieve.sort();
+			assertEquals(Math.min(capacity, count), sieve.size());
+			for (int i = 0; i < sieve.size(); ++i) {
+				assertEquals((int) expected[i], sieve.getData(i));
+				assertEquals(9 - (int) (expected[i] >>> 32), (int) sieve.getRank(i));
+			}
+		}
+	}
+
+	/**
+	 * The threshold is what an item has to beat, once the sieve is full.
+	 */
+	public void testIntDoubleSieveThreshold() {
+		IntDoubleSieve sieve = new IntDoubleSieve(2);
+		assertEquals(Double.NEGATIVE_INFINITY, sieve.threshold());
+		sieve.sift(1, 3.0);
+		assertEquals(Double.NEGATIVE_INFINITY, sieve.threshold());
+		sieve.sift(2, 1.0);
+		assertEquals(1.0, sieve.threshold());
+		sieve.sift(3, 2.0);
+		assertEquals(2.0, sieve.threshold());
+		sieve.sift(0, 2.0);
+		assertEquals(2.0, sieve.threshold());
+		sieve.sort();
+		assertEquals(1, sieve.getData(0));
+		assertEquals(0, sieve.getData(1));
+	}
+}
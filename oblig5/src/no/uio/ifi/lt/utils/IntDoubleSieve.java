@@ -0,0 +1,225 @@
+package no.uio.ifi.lt.utils;
+
+/**
+ * A {@link Sieve} specialized for <code>int</code> data items and <code>double</code>
+ * rank values, e.g., document identifiers and relevance scores. The items are kept
+ * in parallel primitive arrays organized as a min heap, so sifting does not box
+ * anything and does not allocate. Ties are resolved deterministically: Among items
+ * with the same rank value, the ones with the smallest data values are kept.
+ * <p>
+ * The sieve can be reused by calling {@link #clear()} between rounds of sifting.
+ */
+public class IntDoubleSieve {
+	/**
+	 * The data items, organized according to the heap principle.
+	 */
+	private int[] data;
+
+	/**
+	 * The rank values, parallel to {@link #data}.
+	 */
+	private double[] ranks;
+
+	/**
+	 * The maximum number of items to keep in the sieve.
+	 */
+	private int capacity;
+
+	/**
+	 * The logical size of the sieve.
+	 */
+	private int size;
+
+	/**
+	 * Set by {@link #sort()}, after which the items are no longer a heap.
+	 */
+	private boolean sorted;
+
+	/**
+	 * Constructor.
+	 * @param capacity the maximum number of items to keep in the sieve
+	 */
+	public IntDoubleSieve(int capacity) {
+		this.data = new int[capacity];
+		this.ranks = new double[capacity];
+		this.capacity = capacity;
+		this.size = 0;
+	}
+
+	/**
+	 * Returns the size of the sieve, i.e., how many items are currently kept.
+	 * @return the number of items in the sieve
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the capacity of the sieve, i.e., how many items at most are
+	 * kept after sifting.
+	 * @return the maximum number of items in the sieve
+	 */
+	public int capacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Returns true if the sieve is full, i.e., if an item has to rank better
+	 * than the worst item seen so far to be kept.
+	 * @return true if and only if the sieve holds as many items as it can
+	 */
+	public boolean isFull() {
+		return this.size >= this.capacity;
+	}
+
+	/**
+	 * Returns the rank value an item has to beat to be kept. Cheap enough to
+	 * call for every item, e.g., to decide whether the item is worth ranking
+	 * at all. An item with the same rank value as the threshold is only kept
+	 * if its data value is smaller than that of the worst item in the sieve.
+	 * @return the smallest rank value in a full sieve, or negative infinity
+	 */
+	public double threshold() {
+		if (this.size < this.capacity || this.size == 0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return this.ranks[0];
+	}
+
+	/**
+	 * Empties the sieve, so that it can be reused.
+	 */
+	public void clear() {
+		this.size = 0;
+		this.sorted = false;
+	}
+
+	/**
+	 * Empties the sieve and changes its capacity. Only reallocates if the
+	 * capacity grows beyond what has been allocated before.
+	 * @param capacity the maximum number of items to keep in the sieve
+	 */
+	public void reset(int capacity) {
+		if (capacity > this.data.length) {
+			this.data = new int[capacity];
+			this.ranks = new double[capacity];
+		}
+		this.capacity = capacity;
+		this.clear();
+	}
+
+	/**
+	 * Sifts a given (data, rank) pair through the sieve.
+	 * @param data the current data item to sift
+	 * @param rank the rank value associated with the current data item
+	 * @return true if the item was kept, for now
+	 * @throws IllegalStateException if the sieve has been sorted
+	 */
+	public boolean sift(int data, double rank) {
+		if (this.sorted) {
+			throw new IllegalStateException();
+		}
+		// If we haven't seen enough items yet, it's a keeper.
+		if (this.size < this.capacity) {
+			this.percolateUp(this.size++, data, rank);
+			return true;
+		}
+		// If the current item is better than the worst of the items seen so
+		// far, forget about the worst item and keep the current item instead.
+		else if (this.size > 0 && isWorse(this.ranks[0], this.data[0], rank, data)) {
+			this.percolateDown(0, data, rank, this.size);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the data item at the given index. Unless the sieve has been
+	 * sorted, the items are not in any particular order.
+	 * @param i the index of the item, in the range {0, ..., size() - 1}
+	 * @return the data item
+	 */
+	public int getData(int i) {
+		if (i >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return this.data[i];
+	}
+
+	/**
+	 * Returns the rank value of the item at the given index.
+	 * @param i the index of the item, in the range {0, ..., size() - 1}
+	 * @return the rank value
+	 */
+	public double getRank(int i) {
+		if (i >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return this.ranks[i];
+	}
+
+	/**
+	 * Sorts the items in the sieve, the best items first. Ties are ordered by
+	 * ascending data values. The sieve can not be sifted through afterwards,
+	 * until it is cleared.
+	 */
+	public void sort() {
+		// Heap sort. Repeatedly move the worst item to the back.
+		for (int end = this.size - 1; end > 0; --end) {
+			int worstData = this.data[0];
+			double worstRank = this.ranks[0];
+			this.percolateDown(0, this.data[end], this.ranks[end], end);
+			this.data[end] = worstData;
+			this.ranks[end] = worstRank;
+		}
+		this.sorted = true;
+	}
+
+	/**
+	 * Returns true if the item (rank1, data1) is worse than the item (rank2, data2).
+	 */
+	private static boolean isWorse(double rank1, int data1, double rank2, int data2) {
+		return (rank1 < rank2) || (rank1 == rank2 && data1 > data2);
+	}
+
+	/**
+	 * Places the given item at the given index or above it, moving worse items down.
+	 */
+	private void percolateUp(int i, int data, double rank) {
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (!isWorse(rank, data, this.ranks[parent], this.data[parent])) {
+				break;
+			}
+			this.data[i] = this.data[parent];
+			this.ranks[i] = this.ranks[parent];
+			i = parent;
+		}
+		this.data[i] = data;
+		this.ranks[i] = rank;
+	}
+
+	/**
+	 * Places the given item at the given index or below it, moving worse items up.
+	 * Only the first size entries are considered part of the heap.
+	 */
+	private void percolateDown(int i, int data, double rank, int size) {
+		int half = size >> 1;
+		while (i < half) {
+			// Pick the worse child.
+			int child = (i << 1) + 1;
+			int right = child + 1;
+			if (right < size && isWorse(this.ranks[right], this.data[right], this.ranks[child], this.data[child])) {
+				child = right;
+			}
+			if (!isWorse(this.ranks[child], this.data[child], rank, data)) {
+				break;
+			}
+			this.data[i] = this.data[child];
+			this.ranks[i] = this.ranks[child];
+			i = child;
+		}
+		this.data[i] = data;
+		this.ranks[i] = rank;
+	}
+}
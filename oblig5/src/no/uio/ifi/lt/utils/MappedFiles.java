@@ -0,0 +1,49 @@
+package no.uio.ifi.lt.utils;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Scope for static utilities and helper methods related to memory-mapped files.
+ */
+public final class MappedFiles {
+	private MappedFiles() {}
+
+	/**
+	 * Maps the given file into memory, read-only. The mapping stays valid
+	 * after the file has been closed, until the buffer is garbage collected.
+	 * Files larger than 2 GB are not supported.
+	 * @param file the file to map
+	 * @return the mapped file contents
+	 * @throws IOException
+	 */
+	public static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(String.format("File '%s' is too large to map.", file));
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Checks that a mapped file starts with the expected magic number, i.e.,
+	 * that it is the kind of file we think it is.
+	 * @param buffer the mapped file contents
+	 * @param magic the expected magic number
+	 * @param file the file, for the error message
+	 * @throws IOException if the magic number does not match
+	 */
+	public static void checkMagic(MappedByteBuffer buffer, int magic, File file) throws IOException {
+		if (buffer.capacity() < 4 || buffer.getInt(0) != magic) {
+			throw new IOException(String.format("File '%s' has an unknown format.", file));
+		}
+	}
+}
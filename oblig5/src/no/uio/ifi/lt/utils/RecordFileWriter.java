@@ -0,0 +1,187 @@
+package no.uio.ifi.lt.utils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes a file of variable-length records, suitable for mapping with
+ * {@link MappedFiles#map(File)}. The file starts with a magic number, the
+ * number of records, and a table of <code>count + 1</code> record offsets
+ * relative to the end of the table, followed by the records themselves.
+ * Record <code>i</code> thus spans the bytes from offset <code>i</code> up to
+ * offset <code>i + 1</code>.
+ * <p>
+ * The records are streamed to a temporary file while they are written, since
+ * the offset table comes first and the number of records isn't known up front.
+ * Only the offsets are kept in memory.
+ * <p>
+ * The file must fit in a single mapping, i.e., be at most {@link #MAX_FILE_SIZE}
+ * bytes. A record that would make it larger is rejected as soon as it ends.
+ */
+public class RecordFileWriter {
+	/** The largest file that can be mapped with {@link MappedFiles#map(File)}. */
+	public static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+	/** The file to write. */
+	private final File file;
+
+	/** Identifies the file format. */
+	private final int magic;
+
+	/** Where the records go until we know how many there are. */
+	private final File recordsFile;
+
+	/** Writes to {@link #recordsFile}. */
+	private DataOutputStream out;
+
+	/** Counts the bytes written to {@link #recordsFile}, unlike {@link DataOutputStream#size()} without saturating. */
+	private CountingOutputStream counter;
+
+	/** Where each record starts, plus where the last one ends. */
+	private int[] offsets = new int[16];
+
+	/** The number of complete records. */
+	private int count;
+
+	/**
+	 * Constructor.
+	 * @param file the file to write
+	 * @param magic identifies the file format
+	 * @throws IOException
+	 */
+	public RecordFileWriter(File file, int magic) throws IOException {
+		this.file = file;
+		this.magic = magic;
+		this.recordsFile = new File(file.getPath() + ".tmp");
+		this.counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(this.recordsFile)));
+		this.out = new DataOutputStream(this.counter);
+	}
+
+	/**
+	 * Returns the stream to write the current record to.
+	 * @return the stream to write the current record to
+	 */
+	public DataOutputStream getOutput() {
+		return this.out;
+	}
+
+	/**
+	 * Ends the current record, i.e., everything written since the previous
+	 * record ended.
+	 * @return the number of the record that was ended
+	 * @throws IOException if the file would be too large to map
+	 */
+	public int endRecord() throws IOException {
+		if (this.getFileSize() > MAX_FILE_SIZE) {
+			throw new IOException(String.format("File '%s' would be too large to map.", this.file));
+		}
+		if (this.count + 2 > this.offsets.length) {
+			this.offsets = Arrays.copyOf(this.offsets, 2 * this.offsets.length);
+		}
+		this.offsets[++this.count] = (int) this.counter.count;
+		return this.count - 1;
+	}
+
+	/**
+	 * Returns how large the file would be if the current record were ended
+	 * and the file closed.
+	 * @return the size of the file, in bytes
+	 */
+	public long getFileSize() {
+		return 8L + 4L * (this.count + 2) + this.counter.count;
+	}
+
+	/**
+	 * Returns the number of complete records.
+	 * @return the number of complete records
+	 */
+	public int getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Writes the file. Anything written since the last record ended is dropped.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		this.out.close();
+		try {
+			DataOutputStream fileOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file)));
+			try {
+				fileOut.writeInt(this.magic);
+				fileOut.writeInt(this.count);
+				for (int i = 0; i <= this.count; ++i) {
+					fileOut.writeInt(this.offsets[i]);
+				}
+				InputStream in = new BufferedInputStream(new FileInputStream(this.recordsFile));
+				try {
+					byte[] buffer = new byte[65536];
+					int remaining = this.offsets[this.count];
+					while (remaining > 0) {
+						int length = in.read(buffer, 0, Math.min(buffer.length, remaining));
+						if (length < 0) {
+							throw new IOException(String.format("File '%s' was truncated.", this.recordsFile));
+						}
+						fileOut.write(buffer, 0, length);
+						remaining -= length;
+					}
+				}
+				finally {
+					in.close();
+				}
+			}
+			finally {
+				fileOut.close();
+			}
+		}
+		finally {
+			this.recordsFile.delete();
+		}
+	}
+
+	/**
+	 * Returns where the records start in a file written by this class,
+	 * i.e., what the record offsets are relative to.
+	 * @param count the number of records in the file
+	 * @return where the records start
+	 */
+	public static int getDataOffset(int count) {
+		return 8 + 4 * (count + 1);
+	}
+
+	/**
+	 * Counts the bytes written through it.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		/** The number of bytes written so far. */
+		long count;
+
+		/**
+		 * Constructor.
+		 * @param out where to write the bytes
+		 */
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			++this.count;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			this.out.write(bytes, offset, length);
+			this.count += length;
+		}
+	}
+}
@@ -0,0 +1,663 @@
+package no.uio.ifi.lt.utils;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative <code>int</code> values, in the style of
+ * Roaring bitmaps. The values are split into chunks by their upper 16 bits,
+ * and each chunk is stored in whichever kind of container is smallest for
+ * it: a sorted array of the lower 16 bits for sparse chunks, a plain bitmap
+ * for dense ones, or a list of runs for chunks with long stretches of
+ * consecutive values. Bitwise operations work a chunk at a time, and skip
+ * chunks that can't contribute to the result.
+ * <p>
+ * Values are added in ascending order, and the set is read-only once
+ * {@link #optimize()} has been called.
+ */
+public class RoaringBitmap {
+	/** The number of values per chunk. */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	/** The number of <code>long</code> words in a chunk's bitmap. */
+	private static final int WORDS = CHUNK_SIZE / 64;
+
+	/** Container types, as serialized. */
+	private static final byte ARRAY = 0;
+	private static final byte BITMAP = 1;
+	private static final byte RUN = 2;
+
+	/** The upper 16 bits of the values in each chunk, in ascending order. */
+	private int[] keys = new int[4];
+
+	/** The containers for the chunks. */
+	private Container[] containers = new Container[4];
+
+	/** The number of chunks. */
+	private int size;
+
+	/** The last value added, or -1 if none. */
+	private int lastValue = -1;
+
+	/**
+	 * Constructor. Creates an empty set.
+	 */
+	public RoaringBitmap() {
+	}
+
+	/**
+	 * Constructor. Reads a set as written by {@link #writeTo(DataOutput)},
+	 * starting at the given offset. The containers are copied.
+	 * @param buffer the buffer to read from, e.g., a memory-mapped file
+	 * @param offset where in the buffer the set starts
+	 */
+	public RoaringBitmap(ByteBuffer buffer, int offset) {
+		this.size = buffer.getInt(offset);
+		this.keys = new int[Math.max(1, this.size)];
+		this.containers = new Container[Math.max(1, this.size)];
+		offset += 4;
+		for (int i = 0; i < this.size; ++i) {
+			this.keys[i] = buffer.getInt(offset);
+			byte type = buffer.get(offset + 4);
+			int length = buffer.getInt(offset + 5);
+			offset += 9;
+			if (type == ARRAY) {
+				char[] values = new char[length];
+				for (int j = 0; j < length; ++j, offset += 2) {
+					values[j] = buffer.getChar(offset);
+				}
+				this.containers[i] = new ArrayContainer(values);
+			}
+			else if (type == BITMAP) {
+				long[] words = new long[length];
+				int cardinality = 0;
+				for (int j = 0; j < length; ++j, offset += 8) {
+					words[j] = buffer.getLong(offset);
+					cardinality += Long.bitCount(words[j]);
+				}
+				this.containers[i] = new BitmapContainer(words, cardinality);
+			}
+			else {
+				char[] starts = new char[length];
+				char[] ends = new char[length];
+				for (int j = 0; j < length; ++j, offset += 4) {
+					starts[j] = buffer.getChar(offset);
+					ends[j] = buffer.getChar(offset + 2);
+				}
+				this.containers[i] = new RunContainer(starts, ends);
+			}
+		}
+		if (this.size > 0) {
+			this.lastValue = (this.keys[this.size - 1] << 16) | this.containers[this.size - 1].last();
+		}
+	}
+
+	/**
+	 * Adds a value to the set. The values must be added in ascending order,
+	 * or else an exception will be thrown.
+	 * @param value the value to add
+	 * @throws IllegalStateException
+	 */
+	public void add(int value) {
+		if (value <= this.lastValue) {
+			throw new IllegalStateException();
+		}
+		int key = value >>> 16;
+		if (this.size == 0 || this.keys[this.size - 1] != key) {
+			this.optimizeLast();
+			this.append(key, new BitmapContainer(new long[WORDS], 0));
+		}
+		BitmapContainer container = (BitmapContainer) this.containers[this.size - 1];
+		container.words[(value & 0xFFFF) >>> 6] |= 1L << value;
+		++container.cardinality;
+		this.lastValue = value;
+	}
+
+	/**
+	 * Stores each chunk in its smallest kind of container. Values can't be
+	 * added after this.
+	 */
+	public void optimize() {
+		this.optimizeLast();
+		this.lastValue = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Stores the chunk that values are being added to in its smallest kind of container.
+	 */
+	private void optimizeLast() {
+		if (this.size > 0 && this.containers[this.size - 1] instanceof BitmapContainer) {
+			this.containers[this.size - 1] = smallest(((BitmapContainer) this.containers[this.size - 1]).words);
+		}
+	}
+
+	/**
+	 * Appends a chunk.
+	 * @param key the upper 16 bits of the values in the chunk
+	 * @param container the chunk's container
+	 */
+	private void append(int key, Container container) {
+		if (this.size == this.keys.length) {
+			this.keys = Arrays.copyOf(this.keys, 2 * this.size);
+			this.containers = Arrays.copyOf(this.containers, 2 * this.size);
+		}
+		this.keys[this.size] = key;
+		this.containers[this.size++] = container;
+	}
+
+	/**
+	 * Returns the number of values in the set.
+	 * @return the number of values in the set
+	 */
+	public int cardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < this.size; ++i) {
+			cardinality += this.containers[i].cardinality();
+		}
+		return cardinality;
+	}
+
+	/**
+	 * Returns true if the set contains the given value.
+	 * @param value the value to look for
+	 * @return true if and only if the value is in the set
+	 */
+	public boolean contains(int value) {
+		int i = Arrays.binarySearch(this.keys, 0, this.size, value >>> 16);
+		return (i >= 0) && this.containers[i].contains((char) value);
+	}
+
+	/**
+	 * Returns the smallest value in the set that is at least the given value.
+	 * @param from the value to start looking from
+	 * @return the next value in the set, or -1 if there is none
+	 */
+	public int nextSetBit(int from) {
+		int i = this.findChunk(from);
+		if (i < this.size && this.keys[i] == from >>> 16) {
+			int next = this.containers[i].next((char) from);
+			if (next >= 0) {
+				return (this.keys[i] << 16) | next;
+			}
+			++i;
+		}
+		return (i < this.size) ? (this.keys[i] << 16) | this.containers[i].next(0) : -1;
+	}
+
+	/**
+	 * Gets the next few values in the set, starting at the given value. Cheaper
+	 * than repeatedly calling {@link #nextSetBit(int)}.
+	 * @param from the value to start looking from
+	 * @param values where to put the values
+	 * @param count how many values to get, at most
+	 * @return the number of values gotten
+	 */
+	public int nextSetBits(int from, int[] values, int count) {
+		int n = 0;
+		for (int i = this.findChunk(from); i < this.size && n < count; ++i) {
+			int low = (this.keys[i] == from >>> 16) ? (from & 0xFFFF) : 0;
+			n = this.containers[i].fill(low, this.keys[i] << 16, values, n, count);
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the index of the first chunk that can hold values at least as
+	 * large as the given one.
+	 * @param from the value to look for
+	 * @return the index of the chunk
+	 */
+	private int findChunk(int from) {
+		if (from < 0) {
+			return 0;
+		}
+		int i = Arrays.binarySearch(this.keys, 0, this.size, from >>> 16);
+		return (i >= 0) ? i : -i - 1;
+	}
+
+	/**
+	 * Returns the values that occur in both given sets.
+	 * @param a the first set
+	 * @param b the second set
+	 * @return the intersection of the sets
+	 */
+	public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+		return atLeast(new RoaringBitmap[] { a, b }, 2);
+	}
+
+	/**
+	 * Returns the values that occur in either given set.
+	 * @param a the first set
+	 * @param b the second set
+	 * @return the union of the sets
+	 */
+	public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+		return atLeast(new RoaringBitmap[] { a, b }, 1);
+	}
+
+	/**
+	 * Returns the values that occur in at least the given number of sets, e.g.,
+	 * the documents that contain at least N of M terms. With N = 1, that is the
+	 * union of the sets, and with N = M, it is their intersection. Chunks that
+	 * occur in fewer than N sets are skipped without looking at them.
+	 * @param bitmaps the sets
+	 * @param n how many of the sets a value must occur in, at least 1
+	 * @return the values that occur in at least n of the sets
+	 */
+	public static RoaringBitmap atLeast(RoaringBitmap[] bitmaps, int n) {
+		RoaringBitmap result = new RoaringBitmap();
+		if (n < 1 || n > bitmaps.length) {
+			return result;
+		}
+		int[] positions = new int[bitmaps.length];
+		long[] words = new long[WORDS];
+
+		// Bit j of counts[k] is set if value j occurs in more than k of the sets so far.
+		long[][] counts = new long[n][WORDS];
+		while (true) {
+			// Which chunk is next, and how many sets have it?
+			int key = Integer.MAX_VALUE;
+			for (int i = 0; i < bitmaps.length; ++i) {
+				if (positions[i] < bitmaps[i].size) {
+					key = Math.min(key, bitmaps[i].keys[positions[i]]);
+				}
+			}
+			if (key == Integer.MAX_VALUE) {
+				break;
+			}
+			int present = 0;
+			for (int i = 0; i < bitmaps.length; ++i) {
+				if (positions[i] < bitmaps[i].size && bitmaps[i].keys[positions[i]] == key) {
+					++present;
+				}
+			}
+			if (present >= n) {
+				for (long[] count : counts) {
+					Arrays.fill(count, 0L);
+				}
+				for (int i = 0; i < bitmaps.length; ++i) {
+					if (positions[i] < bitmaps[i].size && bitmaps[i].keys[positions[i]] == key) {
+						Arrays.fill(words, 0L);
+						bitmaps[i].containers[positions[i]].orInto(words);
+						for (int w = 0; w < WORDS; ++w) {
+							for (int k = n - 1; k > 0; --k) {
+								counts[k][w] |= counts[k - 1][w] & words[w];
+							}
+							counts[0][w] |= words[w];
+						}
+					}
+				}
+				int cardinality = 0;
+				for (int w = 0; w < WORDS; ++w) {
+					cardinality += Long.bitCount(counts[n - 1][w]);
+				}
+				if (cardinality > 0) {
+					result.append(key, smallest(counts[n - 1]));
+				}
+			}
+			for (int i = 0; i < bitmaps.length; ++i) {
+				if (positions[i] < bitmaps[i].size && bitmaps[i].keys[positions[i]] == key) {
+					++positions[i];
+				}
+			}
+		}
+		result.lastValue = Integer.MAX_VALUE;
+		return result;
+	}
+
+	/**
+	 * Returns the number of bytes written by {@link #writeTo(DataOutput)}.
+	 * @return the serialized size of the set in bytes
+	 */
+	public int getSerializedSize() {
+		int serializedSize = 4;
+		for (int i = 0; i < this.size; ++i) {
+			serializedSize += 9 + this.containers[i].getSerializedSize();
+		}
+		return serializedSize;
+	}
+
+	/**
+	 * Writes the set, so that it can be read back by
+	 * {@link #RoaringBitmap(ByteBuffer, int)}.
+	 * @param out where to write the set
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(this.size);
+		for (int i = 0; i < this.size; ++i) {
+			out.writeInt(this.keys[i]);
+			this.containers[i].writeTo(out);
+		}
+	}
+
+	/**
+	 * Returns the smallest container for the given chunk. A bitmap container
+	 * leaves out the empty words at the end, so that a small collection's
+	 * single chunk doesn't cost a full 8 KB.
+	 * @param words the chunk as a bitmap
+	 * @return the smallest container for the chunk
+	 */
+	private static Container smallest(long[] words) {
+		// Count the values, and the runs, i.e., set bits whose predecessor isn't set.
+		int cardinality = 0;
+		int runs = 0;
+		int used = 0;
+		long previous = 0L;
+		for (int w = 0; w < WORDS; ++w) {
+			long word = words[w];
+			cardinality += Long.bitCount(word);
+			runs += Long.bitCount(word & ~((word << 1) | (previous >>> 63)));
+			previous = word;
+			if (word != 0) {
+				used = w + 1;
+			}
+		}
+		int arraySize = 2 * cardinality;
+		int bitmapSize = 8 * used;
+		int runSize = 4 * runs;
+		if (runSize < Math.min(arraySize, bitmapSize)) {
+			char[] starts = new char[runs];
+			char[] ends = new char[runs];
+			int run = 0;
+			for (int value = nextSetBit(words, 0); value >= 0; ) {
+				int end = nextClearBit(words, value) - 1;
+				starts[run] = (char) value;
+				ends[run++] = (char) end;
+				value = (end + 1 < CHUNK_SIZE) ? nextSetBit(words, end + 1) : -1;
+			}
+			return new RunContainer(starts, ends);
+		}
+		if (arraySize < bitmapSize) {
+			char[] values = new char[cardinality];
+			int i = 0;
+			for (int w = 0; w < WORDS; ++w) {
+				for (long word = words[w]; word != 0; word &= word - 1) {
+					values[i++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+				}
+			}
+			return new ArrayContainer(values);
+		}
+		return new BitmapContainer(Arrays.copyOf(words, used), cardinality);
+	}
+
+	/**
+	 * Returns the first set bit in a chunk's bitmap at or after the given one.
+	 * @param words the chunk's bitmap, possibly without its empty words at the end
+	 * @param from the bit to start looking from
+	 * @return the first set bit, or -1 if there is none
+	 */
+	private static int nextSetBit(long[] words, int from) {
+		int w = from >>> 6;
+		if (w >= words.length) {
+			return -1;
+		}
+		long word = words[w] & (-1L << from);
+		while (word == 0) {
+			if (++w == words.length) {
+				return -1;
+			}
+			word = words[w];
+		}
+		return (w << 6) | Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * Returns the first clear bit in a chunk's bitmap at or after the given one.
+	 * @param words the chunk's bitmap
+	 * @param from the bit to start looking from
+	 * @return the first clear bit, or the chunk size if there is none
+	 */
+	private static int nextClearBit(long[] words, int from) {
+		int w = from >>> 6;
+		long word = ~words[w] & (-1L << from);
+		while (word == 0) {
+			if (++w == WORDS) {
+				return CHUNK_SIZE;
+			}
+			word = ~words[w];
+		}
+		return (w << 6) | Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * Holds the lower 16 bits of the values in a chunk.
+	 */
+	private static abstract class Container {
+		/** Returns the number of values. */
+		abstract int cardinality();
+
+		/** Returns true if the given value is in the container. */
+		abstract boolean contains(char value);
+
+		/** Returns the smallest value that is at least the given one, or -1 if there is none. */
+		abstract int next(int from);
+
+		/** Returns the largest value. */
+		abstract int last();
+
+		/**
+		 * Copies values, starting at the given one, for {@link RoaringBitmap#nextSetBits(int, int[], int)}.
+		 * @return the number of values in the array afterwards
+		 */
+		abstract int fill(int from, int high, int[] values, int n, int count);
+
+		/** Sets the bits for the values in the given bitmap. */
+		abstract void orInto(long[] words);
+
+		/** Returns the number of bytes written by {@link #writeTo(DataOutput)}, less the header. */
+		abstract int getSerializedSize();
+
+		/** Writes the container type, length and contents. */
+		abstract void writeTo(DataOutput out) throws IOException;
+	}
+
+	/**
+	 * A sorted array of values, for sparse chunks.
+	 */
+	private static final class ArrayContainer extends Container {
+		final char[] values;
+
+		ArrayContainer(char[] values) {
+			this.values = values;
+		}
+
+		int cardinality() {
+			return this.values.length;
+		}
+
+		boolean contains(char value) {
+			return Arrays.binarySearch(this.values, value) >= 0;
+		}
+
+		int next(int from) {
+			int i = this.find(from);
+			return (i < this.values.length) ? this.values[i] : -1;
+		}
+
+		int last() {
+			return this.values[this.values.length - 1];
+		}
+
+		int fill(int from, int high, int[] values, int n, int count) {
+			for (int i = this.find(from); i < this.values.length && n < count; ++i) {
+				values[n++] = high | this.values[i];
+			}
+			return n;
+		}
+
+		void orInto(long[] words) {
+			for (char value : this.values) {
+				words[value >>> 6] |= 1L << value;
+			}
+		}
+
+		int getSerializedSize() {
+			return 2 * this.values.length;
+		}
+
+		void writeTo(DataOutput out) throws IOException {
+			out.writeByte(ARRAY);
+			out.writeInt(this.values.length);
+			for (char value : this.values) {
+				out.writeChar(value);
+			}
+		}
+
+		/** Returns the index of the first value that is at least the given one. */
+		private int find(int from) {
+			int i = Arrays.binarySearch(this.values, (char) from);
+			return (i >= 0) ? i : -i - 1;
+		}
+	}
+
+	/**
+	 * A plain bitmap, for dense chunks.
+	 */
+	private static final class BitmapContainer extends Container {
+		final long[] words;
+		int cardinality;
+
+		BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		int cardinality() {
+			return this.cardinality;
+		}
+
+		boolean contains(char value) {
+			return (value >>> 6) < this.words.length && (this.words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		int next(int from) {
+			return nextSetBit(this.words, from);
+		}
+
+		int last() {
+			int w = this.words.length - 1;
+			while (this.words[w] == 0) {
+				--w;
+			}
+			return (w << 6) | (63 - Long.numberOfLeadingZeros(this.words[w]));
+		}
+
+		int fill(int from, int high, int[] values, int n, int count) {
+			int w = from >>> 6;
+			if (w >= this.words.length) {
+				return n;
+			}
+			for (long word = this.words[w] & (-1L << from); n < count; word = this.words[w]) {
+				for (; word != 0 && n < count; word &= word - 1) {
+					values[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+				}
+				if (++w == this.words.length) {
+					break;
+				}
+			}
+			return n;
+		}
+
+		void orInto(long[] words) {
+			for (int w = 0; w < this.words.length; ++w) {
+				words[w] |= this.words[w];
+			}
+		}
+
+		int getSerializedSize() {
+			return 8 * this.words.length;
+		}
+
+		void writeTo(DataOutput out) throws IOException {
+			out.writeByte(BITMAP);
+			out.writeInt(this.words.length);
+			for (long word : this.words) {
+				out.writeLong(word);
+			}
+		}
+	}
+
+	/**
+	 * Runs of consecutive values, for chunks with long stretches of them.
+	 */
+	private static final class RunContainer extends Container {
+		/** The first and last value of each run, inclusive. */
+		final char[] starts;
+		final char[] ends;
+
+		RunContainer(char[] starts, char[] ends) {
+			this.starts = starts;
+			this.ends = ends;
+		}
+
+		int cardinality() {
+			int cardinality = 0;
+			for (int i = 0; i < this.starts.length; ++i) {
+				cardinality += this.ends[i] - this.starts[i] + 1;
+			}
+			return cardinality;
+		}
+
+		boolean contains(char value) {
+			int i = this.find(value);
+			return (i < this.starts.length) && this.starts[i] <= value;
+		}
+
+		int next(int from) {
+			int i = this.find(from);
+			return (i < this.starts.length) ? Math.max(from, this.starts[i]) : -1;
+		}
+
+		int last() {
+			return this.ends[this.ends.length - 1];
+		}
+
+		int fill(int from, int high, int[] values, int n, int count) {
+			for (int i = this.find(from); i < this.starts.length && n < count; ++i) {
+				for (int value = Math.max(from, this.starts[i]); value <= this.ends[i] && n < count; ++value) {
+					values[n++] = high | value;
+				}
+			}
+			return n;
+		}
+
+		void orInto(long[] words) {
+			for (int i = 0; i < this.starts.length; ++i) {
+				for (int value = this.starts[i]; value <= this.ends[i]; ++value) {
+					words[value >>> 6] |= 1L << value;
+				}
+			}
+		}
+
+		int getSerializedSize() {
+			return 4 * this.starts.length;
+		}
+
+		void writeTo(DataOutput out) throws IOException {
+			out.writeByte(RUN);
+			out.writeInt(this.starts.length);
+			for (int i = 0; i < this.starts.length; ++i) {
+				out.writeChar(this.starts[i]);
+				out.writeChar(this.ends[i]);
+			}
+		}
+
+		/** Returns the index of the first run that ends at or after the given value. */
+		private int find(int from) {
+			int low = 0;
+			int high = this.ends.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (this.ends[middle] < from) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package no.uio.ifi.lt.utils;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scope for static utilities and helper methods related to thread pools.
+ * The pools use daemon threads, so that forgetting to shut them down does
+ * not keep the JVM alive.
+ */
+public final class ThreadPools {
+	/**
+	 * Lazily creates the default pool, one thread per core.
+	 */
+	private static class DefaultPoolHolder {
+		static final ExecutorService POOL = newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	private ThreadPools() {}
+
+	/**
+	 * Returns a shared pool with one thread per core, for clients that have
+	 * no particular needs. Must not be shut down.
+	 * @return the default pool
+	 */
+	public static ExecutorService getDefaultPool() {
+		return DefaultPoolHolder.POOL;
+	}
+
+	/**
+	 * Creates a pool with a fixed number of daemon threads.
+	 * @param threads the number of threads in the pool
+	 * @return the new pool
+	 */
+	public static ExecutorService newFixedThreadPool(int threads) {
+		final AtomicInteger counter = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "worker-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Creates a pool with a single daemon thread, which runs the tasks in
+	 * the order they are submitted. The thread exits when the pool has been
+	 * idle for a while, so the pool needn't be shut down.
+	 * @param name the name of the thread
+	 * @return the new pool
+	 */
+	public static ExecutorService newSingleThreadPool(final String name) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Returns true if the JVM supports virtual threads.
+	 * @return true if and only if {@link #newVirtualThreadPool()} uses virtual threads
+	 */
+	public static boolean hasVirtualThreads() {
+		return getVirtualThreadFactoryMethod() != null;
+	}
+
+	/**
+	 * Creates a pool that starts a virtual thread per task, if the JVM supports
+	 * them. Falls back to one daemon thread per core otherwise.
+	 * @return the new pool
+	 */
+	public static ExecutorService newVirtualThreadPool() {
+		Method method = getVirtualThreadFactoryMethod();
+		if (method != null) {
+			try {
+				return (ExecutorService) method.invoke(null);
+			}
+			catch (Exception e) {
+				// Fall through.
+			}
+		}
+		return newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Looks up Executors.newVirtualThreadPerTaskExecutor(), which only exists
+	 * on newer JVMs, so we can't reference it directly.
+	 */
+	private static Method getVirtualThreadFactoryMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		}
+		catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package no.uio.ifi.lt.utils;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Scope for static utilities related to variable byte (VB) encoding of
+ * non-negative integers. Each integer is split into 7-bit groups, most
+ * significant group first, and the high bit is set on the last byte of
+ * each encoded integer. Small integers, e.g., gaps between sorted
+ * identifiers, thus only need a single byte.
+ */
+public final class VariableByte {
+	private static final int CONTINUATION_BIT = 0x80;
+	private static final int PAYLOAD_MASK = 0x7F;
+
+	private VariableByte() {}
+
+	/**
+	 * Appends the variable byte encoding of the given value to the given stream.
+	 * @param out the stream to write the encoded value to
+	 * @param value the value to encode, treated as unsigned
+	 */
+	public static void write(ByteArrayOutputStream out, int value) {
+		// Skip leading all-zero groups.
+		int shift = 28;
+		while (shift > 0 && (value >>> shift) == 0) {
+			shift -= 7;
+		}
+		for (; shift > 0; shift -= 7) {
+			out.write((value >>> shift) & PAYLOAD_MASK);
+		}
+		out.write((value & PAYLOAD_MASK) | CONTINUATION_BIT);
+	}
+
+	/**
+	 * Writes the variable byte encoding of the given value to the given output.
+	 * @param out where to write the encoded value
+	 * @param value the value to encode, treated as unsigned
+	 * @throws IOException
+	 */
+	public static void write(DataOutput out, int value) throws IOException {
+		int shift = 28;
+		while (shift > 0 && (value >>> shift) == 0) {
+			shift -= 7;
+		}
+		for (; shift > 0; shift -= 7) {
+			out.write((value >>> shift) & PAYLOAD_MASK);
+		}
+		out.write((value & PAYLOAD_MASK) | CONTINUATION_BIT);
+	}
+
+	/**
+	 * Reads a variable byte encoded value from the given input.
+	 * @param in where to read the encoded value from
+	 * @return the decoded value
+	 * @throws IOException
+	 */
+	public static int read(DataInput in) throws IOException {
+		int value = 0;
+		byte b;
+		do {
+			b = in.readByte();
+			value = (value << 7) | payload(b);
+		} while (!isLast(b));
+		return value;
+	}
+
+	/**
+	 * Returns the number of bytes needed to encode the given value.
+	 * @param value the value to encode, treated as unsigned
+	 * @return the length of the encoded value in bytes
+	 */
+	public static int length(int value) {
+		int length = 1;
+		while ((value >>>= 7) != 0) {
+			++length;
+		}
+		return length;
+	}
+
+	/**
+	 * Returns true if the given byte is the last byte of an encoded value.
+	 * @param b a byte of an encoded value
+	 * @return true if and only if the byte terminates an encoded value
+	 */
+	public static boolean isLast(byte b) {
+		return (b & CONTINUATION_BIT) != 0;
+	}
+
+	/**
+	 * Returns the 7-bit payload of a byte of an encoded value.
+	 * @param b a byte of an encoded value
+	 * @return the payload bits of the byte
+	 */
+	public static int payload(byte b) {
+		return b & PAYLOAD_MASK;
+	}
+}